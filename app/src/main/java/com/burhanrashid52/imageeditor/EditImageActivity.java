@@ -107,6 +107,12 @@ public class EditImageActivity extends BaseActivity implements OnPhotoEditorList
         //mPhotoEditorView.getSource().setImageResource(R.drawable.got);
     }
 
+    @Override
+    protected void onDestroy() {
+        mPhotoEditor.release();
+        super.onDestroy();
+    }
+
     private void initViews() {
         ImageView imgPencil;
         ImageView imgEraser;
@@ -0,0 +1,64 @@
+package ja.burhanrashid52.benchmark;
+
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Times a piece of code on the device and reports the median of several runs, after a few
+ * warmup runs for the JIT. Results go to logcat and to the instrumentation status, printed by
+ * {@code am instrument -r}.
+ * <p/>
+ * Benchmarks only report, they never fail on a duration: devices and emulators are too far apart
+ * for a fixed bound, compare the numbers between runs on the same device instead
+ */
+public final class Benchmark {
+
+    private static final String TAG = "Benchmark";
+
+    public interface Body {
+        void run() throws Exception;
+    }
+
+    private Benchmark() {
+    }
+
+    /**
+     * @return median duration of one run in nanoseconds
+     */
+    public static long measure(int warmups, int runs, @NonNull Body body) throws Exception {
+        for (int i = 0; i < warmups; i++) {
+            body.run();
+        }
+        final long[] durations = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            final long start = System.nanoTime();
+            body.run();
+            durations[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(durations);
+        return durations[runs / 2];
+    }
+
+    /**
+     * @param key   name of the measure, unique in the benchmark run
+     * @param value measured value
+     * @param unit  shown next to the value
+     */
+    public static void report(@NonNull String key, double value, @NonNull String unit) {
+        final String line = String.format(Locale.US, "%s: %.3f %s", key, value, unit);
+        Log.i(TAG, line);
+
+        final Bundle status = new Bundle();
+        status.putString(key, line);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+
+    public static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+}
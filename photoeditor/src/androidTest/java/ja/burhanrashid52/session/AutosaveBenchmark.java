@@ -0,0 +1,116 @@
+package ja.burhanrashid52.session;
+
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ja.burhanrashid52.benchmark.Benchmark;
+import ja.burhanrashid52.scene.Layer;
+import ja.burhanrashid52.scene.Scene;
+import ja.burhanrashid52.scene.TextLayer;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cost of journaling one edit among many layers: the part left on the main thread, the same steps
+ * as the editor takes for a moved text, and the time the background thread takes to write it
+ */
+@RunWith(AndroidJUnit4.class)
+public class AutosaveBenchmark {
+
+    private static final int LAYERS = 200;
+    private static final int EDITS = 200;
+
+    private File mDirectory;
+    private AutosaveJournal mJournal;
+    private TextLayer[] mLayers;
+    private long[] mRevisions;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "autosave-benchmark");
+        mJournal = new AutosaveJournal(mDirectory);
+
+        final Scene scene = new Scene(1080, 1920);
+        mLayers = new TextLayer[LAYERS];
+        mRevisions = new long[LAYERS];
+        for (int i = 0; i < LAYERS; i++) {
+            mLayers[i] = new TextLayer("Layer " + i, Color.WHITE);
+            mLayers[i].getTransform().setTranslate(i * 5, i * 9);
+            mRevisions[i] = mLayers[i].getRevision();
+            scene.add(mLayers[i]);
+        }
+        mJournal.compact(scene, 0, 0, new Matrix());
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mJournal.close();
+        mJournal.awaitClosed(10, TimeUnit.SECONDS);
+        delete(mDirectory);
+    }
+
+    @Test
+    public void editOnTheMainThread() throws Exception {
+        final int[] edit = {0};
+        final long nanos = Benchmark.measure(20, EDITS, new Benchmark.Body() {
+            @Override
+            public void run() {
+                edit(edit[0]++ % LAYERS);
+            }
+        });
+        Benchmark.report("autosave_edit_main_thread_" + LAYERS + "_layers", nanos / 1e3, "us");
+    }
+
+    @Test
+    public void editWritten() throws Exception {
+        final long start = System.nanoTime();
+        for (int i = 0; i < EDITS; i++) {
+            edit(i % LAYERS);
+        }
+        mJournal.close();
+        assertTrue(mJournal.awaitClosed(10, TimeUnit.SECONDS));
+        final long nanos = (System.nanoTime() - start) / EDITS;
+        Benchmark.report("autosave_edit_written_" + LAYERS + "_layers", nanos / 1e3, "us");
+    }
+
+    /**
+     * Move one layer then journal, comparing the revisions of all and copying the changed one only
+     */
+    private void edit(int index) {
+        mRevisions[index] = Layer.nextRevision();
+
+        final long[] order = new long[LAYERS];
+        final List<Layer> changed = new ArrayList<>();
+        for (int i = 0; i < LAYERS; i++) {
+            final TextLayer layer = mLayers[i];
+            if (!mJournal.isJournaled(layer.getId(), mRevisions[i])) {
+                final TextLayer copy = new TextLayer(layer.getText(), layer.getTextColor());
+                copy.setVersion(layer.getId(), mRevisions[i]);
+                copy.getTransform().setTranslate(i * 5, index);
+                changed.add(copy);
+            }
+            order[i] = layer.getId();
+        }
+        mJournal.layersChanged(changed, order);
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        for (int i = 0; children != null && i < children.length; i++) {
+            delete(children[i]);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,137 @@
+package ja.burhanrashid52.session;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import ja.burhanrashid52.benchmark.Benchmark;
+import ja.burhanrashid52.scene.BrushLayer;
+import ja.burhanrashid52.scene.EmojiLayer;
+import ja.burhanrashid52.scene.ImageLayer;
+import ja.burhanrashid52.scene.Layer;
+import ja.burhanrashid52.scene.Scene;
+import ja.burhanrashid52.scene.TextLayer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Time to read a 200 layer session from disk, bitmaps decoded from the store included, against
+ * the 100 ms target
+ */
+@RunWith(AndroidJUnit4.class)
+public class SessionLoadBenchmark {
+
+    private static final int LAYERS = 200;
+    private static final int STICKERS = 12;// distinct sticker bitmaps, shared by the image layers
+    private static final int STICKER_SIZE = 300;
+    private static final int RASTER_WIDTH = 1080;
+    private static final int RASTER_HEIGHT = 1920;
+    private static final int TARGET_MILLIS = 100;
+
+    private File mDirectory;
+    private BitmapStore mStore;
+    private File mSession;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "session-benchmark");
+        mStore = new BitmapStore(new File(mDirectory, "bitmaps"));
+        mSession = new File(mDirectory, "session.pes");
+
+        final OutputStream out = new FileOutputStream(mSession);
+        try {
+            SessionFormat.write(newScene(), out, mStore);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        delete(mDirectory);
+    }
+
+    @Test
+    public void loadSession() throws Exception {
+        final long nanos = Benchmark.measure(2, 10, new Benchmark.Body() {
+            @Override
+            public void run() throws Exception {
+                assertEquals(LAYERS, read().size());
+            }
+        });
+        Benchmark.report("session_load_" + LAYERS + "_layers", Benchmark.toMillis(nanos),
+                "ms, target " + TARGET_MILLIS + " ms");
+    }
+
+    private Scene read() throws IOException {
+        final InputStream in = new FileInputStream(mSession);
+        try {
+            return SessionFormat.read(in, mStore, null);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * One full screen brush raster, stickers on a third of the layers and text or emoji on the rest
+     */
+    private static Scene newScene() {
+        final Bitmap[] stickers = new Bitmap[STICKERS];
+        for (int i = 0; i < STICKERS; i++) {
+            stickers[i] = gradient(STICKER_SIZE, STICKER_SIZE, Color.HSVToColor(new float[]{i * 30, 1, 1}));
+        }
+
+        final Scene scene = new Scene(RASTER_WIDTH, RASTER_HEIGHT);
+        scene.add(new BrushLayer(gradient(RASTER_WIDTH, RASTER_HEIGHT, Color.BLUE)));
+        for (int i = 1; i < LAYERS; i++) {
+            final Layer layer = i % 3 == 0 ? new ImageLayer(stickers[i % STICKERS])
+                    : i % 3 == 1 ? new TextLayer("Layer " + i, Color.WHITE) : new EmojiLayer("\u2764");
+            layer.getTransform().setTranslate(i * 5, i * 9);
+            scene.add(layer);
+        }
+        return scene;
+    }
+
+    /**
+     * @return bitmap with content to encode, a plain one would compress to nothing
+     */
+    private static Bitmap gradient(int width, int height, int color) {
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        final Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, width, height, color, Color.TRANSPARENT, Shader.TileMode.MIRROR));
+        final Canvas canvas = new Canvas(bitmap);
+        canvas.drawPaint(paint);
+        paint.setShader(null);
+        paint.setColor(Color.BLACK);
+        paint.setStrokeWidth(3);
+        for (int x = 0; x < width; x += 17) {
+            canvas.drawLine(x, 0, width - x, height, paint);
+        }
+        return bitmap;
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        for (int i = 0; children != null && i < children.length; i++) {
+            delete(children[i]);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,133 @@
+package ja.burhanrashid52.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.MotionEvent;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import ja.burhanrashid52.utils.TileSurface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Eraser strokes held in the mask of the paint view, checked on the pixels read back. Runs on a
+ * device, the pixels are only rasterized there
+ */
+@RunWith(AndroidJUnit4.class)
+public class EraserMaskTest {
+
+    private static final int SIZE = 512;
+
+    private CustomPaintView mView;
+
+    @Before
+    public void setUp() {
+        mView = new CustomPaintView(InstrumentationRegistry.getTargetContext());
+        mView.setStrokeListener(new CustomPaintView.StrokeListener() {
+            @Override
+            public void onStrokeFinished(CustomPaintView view, BrushStroke stroke) {
+            }
+        });
+        mView.measure(View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY));
+        mView.layout(0, 0, SIZE, SIZE);
+        mView.setColor(Color.RED);
+        mView.setWidth(20);
+        mView.setEraserSize(40);
+    }
+
+    @Test
+    public void eraseThenPaintThenUndo() {
+        paint(50, 100, 450, 100);
+        erase(250, 50, 250, 150);
+        assertErased(mView.getPaintBit(), 250, 100);
+
+        // the new stroke crosses the erased area and must not be erased
+        paint(250, 20, 250, 300);
+        Bitmap bitmap = mView.getPaintBit();
+        assertPainted(bitmap, 250, 100);
+        assertPainted(bitmap, 100, 100);
+
+        assertTrue(mView.undoStroke());
+        bitmap = mView.getPaintBit();
+        assertErased(bitmap, 250, 100);
+        assertPainted(bitmap, 100, 100);
+        assertErased(bitmap, 250, 250);
+
+        assertTrue(mView.undoStroke());
+        assertPainted(mView.getPaintBit(), 250, 100);
+    }
+
+    @Test
+    public void eraseThenSaveThenContinue() {
+        paint(50, 100, 450, 100);
+        erase(250, 50, 250, 150);
+
+        final long maskedBytes = mView.getPaintMemoryBytes();
+        final TileSurface saved = mView.snapshotPaintSurface();
+        assertErased(saved.toBitmap(), 250, 100);
+        // reading back left the eraser strokes in the mask
+        assertEquals(maskedBytes, mView.getPaintMemoryBytes());
+        assertErased(mView.getPaintBit(), 250, 100);
+        assertEquals(maskedBytes, mView.getPaintMemoryBytes());
+
+        erase(150, 50, 150, 150);
+        paint(50, 300, 450, 300);
+        Bitmap bitmap = mView.getPaintBit();
+        assertErased(bitmap, 150, 100);
+        assertErased(bitmap, 250, 100);
+        assertPainted(bitmap, 100, 300);
+        // the saved surface did not follow
+        assertPainted(saved.toBitmap(), 150, 100);
+
+        assertTrue(mView.undoStroke());
+        assertTrue(mView.undoStroke());
+        bitmap = mView.getPaintBit();
+        assertPainted(bitmap, 150, 100);
+        assertErased(bitmap, 250, 100);
+        assertErased(bitmap, 100, 300);
+    }
+
+    private void paint(float fromX, float fromY, float toX, float toY) {
+        mView.setEraser(false);
+        mView.setColor(Color.RED);
+        stroke(fromX, fromY, toX, toY);
+    }
+
+    private void erase(float fromX, float fromY, float toX, float toY) {
+        mView.setEraser(true);
+        stroke(fromX, fromY, toX, toY);
+    }
+
+    private void stroke(float fromX, float fromY, float toX, float toY) {
+        final long downTime = SystemClock.uptimeMillis();
+        touch(downTime, MotionEvent.ACTION_DOWN, fromX, fromY);
+        for (int i = 1; i < 10; i++) {
+            touch(downTime, MotionEvent.ACTION_MOVE, fromX + (toX - fromX) * i / 10, fromY + (toY - fromY) * i / 10);
+        }
+        touch(downTime, MotionEvent.ACTION_MOVE, toX, toY);
+        touch(downTime, MotionEvent.ACTION_UP, toX, toY);
+    }
+
+    private void touch(long downTime, int action, float x, float y) {
+        final MotionEvent event = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), action, x, y, 0);
+        mView.onTouchEvent(event);
+        event.recycle();
+    }
+
+    private static void assertPainted(Bitmap bitmap, int x, int y) {
+        assertEquals("at " + x + ", " + y, Color.RED, bitmap.getPixel(x, y));
+    }
+
+    private static void assertErased(Bitmap bitmap, int x, int y) {
+        assertEquals("at " + x + ", " + y, 0, Color.alpha(bitmap.getPixel(x, y)));
+    }
+}
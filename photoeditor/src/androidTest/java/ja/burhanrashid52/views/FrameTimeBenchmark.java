@@ -0,0 +1,125 @@
+package ja.burhanrashid52.views;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import ja.burhanrashid52.benchmark.Benchmark;
+import ja.burhanrashid52.utils.TileSurface;
+
+/**
+ * Cost of drawing one frame of the sticker view and of the paint view as the area changed since
+ * the previous frame grows, from a small square around a stroke segment to the whole screen. The
+ * canvas is clipped to that area as the framework does for an invalidated rectangle
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameTimeBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int STICKERS = 100;
+    private static final int STICKER_SIZE = 200;
+    private static final int[] CHANGED_SIZES = {64, 256, 512, 1080};// side of the changed square
+    private static final int FULL_SCREEN = 0;
+
+    private Canvas mCanvas;
+
+    @Before
+    public void setUp() {
+        mCanvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void stickerFrame() throws Exception {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final StickerView view = new StickerView(context);
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, WIDTH, HEIGHT);
+
+        final Bitmap sticker = Bitmap.createBitmap(STICKER_SIZE, STICKER_SIZE, Bitmap.Config.ARGB_8888);
+        sticker.eraseColor(Color.RED);
+        final Matrix transform = new Matrix();
+        for (int i = 0; i < STICKERS; i++) {
+            // spread over the screen, ten in a row
+            transform.setTranslate((i % 10) * (WIDTH - STICKER_SIZE) / 9f, (i / 10) * (HEIGHT - STICKER_SIZE) / 9f);
+            view.addBitImage(sticker, transform);
+        }
+        view.hideHelpBox();
+
+        sweep("sticker_frame", new Frame() {
+            @Override
+            public void draw(Canvas canvas) {
+                view.draw(canvas);
+            }
+        });
+    }
+
+    @Test
+    public void paintFrame() throws Exception {
+        final TileSurface surface = new TileSurface(WIDTH, HEIGHT);
+        final TileSurface mask = new TileSurface(WIDTH, HEIGHT, Bitmap.Config.ALPHA_8);
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(40);
+        paint.setColor(Color.BLUE);
+        // strokes over every tile, the worst case for a full screen copy
+        final Path path = new Path();
+        for (int y = 20; y < HEIGHT; y += 120) {
+            path.moveTo(0, y);
+            path.lineTo(WIDTH, y + 60);
+        }
+        surface.drawPath(path, paint, new Rect(0, 0, WIDTH, HEIGHT), false);
+
+        final Rect clip = new Rect();
+        sweep("paint_frame", new Frame() {
+            @Override
+            public void draw(Canvas canvas) {
+                if (canvas.getClipBounds(clip)) {
+                    surface.drawMasked(canvas, clip, mask);
+                }
+            }
+        });
+    }
+
+    private interface Frame {
+        void draw(Canvas canvas);
+    }
+
+    /**
+     * Report the frame time for each changed area, centered on the screen, then for the whole screen
+     */
+    private void sweep(String name, final Frame frame) throws Exception {
+        final int[] sizes = new int[CHANGED_SIZES.length + 1];
+        System.arraycopy(CHANGED_SIZES, 0, sizes, 0, CHANGED_SIZES.length);
+        sizes[CHANGED_SIZES.length] = FULL_SCREEN;
+
+        for (final int size : sizes) {
+            final Rect changed = size == FULL_SCREEN ? new Rect(0, 0, WIDTH, HEIGHT)
+                    : new Rect((WIDTH - size) / 2, (HEIGHT - size) / 2, (WIDTH + size) / 2, (HEIGHT + size) / 2);
+            final long nanos = Benchmark.measure(10, 51, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    mCanvas.save();
+                    mCanvas.clipRect(changed);
+                    frame.draw(mCanvas);
+                    mCanvas.restore();
+                }
+            });
+            Benchmark.report(name + "_" + (size == FULL_SCREEN ? "full_screen" : size + "px"),
+                    Benchmark.toMillis(nanos), "ms");
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ja.burhanrashid52.views;
+
+import android.graphics.RectF;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import ja.burhanrashid52.benchmark.Benchmark;
+
+/**
+ * Cost of finding the topmost overlay under a touch down as the number of overlays grows, through
+ * the grid and by asking every overlay in turn as the editor used to, and of moving one overlay
+ */
+@RunWith(AndroidJUnit4.class)
+public class HitGridBenchmark {
+
+    private static final int[] LAYER_COUNTS = {10, 100, 1000, 10000};
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int BOX_SIZE = 300;// about a sticker on a phone
+    private static final int TOUCHES = 1000;
+
+    @Test
+    public void layerCountSweep() throws Exception {
+        for (int count : LAYER_COUNTS) {
+            sweep(count);
+        }
+    }
+
+    private void sweep(int count) throws Exception {
+        final Random random = new Random(count);
+        final Box[] boxes = new Box[count];
+        final HitGrid<Box> grid = new HitGrid<>();
+        for (int i = 0; i < count; i++) {
+            boxes[i] = new Box(i, random.nextInt(WIDTH - BOX_SIZE), random.nextInt(HEIGHT - BOX_SIZE));
+            grid.update(boxes[i], boxes[i].mBounds);
+        }
+        final List<Box> all = Arrays.asList(boxes);
+        final float[] touches = new float[TOUCHES * 2];
+        for (int i = 0; i < touches.length; i += 2) {
+            touches[i] = random.nextFloat() * WIDTH;
+            touches[i + 1] = random.nextFloat() * HEIGHT;
+        }
+
+        final Box[] hit = new Box[1];
+        final long gridNanos = Benchmark.measure(5, 21, new Benchmark.Body() {
+            @Override
+            public void run() {
+                for (int i = 0; i < touches.length; i += 2) {
+                    hit[0] = topmost(grid.query(touches[i], touches[i + 1]), touches[i], touches[i + 1]);
+                }
+            }
+        });
+        final long scanNanos = Benchmark.measure(5, 21, new Benchmark.Body() {
+            @Override
+            public void run() {
+                for (int i = 0; i < touches.length; i += 2) {
+                    hit[0] = topmost(all, touches[i], touches[i + 1]);
+                }
+            }
+        });
+
+        final RectF moved = new RectF();
+        final long updateNanos = Benchmark.measure(5, 21, new Benchmark.Body() {
+            @Override
+            public void run() {
+                for (int i = 0; i < TOUCHES; i++) {
+                    final Box box = boxes[i % boxes.length];
+                    moved.set(box.mBounds);
+                    moved.offset(i % 2 == 0 ? BOX_SIZE / 2 : -BOX_SIZE / 2, 0);
+                    grid.update(box, moved);
+                }
+            }
+        });
+
+        Benchmark.report("hit_grid_touch_" + count + "_layers", gridNanos / (double) TOUCHES, "ns");
+        Benchmark.report("linear_scan_touch_" + count + "_layers", scanNanos / (double) TOUCHES, "ns");
+        Benchmark.report("hit_grid_move_" + count + "_layers", updateNanos / (double) TOUCHES, "ns");
+    }
+
+    /**
+     * Same test as the editor on touch down: the highest stack order whose bounds contain the point
+     */
+    private static Box topmost(Iterable<Box> candidates, float x, float y) {
+        Box best = null;
+        for (Box box : candidates) {
+            if ((best == null || box.mStackOrder > best.mStackOrder) && box.mBounds.contains(x, y)) {
+                best = box;
+            }
+        }
+        return best;
+    }
+
+    private static final class Box {
+
+        final int mStackOrder;
+        final RectF mBounds;
+
+        Box(int stackOrder, float left, float top) {
+            mStackOrder = stackOrder;
+            mBounds = new RectF(left, top, left + BOX_SIZE, top + BOX_SIZE);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ja.burhanrashid52.views;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ja.burhanrashid52.benchmark.Benchmark;
+
+/**
+ * Cost of one draw pass of a sticker view at 10, 100 and 1000 stickers, walking the layer store
+ * and walking the linked hash map the stickers used to be kept in. Reported with the stickers
+ * drawn, and for the walk alone
+ */
+@RunWith(AndroidJUnit4.class)
+public class LayerStoreBenchmark {
+
+    private static final int[] LAYER_COUNTS = {10, 100, 1000};
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    @Test
+    public void drawIteration() throws Exception {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final View parent = new View(context);
+        parent.layout(0, 0, WIDTH, HEIGHT);
+        final Bitmap sticker = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        sticker.eraseColor(Color.RED);
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+
+        for (int count : LAYER_COUNTS) {
+            final LayerStore<StickerItem> store = new LayerStore<>();
+            final Map<Integer, StickerItem> map = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                final StickerItem item = new StickerItem(context);
+                item.init(sticker, parent);
+                item.hideHelpBox();
+                store.add(item);
+                map.put(i, item);
+            }
+
+            final long storeDraw = Benchmark.measure(5, 31, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    for (int id = store.first(); id != LayerStore.NONE; id = store.next(id)) {
+                        store.get(id).draw(canvas);
+                    }
+                }
+            });
+            final long mapDraw = Benchmark.measure(5, 31, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    for (Integer id : map.keySet()) {
+                        map.get(id).draw(canvas);
+                    }
+                }
+            });
+
+            final int[] visited = {0};
+            final long storeWalk = Benchmark.measure(5, 31, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    for (int id = store.first(); id != LayerStore.NONE; id = store.next(id)) {
+                        visited[0] += store.get(id) != null ? 1 : 0;
+                    }
+                }
+            });
+            final long mapWalk = Benchmark.measure(5, 31, new Benchmark.Body() {
+                @Override
+                public void run() {
+                    for (Integer id : map.keySet()) {
+                        visited[0] += map.get(id) != null ? 1 : 0;
+                    }
+                }
+            });
+
+            Benchmark.report("layer_store_draw_" + count + "_layers", storeDraw / 1e3, "us");
+            Benchmark.report("linked_map_draw_" + count + "_layers", mapDraw / 1e3, "us");
+            Benchmark.report("layer_store_walk_" + count + "_layers", storeWalk / 1e3, "us");
+            Benchmark.report("linked_map_walk_" + count + "_layers", mapWalk / 1e3, "us");
+        }
+    }
+}
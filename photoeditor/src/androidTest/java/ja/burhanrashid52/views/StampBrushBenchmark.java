@@ -0,0 +1,63 @@
+package ja.burhanrashid52.views;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import ja.burhanrashid52.benchmark.Benchmark;
+import ja.burhanrashid52.utils.TileSurface;
+
+/**
+ * Dabs placed per second by the stamp brush for large brushes, the dynamics and the blit of each
+ * cached dab on the paint surface included, as the render thread does it
+ */
+@RunWith(AndroidJUnit4.class)
+public class StampBrushBenchmark {
+
+    private static final int[] WIDTHS = {50, 100, 200};
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int SAMPLES = 200;// a second of a 200Hz pen
+
+    @Test
+    public void dabsPerSecond() throws Exception {
+        final TileSurface surface = new TileSurface(WIDTH, HEIGHT);
+        final Paint paint = new Paint();
+        final RectF dst = new RectF();
+        final int[] dabs = {0};
+        final StampBrush.Sink sink = new StampBrush.Sink() {
+            @Override
+            public void onDab(float x, float y, float diameter, float alpha) {
+                DabCache.setPaint(paint, Color.BLUE, alpha);
+                DabCache.getDefault().draw(surface, paint, dst, x, y, diameter, 0.5f);
+                dabs[0]++;
+            }
+        };
+
+        for (final int width : WIDTHS) {
+            final StampBrush brush = new StampBrush();
+            final Benchmark.Body stroke = new Benchmark.Body() {
+                @Override
+                public void run() {
+                    // a zigzag across the screen with a varying pressure
+                    brush.begin(width, 0, HEIGHT / 2, 0.5f, 0);
+                    for (int i = 1; i <= SAMPLES; i++) {
+                        brush.moveTo(i * 5, HEIGHT / 2 + (i % 20) * 10, 0.5f + (i % 5) / 10f, i * 5, sink);
+                    }
+                }
+            };
+            dabs[0] = 0;
+            stroke.run();// same dabs on every run
+            final double dabsPerStroke = dabs[0];
+
+            final long nanos = Benchmark.measure(3, 15, stroke);
+            Benchmark.report("stamp_brush_dabs_per_second_" + width + "px", dabsPerStroke * 1e9 / nanos, "dabs/s");
+            Benchmark.report("stamp_brush_dab_" + width + "px", nanos / dabsPerStroke / 1e3, "us");
+            surface.clear();
+        }
+    }
+}
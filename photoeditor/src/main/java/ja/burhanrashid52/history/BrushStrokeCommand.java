@@ -0,0 +1,51 @@
+package ja.burhanrashid52.history;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+import ja.burhanrashid52.views.BrushStroke;
+import ja.burhanrashid52.views.CustomPaintView;
+
+/**
+ * One brush or eraser stroke, undone by the stroke journal of the paint view
+ */
+public class BrushStrokeCommand extends Command {
+
+    private final CustomPaintView mView;
+    private final BrushStroke mStroke;
+
+    public BrushStrokeCommand(@NonNull CustomPaintView view, @NonNull BrushStroke stroke) {
+        mView = view;
+        mStroke = stroke;
+    }
+
+    public BrushStroke getStroke() {
+        return mStroke;
+    }
+
+    @Override
+    public void undo() {
+        mView.undoStroke();
+    }
+
+    @Override
+    public void redo() {
+        mView.redoStroke();
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return mStroke.getMemoryBytes();
+    }
+
+    @Override
+    protected long spill(SpillFile spillFile) throws IOException {
+        return mStroke.spill(spillFile);
+    }
+
+    @Override
+    protected void onSpillMoved(long offset) {
+        mStroke.moveSpill(offset);
+    }
+}
@@ -0,0 +1,47 @@
+package ja.burhanrashid52.history;
+
+import java.io.IOException;
+
+/**
+ * One reversible edit of the editor. A command is recorded once its edit has been applied,
+ * {@link #undo} and {@link #redo} are then called alternately on the main thread.
+ * <p/>
+ * Commands only hold what their edit changed, a few values or the points of one stroke,
+ * never a copy of the whole editor
+ */
+public abstract class Command {
+
+    long mSpillEnd;// end of the blocks of this command and the older ones in the spill file
+
+    public abstract void undo();
+
+    public abstract void redo();
+
+    /**
+     * @return bytes held in memory by this command, not counting the views it refers to
+     */
+    public long getMemoryBytes() {
+        return 0;
+    }
+
+    /**
+     * Move what {@link #getMemoryBytes} counts to the spill file, read back when needed again
+     *
+     * @return bytes of memory released
+     */
+    protected long spill(SpillFile spillFile) throws IOException {
+        return 0;
+    }
+
+    /**
+     * The spill file has been compacted, what {@link #spill} wrote is now at its position plus the offset
+     */
+    protected void onSpillMoved(long offset) {
+    }
+
+    /**
+     * The command left the history and will not be applied again
+     */
+    protected void discard() {
+    }
+}
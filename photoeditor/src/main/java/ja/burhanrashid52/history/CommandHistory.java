@@ -0,0 +1,263 @@
+package ja.burhanrashid52.history;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Journal of the edits made in the editor, undone and redone one {@link Command} at a time.
+ * <p/>
+ * Undo and redo only apply the command under the cursor, whatever the length of the history.
+ * Once the commands hold more memory than the budget, the oldest ones move their points to a
+ * {@link SpillFile} in the given directory. The file only keeps the blocks of commands still in
+ * the history, and once it holds more than its own budget the oldest commands are forgotten.
+ * Must be used from the main thread
+ */
+public class CommandHistory {
+
+    private static final String TAG = CommandHistory.class.getSimpleName();
+
+    public static final long DEFAULT_MAX_SPILL_BYTES = 64L * 1024 * 1024;
+
+    public enum Change {
+        RECORD,
+        UNDO,
+        REDO,
+        CLEAR
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread once a command has been applied
+         *
+         * @param command the command recorded, undone or redone, null when the history is cleared
+         */
+        void onHistoryChanged(@NonNull Change change, @Nullable Command command);
+    }
+
+    private final List<Command> mCommands = new ArrayList<>();
+    private int mPosition;// commands before it are applied, the others can be redone
+    private int mSpilled;// commands before it hold nothing in memory
+
+    private final long mMaxMemoryBytes;
+    private long mMemoryBytes;
+
+    private final long mMaxSpillBytes;
+    private final File mSpillDir;
+    private SpillFile mSpillFile;
+    private long mSpillStart;// blocks before it belong to commands dropped from the history
+
+    private Listener mListener;
+
+    /**
+     * @param maxMemoryBytes memory kept by the recorded commands before spilling the oldest ones
+     * @param spillDir       directory of the spill file, created on the first spill
+     */
+    public CommandHistory(long maxMemoryBytes, @NonNull File spillDir) {
+        this(maxMemoryBytes, DEFAULT_MAX_SPILL_BYTES, spillDir);
+    }
+
+    /**
+     * @param maxSpillBytes bytes kept in the spill file before forgetting the oldest commands
+     */
+    public CommandHistory(long maxMemoryBytes, long maxSpillBytes, @NonNull File spillDir) {
+        mMaxMemoryBytes = maxMemoryBytes;
+        mMaxSpillBytes = maxSpillBytes;
+        mSpillDir = spillDir;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Add an edit already applied, anything that could be redone is forgotten
+     */
+    public void record(@NonNull Command command) {
+        for (int i = mCommands.size() - 1; i >= mPosition; i--) {
+            final Command dropped = mCommands.remove(i);
+            mMemoryBytes -= dropped.getMemoryBytes();
+            dropped.discard();
+        }
+        mSpilled = Math.min(mSpilled, mPosition);
+        if (mSpillFile != null) {
+            // the blocks of the commands dropped are the last ones written
+            mSpillFile.truncate(mSpilled > 0 ? mCommands.get(mSpilled - 1).mSpillEnd : 0);
+            if (mSpilled == 0) {
+                mSpillStart = 0;
+            }
+        }
+
+        mCommands.add(command);
+        mPosition++;
+        mMemoryBytes += command.getMemoryBytes();
+        trim();
+        notifyChanged(Change.RECORD, command);
+    }
+
+    /**
+     * @return false if there was nothing to undo
+     */
+    public boolean undo() {
+        if (mPosition == 0) {
+            return false;
+        }
+        final Command command = mCommands.get(--mPosition);
+        command.undo();
+        notifyChanged(Change.UNDO, command);
+        return true;
+    }
+
+    /**
+     * @return false if there was nothing to redo
+     */
+    public boolean redo() {
+        if (mPosition == mCommands.size()) {
+            return false;
+        }
+        final Command command = mCommands.get(mPosition++);
+        command.redo();
+        notifyChanged(Change.REDO, command);
+        return true;
+    }
+
+    public boolean canUndo() {
+        return mPosition > 0;
+    }
+
+    public boolean canRedo() {
+        return mPosition < mCommands.size();
+    }
+
+    public int size() {
+        return mCommands.size();
+    }
+
+    /**
+     * @return bytes currently held in memory by the recorded commands
+     */
+    public long getMemoryBytes() {
+        return mMemoryBytes;
+    }
+
+    /**
+     * @return bytes of the spill file, 0 if nothing has been spilled
+     */
+    public long getSpillBytes() {
+        return mSpillFile != null ? mSpillFile.getLength() : 0;
+    }
+
+    /**
+     * Forget every command and delete the spill file
+     */
+    public void clear() {
+        for (Command command : mCommands) {
+            command.discard();
+        }
+        mCommands.clear();
+        mPosition = 0;
+        mSpilled = 0;
+        mMemoryBytes = 0;
+        mSpillStart = 0;
+
+        if (mSpillFile != null) {
+            mSpillFile.close();
+            mSpillFile = null;
+        }
+        notifyChanged(Change.CLEAR, null);
+    }
+
+    private void notifyChanged(Change change, Command command) {
+        if (mListener != null) {
+            mListener.onHistoryChanged(change, command);
+        }
+    }
+
+    /**
+     * Spill the oldest commands until the memory fits the budget, the latest one always stays in memory.
+     * Then forget the oldest commands until the spill file fits its own budget
+     */
+    private void trim() {
+        while (mMemoryBytes > mMaxMemoryBytes && mSpilled < mCommands.size() - 1) {
+            final Command command = mCommands.get(mSpilled);
+            if (command.getMemoryBytes() > 0) {
+                try {
+                    mMemoryBytes -= command.spill(spillFile());
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to spill history, dropping the oldest edits", e);
+                    dropOldest(mSpilled + 1);
+                    continue;
+                }
+            }
+            command.mSpillEnd = mSpillFile != null ? mSpillFile.getLength() : 0;
+            mSpilled++;
+        }
+
+        while (mSpillFile != null && mSpilled > 0 && mSpillFile.getLength() - mSpillStart > mMaxSpillBytes) {
+            dropOldest(1);
+        }
+    }
+
+    /**
+     * Forget the given number of oldest commands, they can't be undone anymore
+     */
+    private void dropOldest(int count) {
+        final int spilled = Math.min(count, mSpilled);
+        if (spilled > 0) {
+            mSpillStart = mCommands.get(spilled - 1).mSpillEnd;
+        }
+        for (int i = 0; i < count; i++) {
+            final Command dropped = mCommands.get(i);
+            mMemoryBytes -= dropped.getMemoryBytes();
+            dropped.discard();
+        }
+        mCommands.subList(0, count).clear();
+        mPosition = Math.max(0, mPosition - count);
+        mSpilled = Math.max(0, mSpilled - count);
+        compactSpillFile();
+    }
+
+    /**
+     * Give back the blocks of the commands dropped, once they take as much space as the ones still used
+     */
+    private void compactSpillFile() {
+        if (mSpillFile == null) {
+            return;
+        }
+        if (mSpilled == 0) {
+            mSpillFile.reset();
+            mSpillStart = 0;
+            return;
+        }
+        if (mSpillStart < mSpillFile.getLength() - mSpillStart) {
+            return;
+        }
+
+        try {
+            mSpillFile.compact(mSpillStart);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to compact history, dropping the spilled edits", e);
+            mSpillStart = 0;
+            dropOldest(mSpilled);
+            return;
+        }
+        for (int i = 0; i < mSpilled; i++) {
+            final Command command = mCommands.get(i);
+            command.mSpillEnd -= mSpillStart;
+            command.onSpillMoved(-mSpillStart);
+        }
+        mSpillStart = 0;
+    }
+
+    private SpillFile spillFile() throws IOException {
+        if (mSpillFile == null) {
+            mSpillFile = new SpillFile(File.createTempFile("history", ".spill", mSpillDir));
+        }
+        return mSpillFile;
+    }
+}
@@ -0,0 +1,182 @@
+package ja.burhanrashid52.history;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append only file receiving the stroke points of old history entries. Blocks are addressed by
+ * their position, read back through one reusable buffer so replaying a spilled entry allocates nothing.
+ * <p/>
+ * Blocks of entries leaving the history are given back by cutting the end of the file, or by
+ * moving the blocks still used to its start with {@link #compact}
+ */
+public class SpillFile implements Closeable {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final File mFile;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private long mLength;
+
+    private ByteBuffer mBuffer;
+    private float[] mScratch;
+
+    SpillFile(@NonNull File file) {
+        mFile = file;
+    }
+
+    /**
+     * @return position of the block, to give to {@link #read}
+     */
+    public long write(@NonNull float[] data, int offset, int count) throws IOException {
+        final FileChannel channel = channel();
+        final ByteBuffer buffer = buffer(count);
+        buffer.asFloatBuffer().put(data, offset, count);
+
+        final long position = mLength;
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        mLength += written;
+        return position;
+    }
+
+    /**
+     * Read a block back into the given array
+     */
+    public void read(long position, @NonNull float[] data, int offset, int count) throws IOException {
+        final FileChannel channel = channel();
+        final ByteBuffer buffer = buffer(count);
+
+        long read = 0;
+        while (buffer.hasRemaining()) {
+            final int n = channel.read(buffer, position + read);
+            if (n < 0) {
+                throw new EOFException("Spilled block truncated at " + position);
+            }
+            read += n;
+        }
+        buffer.flip();
+        buffer.asFloatBuffer().get(data, offset, count);
+    }
+
+    /**
+     * @return array of at least the given size, shared by every reader of this file on the main thread
+     */
+    public float[] scratch(int count) {
+        if (mScratch == null || mScratch.length < count) {
+            mScratch = new float[count];
+        }
+        return mScratch;
+    }
+
+    /**
+     * Forget every block and give the disk space back
+     */
+    public void reset() {
+        truncate(0);
+    }
+
+    /**
+     * Forget the blocks from the given position to the end and give their disk space back
+     */
+    public void truncate(long length) {
+        if (length >= mLength) {
+            return;
+        }
+        mLength = length;
+        if (mChannel != null) {
+            try {
+                mChannel.truncate(length);
+            } catch (IOException ignored) {
+                // the space is reused by the next blocks
+            }
+        }
+    }
+
+    /**
+     * Move the blocks from the given position to the start of the file, dropping the ones before.
+     * Positions of the blocks moved decrease by the given position
+     */
+    public void compact(long from) throws IOException {
+        if (from <= 0) {
+            return;
+        }
+        if (from >= mLength) {
+            truncate(0);
+            return;
+        }
+        final FileChannel channel = channel();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+        // the copy goes towards the start, a block is always read before being overwritten
+        long read = from;
+        long written = 0;
+        while (read < mLength) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), mLength - read));
+            while (buffer.hasRemaining()) {
+                final int n = channel.read(buffer, read + buffer.position());
+                if (n < 0) {
+                    throw new EOFException("Spill file truncated at " + (read + buffer.position()));
+                }
+            }
+            buffer.flip();
+            read += buffer.limit();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer, written);
+            }
+        }
+        truncate(written);
+    }
+
+    public long getLength() {
+        return mLength;
+    }
+
+    private FileChannel channel() throws IOException {
+        if (mChannel == null) {
+            mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+            mChannel = mRandomAccessFile.getChannel();
+        }
+        return mChannel;
+    }
+
+    private ByteBuffer buffer(int count) {
+        final int bytes = count * 4;
+        if (mBuffer == null || mBuffer.capacity() < bytes) {
+            mBuffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        mBuffer.clear();
+        mBuffer.limit(bytes);
+        return mBuffer;
+    }
+
+    /**
+     * Close and delete the file
+     */
+    @Override
+    public void close() {
+        if (mRandomAccessFile != null) {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException ignored) {
+            }
+            mRandomAccessFile = null;
+            mChannel = null;
+        }
+        mFile.delete();
+        mLength = 0;
+        mBuffer = null;
+        mScratch = null;
+    }
+}
@@ -0,0 +1,58 @@
+package ja.burhanrashid52.photoeditor;
+
+import android.support.annotation.NonNull;
+
+/**
+ * One file written by {@link PhotoEditor#saveImages}, at full resolution or scaled down
+ * to fit a maximum size.
+ */
+public class OutputSpec {
+
+    public static final int FULL_SIZE = 0;
+
+    private final String mPath;
+    private final int mMaxDimension;
+    private final SaveSettings mSaveSettings;
+
+    /**
+     * @param path         file to write
+     * @param maxDimension maximum width and height of the output, {@link #FULL_SIZE} for the source size.
+     *                     Images are never scaled up
+     * @param saveSettings output format and quality, the format follows the extension if not set
+     */
+    public OutputSpec(@NonNull String path, int maxDimension, @NonNull SaveSettings saveSettings) {
+        if (maxDimension < 0) {
+            throw new IllegalArgumentException("Maximum dimension must not be negative");
+        }
+        mPath = path;
+        mMaxDimension = maxDimension;
+        mSaveSettings = saveSettings;
+    }
+
+    public OutputSpec(@NonNull String path, int maxDimension) {
+        this(path, maxDimension, new SaveSettings.Builder().build());
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public int getMaxDimension() {
+        return mMaxDimension;
+    }
+
+    public SaveSettings getSaveSettings() {
+        return mSaveSettings;
+    }
+
+    /**
+     * @return scale applied to a source of the given size, at most 1
+     */
+    public float getScale(int sourceWidth, int sourceHeight) {
+        final int longest = Math.max(sourceWidth, sourceHeight);
+        if (mMaxDimension == FULL_SIZE || longest <= mMaxDimension) {
+            return 1f;
+        }
+        return (float) mMaxDimension / longest;
+    }
+}
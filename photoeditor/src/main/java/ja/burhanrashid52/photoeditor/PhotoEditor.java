@@ -5,12 +5,14 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 
 import android.graphics.Matrix;
+import android.graphics.RectF;
 import android.graphics.Typeface;
-import android.os.AsyncTask;
 
 import android.support.annotation.ColorInt;
+import android.support.annotation.FloatRange;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -21,21 +23,48 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
 
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ja.burhanrashid52.history.BrushStrokeCommand;
+import ja.burhanrashid52.history.Command;
+import ja.burhanrashid52.history.CommandHistory;
+import ja.burhanrashid52.scene.BrushLayer;
+import ja.burhanrashid52.scene.EmojiLayer;
+import ja.burhanrashid52.scene.ImageLayer;
+import ja.burhanrashid52.scene.Layer;
+import ja.burhanrashid52.scene.Scene;
+import ja.burhanrashid52.scene.SceneCache;
+import ja.burhanrashid52.scene.SceneRenderer;
+import ja.burhanrashid52.scene.TextLayer;
+import ja.burhanrashid52.task.RenderJob;
+import ja.burhanrashid52.task.RenderScheduler;
+import ja.burhanrashid52.session.AutosaveJournal;
+import ja.burhanrashid52.session.BitmapStore;
+import ja.burhanrashid52.session.SessionFormat;
 import ja.burhanrashid52.task.StickerTask;
-import ja.burhanrashid52.utils.BitmapUtils;
+import ja.burhanrashid52.utils.AtomicFileOutputStream;
+import ja.burhanrashid52.utils.BitmapEncoder;
+import ja.burhanrashid52.utils.BitmapPool;
+import ja.burhanrashid52.utils.TileSurface;
+import ja.burhanrashid52.views.BrushStroke;
 import ja.burhanrashid52.views.CustomPaintView;
+import ja.burhanrashid52.views.HitGrid;
+import ja.burhanrashid52.views.HitTarget;
+import ja.burhanrashid52.views.LayerStore;
 import ja.burhanrashid52.views.StickerItem;
 import ja.burhanrashid52.views.StickerView;
 import ja.burhanrashid52.views.TextStickerView;
@@ -47,33 +76,78 @@ import ja.burhanrashid52.views.TextStickerView;
 public class PhotoEditor {
 
     private static final String TAG = PhotoEditor.class.getSimpleName();
+    private static final float WRITE_PROGRESS = 0.9f;// job progress once the encoded bytes go to disk
+    private static final long STACK_ORDER_GAP = 1 << 20;// room to put back removed overlays in between
     private final LayoutInflater mLayoutInflater;
     private Context context;
     private RelativeLayout parentView;
     private ImageView imageView;
     private CustomPaintView brushDrawingView;
-    private List<View> addedViews;
-    private List<View> redoViews;
+    private final Map<View, Overlay> mOverlays = new IdentityHashMap<>();// by root view
+    private Overlay mBottomOverlay;// same overlays linked in drawing order, from the bottom
+    private Overlay mTopOverlay;
+    private Overlay mSelected;// overlay allowed to show its help box
+    private final CommandHistory mHistory;
+    private AutosaveJournal mAutosave;
     private OnPhotoEditorListener mOnPhotoEditorListener;
 
-    private StickerTask mSaveTask;
-    private SaveFinalImageTask mSaveImageTask;
+    private final RenderScheduler mRenderScheduler;
+    private final BitmapPool mBitmapPool;
+    private RenderJob<?> mSaveJob;
+    private final SceneCache mSceneCache;
+
+    private final HitGrid<Overlay> mHitGrid = new HitGrid<>();
+    private final RectF mHitBounds = new RectF();
 
     private PhotoEditor(Builder builder) {
         this.context = builder.context;
         this.parentView = builder.parentView;
         this.imageView = builder.imageView;
         this.brushDrawingView = builder.brushDrawingView;
+        this.mRenderScheduler = builder.renderScheduler != null ? builder.renderScheduler : RenderScheduler.getDefault();
+        this.mBitmapPool = BitmapPool.getDefault();
+        this.mSceneCache = new SceneCache(builder.exportCacheBytes, mBitmapPool);
 
         mLayoutInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 
-        addedViews = new ArrayList<>();
-        redoViews = new ArrayList<>();
+        mHistory = new CommandHistory(builder.historyMemoryBytes, context.getCacheDir());
+        mHistory.setListener(new CommandHistory.Listener() {
+            @Override
+            public void onHistoryChanged(@NonNull CommandHistory.Change change, @Nullable Command command) {
+                autosave(change, command);
+            }
+        });
+
+        if (parentView instanceof PhotoEditorView) {
+            ((PhotoEditorView) parentView).setTouchRouter(new PhotoEditorView.TouchRouter() {
+                @Override
+                public View findTouchTarget(float x, float y) {
+                    return PhotoEditor.this.findTouchTarget(x, y);
+                }
+            });
+        }
+
+        if (brushDrawingView != null) {
+            brushDrawingView.setRenderThreadEnabled(builder.brushRenderThread);
+            brushDrawingView.setStrokeListener(new CustomPaintView.StrokeListener() {
+                @Override
+                public void onStrokeFinished(CustomPaintView view, BrushStroke stroke) {
+                    mHistory.record(new BrushStrokeCommand(view, stroke));
+                }
+            });
+        }
     }
 
     public void addImage(final Bitmap desiredImage) {
+        addImage(desiredImage, null);
+    }
+
+    /**
+     * @param transform placement of the image in the editor view, centered if null
+     */
+    private void addImage(final Bitmap desiredImage, @Nullable final Matrix transform) {
 
-        hideHelpBoxes(null);
+        hideHelpBoxes();
 
         final View imageRootView = getLayout(ViewType.IMAGE);
         final StickerView imageView = imageRootView.findViewById(R.id.imgPhotoEditorImage);
@@ -81,19 +155,26 @@ public class PhotoEditor {
         imageView.setStickerListener(new StickerView.Listener() {
             @Override
             public void onStickerSelected(StickerView stickerView) {
-                hideHelpBoxes(stickerView);
+                selectOverlay(imageRootView);
+            }
+
+            @Override
+            public void onStickerDeleted(StickerView stickerView, StickerItem item, int above) {
+                removeView(imageRootView, new RemoveViewCommand(imageRootView, stickerView, item, above));
             }
 
             @Override
-            public void onStickerDeleted(StickerView stickerView) {
-                removeView(stickerView);
+            public void onStickerTransformed(StickerView stickerView, StickerItem item, Matrix before) {
+                mHistory.record(new TransformStickerCommand(stickerView, item, before));
             }
         });
 
         imageView.post(new Runnable() {
             @Override
             public void run() {
-                imageView.addBitImage(desiredImage);
+                imageView.addBitImage(desiredImage, transform);
+                // the sticker only exists from now on
+                autosaveLayers();
             }
         });
 
@@ -102,8 +183,12 @@ public class PhotoEditor {
 
     @SuppressLint("ClickableViewAccessibility")
     public void addText(@Nullable Typeface textTypeface, String fontName, String text, final int colorCodeTextView, final int backgroundColorCodeTextView, final int backgroundAlpha) {
+        addTextView(textTypeface, fontName, text, colorCodeTextView, backgroundColorCodeTextView, backgroundAlpha);
+    }
+
+    private TextStickerView addTextView(@Nullable Typeface textTypeface, String fontName, String text, final int colorCodeTextView, final int backgroundColorCodeTextView, final int backgroundAlpha) {
 
-        hideHelpBoxes(null);
+        hideHelpBoxes();
 
         brushDrawingView.setBrushDrawingMode(false);
 
@@ -118,12 +203,17 @@ public class PhotoEditor {
         textInputTv.setTextListener(new TextStickerView.Listener() {
             @Override
             public void onTextSelected(TextStickerView currentTextView) {
-                hideHelpBoxes(currentTextView);
+                selectOverlay(textRootView);
             }
 
             @Override
             public void onTextDeleted(TextStickerView view) {
-                removeView(view);
+                removeView(textRootView, new RemoveViewCommand(textRootView, view));
+            }
+
+            @Override
+            public void onTextTransformed(TextStickerView view, float[] before) {
+                mHistory.record(new PlaceTextCommand(view, before));
             }
 
             @Override
@@ -146,6 +236,7 @@ public class PhotoEditor {
         }
 
         addViewToParent(textRootView, ViewType.TEXT);
+        return textInputTv;
     }
 
     /**
@@ -157,8 +248,10 @@ public class PhotoEditor {
      * @param colorCode    color to update on textview
      */
     public void editText(View view, Typeface textTypeface, String fontName, String inputText, int colorCode, int backgroundColorCode, int backgroundAlpha) {
-        TextStickerView inputTextView = view.findViewById(R.id.tvPhotoEditorText);
-        if (inputTextView != null && addedViews.contains(view) && !TextUtils.isEmpty(inputText)) {
+        final Overlay overlay = mOverlays.get(view);
+        final TextStickerView inputTextView = overlay != null ? overlay.mTextView : null;
+        if (inputTextView != null && !TextUtils.isEmpty(inputText)) {
+            final TextStyle before = new TextStyle(inputTextView);
             inputTextView.setText(inputText);
             if (textTypeface != null) {
                 //inputTextView.setTypeface(textTypeface);
@@ -169,29 +262,39 @@ public class PhotoEditor {
             inputTextView.setTypeface(fontName, textTypeface);
 
             parentView.updateViewLayout(view, view.getLayoutParams());
-            int i = addedViews.indexOf(view);
-            if (i > -1) addedViews.set(i, view);
+
+            mHistory.record(new EditTextCommand(view, inputTextView, before, new TextStyle(inputTextView)));
         }
     }
 
     public void addEmoji(String emojiName) {
+        addEmojiView(emojiName);
+    }
+
+    private TextStickerView addEmojiView(String emojiName) {
         // Disable all text help box
-        hideHelpBoxes(null);
+        hideHelpBoxes();
 
         final View emojiRootView = getLayout(ViewType.EMOJI);
         final TextStickerView emojiTextView = emojiRootView.findViewById(R.id.tvPhotoEditorText);
 
         emojiTextView.setText(emojiName);
+        emojiTextView.setEmoji(true);
 
         emojiTextView.setTextListener(new TextStickerView.Listener() {
             @Override
             public void onTextSelected(TextStickerView currentTextView) {
-                hideHelpBoxes(currentTextView);
+                selectOverlay(emojiRootView);
             }
 
             @Override
             public void onTextDeleted(TextStickerView view) {
-                removeView(view);
+                removeView(emojiRootView, new RemoveViewCommand(emojiRootView, view));
+            }
+
+            @Override
+            public void onTextTransformed(TextStickerView view, float[] before) {
+                mHistory.record(new PlaceTextCommand(view, before));
             }
 
             @Override
@@ -210,6 +313,7 @@ public class PhotoEditor {
         });
 
         addViewToParent(emojiRootView, ViewType.EMOJI);
+        return emojiTextView;
     }
 
 
@@ -222,10 +326,102 @@ public class PhotoEditor {
         RelativeLayout.LayoutParams params = new RelativeLayout.LayoutParams(
                 ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
         params.addRule(RelativeLayout.CENTER_IN_PARENT, RelativeLayout.TRUE);
-        parentView.addView(rootView, params);
-        addedViews.add(rootView);
+        rootView.setLayoutParams(params);
+        attachView(rootView, viewType, -1, null);
+        mHistory.record(new AddViewCommand(rootView, viewType));
+    }
+
+    /**
+     * Show a root view again, undo and redo go through here without being recorded.
+     * The view becomes the selected one
+     *
+     * @param childIndex position among the children of the parent view, -1 for the top
+     * @param rootAbove  root view of the overlay to go just below, null or detached for the top
+     */
+    private void attachView(View rootView, ViewType viewType, int childIndex, @Nullable View rootAbove) {
+        parentView.addView(rootView, childIndex);
+
+        final Overlay overlay = new Overlay(rootView);
+        mOverlays.put(rootView, overlay);
+        linkOverlay(overlay, rootAbove != null ? mOverlays.get(rootAbove) : null);
+        if (overlay.mHitTarget != null) {
+            // bounds known once drawn
+            overlay.mHitTarget.setHitListener(overlay);
+        }
+        selectOverlay(rootView);
+
+        if (mOnPhotoEditorListener != null)
+            mOnPhotoEditorListener.onAddViewListener(viewType, mOverlays.size());
+    }
+
+    private void detachView(View rootView) {
+        parentView.removeView(rootView);
+
+        final Overlay overlay = mOverlays.remove(rootView);
+        if (overlay != null) {
+            unlinkOverlay(overlay);
+            if (overlay.mHitTarget != null) {
+                overlay.mHitTarget.setHitListener(null);
+            }
+            mHitGrid.remove(overlay);
+            if (mSelected == overlay) {
+                mSelected = null;
+            }
+        }
+
         if (mOnPhotoEditorListener != null)
-            mOnPhotoEditorListener.onAddViewListener(viewType, addedViews.size());
+            mOnPhotoEditorListener.onRemoveViewListener(mOverlays.size());
+    }
+
+    /**
+     * Put the overlay in the drawing order, with a stack order between the ones of its neighbours
+     *
+     * @param above overlay to go just below, null for the top
+     */
+    private void linkOverlay(Overlay overlay, @Nullable Overlay above) {
+        final Overlay below = above != null ? above.mBelow : mTopOverlay;
+        overlay.mBelow = below;
+        overlay.mAbove = above;
+        if (below != null) {
+            below.mAbove = overlay;
+        } else {
+            mBottomOverlay = overlay;
+        }
+        if (above != null) {
+            above.mBelow = overlay;
+        } else {
+            mTopOverlay = overlay;
+        }
+
+        if (above == null) {
+            overlay.mStackOrder = below != null ? below.mStackOrder + STACK_ORDER_GAP : 0;
+        } else if (below == null) {
+            overlay.mStackOrder = above.mStackOrder - STACK_ORDER_GAP;
+        } else if (above.mStackOrder - below.mStackOrder > 1) {
+            overlay.mStackOrder = below.mStackOrder + (above.mStackOrder - below.mStackOrder) / 2;
+        } else {
+            // no room left between the neighbours, spread all the overlays again
+            long stackOrder = 0;
+            for (Overlay o = mBottomOverlay; o != null; o = o.mAbove) {
+                o.mStackOrder = stackOrder;
+                stackOrder += STACK_ORDER_GAP;
+            }
+        }
+    }
+
+    private void unlinkOverlay(Overlay overlay) {
+        if (overlay.mBelow != null) {
+            overlay.mBelow.mAbove = overlay.mAbove;
+        } else {
+            mBottomOverlay = overlay.mAbove;
+        }
+        if (overlay.mAbove != null) {
+            overlay.mAbove.mBelow = overlay.mBelow;
+        } else {
+            mTopOverlay = overlay.mBelow;
+        }
+        overlay.mBelow = null;
+        overlay.mAbove = null;
     }
 
     /**
@@ -263,6 +459,22 @@ public class PhotoEditor {
             brushDrawingView.setWidth(size);
     }
 
+    /**
+     * Paint with dabs sized and faded by pen pressure and speed instead of strokes of a constant width
+     */
+    public void setStampBrush(boolean stampBrush) {
+        if (brushDrawingView != null)
+            brushDrawingView.setStampBrushEnabled(stampBrush);
+    }
+
+    /**
+     * @param hardness edge of the stamp brush, from 0, soft, to 1, hard
+     */
+    public void setBrushHardness(@FloatRange(from = 0, to = 1) float hardness) {
+        if (brushDrawingView != null)
+            brushDrawingView.setBrushHardness(hardness);
+    }
+
     public void setOpacity(@IntRange(from = 0, to = 100) int opacity) {
         if (brushDrawingView != null) {
             opacity = (int) ((opacity / 100.0) * 255.0);
@@ -280,57 +492,31 @@ public class PhotoEditor {
             brushDrawingView.setEraser(eraser);
     }
 
-    private void viewUndo() {
-        if (addedViews.size() > 0) {
-            parentView.removeView(addedViews.remove(addedViews.size() - 1));
-            if (mOnPhotoEditorListener != null)
-                mOnPhotoEditorListener.onRemoveViewListener(addedViews.size());
-        }
-    }
-
-    private void viewUndo(View removedView) {
-        if (addedViews.size() > 0) {
-            if (addedViews.contains(removedView)) {
-                parentView.removeView(removedView);
-                addedViews.remove(removedView);
-                redoViews.add(removedView);
-                if (mOnPhotoEditorListener != null)
-                    mOnPhotoEditorListener.onRemoveViewListener(addedViews.size());
-            }
-        }
+    public void setBrushEraserSize(float eraserSize) {
+        if (brushDrawingView != null)
+            brushDrawingView.setEraserSize(eraserSize);
     }
 
+    /**
+     * Undo the last edit, brush strokes included
+     *
+     * @return true if there are more edits to undo
+     */
     public boolean undo() {
-        if (addedViews.size() > 0) {
-            View removeView = addedViews.get(addedViews.size() - 1);
-            if (removeView instanceof CustomPaintView) {
-                //return brushDrawingView != null && brushDrawingView.reset();
-                return true;
-            } else {
-                addedViews.remove(addedViews.size() - 1);
-                parentView.removeView(removeView);
-                redoViews.add(removeView);
-            }
-            if (mOnPhotoEditorListener != null) {
-                mOnPhotoEditorListener.onRemoveViewListener(addedViews.size());
-            }
-        }
-        return addedViews.size() != 0;
+        hideHelpBoxes();
+        mHistory.undo();
+        return mHistory.canUndo();
     }
 
+    /**
+     * Redo the last undone edit
+     *
+     * @return true if there are more edits to redo
+     */
     public boolean redo() {
-        if (redoViews.size() > 0) {
-            View redoView = redoViews.get(redoViews.size() - 1);
-            if (redoView instanceof CustomPaintView) {
-                //return brushDrawingView != null && brushDrawingView.redo();
-                return true;
-            } else {
-                redoViews.remove(redoViews.size() - 1);
-                parentView.addView(redoView);
-                addedViews.add(redoView);
-            }
-        }
-        return redoViews.size() != 0;
+        hideHelpBoxes();
+        mHistory.redo();
+        return mHistory.canRedo();
     }
 
     private void clearBrushAllViews() {
@@ -339,285 +525,992 @@ public class PhotoEditor {
     }
 
     public void clearAllViews() {
-        for (int i = 0; i < addedViews.size(); i++) {
-            final View view = addedViews.get(i);
-
-            if (view instanceof StickerView) {
-                final StickerView stickerView = (StickerView) view;
-
-                stickerView.clear();
+        for (Overlay overlay = mBottomOverlay; overlay != null; overlay = overlay.mAbove) {
+            if (overlay.mStickerView != null) {
+                overlay.mStickerView.clear();
+            }
+            if (overlay.mHitTarget != null) {
+                overlay.mHitTarget.setHitListener(null);
             }
 
-            parentView.removeView(view);
-        }
-
-        if (addedViews.contains(brushDrawingView)) {
-            parentView.addView(brushDrawingView);
+            parentView.removeView(overlay.mRootView);
         }
+        mHitGrid.clear();
 
-        addedViews.clear();
-        redoViews.clear();
+        mOverlays.clear();
+        mBottomOverlay = null;
+        mTopOverlay = null;
+        mSelected = null;
+        mHistory.clear();
 
         clearBrushAllViews();
     }
 
+    /**
+     * Give back what the editor keeps outside of its views once it is not used anymore: the undo
+     * history is forgotten with its spill file deleted, and the autosave journal is closed
+     */
+    public void release() {
+        setAutosave(null);
+        mHistory.clear();
+    }
+
     public interface OnSaveListener {
         void onSuccess(@NonNull File imagePath);
 
         void onFailure(@NonNull Exception exception);
     }
 
-    public void saveImage(@NonNull final String imagePath, @NonNull final OnSaveListener onSaveListener) {
-        final List<View> stickerViews = new ArrayList<>();
+    public RenderJob<BitmapEncoder.Result> saveImage(@NonNull final String imagePath, @NonNull final OnSaveListener onSaveListener) {
+        return saveImage(imagePath, new SaveSettings.Builder().build(), onSaveListener);
+    }
 
-        for (View view : addedViews) {
-            if (view instanceof FrameLayout) {
-                final TextStickerView textStickerView = view.findViewById(R.id.tvPhotoEditorText);
-                final StickerView stickerView = view.findViewById(R.id.imgPhotoEditorImage);
+    /**
+     * Draw all layers on the source image and save it on a background {@link RenderScheduler} job,
+     * a previous save still running is cancelled.
+     * <p/>
+     * The layers are captured by {@link #snapshotScene()} before returning, the editor can be used
+     * right away and keeps all its views. Progress is given to the
+     * {@link RenderJob#setProgressListener progress listener} of the returned job, cancelling it stops
+     * the render between layers and the encode between buffers, leaving any previous file in place
+     *
+     * @param imagePath      path of the file to write
+     * @param saveSettings   output format and quality, the format follows the extension if not set
+     * @param onSaveListener callback on the main thread, not called if the job is cancelled
+     * @return handle to cancel or wait on the save, its result holds the written size and encode time.
+     * null if the editor has no source image
+     */
+    public RenderJob<BitmapEncoder.Result> saveImage(@NonNull final String imagePath, @NonNull final SaveSettings saveSettings,
+                                                     @NonNull final OnSaveListener onSaveListener) {
+        cancelSave();
 
-                if (textStickerView != null) {
-                    stickerViews.add(textStickerView);
+        final Scene scene = snapshotScene();
+        if (scene == null) {
+            return null;
+        }
+
+        final Bitmap source = ((PhotoEditorView) parentView).getMainBitmap();
+        final RenderJob<BitmapEncoder.Result> job = mRenderScheduler.newJob(RenderScheduler.Priority.BACKGROUND, new SaveListenerAdapter(onSaveListener));
+
+        if (!scene.isEmpty()) {
+            job.submitStage(RenderScheduler.Stage.COMPOSITE, new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() throws Exception {
+                    return mSceneCache.render(source, scene, new SceneRenderer.Callback() {
+                        @Override
+                        public void onLayerDrawn(int drawn, int total) {
+                            job.publishProgress(RenderJob.Phase.COMPOSITE, StickerTask.COMPOSITE_SHARE * drawn / total);
+                        }
+                    });
+                }
+            }, new RenderJob.StageListener<Bitmap>() {
+                @Override
+                public void onStageDone(final Bitmap result) {
+                    submitEncode(job, result, true, imagePath, saveSettings);
                 }
 
-                if (stickerView != null) {
-                    stickerViews.add(stickerView);
+                @Override
+                public void onDiscard(Bitmap result) {
+                    mBitmapPool.release(result);
                 }
-            }
+            });
+        } else {
+            submitEncode(job, source, false, imagePath, saveSettings);
         }
 
-        if (mSaveTask != null) {
-            mSaveTask.cancel(true);
+        mSaveJob = job;
+        return job;
+    }
+
+    /**
+     * Cancel the running save, if any
+     */
+    private void cancelSave() {
+        if (mSaveJob != null && !mSaveJob.isDone()) {
+            mSaveJob.cancel(true);
         }
+    }
 
-        if (parentView instanceof PhotoEditorView) {
-            if ((stickerViews.size() > 0 || brushDrawingView.getPaintBit() != null)) {
+    /**
+     * @param pooled give the bitmap back to the pool once encoded
+     */
+    private void submitEncode(final RenderJob<BitmapEncoder.Result> job, final Bitmap bitmap, final boolean pooled,
+                              final String imagePath, final SaveSettings saveSettings) {
+        job.submitStage(RenderScheduler.Stage.ENCODE, new Callable<BitmapEncoder.Result>() {
+            @Override
+            public BitmapEncoder.Result call() throws Exception {
+                if (TextUtils.isEmpty(imagePath)) {
+                    throw new IllegalStateException("Unable to save image");
+                }
+                job.publishProgress(RenderJob.Phase.ENCODE, StickerTask.COMPOSITE_SHARE);
+                return BitmapEncoder.encode(bitmap, new File(imagePath),
+                        saveSettings.getFormat(imagePath, BitmapEncoder.Format.JPEG),
+                        saveSettings.getQuality(), saveSettings.getTargetBytes(),
+                        writeProgress(job, WRITE_PROGRESS));
+            }
+        }, completeAndRelease(job, pooled ? Collections.singletonList(bitmap) : Collections.<Bitmap>emptyList()));
+    }
 
-                mSaveTask = new SaveStickerTask(imagePath, stickerViews, imageView, onSaveListener);
+    /**
+     * @param pooled bitmaps read by the stage, given back to the pool once it ended whether it
+     *               completed the job or the job was cancelled or failed first
+     * @return stage listener completing the job with its result
+     */
+    private <T> RenderJob.StageListener<T> completeAndRelease(final RenderJob<T> job, final List<Bitmap> pooled) {
+        return new RenderJob.StageListener<T>() {
+            @Override
+            public void onStageDone(T result) {
+                release();
+                job.set(result);
+            }
 
-                final PhotoEditorView editorView = (PhotoEditorView) parentView;
+            @Override
+            public void onDiscard(T result) {
+                release();
+            }
 
-                mSaveTask.execute(editorView.getMainBitmap());
-            } else {
-                if (mSaveImageTask != null) {
-                    mSaveImageTask.cancel(true);
+            private void release() {
+                for (Bitmap bitmap : pooled) {
+                    mBitmapPool.release(bitmap);
                 }
+            }
+        };
+    }
+
+    private static BitmapEncoder.Listener writeProgress(final RenderJob<?> job, final float fraction) {
+        return new BitmapEncoder.Listener() {
+            @Override
+            public void onWrite() {
+                job.publishProgress(RenderJob.Phase.WRITE, fraction);
+            }
+        };
+    }
+
+    /**
+     * Save the edited image at full resolution without ever holding a full size copy of it in memory.
+     * Layers are composited one horizontal band at a time and streamed into a PNG file,
+     * the editor keeps all its views after the export
+     *
+     * @param imagePath      path of the PNG file to write
+     * @param bandBytes      memory budget of one band, {@link StickerTask#DEFAULT_BAND_BYTES} if 0
+     * @param onSaveListener callback for saving image
+     * @return handle to cancel or wait on the save, null if the editor has no source image
+     * @throws IllegalArgumentException if the path has the extension of another format
+     */
+    public RenderJob<BitmapEncoder.Result> saveImageTiled(@NonNull final String imagePath, final int bandBytes, @NonNull final OnSaveListener onSaveListener) {
+        if (BitmapEncoder.Format.fromPath(imagePath, BitmapEncoder.Format.PNG) != BitmapEncoder.Format.PNG) {
+            throw new IllegalArgumentException("Tiled export only writes PNG, not " + imagePath);
+        }
+        cancelSave();
+
+        final Scene scene = snapshotScene();
+        if (scene == null) {
+            return null;
+        }
 
-                final PhotoEditorView editorView = (PhotoEditorView) parentView;
+        final Bitmap source = ((PhotoEditorView) parentView).getMainBitmap();
+        final SceneTask task = new SceneTask(scene, mBitmapPool);
+        final RenderJob<BitmapEncoder.Result> job = mRenderScheduler.newJob(RenderScheduler.Priority.BACKGROUND, new SaveListenerAdapter(onSaveListener));
+        task.setJob(job);
 
-                mSaveImageTask = new SaveFinalImageTask(imagePath, onSaveListener);
-                mSaveImageTask.execute(editorView.getMainBitmap());
+        job.submitStage(RenderScheduler.Stage.COMPOSITE, new Callable<BitmapEncoder.Result>() {
+            @Override
+            public BitmapEncoder.Result call() throws Exception {
+                final long start = System.nanoTime();
+                final File file = task.compositeTiled(source, new File(imagePath), bandBytes);
+                return new BitmapEncoder.Result(file, BitmapEncoder.Format.PNG, 100, file.length(),
+                        (System.nanoTime() - start) / 1000000);
             }
+        }, job.complete());
+
+        mSaveJob = job;
+        return job;
+    }
+
+    public RenderJob<BitmapEncoder.Result> saveImageTiled(@NonNull final String imagePath, @NonNull final OnSaveListener onSaveListener) {
+        return saveImageTiled(imagePath, 0, onSaveListener);
+    }
+
+    /**
+     * Save the edited image to several files at once, typically full size plus smaller copies.
+     * The layers are rendered again at the size of every output instead of scaling down the full
+     * size result, then all outputs are encoded in parallel
+     *
+     * @param outputSpecs files to write with their maximum size
+     * @param listener    callback on the main thread with the results in the order of the specs,
+     *                    not called if the job is cancelled
+     * @return handle to cancel or wait on the save, null if the editor has no source image
+     */
+    public RenderJob<List<BitmapEncoder.Result>> saveImages(@NonNull final List<OutputSpec> outputSpecs,
+                                                            @Nullable RenderJob.Listener<List<BitmapEncoder.Result>> listener) {
+        cancelSave();
+
+        final Scene scene = snapshotScene();
+        if (scene == null) {
+            return null;
+        }
+
+        final Bitmap source = ((PhotoEditorView) parentView).getMainBitmap();
+        final RenderJob<List<BitmapEncoder.Result>> job = mRenderScheduler.newJob(RenderScheduler.Priority.BACKGROUND, listener);
+        final int count = outputSpecs.size();
+        final AtomicInteger finished = new AtomicInteger();
+
+        final List<Callable<Bitmap>> composites = new ArrayList<>(outputSpecs.size());
+        for (OutputSpec spec : outputSpecs) {
+            final float scale = spec.getScale(source.getWidth(), source.getHeight());
+            final int width = Math.max(1, Math.round(source.getWidth() * scale));
+            final int height = Math.max(1, Math.round(source.getHeight() * scale));
+
+            composites.add(new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() throws Exception {
+                    final Bitmap result = scene.isEmpty() && width == source.getWidth() && height == source.getHeight()
+                            ? source : SceneRenderer.render(source, scene, width, height, mBitmapPool);
+                    job.publishProgress(RenderJob.Phase.COMPOSITE,
+                            StickerTask.COMPOSITE_SHARE * finished.incrementAndGet() / count);
+                    return result;
+                }
+            });
         }
+
+        job.submitStages(RenderScheduler.Stage.COMPOSITE, composites, new RenderJob.StageListener<List<Bitmap>>() {
+            @Override
+            public void onStageDone(final List<Bitmap> bitmaps) {
+                finished.set(0);
+                final List<Callable<BitmapEncoder.Result>> encodes = new ArrayList<>(bitmaps.size());
+                for (int i = 0; i < bitmaps.size(); i++) {
+                    final Bitmap bitmap = bitmaps.get(i);
+                    final OutputSpec spec = outputSpecs.get(i);
+
+                    encodes.add(new Callable<BitmapEncoder.Result>() {
+                        @Override
+                        public BitmapEncoder.Result call() throws Exception {
+                            final SaveSettings settings = spec.getSaveSettings();
+                            final BitmapEncoder.Result result = BitmapEncoder.encode(bitmap, new File(spec.getPath()),
+                                    settings.getFormat(spec.getPath(), BitmapEncoder.Format.JPEG),
+                                    settings.getQuality(), settings.getTargetBytes());
+                            job.publishProgress(RenderJob.Phase.ENCODE, StickerTask.COMPOSITE_SHARE
+                                    + (1 - StickerTask.COMPOSITE_SHARE) * finished.incrementAndGet() / count);
+                            return result;
+                        }
+                    });
+                }
+                job.submitStages(RenderScheduler.Stage.ENCODE, encodes, completeAndRelease(job, pooled(bitmaps)));
+            }
+
+            @Override
+            public void onDiscard(List<Bitmap> bitmaps) {
+                for (Bitmap bitmap : pooled(bitmaps)) {
+                    mBitmapPool.release(bitmap);
+                }
+            }
+
+            private List<Bitmap> pooled(List<Bitmap> bitmaps) {
+                final List<Bitmap> pooled = new ArrayList<>(bitmaps.size());
+                for (Bitmap bitmap : bitmaps) {
+                    if (bitmap != null && bitmap != source) {
+                        pooled.add(bitmap);
+                    }
+                }
+                return pooled;
+            }
+        });
+
+        mSaveJob = job;
+        return job;
     }
 
-    private final class SaveStickerTask extends StickerTask {
+    /**
+     * Capture all layers in the coordinates of the source image, must be called on the main thread.
+     * This is the editor state as a view independent {@link Scene}, {@link #loadScene} does the opposite.
+     * <p/>
+     * Only transforms, text and bitmap references are copied, the brush raster is shared and copied
+     * by the brush view itself before its next stroke. The scene can be rendered from any thread
+     * while the editor keeps changing, including by a {@link ja.burhanrashid52.task.BatchExporter}
+     *
+     * @return null if the editor has no source image
+     */
+    public @Nullable Scene snapshotScene() {
+        final Matrix viewToImage = viewToImage();
+        if (viewToImage == null) {
+            return null;
+        }
+        final Bitmap source = ((PhotoEditorView) parentView).getMainBitmap();
 
-        private final List<View> mStickerViews;
-        private final String mImagePath;
-        private final OnSaveListener mListener;
+        final Scene scene = new Scene(source.getWidth(), source.getHeight());
+        final List<Layer> layers = new ArrayList<>(mOverlays.size() + 1);
+        snapshotViewLayers(layers, viewToImage);
+        for (Layer layer : layers) {
+            scene.add(layer);
+        }
 
-        public SaveStickerTask(String path, List<View> stickerViews, ImageView imageView, OnSaveListener listener) {
-            super(imageView);
+        final TileSurface paintSurface = brushDrawingView != null ? brushDrawingView.snapshotPaintSurface() : null;
+        if (paintSurface != null) {
+            final BrushLayer layer = new BrushLayer(paintSurface, brushDrawingView.snapshotStrokes());
+            layer.setVersion(brushDrawingView.getLayerId(), brushDrawingView.getRevision());
+            layer.setTransform(viewToImage);
+            scene.add(layer);
+        }
 
-            mStickerViews = stickerViews;
+        return scene;
+    }
 
-            mImagePath = path;
-            mListener = listener;
+    /**
+     * @return transform from the editor views to the source image, null if there is no source image
+     */
+    private @Nullable Matrix viewToImage() {
+        if (!(parentView instanceof PhotoEditorView) || ((PhotoEditorView) parentView).getMainBitmap() == null) {
+            return null;
         }
+        final Matrix viewToImage = new Matrix();
+        imageView.getImageMatrix().invert(viewToImage);
+        return viewToImage;
+    }
 
-        @Override
-        public void handleImage(Canvas canvas, Matrix m) {
+    /**
+     * Add the layers of the sticker, text and emoji views, the brush aside
+     */
+    private void snapshotViewLayers(List<Layer> layers, Matrix viewToImage) {
+        for (Overlay overlay = mBottomOverlay; overlay != null; overlay = overlay.mAbove) {
+            if (overlay.mTextView != null) {
+                final TextLayer layer = overlay.mTextView.toLayer(viewToImage);
+                if (layer != null) {
+                    layers.add(layer);
+                }
+            }
 
-            for (View view : mStickerViews) {
+            if (overlay.mStickerView != null) {
+                final LayerStore<StickerItem> bank = overlay.mStickerView.getBank();
+                for (int id = bank.first(); id != LayerStore.NONE; id = bank.next(id)) {
+                    layers.add(bank.get(id).toLayer(viewToImage));
+                }
+            }
+        }
+    }
 
-                if (view instanceof TextStickerView) {
-                    float[] f = new float[9];
-                    m.getValues(f);
-                    int dx = (int) f[Matrix.MTRANS_X];
-                    int dy = (int) f[Matrix.MTRANS_Y];
-                    float scale_x = f[Matrix.MSCALE_X];
-                    float scale_y = f[Matrix.MSCALE_Y];
-                    canvas.save();
-                    canvas.translate(dx, dy);
-                    canvas.scale(scale_x, scale_y);
+    /**
+     * Replace everything added to the editor by the layers of a scene, typically one taken by
+     * {@link #snapshotScene()} or built without any view. Must be called once the editor is laid out.
+     * <p/>
+     * Brush layers are painted on the brush view, which stays below the other layers on screen
+     */
+    public void loadScene(@NonNull Scene scene) {
+        clearAllViews();
 
-                    final TextStickerView textStickerView = (TextStickerView) view;
+        if (!(parentView instanceof PhotoEditorView)) {
+            return;
+        }
+        final Bitmap source = ((PhotoEditorView) parentView).getMainBitmap();
+        if (source == null) {
+            return;
+        }
 
-                    textStickerView.drawText(canvas, textStickerView.layout_x, textStickerView.layout_y, textStickerView.getScale(), textStickerView.getRotateAngle());
+        final Matrix sceneToView = new Matrix();
+        sceneToView.setScale((float) source.getWidth() / scene.getWidth(), (float) source.getHeight() / scene.getHeight());
+        sceneToView.postConcat(imageView.getImageMatrix());
+
+        for (Layer layer : scene.getLayers()) {
+            final Matrix transform = new Matrix(layer.getTransform());
+            transform.postConcat(sceneToView);
+
+            if (layer instanceof ImageLayer) {
+                addImage(((ImageLayer) layer).getBitmap(), transform);
+            } else if (layer instanceof EmojiLayer) {
+                addEmojiView(((EmojiLayer) layer).getText()).setTransform(transform);
+            } else if (layer instanceof TextLayer) {
+                final TextLayer textLayer = (TextLayer) layer;
+                final int backgroundColor = textLayer.getBackgroundColor();
+                addTextView(textLayer.getTypeface(), textLayer.getFontName(), textLayer.getText(), textLayer.getTextColor(),
+                        backgroundColor, Color.alpha(backgroundColor)).setTransform(transform);
+            } else if (layer instanceof BrushLayer && brushDrawingView != null) {
+                brushDrawingView.drawRaster(((BrushLayer) layer).getRaster(), transform);
+            }
+        }
 
-                    canvas.restore();
-                } else if (view instanceof StickerView) {
-                    final StickerView stickerView = (StickerView) view;
+        // the loaded scene is where undo stops
+        mHistory.clear();
+    }
 
-                    LinkedHashMap<Integer, StickerItem> addItems = stickerView.getBank();
+    /**
+     * Save the layers as an edit session to resume later with {@link #loadSession}. The layers are
+     * captured by {@link #snapshotScene()} before returning, the file is written on a background job
+     * and replaced atomically. The source image itself is not part of the session
+     *
+     * @param sessionFile file to write
+     * @param bitmapStore receives the sticker and brush bitmaps, shared by all sessions of the app
+     * @param listener    callback on the main thread, not called if the job is cancelled
+     * @return handle to cancel or wait on the save, null if the editor has no source image
+     */
+    public RenderJob<File> saveSession(@NonNull final File sessionFile, @NonNull final BitmapStore bitmapStore,
+                                       @Nullable RenderJob.Listener<File> listener) {
+        final Scene scene = snapshotScene();
+        if (scene == null) {
+            return null;
+        }
 
-                    for (Integer id : addItems.keySet()) {
-                        StickerItem item = addItems.get(id);
-                        item.matrix.postConcat(m);
-                        canvas.drawBitmap(item.bitmap, item.matrix, null);
-                    }
+        final RenderJob<File> job = mRenderScheduler.newJob(RenderScheduler.Priority.BACKGROUND, listener);
+        job.submitStage(RenderScheduler.Stage.ENCODE, new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                final AtomicFileOutputStream out = new AtomicFileOutputStream(sessionFile);
+                try {
+                    SessionFormat.write(scene, out, bitmapStore);
+                    out.commit();
+                } finally {
+                    out.close();
                 }
+                return sessionFile;
             }
+        }, job.complete());
+        return job;
+    }
 
-            if (brushDrawingView.getPaintBit() != null) {
-                float[] f = new float[9];
-                m.getValues(f);
-                int dx = (int) f[Matrix.MTRANS_X];
-                int dy = (int) f[Matrix.MTRANS_Y];
-                float scale_x = f[Matrix.MSCALE_X];
-                float scale_y = f[Matrix.MSCALE_Y];
-                canvas.save();
-                canvas.translate(dx, dy);
-                canvas.scale(scale_x, scale_y);
+    /**
+     * Read an edit session saved by {@link #saveSession} on a background job, then replace the
+     * layers of the editor by it with {@link #loadScene} on the main thread
+     *
+     * @param fontResolver optional, gives back the typefaces of the texts by font name
+     * @param listener     callback on the main thread once the session is loaded
+     */
+    public RenderJob<Scene> loadSession(@NonNull final File sessionFile, @NonNull final BitmapStore bitmapStore,
+                                        @Nullable final SessionFormat.FontResolver fontResolver,
+                                        @Nullable final RenderJob.Listener<Scene> listener) {
+        final RenderJob<Scene> job = mRenderScheduler.newJob(RenderScheduler.Priority.INTERACTIVE,
+                new RenderJob.Listener<Scene>() {
+                    @Override
+                    public void onSuccess(@NonNull Scene scene) {
+                        loadScene(scene);
+                        if (listener != null) {
+                            listener.onSuccess(scene);
+                        }
+                    }
 
-                canvas.drawBitmap(brushDrawingView.getPaintBit(), 0, 0, null);
+                    @Override
+                    public void onFailure(@NonNull Exception exception) {
+                        if (listener != null) {
+                            listener.onFailure(exception);
+                        }
+                    }
+                });
+        job.submitStage(RenderScheduler.Stage.ENCODE, new Callable<Scene>() {
+            @Override
+            public Scene call() throws Exception {
+                final InputStream in = new FileInputStream(sessionFile);
+                try {
+                    return SessionFormat.read(in, bitmapStore, fontResolver);
+                } finally {
+                    in.close();
+                }
+            }
+        }, job.complete());
+        return job;
+    }
+
+    /**
+     * Journal every edit from now on so the session can be rebuilt with
+     * {@link AutosaveJournal#recover} after the process died. Only a copy of each edit is made on the
+     * main thread, serializing and writing happen on the journal thread
+     *
+     * @param journal null to stop, the previous journal is closed
+     */
+    public void setAutosave(@Nullable AutosaveJournal journal) {
+        if (mAutosave != null && mAutosave != journal) {
+            mAutosave.close();
+        }
+        mAutosave = journal;
+        compactAutosave();
+    }
 
-                canvas.restore();
+    private void autosave(CommandHistory.Change change, @Nullable Command command) {
+        if (mAutosave == null) {
+            return;
+        }
+        if (change == CommandHistory.Change.CLEAR || mAutosave.shouldCompact()) {
+            compactAutosave();
+        } else if (command instanceof BrushStrokeCommand) {
+            if (change == CommandHistory.Change.RECORD) {
+                mAutosave.strokeAdded(((BrushStrokeCommand) command).getStroke());
+            } else if (change == CommandHistory.Change.UNDO) {
+                mAutosave.strokeUndone();
+            } else {
+                mAutosave.strokeRedone();
             }
+        } else {
+            autosaveLayers();
         }
+    }
 
-        @Override
-        public void onPostResult(Bitmap result) {
-            clearAllViews();
+    /**
+     * Journal the layers of the sticker, text and emoji views that changed, the others are only
+     * compared by id and revision and never copied
+     */
+    private void autosaveLayers() {
+        final Matrix viewToImage = mAutosave != null ? viewToImage() : null;
+        if (viewToImage == null) {
+            return;
+        }
+
+        int size = 0;
+        for (Overlay overlay = mBottomOverlay; overlay != null; overlay = overlay.mAbove) {
+            size += overlay.mStickerView != null ? overlay.mStickerView.getBank().size() : 1;
+        }
+        final long[] order = new long[size];
+        int count = 0;
+        final List<Layer> changed = new ArrayList<>();
+        for (Overlay overlay = mBottomOverlay; overlay != null; overlay = overlay.mAbove) {
+            final TextStickerView textView = overlay.mTextView;
+            if (textView != null) {
+                if (mAutosave.isJournaled(textView.getLayerId(), textView.getRevision())) {
+                    order[count++] = textView.getLayerId();
+                } else {
+                    final TextLayer layer = textView.toLayer(viewToImage);
+                    if (layer != null) {
+                        changed.add(layer);
+                        order[count++] = layer.getId();
+                    }
+                }
+            }
 
-            if (mSaveImageTask != null) {
-                mSaveImageTask.cancel(true);
+            if (overlay.mStickerView != null) {
+                final LayerStore<StickerItem> bank = overlay.mStickerView.getBank();
+                for (int id = bank.first(); id != LayerStore.NONE; id = bank.next(id)) {
+                    final StickerItem item = bank.get(id);
+                    if (!mAutosave.isJournaled(item.getLayerId(), item.getRevision())) {
+                        changed.add(item.toLayer(viewToImage));
+                    }
+                    order[count++] = item.getLayerId();
+                }
             }
+        }
+        mAutosave.layersChanged(changed, count < size ? Arrays.copyOf(order, count) : order);
+    }
+
+    /**
+     * Replace the autosave snapshot by the current layers, the journal starts over
+     */
+    private void compactAutosave() {
+        if (mAutosave == null) {
+            return;
+        }
+        final Scene scene = snapshotScene();
+        if (scene != null && brushDrawingView != null) {
+            mAutosave.compact(scene, brushDrawingView.getWidth(), brushDrawingView.getHeight(), viewToImage());
+        }
+    }
+
+    /**
+     * Composite a snapshot, its layers are already in the coordinates of the source image
+     */
+    private static final class SceneTask extends StickerTask {
+
+        private final Scene mScene;
 
-            mSaveImageTask = new SaveFinalImageTask(mImagePath, mListener);
-            mSaveImageTask.execute(result);
+        SceneTask(Scene scene, BitmapPool bitmapPool) {
+            super(bitmapPool);
 
-            final PhotoEditorView editorView = (PhotoEditorView) parentView;
+            mScene = scene;
+        }
 
-            editorView.setImageBitmap(result);
+        @Override
+        public void handleImage(Canvas canvas, Matrix m) throws InterruptedException {
+            SceneRenderer.draw(canvas, mScene, mScene.getWidth(), mScene.getHeight(), new SceneRenderer.Callback() {
+                @Override
+                public void onLayerDrawn(int drawn, int total) {
+                    publishLayerProgress(drawn, total);
+                }
+            });
         }
     }
 
-    private final class SaveFinalImageTask extends AsyncTask<Bitmap, Void, File> {
+    private static final class SaveListenerAdapter implements RenderJob.Listener<BitmapEncoder.Result> {
 
-        private final String mSaveFilePath;
         private final OnSaveListener mListener;
 
-        public SaveFinalImageTask(String saveFilePath, OnSaveListener listener) {
-            mSaveFilePath = saveFilePath;
+        SaveListenerAdapter(OnSaveListener listener) {
             mListener = listener;
         }
 
         @Override
-        protected File doInBackground(Bitmap... params) {
-            if (TextUtils.isEmpty(mSaveFilePath)) {
-                return null;
+        public void onSuccess(@NonNull BitmapEncoder.Result result) {
+            if (mListener != null) {
+                mListener.onSuccess(result.getFile());
             }
-
-            return BitmapUtils.saveBitmap(params[0], mSaveFilePath);
         }
 
         @Override
-        protected void onPostExecute(File result) {
-            super.onPostExecute(result);
-
+        public void onFailure(@NonNull Exception exception) {
             if (mListener != null) {
-                if (result != null) {
-                    mListener.onSuccess(result);
-                } else {
-                    mListener.onFailure(new IllegalStateException("Unable to save image"));
-                }
+                mListener.onFailure(exception);
             }
         }
     }
 
-    @SuppressLint("StaticFieldLeak")
     @RequiresPermission(allOf = {Manifest.permission.WRITE_EXTERNAL_STORAGE})
-    public void savePreview(@NonNull final String imagePath, @NonNull final OnSaveListener onSaveListener) {
+    public RenderJob<BitmapEncoder.Result> savePreview(@NonNull final String imagePath, @NonNull final OnSaveListener onSaveListener) {
+        return savePreview(imagePath, new SaveSettings.Builder().build(), onSaveListener);
+    }
 
-        new AsyncTask<String, String, File>() {
+    /**
+     * Save what is currently displayed by the editor, runs ahead of any queued background export
+     *
+     * @param imagePath      path of the file to write
+     * @param saveSettings   output format and quality, PNG unless set or given by the extension
+     * @param onSaveListener callback on the main thread
+     * @return handle to cancel or wait on the save
+     */
+    @RequiresPermission(allOf = {Manifest.permission.WRITE_EXTERNAL_STORAGE})
+    public RenderJob<BitmapEncoder.Result> savePreview(@NonNull final String imagePath, @NonNull final SaveSettings saveSettings,
+                                                       @NonNull final OnSaveListener onSaveListener) {
+        hideHelpBoxes();
+
+        final Bitmap preview = parentView.getWidth() > 0 && parentView.getHeight() > 0
+                ? mBitmapPool.acquire(parentView.getWidth(), parentView.getHeight(), Bitmap.Config.ARGB_8888)
+                : null;
+        if (preview != null) {
+            parentView.draw(new Canvas(preview));
+        }
 
-            @Override
-            protected void onPreExecute() {
-                super.onPreExecute();
-                hideHelpBoxes(null);
-                parentView.setDrawingCacheEnabled(false);
-            }
+        final RenderJob<BitmapEncoder.Result> job = mRenderScheduler.newJob(RenderScheduler.Priority.INTERACTIVE,
+                new RenderJob.Listener<BitmapEncoder.Result>() {
+                    @Override
+                    public void onSuccess(@NonNull BitmapEncoder.Result result) {
+                        onSaveListener.onSuccess(result.getFile());
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull Exception exception) {
+                        onSaveListener.onFailure(exception);
+                    }
+                });
 
+        job.submitStage(RenderScheduler.Stage.ENCODE, new Callable<BitmapEncoder.Result>() {
             @SuppressLint("MissingPermission")
             @Override
-            protected File doInBackground(String... strings) {
-                // Create a media file name
-                File file = new File(imagePath);
-                try {
-                    FileOutputStream out = new FileOutputStream(file, false);
-                    if (parentView != null) {
-                        parentView.setDrawingCacheEnabled(true);
-                        Bitmap drawingCache = parentView.getDrawingCache();
-                        drawingCache.compress(Bitmap.CompressFormat.PNG, 100, out);
-                    }
-                    out.flush();
-                    out.close();
-                    Log.d(TAG, "Filed Saved Successfully");
-                    return null;
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    Log.d(TAG, "Failed to save File");
-                    return null;
+            public BitmapEncoder.Result call() throws Exception {
+                if (preview == null) {
+                    throw new IllegalStateException("Unable to save image preview");
                 }
+
+                job.publishProgress(RenderJob.Phase.ENCODE, 0);
+                final BitmapEncoder.Result result = BitmapEncoder.encode(preview, new File(imagePath),
+                        saveSettings.getFormat(imagePath, BitmapEncoder.Format.PNG),
+                        saveSettings.getQuality(), saveSettings.getTargetBytes(),
+                        writeProgress(job, WRITE_PROGRESS));
+                Log.d(TAG, "Filed Saved Successfully");
+                return result;
             }
+        }, completeAndRelease(job, preview != null ? Collections.singletonList(preview) : Collections.<Bitmap>emptyList()));
 
-            @Override
-            protected void onPostExecute(File file) {
-                super.onPostExecute(file);
-                if (file != null) {
-                    clearAllViews();
-                    onSaveListener.onSuccess(file);
-                } else {
-                    onSaveListener.onFailure(new Exception("Unable to save image preview"));
-                }
+        return job;
+    }
+
+    /**
+     * Remove a root view deleted by the user, the deletion can be undone
+     */
+    private void removeView(@NonNull View rootView, @NonNull RemoveViewCommand command) {
+        if (mOverlays.containsKey(rootView)) {
+            detachView(rootView);
+            mHistory.record(command);
+        }
+    }
+
+    /**
+     * Adding a root view, undone by removing it
+     */
+    private final class AddViewCommand extends Command {
+
+        private final View mRootView;
+        private final ViewType mViewType;
+
+        AddViewCommand(View rootView, ViewType viewType) {
+            mRootView = rootView;
+            mViewType = viewType;
+        }
+
+        @Override
+        public void undo() {
+            detachView(mRootView);
+        }
+
+        @Override
+        public void redo() {
+            attachView(mRootView, mViewType, -1, null);
+        }
+    }
+
+    /**
+     * @return root view of the overlay drawn just above this one, null if on top
+     */
+    private @Nullable View rootAbove(View rootView) {
+        final Overlay overlay = mOverlays.get(rootView);
+        return overlay != null && overlay.mAbove != null ? overlay.mAbove.mRootView : null;
+    }
+
+    /**
+     * Deleting a sticker, a text or an emoji with its button, the content cleared by the deletion
+     * is put back on undo, at the same depth among the others
+     */
+    private final class RemoveViewCommand extends Command {
+
+        private final View mRootView;
+        private final StickerView mStickerView;
+        private final StickerItem mItem;
+        private final int mItemAbove;
+        private final TextStickerView mTextView;
+        private final String mText;
+        private final int mChildIndex;
+        private final View mRootAbove;
+
+        /**
+         * @param above id of the sticker the deleted one was just below in its view
+         */
+        RemoveViewCommand(View rootView, StickerView stickerView, StickerItem item, int above) {
+            mRootView = rootView;
+            mStickerView = stickerView;
+            mItem = item;
+            mItemAbove = above;
+            mTextView = null;
+            mText = null;
+            mChildIndex = parentView.indexOfChild(rootView);
+            mRootAbove = rootAbove(rootView);
+        }
+
+        RemoveViewCommand(View rootView, TextStickerView textView) {
+            mRootView = rootView;
+            mStickerView = null;
+            mItem = null;
+            mItemAbove = LayerStore.NONE;
+            mTextView = textView;
+            mText = textView.getText();
+            mChildIndex = parentView.indexOfChild(rootView);
+            mRootAbove = rootAbove(rootView);
+        }
+
+        @Override
+        public void undo() {
+            if (mStickerView != null && mItem != null) {
+                mStickerView.addItem(mItem, mItemAbove);
+            }
+            if (mTextView != null) {
+                mTextView.setText(mText);
             }
+            // everything edited since has been undone, the positions are the ones left
+            attachView(mRootView, mStickerView != null ? ViewType.IMAGE
+                    : mTextView.isEmoji() ? ViewType.EMOJI : ViewType.TEXT, mChildIndex, mRootAbove);
+        }
 
-        }.execute();
+        @Override
+        public void redo() {
+            if (mStickerView != null) {
+                mStickerView.clear();
+            }
+            if (mTextView != null) {
+                mTextView.setText(null);
+            }
+            detachView(mRootView);
+        }
     }
 
-    private void removeView(@NonNull View currentView) {
+    /**
+     * One move, rotation or scale gesture on a sticker
+     */
+    private static final class TransformStickerCommand extends Command {
+
+        private final StickerView mStickerView;
+        private final StickerItem mItem;
+        private final Matrix mBefore;
+        private final Matrix mAfter;
+
+        TransformStickerCommand(StickerView stickerView, StickerItem item, Matrix before) {
+            mStickerView = stickerView;
+            mItem = item;
+            mBefore = before;
+            mAfter = new Matrix(item.matrix);
+        }
 
-        Iterator<View> iterator = addedViews.iterator();
+        @Override
+        public void undo() {
+            mItem.setTransform(mBefore);
+            mStickerView.invalidate();
+        }
 
-        while (iterator.hasNext()) {
-            View view = iterator.next();
+        @Override
+        public void redo() {
+            mItem.setTransform(mAfter);
+            mStickerView.invalidate();
+        }
+    }
 
-            if (view instanceof FrameLayout) {
-                final TextStickerView textStickerView = view.findViewById(R.id.tvPhotoEditorText);
-                final StickerView stickerView = view.findViewById(R.id.imgPhotoEditorImage);
+    /**
+     * One move, rotation or scale gesture on a text or an emoji
+     */
+    private static final class PlaceTextCommand extends Command {
 
-                if (currentView == textStickerView || currentView == stickerView) {
-                    addedViews.remove(view);
-                    parentView.removeView(view);
+        private final TextStickerView mTextView;
+        private final float[] mBefore;
+        private final float[] mAfter = new float[4];
 
-                    break;
-                }
+        PlaceTextCommand(TextStickerView textView, float[] before) {
+            mTextView = textView;
+            mBefore = before;
+            textView.getPlacement(mAfter);
+        }
+
+        @Override
+        public void undo() {
+            mTextView.setPlacement(mBefore);
+        }
+
+        @Override
+        public void redo() {
+            mTextView.setPlacement(mAfter);
+        }
+    }
+
+    /**
+     * Text and colors of a text view, as changed by {@link #editText}
+     */
+    private static final class TextStyle {
+
+        private final String mText;
+        private final String mFontName;
+        private final Typeface mTypeface;
+        private final int mTextColor;
+        private final int mBackgroundColor;
+        private final int mBackgroundAlpha;
+
+        TextStyle(TextStickerView textView) {
+            mText = textView.getText();
+            mFontName = textView.getFontName();
+            mTypeface = textView.getTypeface();
+            mTextColor = textView.getTextColor();
+            mBackgroundColor = textView.getBackgroundColor();
+            mBackgroundAlpha = textView.getBackgroundAlpha();
+        }
+
+        void applyTo(TextStickerView textView) {
+            textView.setText(mText);
+            textView.setTextColor(mTextColor);
+            textView.setBackgroundColor(mBackgroundColor);
+            textView.setBackgroundAlpha(mBackgroundAlpha);
+            textView.setTypeface(mFontName, mTypeface);
+        }
+    }
+
+    private final class EditTextCommand extends Command {
+
+        private final View mRootView;
+        private final TextStickerView mTextView;
+        private final TextStyle mBefore;
+        private final TextStyle mAfter;
+
+        EditTextCommand(View rootView, TextStickerView textView, TextStyle before, TextStyle after) {
+            mRootView = rootView;
+            mTextView = textView;
+            mBefore = before;
+            mAfter = after;
+        }
+
+        @Override
+        public void undo() {
+            apply(mBefore);
+        }
+
+        @Override
+        public void redo() {
+            apply(mAfter);
+        }
+
+        private void apply(TextStyle style) {
+            style.applyTo(mTextView);
+            if (mRootView.getParent() != null) {
+                parentView.updateViewLayout(mRootView, mRootView.getLayoutParams());
             }
         }
     }
 
-    private void hideHelpBoxes(@Nullable View currentView) {
-        // Disable all text help box
-        for (View view : addedViews) {
-            if (view instanceof FrameLayout) {
-                final TextStickerView textStickerView = view.findViewById(R.id.tvPhotoEditorText);
-                final StickerView stickerView = view.findViewById(R.id.imgPhotoEditorImage);
-
-                if (currentView == null) {
-                    if (textStickerView != null) textStickerView.hideHelpBox();
-                    if (stickerView != null) stickerView.hideHelpBox();
-                } else {
-                    if (textStickerView != null && currentView != textStickerView) {
-                        textStickerView.hideHelpBox();
-                    }
+    /**
+     * Text, emoji or sticker view added to the editor, looked up once when attached
+     */
+    private final class Overlay implements HitTarget.Listener {
+
+        private final View mRootView;
+        private final TextStickerView mTextView;
+        private final StickerView mStickerView;
+        private final HitTarget mHitTarget;
+        private long mStackOrder;// higher is drawn above, follows the links
+        private Overlay mBelow;
+        private Overlay mAbove;
+
+        Overlay(View rootView) {
+            mRootView = rootView;
+            mTextView = rootView.findViewById(R.id.tvPhotoEditorText);
+            mStickerView = rootView.findViewById(R.id.imgPhotoEditorImage);
+            mHitTarget = mTextView != null ? mTextView : mStickerView;
+        }
 
-                    if (stickerView != null && currentView != stickerView) {
-                        stickerView.hideHelpBox();
-                    }
-                }
+        void hideHelpBox() {
+            if (mTextView != null) mTextView.hideHelpBox();
+            if (mStickerView != null) mStickerView.hideHelpBox();
+        }
+
+        /**
+         * Offset from the coordinates of the text or sticker view to the editor ones
+         */
+        float getLeft() {
+            return mRootView.getLeft() + ((View) mHitTarget).getLeft();
+        }
+
+        float getTop() {
+            return mRootView.getTop() + ((View) mHitTarget).getTop();
+        }
+
+        @Override
+        public void onHitBoundsChanged(@NonNull HitTarget target, @NonNull RectF bounds) {
+            mHitBounds.set(bounds);
+            mHitBounds.offset(getLeft(), getTop());
+            mHitGrid.update(this, mHitBounds);
+        }
+    }
+
+    /**
+     * Look up the overlays whose bounds contain the point in the hit grid, a touch down outside
+     * of every overlay hides the help boxes
+     *
+     * @return root view of the topmost overlay hit, null if none
+     */
+    private @Nullable View findTouchTarget(float x, float y) {
+        Overlay best = null;
+        for (Overlay overlay : mHitGrid.query(x, y)) {
+            if ((best == null || overlay.mStackOrder > best.mStackOrder)
+                    && overlay.mHitTarget.hitTest(x - overlay.getLeft(), y - overlay.getTop())) {
+                best = overlay;
             }
         }
+
+        if (best == null) {
+            hideHelpBoxes();
+            return null;
+        }
+        return best.mRootView;
+    }
+
+    /**
+     * Let one overlay show its help box, hiding the one of the previously selected overlay
+     *
+     * @param rootView root view of the overlay, null to select none
+     */
+    private void selectOverlay(@Nullable View rootView) {
+        final Overlay overlay = rootView != null ? mOverlays.get(rootView) : null;
+        if (mSelected != null && mSelected != overlay) {
+            mSelected.hideHelpBox();
+        }
+        mSelected = overlay;
+    }
+
+    private void hideHelpBoxes() {
+        // Disable all text help box
+        selectOverlay(null);
     }
 
     private static String convertEmoji(String emoji) {
@@ -639,13 +1532,24 @@ public class PhotoEditor {
         this.mOnPhotoEditorListener = onPhotoEditorListener;
     }
 
+    public RenderScheduler getRenderScheduler() {
+        return mRenderScheduler;
+    }
+
+    /**
+     * Pool the export buffers are borrowed from, exposes hit and miss counters
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
     /**
      * Check if any changes made need to save
      *
      * @return true is nothing is there to change
      */
     public boolean isCacheEmpty() {
-        return addedViews.size() == 0 && redoViews.size() == 0;
+        return mOverlays.isEmpty() && mHistory.size() == 0;
     }
 
     public static class Builder {
@@ -654,6 +1558,10 @@ public class PhotoEditor {
         private RelativeLayout parentView;
         private ImageView imageView;
         private CustomPaintView brushDrawingView;
+        private RenderScheduler renderScheduler;
+        private long exportCacheBytes = Runtime.getRuntime().maxMemory() / 8;
+        private long historyMemoryBytes = Runtime.getRuntime().maxMemory() / 16;
+        private boolean brushRenderThread;
 
         public Builder(Context context, PhotoEditorView photoEditorView) {
             this.context = context;
@@ -662,6 +1570,41 @@ public class PhotoEditor {
             brushDrawingView = photoEditorView.getBrushDrawingView();
         }
 
+        /**
+         * Share a scheduler between editors, {@link RenderScheduler#getDefault()} is used otherwise
+         */
+        public Builder setRenderScheduler(@NonNull RenderScheduler renderScheduler) {
+            this.renderScheduler = renderScheduler;
+            return this;
+        }
+
+        /**
+         * Memory kept between two saves to only redraw the layer edited in between,
+         * an eighth of the heap by default, 0 to disable
+         */
+        public Builder setExportCacheBytes(long exportCacheBytes) {
+            this.exportCacheBytes = exportCacheBytes;
+            return this;
+        }
+
+        /**
+         * Memory kept by the undo history, older brush strokes are moved to the cache directory
+         * beyond it. A sixteenth of the heap by default
+         */
+        public Builder setHistoryMemoryBytes(long historyMemoryBytes) {
+            this.historyMemoryBytes = historyMemoryBytes;
+            return this;
+        }
+
+        /**
+         * Draw brush strokes on a dedicated thread instead of the main one, at the cost of a
+         * second copy of the painted tiles. Off by default
+         */
+        public Builder setBrushRenderThread(boolean brushRenderThread) {
+            this.brushRenderThread = brushRenderThread;
+            return this;
+        }
+
         public PhotoEditor build() {
             return new PhotoEditor(this);
         }
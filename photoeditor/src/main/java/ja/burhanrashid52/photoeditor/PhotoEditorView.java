@@ -8,6 +8,8 @@ import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
+import android.view.MotionEvent;
+import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
@@ -26,6 +28,20 @@ public class PhotoEditorView extends RelativeLayout {
     private static final int imgSrcId = 1, brushSrcId = 2;
     private Bitmap mBitmap;
 
+    private TouchRouter mTouchRouter;
+    private View mTouchTarget;// child receiving the current gesture, null if none
+
+    /**
+     * Picks the overlay receiving a gesture so the overlays are not asked one after the other
+     */
+    interface TouchRouter {
+        /**
+         * @return root view of the topmost overlay handling a touch down at this point, null if none does
+         */
+        @Nullable
+        View findTouchTarget(float x, float y);
+    }
+
     public PhotoEditorView(Context context) {
         super(context);
         init(null);
@@ -97,4 +113,46 @@ public class PhotoEditorView extends RelativeLayout {
     CustomPaintView getBrushDrawingView() {
         return mBrushDrawingView;
     }
+
+    /**
+     * @param touchRouter optional, without one every child is offered the touches as usual
+     */
+    void setTouchRouter(@Nullable TouchRouter touchRouter) {
+        mTouchRouter = touchRouter;
+        mTouchTarget = null;
+    }
+
+    /**
+     * With a router a gesture goes to the overlay it picks on touch down, or to the brush when
+     * drawing, the other children never see it
+     */
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent ev) {
+        if (mTouchRouter == null) {
+            return super.dispatchTouchEvent(ev);
+        }
+
+        final int action = ev.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN) {
+            mTouchTarget = mTouchRouter.findTouchTarget(ev.getX() + getScrollX(), ev.getY() + getScrollY());
+            if (mTouchTarget == null && mBrushDrawingView.getVisibility() == VISIBLE) {
+                mTouchTarget = mBrushDrawingView;
+            }
+        }
+
+        final View target = mTouchTarget;
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            mTouchTarget = null;
+        }
+        if (target == null || target.getParent() != this) {
+            return false;
+        }
+
+        final float offsetX = getScrollX() - target.getLeft();
+        final float offsetY = getScrollY() - target.getTop();
+        ev.offsetLocation(offsetX, offsetY);
+        final boolean handled = target.dispatchTouchEvent(ev);
+        ev.offsetLocation(-offsetX, -offsetY);
+        return handled;
+    }
 }
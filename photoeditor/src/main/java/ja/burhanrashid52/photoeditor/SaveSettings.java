@@ -0,0 +1,73 @@
+package ja.burhanrashid52.photoeditor;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import ja.burhanrashid52.utils.BitmapEncoder;
+import ja.burhanrashid52.utils.BitmapUtils;
+
+/**
+ * Output format, quality and size limit used when saving an image.
+ * <p/>
+ * Without an explicit format it is picked from the file extension.
+ */
+public class SaveSettings {
+
+    public static final int DEFAULT_QUALITY = BitmapUtils.DEFAULT_QUALITY;
+
+    private final BitmapEncoder.Format mFormat;
+    private final int mQuality;
+    private final long mTargetBytes;
+
+    private SaveSettings(Builder builder) {
+        mFormat = builder.format;
+        mQuality = builder.quality;
+        mTargetBytes = builder.targetBytes;
+    }
+
+    /**
+     * @param path     file the image is saved to
+     * @param fallback format used if neither set nor recognized from the extension
+     */
+    public BitmapEncoder.Format getFormat(@Nullable String path, @NonNull BitmapEncoder.Format fallback) {
+        return mFormat != null ? mFormat : BitmapEncoder.Format.fromPath(path, fallback);
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    public long getTargetBytes() {
+        return mTargetBytes;
+    }
+
+    public static class Builder {
+
+        private BitmapEncoder.Format format;
+        private int quality = DEFAULT_QUALITY;
+        private long targetBytes;
+
+        public Builder setFormat(@Nullable BitmapEncoder.Format format) {
+            this.format = format;
+            return this;
+        }
+
+        public Builder setQuality(@IntRange(from = 0, to = 100) int quality) {
+            this.quality = quality;
+            return this;
+        }
+
+        /**
+         * Lower the quality of lossy formats until the file is not larger than this, 0 for no limit
+         */
+        public Builder setTargetBytes(long targetBytes) {
+            this.targetBytes = targetBytes;
+            return this;
+        }
+
+        public SaveSettings build() {
+            return new SaveSettings(this);
+        }
+    }
+}
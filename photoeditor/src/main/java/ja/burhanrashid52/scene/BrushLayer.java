@@ -0,0 +1,82 @@
+package ja.burhanrashid52.scene;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import ja.burhanrashid52.utils.TileSurface;
+
+/**
+ * Painted strokes, kept as the raster of the brush view: the tiles of its paint surface, or a
+ * bitmap once saved and loaded again.
+ * <p/>
+ * When the strokes are also known as vectors they are drawn from those instead, rasterized at the
+ * resolution of the canvas, so an export at the size of the source image stays sharp. The raster
+ * is still what sessions are saved from
+ */
+public class BrushLayer extends Layer {
+
+    private static final Paint sBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final TileSurface mSurface;
+    private final int mWidth;
+    private final int mHeight;
+    private final StrokeSet mStrokes;
+    private Bitmap mRaster;// flattened on demand from mSurface
+
+    public BrushLayer(@NonNull Bitmap raster) {
+        mSurface = null;
+        mWidth = raster.getWidth();
+        mHeight = raster.getHeight();
+        mStrokes = null;
+        mRaster = raster;
+    }
+
+    /**
+     * @param surface tiles of the brush view, not drawn on anymore
+     * @param strokes the strokes of the surface as vectors, in the same coordinates, null if unknown
+     */
+    public BrushLayer(@NonNull TileSurface surface, @Nullable StrokeSet strokes) {
+        mSurface = surface;
+        mWidth = surface.getWidth();
+        mHeight = surface.getHeight();
+        mStrokes = strokes;
+    }
+
+    /**
+     * @return the strokes as one bitmap, flattened from the tiles the first time
+     */
+    public synchronized @NonNull Bitmap getRaster() {
+        if (mRaster == null) {
+            mRaster = mSurface.toBitmap();
+        }
+        return mRaster;
+    }
+
+    public @Nullable StrokeSet getStrokes() {
+        return mStrokes;
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas) {
+        if (mSurface == null) {
+            canvas.drawBitmap(mRaster, 0, 0, sBitmapPaint);
+            return;
+        }
+
+        // clipped to the brush view as the raster is, erasers need a layer of their own
+        final RectF bounds = new RectF(0, 0, mWidth, mHeight);
+        final int count = mStrokes != null && mStrokes.hasEraser() ? canvas.saveLayer(bounds, null) : canvas.save();
+        canvas.clipRect(bounds);
+        if (mStrokes != null) {
+            mStrokes.draw(canvas);
+        } else {
+            // only the painted tiles
+            mSurface.draw(canvas, sBitmapPaint);
+        }
+        canvas.restoreToCount(count);
+    }
+}
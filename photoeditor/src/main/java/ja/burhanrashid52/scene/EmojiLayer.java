@@ -0,0 +1,18 @@
+package ja.burhanrashid52.scene;
+
+import android.graphics.Color;
+import android.support.annotation.NonNull;
+
+/**
+ * Emoji, drawn as text with the default size and no background
+ */
+public class EmojiLayer extends TextLayer {
+
+    public EmojiLayer(@NonNull String emoji) {
+        super(emoji, Color.WHITE);
+    }
+
+    public EmojiLayer(@NonNull String emoji, float textSize) {
+        super(emoji, Color.WHITE, Color.TRANSPARENT, null, textSize);
+    }
+}
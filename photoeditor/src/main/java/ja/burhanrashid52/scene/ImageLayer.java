@@ -0,0 +1,29 @@
+package ja.burhanrashid52.scene;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.annotation.NonNull;
+
+/**
+ * Sticker bitmap drawn with its top left corner at the layer origin
+ */
+public class ImageLayer extends Layer {
+
+    private static final Paint sBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final Bitmap mBitmap;
+
+    public ImageLayer(@NonNull Bitmap bitmap) {
+        mBitmap = bitmap;
+    }
+
+    public @NonNull Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas) {
+        canvas.drawBitmap(mBitmap, 0, 0, sBitmapPaint);
+    }
+}
@@ -0,0 +1,86 @@
+package ja.burhanrashid52.scene;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One element of a {@link Scene}, drawn in its own coordinates and placed by an affine transform
+ * into the scene coordinates.
+ * <p/>
+ * Layers only hold what is needed to draw them, no view, so a scene can be rendered
+ * on any canvas and from any thread.
+ */
+public abstract class Layer {
+
+    private static final AtomicLong sNextId = new AtomicLong(1);
+    private static final AtomicLong sNextRevision = new AtomicLong(1);
+
+    private long mId;
+    private long mRevision;
+    private final Matrix mTransform = new Matrix();
+
+    protected Layer() {
+        mId = nextId();
+        mRevision = nextRevision();
+    }
+
+    /**
+     * @return new identifier unique in the process, for an edited element keeping it across snapshots
+     */
+    public static long nextId() {
+        return sNextId.getAndIncrement();
+    }
+
+    /**
+     * @return new revision, later than all revisions handed out before
+     */
+    public static long nextRevision() {
+        return sNextRevision.getAndIncrement();
+    }
+
+    /**
+     * Tie this layer to the edited element it is a snapshot of, two layers with the same id and
+     * revision draw the same thing
+     */
+    public void setVersion(long id, long revision) {
+        mId = id;
+        mRevision = revision;
+    }
+
+    /**
+     * @return identifier of the edited element, unique in the process
+     */
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * @return revision of the edited element when this layer was taken
+     */
+    public long getRevision() {
+        return mRevision;
+    }
+
+    /**
+     * @param transform layer to scene transform, copied
+     */
+    public void setTransform(@NonNull Matrix transform) {
+        mTransform.set(transform);
+    }
+
+    /**
+     * @return layer to scene transform, not a copy
+     */
+    public @NonNull Matrix getTransform() {
+        return mTransform;
+    }
+
+    /**
+     * Draw the layer in its own coordinates, the canvas already has the transform applied.
+     * Must not modify the layer since the same scene can be drawn by several threads at once
+     */
+    public abstract void draw(@NonNull Canvas canvas);
+}
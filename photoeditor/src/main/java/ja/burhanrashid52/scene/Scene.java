@@ -0,0 +1,125 @@
+package ja.burhanrashid52.scene;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered list of layers over a source image, the first layer is drawn first.
+ * <p/>
+ * This is the whole state of an edit, {@link ja.burhanrashid52.photoeditor.PhotoEditor} exports it
+ * with a snapshot and rebuilds its views from it, and {@link SceneRenderer} draws it on any canvas
+ * without a view.
+ * <p/>
+ * Layer transforms are expressed in a reference space of the scene size, which is scaled
+ * to the size of whatever image the scene is rendered on.
+ */
+public class Scene {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final List<Layer> mLayers = new ArrayList<>();
+
+    /**
+     * @param width  width of the reference space, usually the width of the edited image
+     * @param height height of the reference space
+     */
+    public Scene(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Scene size must be positive");
+        }
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Add a layer on top of all others
+     */
+    public Scene add(@NonNull Layer layer) {
+        mLayers.add(layer);
+        return this;
+    }
+
+    /**
+     * Insert a layer at a z-order position, 0 being the bottom
+     */
+    public Scene add(int index, @NonNull Layer layer) {
+        mLayers.add(index, layer);
+        return this;
+    }
+
+    public boolean remove(@NonNull Layer layer) {
+        return mLayers.remove(layer);
+    }
+
+    public void clear() {
+        mLayers.clear();
+    }
+
+    public @NonNull Layer get(int index) {
+        return mLayers.get(index);
+    }
+
+    /**
+     * @return z-order position of the layer, -1 if not in the scene
+     */
+    public int indexOf(@NonNull Layer layer) {
+        return mLayers.indexOf(layer);
+    }
+
+    public @Nullable Layer findById(long id) {
+        for (int i = 0; i < mLayers.size(); i++) {
+            if (mLayers.get(i).getId() == id) {
+                return mLayers.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Move a layer of the scene to another z-order position
+     *
+     * @return false if the layer is not in the scene
+     */
+    public boolean moveTo(@NonNull Layer layer, int index) {
+        if (!mLayers.remove(layer)) {
+            return false;
+        }
+        mLayers.add(Math.max(0, Math.min(index, mLayers.size())), layer);
+        return true;
+    }
+
+    public boolean bringToFront(@NonNull Layer layer) {
+        return moveTo(layer, mLayers.size());
+    }
+
+    public boolean sendToBack(@NonNull Layer layer) {
+        return moveTo(layer, 0);
+    }
+
+    /**
+     * @return layers from bottom to top, read only
+     */
+    public @NonNull List<Layer> getLayers() {
+        return Collections.unmodifiableList(mLayers);
+    }
+
+    public int size() {
+        return mLayers.size();
+    }
+
+    public boolean isEmpty() {
+        return mLayers.isEmpty();
+    }
+}
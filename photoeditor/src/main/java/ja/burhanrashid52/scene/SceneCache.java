@@ -0,0 +1,204 @@
+package ja.burhanrashid52.scene;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+import ja.burhanrashid52.utils.BitmapPool;
+
+/**
+ * Flattened groups of unchanged layers kept between renders of successive snapshots of a scene.
+ * <p/>
+ * The scene is split around one layer, the most recently edited one. The source and every layer
+ * below it are kept flattened in one buffer, every layer above it in a second transparent buffer.
+ * While the next snapshots only differ by that layer, a render draws three things whatever the
+ * number of layers. Layers are compared by id, revision and transform.
+ */
+public class SceneCache {
+
+    private final long mMaxBytes;
+    private final BitmapPool mBitmapPool;
+
+    private Bitmap mSource;
+    private int mSourceGeneration;
+    private Bitmap mBelow;
+    private Bitmap mAbove;
+    private int mSplit = -1;// index of the layer between the two groups, -1 if nothing is cached
+
+    private long[] mIds;
+    private long[] mRevisions;
+    private float[] mTransforms;
+    private final float[] mValues = new float[9];
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * @param maxBytes memory allowed to the two cached buffers, nothing is cached for images needing more
+     */
+    public SceneCache(long maxBytes, @NonNull BitmapPool bitmapPool) {
+        mMaxBytes = maxBytes;
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * Draw the scene over the source at the size of the source, reusing the cached groups when only
+     * the layer they are split around changed since the previous render
+     *
+     * @param callback optional, told about the layers drawn
+     * @return bitmap borrowed from the pool, to release once not used anymore
+     */
+    public synchronized Bitmap render(@NonNull Bitmap source, @NonNull Scene scene,
+                                      @Nullable SceneRenderer.Callback callback) throws InterruptedException {
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+        final int count = scene.size();
+
+        if (count == 0 || 2L * width * height * 4 > mMaxBytes) {
+            clear();
+            return SceneRenderer.render(source, scene, width, height, mBitmapPool);
+        }
+
+        final List<Layer> layers = scene.getLayers();
+        final int changed = findChange(source, layers);
+        if (mSplit >= 0 && (changed == -1 || changed == mSplit)) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+            rebuild(source, scene, indexOfLatest(layers), callback);
+        }
+
+        final Bitmap result = mBitmapPool.acquire(width, height, Bitmap.Config.ARGB_8888);
+        try {
+            final Canvas canvas = new Canvas(result);
+            canvas.drawBitmap(mBelow, 0, 0, null);
+            SceneRenderer.draw(canvas, scene, width, height, mSplit, mSplit + 1, null);
+            canvas.drawBitmap(mAbove, 0, 0, null);
+            if (callback != null) {
+                callback.onLayerDrawn(count, count);
+            }
+        } catch (InterruptedException e) {
+            mBitmapPool.release(result);
+            throw e;
+        }
+
+        remember(layers);
+        return result;
+    }
+
+    /**
+     * @return index of the only layer that changed, -1 if none did, -2 if the layers or the source
+     * are not the ones cached or more than one layer changed
+     */
+    private int findChange(Bitmap source, List<Layer> layers) {
+        if (mSplit < 0 || source != mSource || source.getGenerationId() != mSourceGeneration
+                || mIds.length != layers.size()) {
+            return -2;
+        }
+
+        int changed = -1;
+        for (int i = 0; i < layers.size(); i++) {
+            final Layer layer = layers.get(i);
+            if (layer.getId() != mIds[i]) {
+                return -2;
+            }
+
+            layer.getTransform().getValues(mValues);
+            if (layer.getRevision() != mRevisions[i] || !sameTransform(i)) {
+                if (changed != -1) {
+                    return -2;
+                }
+                changed = i;
+            }
+        }
+        return changed;
+    }
+
+    private boolean sameTransform(int index) {
+        for (int j = 0; j < 9; j++) {
+            if (mValues[j] != mTransforms[index * 9 + j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return index of the most recently edited layer, the one most likely to change again
+     */
+    private static int indexOfLatest(List<Layer> layers) {
+        int latest = 0;
+        for (int i = 1; i < layers.size(); i++) {
+            if (layers.get(i).getRevision() > layers.get(latest).getRevision()) {
+                latest = i;
+            }
+        }
+        return latest;
+    }
+
+    private void rebuild(Bitmap source, Scene scene, int split, SceneRenderer.Callback callback) throws InterruptedException {
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+
+        // an interrupted rebuild leaves nothing usable behind
+        mSplit = -1;
+        if (mBelow == null || mBelow.getWidth() != width || mBelow.getHeight() != height) {
+            clear();
+            mBelow = mBitmapPool.acquire(width, height, Bitmap.Config.ARGB_8888);
+            mAbove = mBitmapPool.acquire(width, height, Bitmap.Config.ARGB_8888);
+        } else {
+            mBelow.eraseColor(Color.TRANSPARENT);
+            mAbove.eraseColor(Color.TRANSPARENT);
+        }
+
+        final Canvas below = new Canvas(mBelow);
+        below.drawBitmap(source, 0, 0, null);
+        SceneRenderer.draw(below, scene, width, height, 0, split, callback);
+        SceneRenderer.draw(new Canvas(mAbove), scene, width, height, split + 1, scene.size(), callback);
+
+        mSource = source;
+        mSourceGeneration = source.getGenerationId();
+        mSplit = split;
+    }
+
+    private void remember(List<Layer> layers) {
+        final int count = layers.size();
+        if (mIds == null || mIds.length != count) {
+            mIds = new long[count];
+            mRevisions = new long[count];
+            mTransforms = new float[count * 9];
+        }
+
+        for (int i = 0; i < count; i++) {
+            final Layer layer = layers.get(i);
+            mIds[i] = layer.getId();
+            mRevisions[i] = layer.getRevision();
+            layer.getTransform().getValues(mValues);
+            System.arraycopy(mValues, 0, mTransforms, i * 9, 9);
+        }
+    }
+
+    /**
+     * Give the cached buffers back to the pool
+     */
+    public synchronized void clear() {
+        mBitmapPool.release(mBelow);
+        mBitmapPool.release(mAbove);
+        mBelow = null;
+        mAbove = null;
+        mSource = null;
+        mSplit = -1;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+}
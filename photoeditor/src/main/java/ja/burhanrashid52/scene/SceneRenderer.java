@@ -0,0 +1,99 @@
+package ja.burhanrashid52.scene;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+import ja.burhanrashid52.utils.BitmapPool;
+
+/**
+ * Draw a {@link Scene} on any canvas, no view involved
+ */
+public final class SceneRenderer {
+
+    /**
+     * Called on the rendering thread after each layer
+     */
+    public interface Callback {
+        void onLayerDrawn(int drawn, int total);
+    }
+
+    private static final Paint sBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private SceneRenderer() {
+    }
+
+    /**
+     * Draw the source scaled to the given size and the scene over it, the layers are rendered
+     * at that size and not resampled afterwards
+     *
+     * @return bitmap borrowed from the pool, to release once not used anymore
+     */
+    public static Bitmap render(@NonNull Bitmap source, @NonNull Scene scene, int width, int height,
+                                @NonNull BitmapPool bitmapPool) throws InterruptedException {
+        final Bitmap result = bitmapPool.acquire(width, height, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(result);
+        try {
+            canvas.drawBitmap(source, null, new Rect(0, 0, width, height), sBitmapPaint);
+            draw(canvas, scene, width, height);
+        } catch (InterruptedException e) {
+            bitmapPool.release(result);
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Draw all layers over an image of the given size, the scene reference space is scaled to it.
+     * Stops with an {@link InterruptedException} between layers once the current thread is interrupted
+     *
+     * @param width  width of the image drawn on by the canvas
+     * @param height height of the image drawn on by the canvas
+     */
+    public static void draw(@NonNull Canvas canvas, @NonNull Scene scene, int width, int height) throws InterruptedException {
+        draw(canvas, scene, width, height, null);
+    }
+
+    /**
+     * @param callback optional, told about every layer drawn
+     */
+    public static void draw(@NonNull Canvas canvas, @NonNull Scene scene, int width, int height,
+                            @Nullable Callback callback) throws InterruptedException {
+        draw(canvas, scene, width, height, 0, scene.size(), callback);
+    }
+
+    /**
+     * Draw the layers from index start included to end excluded
+     */
+    public static void draw(@NonNull Canvas canvas, @NonNull Scene scene, int width, int height,
+                            int start, int end, @Nullable Callback callback) throws InterruptedException {
+        final List<Layer> layers = scene.getLayers();
+
+        canvas.save();
+        canvas.scale((float) width / scene.getWidth(), (float) height / scene.getHeight());
+        try {
+            for (int i = start; i < end; i++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException("Render cancelled");
+                }
+
+                final Layer layer = layers.get(i);
+                canvas.save();
+                canvas.concat(layer.getTransform());
+                layer.draw(canvas);
+                canvas.restore();
+
+                if (callback != null) {
+                    callback.onLayerDrawn(i + 1 - start, end - start);
+                }
+            }
+        } finally {
+            canvas.restore();
+        }
+    }
+}
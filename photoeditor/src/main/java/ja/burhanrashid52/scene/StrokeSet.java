@@ -0,0 +1,231 @@
+package ja.burhanrashid52.scene;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.RadialGradient;
+import android.graphics.Shader;
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Brush and eraser strokes as vectors, drawn at the resolution of whatever canvas they are drawn on.
+ * <p/>
+ * All points are kept in one float array of x, y pairs, the color, width and eraser flag of every
+ * stroke in arrays of their own. A stroke is smoothed by quadratic curves from the middle of a
+ * segment to the middle of the next one, controlled by the point between them, see {@link #appendPath}.
+ * <p/>
+ * Strokes of the stamp brush are kept as their dabs instead, x, y, diameter and alpha quadruples in
+ * the same array, and stamped again as discs fading out from their hard core, at the resolution of
+ * the canvas too. Immutable once built.
+ */
+public final class StrokeSet {
+
+    /**
+     * Largest dab stamped, in the coordinates of the strokes
+     */
+    public static final int MAX_DAB_DIAMETER = 512;
+
+    private static final PorterDuffXfermode ERASER_MODE = new PorterDuffXfermode(PorterDuff.Mode.DST_IN);
+
+    private final float[] mPoints;
+    private final int[] mStarts;// first float of every stroke in mPoints, then the end of the last one
+    private final int[] mColors;
+    private final float[] mWidths;
+    private final boolean[] mErasers;
+    private final float[] mHardnesses;// of the dabs, negative for a stroke drawn as curves
+    private final boolean mHasEraser;
+
+    private StrokeSet(Builder builder) {
+        final int count = builder.mCount;
+        mPoints = Arrays.copyOf(builder.mPoints, builder.mStarts[count]);
+        mStarts = Arrays.copyOf(builder.mStarts, count + 1);
+        mColors = Arrays.copyOf(builder.mColors, count);
+        mWidths = Arrays.copyOf(builder.mWidths, count);
+        mErasers = Arrays.copyOf(builder.mErasers, count);
+        mHardnesses = Arrays.copyOf(builder.mHardnesses, count);
+
+        boolean hasEraser = false;
+        for (boolean eraser : mErasers) {
+            hasEraser |= eraser;
+        }
+        mHasEraser = hasEraser;
+    }
+
+    public int size() {
+        return mColors.length;
+    }
+
+    /**
+     * @return true if some strokes erase the ones below, they must then be drawn on a layer of their own
+     */
+    public boolean hasEraser() {
+        return mHasEraser;
+    }
+
+    /**
+     * Draw every stroke, safe to call from several threads at once
+     */
+    public void draw(@NonNull Canvas canvas) {
+        final Paint paint = newPaint();
+        final Path path = new Path();
+        Paint dabPaint = null;
+        Matrix dabMatrix = null;
+        for (int i = 0; i < mColors.length; i++) {
+            if (mHardnesses[i] >= 0) {
+                if (dabPaint == null) {
+                    dabPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+                    dabMatrix = new Matrix();
+                }
+                drawDabs(canvas, i, dabPaint, dabMatrix);
+                continue;
+            }
+
+            path.rewind();
+            if (!appendPath(path, mPoints, mStarts[i], mStarts[i + 1] - mStarts[i])) {
+                continue;
+            }
+            paint.setColor(mColors[i]);
+            paint.setStrokeWidth(mWidths[i]);
+            paint.setXfermode(mErasers[i] ? ERASER_MODE : null);
+            canvas.drawPath(path, paint);
+        }
+    }
+
+    /**
+     * Stamp the dabs of a stroke as the stamp brush does live, opaque up to the hard core then
+     * fading out to the edge
+     */
+    private void drawDabs(Canvas canvas, int stroke, Paint paint, Matrix matrix) {
+        final int color = mColors[stroke];
+        final int opaque = color | 0xff000000;
+        // a disc of radius 1 around the origin, moved and scaled to every dab
+        final RadialGradient shader = new RadialGradient(0, 0, 1, new int[]{opaque, opaque, Color.TRANSPARENT},
+                new float[]{0, Math.min(mHardnesses[stroke], 0.99f), 1}, Shader.TileMode.CLAMP);
+        paint.setShader(shader);
+
+        for (int i = mStarts[stroke]; i + 3 < mStarts[stroke + 1]; i += 4) {
+            final float radius = Math.min(mPoints[i + 2], MAX_DAB_DIAMETER) / 2;
+            matrix.setScale(radius, radius);
+            matrix.postTranslate(mPoints[i], mPoints[i + 1]);
+            shader.setLocalMatrix(matrix);
+            paint.setAlpha(Math.round(Color.alpha(color) * mPoints[i + 3]));
+            canvas.drawCircle(mPoints[i], mPoints[i + 1], radius, paint);
+        }
+    }
+
+    /**
+     * @return paint for strokes, its color, width and transfer mode are set for each one
+     */
+    public static Paint newPaint() {
+        final Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setDither(true);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        return paint;
+    }
+
+    /**
+     * Add the curves of one stroke to a path: from the first point, a quadratic curve to the middle
+     * of every segment controlled by the point before it, then a line to the last point
+     *
+     * @param offset first float of the x, y pairs
+     * @param count  number of floats
+     * @return false if there are less than two points, nothing is added
+     */
+    public static boolean appendPath(@NonNull Path path, @NonNull float[] points, int offset, int count) {
+        if (count < 4) {
+            return false;
+        }
+
+        float lastX = points[offset];
+        float lastY = points[offset + 1];
+        path.moveTo(lastX, lastY);
+        for (int i = offset + 2; i + 1 < offset + count; i += 2) {
+            path.quadTo(lastX, lastY, (lastX + points[i]) / 2, (lastY + points[i + 1]) / 2);
+            lastX = points[i];
+            lastY = points[i + 1];
+        }
+        path.lineTo(lastX, lastY);
+        return true;
+    }
+
+    public static class Builder {
+
+        private float[] mPoints;
+        private int[] mStarts;
+        private int[] mColors;
+        private float[] mWidths;
+        private boolean[] mErasers;
+        private float[] mHardnesses;
+        private int mCount;
+
+        /**
+         * @param strokes expected number of strokes
+         */
+        public Builder(int strokes) {
+            final int capacity = Math.max(1, strokes);
+            mPoints = new float[capacity * 32];
+            mStarts = new int[capacity + 1];
+            mColors = new int[capacity];
+            mWidths = new float[capacity];
+            mErasers = new boolean[capacity];
+            mHardnesses = new float[capacity];
+        }
+
+        /**
+         * @param color  color of the brush, alpha included
+         * @param points x, y pairs, copied
+         * @param count  number of floats
+         */
+        public Builder add(int color, float width, boolean eraser, @NonNull float[] points, int count) {
+            return add(color, width, eraser, -1, points, count);
+        }
+
+        /**
+         * @param color    color of the brush, alpha included
+         * @param width    diameter of the dabs at full pressure and rest
+         * @param hardness of the dabs, from 0 to 1
+         * @param points   x, y, diameter and alpha of every dab, copied
+         * @param count    number of floats
+         */
+        public Builder addDabs(int color, float width, float hardness, @NonNull float[] points, int count) {
+            return add(color, width, false, Math.max(0, Math.min(1, hardness)), points, count);
+        }
+
+        private Builder add(int color, float width, boolean eraser, float hardness, float[] points, int count) {
+            if (mCount == mColors.length) {
+                final int capacity = mCount * 2;
+                mStarts = Arrays.copyOf(mStarts, capacity + 1);
+                mColors = Arrays.copyOf(mColors, capacity);
+                mWidths = Arrays.copyOf(mWidths, capacity);
+                mErasers = Arrays.copyOf(mErasers, capacity);
+                mHardnesses = Arrays.copyOf(mHardnesses, capacity);
+            }
+            final int start = mStarts[mCount];
+            if (start + count > mPoints.length) {
+                mPoints = Arrays.copyOf(mPoints, Math.max(mPoints.length * 2, start + count));
+            }
+            System.arraycopy(points, 0, mPoints, start, count);
+
+            mColors[mCount] = color;
+            mWidths[mCount] = width;
+            mErasers[mCount] = eraser;
+            mHardnesses[mCount] = hardness;
+            mCount++;
+            mStarts[mCount] = start + count;
+            return this;
+        }
+
+        public StrokeSet build() {
+            return new StrokeSet(this);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ja.burhanrashid52.scene;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.support.annotation.ColorInt;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ja.burhanrashid52.utils.ListUtil;
+import ja.burhanrashid52.utils.RectUtil;
+
+/**
+ * Text, one line per '\n', drawn like {@link ja.burhanrashid52.views.TextStickerView} laid out at the layer origin
+ */
+public class TextLayer extends Layer {
+
+    public static final float TEXT_SIZE_DEFAULT = 70;
+    public static final int PADDING = 25;
+    public static final int BACKGROUND_PADDING = 10;
+
+    private final String mText;
+    private final List<String> mLines;
+    private final TextPaint mPaint = new TextPaint();
+    private final Paint mBackgroundPaint = new Paint();
+    private String mFontName;
+
+    public TextLayer(@NonNull String text, @ColorInt int textColor, @ColorInt int backgroundColor,
+                     @Nullable Typeface typeface, float textSize) {
+        mText = text;
+        mLines = TextUtils.isEmpty(text) ? new ArrayList<String>() : Arrays.asList(text.split("\n"));
+
+        mPaint.setColor(textColor);
+        mPaint.setTextSize(textSize);
+        mPaint.setAntiAlias(true);
+        mPaint.setTextAlign(Paint.Align.LEFT);
+        mPaint.setTypeface(typeface);
+
+        mBackgroundPaint.setColor(backgroundColor);
+        mBackgroundPaint.setAntiAlias(true);
+    }
+
+    public TextLayer(@NonNull String text, @ColorInt int textColor) {
+        this(text, textColor, Color.TRANSPARENT, null, TEXT_SIZE_DEFAULT);
+    }
+
+    public @NonNull String getText() {
+        return mText;
+    }
+
+    public @NonNull List<String> getLines() {
+        return mLines;
+    }
+
+    public @ColorInt int getTextColor() {
+        return mPaint.getColor();
+    }
+
+    /**
+     * @return background color, alpha included
+     */
+    public @ColorInt int getBackgroundColor() {
+        return mBackgroundPaint.getColor();
+    }
+
+    public @Nullable Typeface getTypeface() {
+        return mPaint.getTypeface();
+    }
+
+    /**
+     * @return name the typeface was chosen by in the editor, if any
+     */
+    public @Nullable String getFontName() {
+        return mFontName;
+    }
+
+    public void setFontName(@Nullable String fontName) {
+        mFontName = fontName;
+    }
+
+    public float getTextSize() {
+        return mPaint.getTextSize();
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas) {
+        // own rects, the same layer can be drawn by several threads
+        drawText(canvas, mLines, mPaint, mBackgroundPaint, 0, 0, 1, 0, new Rect(), new RectF());
+    }
+
+    /**
+     * @param bounds receives the bounds of the text laid out at the layer origin, without padding
+     */
+    public void getBounds(@NonNull Rect bounds) {
+        measureText(mLines, mPaint, 0, 0, bounds);
+    }
+
+    /**
+     * Measure lines of text laid out at x, y
+     *
+     * @param textRect receives the bounds of the text
+     * @return height of one line
+     */
+    public static int measureText(List<String> lines, @NonNull TextPaint paint, int x, int y, @NonNull Rect textRect) {
+        textRect.set(0, 0, 0, 0);//clear
+        Rect tempRect = new Rect();
+        Paint.FontMetricsInt fontMetrics = paint.getFontMetricsInt();
+        int charMinHeight = Math.abs(fontMetrics.top) + Math.abs(fontMetrics.bottom);//字体高度
+        int text_height = charMinHeight;
+
+        for (int i = 0; i < lines.size(); i++) {
+            String text = lines.get(i);
+            paint.getTextBounds(text, 0, text.length(), tempRect);
+
+            if (tempRect.height() <= 0) {//处理此行文字为空的情况
+                tempRect.set(0, 0, 0, text_height);
+            }
+
+            RectUtil.rectAddV(textRect, tempRect, 0, charMinHeight);
+        }//end for i
+
+        textRect.offset(x, y);
+        return text_height;
+    }
+
+    /**
+     * Draw lines of text with an optional rounded background, scaled and rotated around the center of the help box
+     *
+     * @param textRect    receives the bounds of the text
+     * @param helpBoxRect receives the scaled bounds of the help box around the text
+     */
+    public static void drawText(@NonNull Canvas canvas, List<String> lines, @NonNull TextPaint paint,
+                                @NonNull Paint backgroundPaint, int x, int y, float scale, float rotate,
+                                @NonNull Rect textRect, @NonNull RectF helpBoxRect) {
+        if (ListUtil.isEmpty(lines))
+            return;
+
+        int text_height = measureText(lines, paint, x, y, textRect);
+
+        helpBoxRect.set(textRect.left - PADDING, textRect.top - PADDING
+                , textRect.right + PADDING, textRect.bottom + PADDING);
+        RectUtil.scaleRect(helpBoxRect, scale);
+
+        canvas.save();
+        canvas.scale(scale, scale, helpBoxRect.centerX(), helpBoxRect.centerY());
+        canvas.rotate(rotate, helpBoxRect.centerX(), helpBoxRect.centerY());
+
+        if (backgroundPaint.getColor() != 0) {
+            RectF backgroundRect = new RectF(textRect.left - BACKGROUND_PADDING, textRect.top, textRect.right + BACKGROUND_PADDING, textRect.bottom + BACKGROUND_PADDING);
+
+            canvas.drawRoundRect(backgroundRect, 10, 10, backgroundPaint);
+        }
+
+        int draw_text_y = y + (text_height >> 1) + PADDING;
+        for (int i = 0; i < lines.size(); i++) {
+            canvas.drawText(lines.get(i), x, draw_text_y, paint);
+            draw_text_y += text_height;
+        }
+        canvas.restore();
+    }
+}
@@ -0,0 +1,670 @@
+package ja.burhanrashid52.session;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import ja.burhanrashid52.scene.BrushLayer;
+import ja.burhanrashid52.scene.Layer;
+import ja.burhanrashid52.scene.Scene;
+import ja.burhanrashid52.utils.AtomicFileOutputStream;
+import ja.burhanrashid52.views.BrushStroke;
+
+/**
+ * Edits of the editor appended to a file as they happen, to rebuild the session after the process died.
+ * <p/>
+ * The directory holds a snapshot, written with {@link SessionFormat} by {@link #compact}, and a
+ * journal of the edits made since that snapshot: layers added or changed, layers removed, the drawing
+ * order when it changed, and brush strokes with their undo and redo. Both carry the generation of the snapshot, a journal left from an
+ * older generation is ignored. Every entry ends with a checksum, {@link #recover} stops at the first
+ * torn entry.
+ * <p/>
+ * All methods but {@link #recover} are called on the main thread and only hand a copy of the edit to
+ * a single background thread. The journal remembers the revision of each layer it has, so the editor
+ * only copies the layers that changed, see {@link #isJournaled}. The background thread which serializes and writes it. Entries are flushed to the file one by
+ * one so they survive the process, the file is synced to the disk on compaction and {@link #close}
+ */
+public class AutosaveJournal implements Closeable {
+
+    private static final String TAG = AutosaveJournal.class.getSimpleName();
+
+    private static final int SNAPSHOT_MAGIC = 0x50454153;// "PEAS"
+    private static final int JOURNAL_MAGIC = 0x5045414a;// "PEAJ"
+    private static final int VERSION = 1;
+
+    private static final int OP_LAYER = 1;
+    private static final int OP_REMOVE = 2;
+    private static final int OP_STROKE = 3;
+    private static final int OP_UNDO_STROKE = 4;
+    private static final int OP_REDO_STROKE = 5;
+    private static final int OP_STAMP_STROKE = 6;
+    private static final int OP_ORDER = 7;
+
+    /**
+     * Entries appended before {@link #shouldCompact()} asks for a new snapshot
+     */
+    public static final int COMPACT_ENTRIES = 500;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final File mSnapshotFile;
+    private final File mJournalFile;
+    private final BitmapStore mBitmapStore;
+    private final ExecutorService mExecutor;
+
+    // main thread
+    private int mPendingEntries;
+    private volatile boolean mFailed = true;// no journal to append to until the first compaction
+    private Map<Long, Long> mRevisions = new HashMap<>();// id to revision of the layers journaled
+    private long[] mOrder = new long[0];// ids of the layers journaled, in drawing order
+
+    // autosave thread
+    private long mGeneration;
+    private FileOutputStream mFileOut;
+    private DataOutputStream mOut;
+    private final ByteArrayOutputStream mEntry = new ByteArrayOutputStream(1024);
+    private final DataOutputStream mEntryOut = new DataOutputStream(mEntry);
+    private final CRC32 mCrc = new CRC32();
+    private final float[] mValues = new float[9];
+
+    /**
+     * @param directory private to this journal, created if missing
+     */
+    public AutosaveJournal(@NonNull File directory) {
+        mSnapshotFile = new File(directory, "autosave.snapshot");
+        mJournalFile = new File(directory, "autosave.journal");
+        mBitmapStore = new BitmapStore(new File(directory, "bitmaps"));
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "PhotoEditor-autosave");
+                    }
+                });
+    }
+
+    public BitmapStore getBitmapStore() {
+        return mBitmapStore;
+    }
+
+    /**
+     * @return true if a previous session left something to {@link #recover}
+     */
+    public boolean hasSession() {
+        return mSnapshotFile.exists();
+    }
+
+    /**
+     * Start over from this scene: the snapshot is replaced and the journal emptied. Called once when
+     * autosave starts, then whenever {@link #shouldCompact()} says so
+     *
+     * @param scene          layers of the editor, must not be changed afterwards
+     * @param brushWidth     size of the brush view, strokes are in its coordinates
+     * @param brushHeight    size of the brush view
+     * @param brushTransform from the brush view to the image, as the transform of a brush layer
+     */
+    public void compact(@NonNull final Scene scene, final int brushWidth, final int brushHeight,
+                        @NonNull Matrix brushTransform) {
+        mPendingEntries = 0;
+        mFailed = false;
+        mRevisions = new HashMap<>();
+        final long[] order = new long[scene.size()];
+        int count = 0;
+        for (Layer layer : scene.getLayers()) {
+            if (!(layer instanceof BrushLayer)) {
+                mRevisions.put(layer.getId(), layer.getRevision());
+                order[count++] = layer.getId();
+            }
+        }
+        mOrder = Arrays.copyOf(order, count);
+
+        final Matrix transform = new Matrix(brushTransform);
+        submit(new Task() {
+            @Override
+            public void run() throws IOException {
+                writeSnapshot(scene, brushWidth, brushHeight, transform);
+            }
+        });
+    }
+
+    /**
+     * @return true once enough entries have been appended that replaying them would be slower than
+     * reading a new snapshot, or if writing failed
+     */
+    public boolean shouldCompact() {
+        return mFailed || mPendingEntries >= COMPACT_ENTRIES;
+    }
+
+    /**
+     * @return true if this revision of the layer is the one journaled, the layer need not be copied
+     * for {@link #layersChanged}
+     */
+    public boolean isJournaled(long id, long revision) {
+        final Long journaled = mRevisions.get(id);
+        return journaled != null && journaled == revision;
+    }
+
+    /**
+     * Journal the layers added or changed since the previous call, the layers missing from the order
+     * as removed, and the order itself if it moved
+     *
+     * @param changed copies of the layers not {@link #isJournaled}, in drawing order
+     * @param order   ids of every layer but the brush in drawing order, changed or not
+     */
+    public void layersChanged(@NonNull final List<Layer> changed, @NonNull final long[] order) {
+        final Map<Long, Long> previous = mRevisions;
+        mRevisions = new HashMap<>(order.length * 2);
+        for (Layer layer : changed) {
+            mRevisions.put(layer.getId(), layer.getRevision());
+        }
+        for (long id : order) {
+            final Long revision = previous.get(id);
+            if (revision != null && !mRevisions.containsKey(id)) {
+                mRevisions.put(id, revision);
+            }
+        }
+
+        // order recover() gets without an order entry: layers kept in place, new ones on top
+        final long[] replayed = new long[mRevisions.size()];
+        final List<Long> removed = new ArrayList<>();
+        int count = 0;
+        for (long id : mOrder) {
+            if (mRevisions.containsKey(id)) {
+                replayed[count++] = id;
+            } else {
+                removed.add(id);
+            }
+        }
+        for (Layer layer : changed) {
+            if (!previous.containsKey(layer.getId()) && count < replayed.length) {
+                replayed[count++] = layer.getId();
+            }
+        }
+        final boolean reordered = !Arrays.equals(replayed, order);
+        mOrder = order;
+
+        if (changed.isEmpty() && removed.isEmpty() && !reordered) {
+            return;
+        }
+        mPendingEntries += changed.size() + removed.size() + (reordered ? 1 : 0);
+        submit(new Task() {
+            @Override
+            public void run() throws IOException {
+                writeLayers(changed, removed, reordered ? order : null);
+            }
+        });
+    }
+
+    public void strokeAdded(@NonNull BrushStroke stroke) {
+        final float[] points = stroke.copyPoints();
+        if (points == null) {
+            mFailed = true;
+            return;
+        }
+        final int color = stroke.getColor();
+        final float width = stroke.getWidth();
+        final boolean eraser = stroke.isEraser();
+        final boolean stamped = stroke.isStamped();
+        final float hardness = stroke.getHardness();
+
+        mPendingEntries++;
+        submit(new Task() {
+            @Override
+            public void run() throws IOException {
+                mEntryOut.writeInt(color);
+                mEntryOut.writeFloat(width);
+                if (stamped) {
+                    mEntryOut.writeFloat(hardness);
+                } else {
+                    mEntryOut.writeBoolean(eraser);
+                }
+                mEntryOut.writeInt(points.length);
+                for (float value : points) {
+                    mEntryOut.writeFloat(value);
+                }
+                appendEntry(stamped ? OP_STAMP_STROKE : OP_STROKE);
+            }
+        });
+    }
+
+    public void strokeUndone() {
+        mPendingEntries++;
+        submit(new Task() {
+            @Override
+            public void run() throws IOException {
+                appendEntry(OP_UNDO_STROKE);
+            }
+        });
+    }
+
+    public void strokeRedone() {
+        mPendingEntries++;
+        submit(new Task() {
+            @Override
+            public void run() throws IOException {
+                appendEntry(OP_REDO_STROKE);
+            }
+        });
+    }
+
+    /**
+     * Delete the session, typically once the user saved or dropped it
+     */
+    public void discard() {
+        mFailed = true;
+        submit(new Task() {
+            @Override
+            public void run() {
+                closeJournal();
+                mSnapshotFile.delete();
+                mJournalFile.delete();
+            }
+        });
+        mRevisions = new HashMap<>();
+        mOrder = new long[0];
+    }
+
+    /**
+     * Sync what has been written and stop the background thread, nothing is journaled afterwards
+     */
+    @Override
+    public void close() {
+        mFailed = true;
+        submit(new Task() {
+            @Override
+            public void run() throws IOException {
+                if (mOut != null) {
+                    mOut.flush();
+                    mFileOut.getFD().sync();
+                }
+                closeJournal();
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Wait for the background thread to write what was submitted before {@link #close}
+     *
+     * @return false if it did not finish in time
+     */
+    boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+        return mExecutor.awaitTermination(timeout, unit);
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    private void submit(final Task task) {
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (IOException e) {
+                    // appending again after a failure could journal edits over a hole
+                    Log.w(TAG, "Autosave failed, waiting for the next compaction", e);
+                    mFailed = true;
+                    closeJournal();
+                } finally {
+                    mEntry.reset();
+                }
+            }
+        });
+    }
+
+    // ---- autosave thread ----
+
+    private void writeSnapshot(Scene scene, int brushWidth, int brushHeight, Matrix brushTransform) throws IOException {
+        closeJournal();
+        final long generation = mGeneration == 0 ? readGeneration() + 1 : mGeneration + 1;
+
+        AtomicFileOutputStream out = new AtomicFileOutputStream(mSnapshotFile);
+        try {
+            final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+            data.writeInt(SNAPSHOT_MAGIC);
+            data.writeShort(VERSION);
+            data.writeLong(generation);
+            data.writeInt(brushWidth);
+            data.writeInt(brushHeight);
+            brushTransform.getValues(mValues);
+            for (float value : mValues) {
+                data.writeFloat(value);
+            }
+            data.writeInt(scene.size());
+            for (Layer layer : scene.getLayers()) {
+                data.writeLong(layer.getId());
+            }
+            SessionFormat.write(scene, data, mBitmapStore);
+            data.flush();
+            out.commit();
+        } finally {
+            out.close();
+        }
+
+        // a crash from here on leaves the journal of the previous generation, ignored by recover()
+        out = new AtomicFileOutputStream(mJournalFile);
+        try {
+            final DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(JOURNAL_MAGIC);
+            data.writeShort(VERSION);
+            data.writeLong(generation);
+            data.flush();
+            out.commit();
+        } finally {
+            out.close();
+        }
+
+        mGeneration = generation;
+        mFileOut = new FileOutputStream(mJournalFile, true);
+        mOut = new DataOutputStream(new BufferedOutputStream(mFileOut, BUFFER_SIZE));
+    }
+
+    private long readGeneration() {
+        if (!mSnapshotFile.exists()) {
+            return 0;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new FileInputStream(mSnapshotFile));
+            try {
+                return in.readInt() == SNAPSHOT_MAGIC && in.readUnsignedShort() <= VERSION ? in.readLong() : 0;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void writeLayers(List<Layer> changed, List<Long> removed, @Nullable long[] order) throws IOException {
+        for (Layer layer : changed) {
+            mEntryOut.writeLong(layer.getId());
+            final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+            final int type = SessionFormat.writeLayer(layer, new DataOutputStream(record), mValues, mBitmapStore);
+            mEntryOut.writeByte(type);
+            record.writeTo(mEntryOut);
+            appendEntry(OP_LAYER);
+        }
+
+        for (Long id : removed) {
+            mEntryOut.writeLong(id);
+            appendEntry(OP_REMOVE);
+        }
+
+        if (order != null) {
+            mEntryOut.writeInt(order.length);
+            for (long id : order) {
+                mEntryOut.writeLong(id);
+            }
+            appendEntry(OP_ORDER);
+        }
+    }
+
+    /**
+     * Append the entry payload written to mEntryOut, framed by its op, length and checksum
+     */
+    private void appendEntry(int op) throws IOException {
+        try {
+            if (mOut == null) {
+                return;
+            }
+            mEntryOut.flush();
+            mCrc.reset();
+            mCrc.update(op);
+            mCrc.update(mEntry.toByteArray(), 0, mEntry.size());
+
+            mOut.writeByte(op);
+            mOut.writeInt(mEntry.size());
+            mEntry.writeTo(mOut);
+            mOut.writeInt((int) mCrc.getValue());
+            mOut.flush();
+        } finally {
+            mEntry.reset();
+        }
+    }
+
+    private void closeJournal() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException ignored) {
+            }
+            mOut = null;
+            mFileOut = null;
+        }
+    }
+
+    // ---- recovery ----
+
+    /**
+     * Rebuild the scene of the previous session from the snapshot and the journal, to give to
+     * {@link ja.burhanrashid52.photoeditor.PhotoEditor#loadScene}. Reads files only, call it off the
+     * main thread and before autosave starts again
+     *
+     * @param fontResolver optional, gives back the typefaces of the texts by font name
+     * @return null if there is no session
+     */
+    public @Nullable Scene recover(@Nullable SessionFormat.FontResolver fontResolver) throws IOException {
+        if (!mSnapshotFile.exists()) {
+            return null;
+        }
+
+        final InputStream snapshotIn = new FileInputStream(mSnapshotFile);
+        final long generation;
+        final int brushWidth;
+        final int brushHeight;
+        final Matrix brushTransform = new Matrix();
+        final Scene snapshot;
+        final long[] ids;
+        try {
+            final DataInputStream data = new DataInputStream(new BufferedInputStream(snapshotIn, BUFFER_SIZE));
+            if (data.readInt() != SNAPSHOT_MAGIC || data.readUnsignedShort() > VERSION) {
+                throw new IOException("Not an autosave snapshot");
+            }
+            generation = data.readLong();
+            brushWidth = data.readInt();
+            brushHeight = data.readInt();
+            final float[] values = new float[9];
+            for (int i = 0; i < 9; i++) {
+                values[i] = data.readFloat();
+            }
+            brushTransform.setValues(values);
+            ids = new long[data.readInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = data.readLong();
+            }
+            snapshot = SessionFormat.read(data, mBitmapStore, fontResolver);
+        } finally {
+            snapshotIn.close();
+        }
+
+        // layers by id in drawing order, a changed layer keeps its place until an order entry moves it
+        final LinkedHashMap<Long, Layer> layers = new LinkedHashMap<>();
+        Bitmap brushBase = null;
+        for (int i = 0; i < snapshot.size(); i++) {
+            final Layer layer = snapshot.get(i);
+            if (layer instanceof BrushLayer) {
+                brushBase = ((BrushLayer) layer).getRaster();
+            } else if (i < ids.length) {
+                layers.put(ids[i], layer);
+            }
+        }
+
+        final List<BrushStroke> strokes = new ArrayList<>();
+        final int applied = replayJournal(generation, layers, strokes, fontResolver);
+
+        final Scene scene = new Scene(snapshot.getWidth(), snapshot.getHeight());
+        for (Layer layer : layers.values()) {
+            scene.add(layer);
+        }
+
+        if ((brushBase != null || applied > 0) && brushWidth > 0 && brushHeight > 0) {
+            final Bitmap raster = Bitmap.createBitmap(brushWidth, brushHeight, Bitmap.Config.ARGB_8888);
+            final Canvas canvas = new Canvas(raster);
+            if (brushBase != null) {
+                canvas.drawBitmap(brushBase, 0, 0, null);
+            }
+            final Paint paint = BrushStroke.newPaint();
+            for (int i = 0; i < applied; i++) {
+                strokes.get(i).draw(canvas, paint);
+            }
+            final BrushLayer brush = new BrushLayer(raster);
+            brush.setTransform(brushTransform);
+            scene.add(brush);
+        }
+        return scene;
+    }
+
+    /**
+     * Apply the journal entries to the layers and strokes, up to the first torn or corrupted one
+     *
+     * @return number of strokes drawn at the end of the journal
+     */
+    private int replayJournal(long generation, Map<Long, Layer> layers, List<BrushStroke> strokes,
+                              SessionFormat.FontResolver fontResolver) throws IOException {
+        if (!mJournalFile.exists()) {
+            return 0;
+        }
+
+        int applied = 0;
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(mJournalFile), BUFFER_SIZE));
+        try {
+            if (data.readInt() != JOURNAL_MAGIC || data.readUnsignedShort() > VERSION || data.readLong() != generation) {
+                return 0;
+            }
+
+            final Map<String, Bitmap> bitmaps = new HashMap<>();
+            final float[] values = new float[9];
+            final CRC32 crc = new CRC32();
+            byte[] buffer = new byte[1024];
+
+            while (true) {
+                final int op = data.read();
+                if (op < 0) {
+                    break;
+                }
+                final int length = data.readInt();
+                if (length < 0) {
+                    break;
+                }
+                if (buffer.length < length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                data.readFully(buffer, 0, length);
+                crc.reset();
+                crc.update(op);
+                crc.update(buffer, 0, length);
+                if (data.readInt() != (int) crc.getValue()) {
+                    Log.w(TAG, "Autosave journal corrupted, recovered up to the last good entry");
+                    break;
+                }
+
+                final DataInputStream entry = new DataInputStream(new ByteArrayInputStream(buffer, 0, length));
+                switch (op) {
+                    case OP_LAYER: {
+                        final long id = entry.readLong();
+                        final Layer layer = SessionFormat.readLayer(entry.readUnsignedByte(), entry, values,
+                                mBitmapStore, bitmaps, fontResolver);
+                        if (layer != null) {
+                            layers.put(id, layer);
+                        }
+                        break;
+                    }
+                    case OP_REMOVE:
+                        layers.remove(entry.readLong());
+                        break;
+                    case OP_ORDER: {
+                        final Map<Long, Layer> unordered = new LinkedHashMap<>(layers);
+                        layers.clear();
+                        for (int i = entry.readInt(); i > 0; i--) {
+                            final Long id = entry.readLong();
+                            final Layer layer = unordered.remove(id);
+                            if (layer != null) {
+                                layers.put(id, layer);
+                            }
+                        }
+                        layers.putAll(unordered);
+                        break;
+                    }
+                    case OP_STROKE: {
+                        final BrushStroke stroke = new BrushStroke(entry.readInt(), entry.readFloat(), entry.readBoolean());
+                        final int count = entry.readInt();
+                        for (int i = 0; i + 1 < count; i += 2) {
+                            stroke.add(entry.readFloat(), entry.readFloat());
+                        }
+                        strokes.subList(applied, strokes.size()).clear();
+                        strokes.add(stroke);
+                        applied++;
+                        break;
+                    }
+                    case OP_STAMP_STROKE: {
+                        final BrushStroke stroke = BrushStroke.stamped(entry.readInt(), entry.readFloat(), entry.readFloat());
+                        final int count = entry.readInt();
+                        for (int i = 0; i + 3 < count; i += 4) {
+                            stroke.addDab(entry.readFloat(), entry.readFloat(), entry.readFloat(), entry.readFloat());
+                        }
+                        strokes.subList(applied, strokes.size()).clear();
+                        strokes.add(stroke);
+                        applied++;
+                        break;
+                    }
+                    case OP_UNDO_STROKE:
+                        applied = Math.max(0, applied - 1);
+                        break;
+                    case OP_REDO_STROKE:
+                        applied = Math.min(strokes.size(), applied + 1);
+                        break;
+                    default:
+                        // entry of a newer version
+                        break;
+                }
+            }
+        } catch (EOFException e) {
+            // the process died while appending, the entries before are intact
+        } finally {
+            data.close();
+        }
+        return applied;
+    }
+}
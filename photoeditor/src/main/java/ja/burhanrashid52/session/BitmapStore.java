@@ -0,0 +1,146 @@
+package ja.burhanrashid52.session;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import ja.burhanrashid52.utils.BitmapEncoder;
+
+/**
+ * Directory of bitmaps named by the hash of their pixels, sessions refer to bitmaps by that hash.
+ * <p/>
+ * A bitmap used by many layers or many sessions is written once. Hashes are remembered per bitmap
+ * and generation so saving the same stickers again does not read their pixels again
+ */
+public class BitmapStore {
+
+    private static final String EXTENSION = ".png";
+
+    private final File mDirectory;
+    private final Map<Bitmap, Hash> mHashes = new WeakHashMap<>();
+
+    private static final class Hash {
+        final int generationId;
+        final String value;
+
+        Hash(int generationId, String value) {
+            this.generationId = generationId;
+            this.value = value;
+        }
+    }
+
+    /**
+     * @param directory created if missing
+     */
+    public BitmapStore(@NonNull File directory) {
+        mDirectory = directory;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Write the bitmap unless the store already has the same pixels
+     *
+     * @return hash to give to {@link #get}
+     */
+    public String put(@NonNull Bitmap bitmap) throws IOException {
+        final String hash = hash(bitmap);
+        final File file = fileOf(hash);
+        if (!file.exists()) {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Unable to create " + mDirectory);
+            }
+            BitmapEncoder.encode(bitmap, file, BitmapEncoder.Format.PNG, 100, 0);
+        }
+        return hash;
+    }
+
+    /**
+     * @return a new bitmap decoded from the store
+     */
+    public Bitmap get(@NonNull String hash) throws IOException {
+        final File file = fileOf(hash);
+        if (!file.exists()) {
+            throw new FileNotFoundException("Missing bitmap " + hash + " in " + mDirectory);
+        }
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        final Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            throw new IOException("Unable to decode " + file);
+        }
+
+        synchronized (this) {
+            mHashes.put(bitmap, new Hash(bitmap.getGenerationId(), hash));
+        }
+        return bitmap;
+    }
+
+    public boolean contains(@NonNull String hash) {
+        return fileOf(hash).exists();
+    }
+
+    private File fileOf(String hash) {
+        return new File(mDirectory, hash + EXTENSION);
+    }
+
+    /**
+     * SHA-256 of the size and pixels, read one row at a time
+     */
+    private String hash(Bitmap bitmap) {
+        synchronized (this) {
+            final Hash known = mHashes.get(bitmap);
+            if (known != null && known.generationId == bitmap.getGenerationId()) {
+                return known.value;
+            }
+        }
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int[] row = new int[width];
+        final ByteBuffer bytes = ByteBuffer.allocate(Math.max(8, width * 4));
+        bytes.putInt(width).putInt(height).flip();
+        digest.update(bytes);
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            bytes.clear();
+            bytes.asIntBuffer().put(row);
+            digest.update(bytes.array(), 0, width * 4);
+        }
+
+        final String value = toHex(digest.digest());
+        synchronized (this) {
+            mHashes.put(bitmap, new Hash(bitmap.getGenerationId(), value));
+        }
+        return value;
+    }
+
+    private static String toHex(byte[] bytes) {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
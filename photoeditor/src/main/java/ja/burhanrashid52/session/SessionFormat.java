@@ -0,0 +1,231 @@
+package ja.burhanrashid52.session;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Typeface;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import ja.burhanrashid52.scene.BrushLayer;
+import ja.burhanrashid52.scene.EmojiLayer;
+import ja.burhanrashid52.scene.ImageLayer;
+import ja.burhanrashid52.scene.Layer;
+import ja.burhanrashid52.scene.Scene;
+import ja.burhanrashid52.scene.TextLayer;
+
+/**
+ * Binary form of a {@link Scene}, to save an edit session and resume it later.
+ * <p/>
+ * A header with a magic number, the format version and the scene size, then one record per layer:
+ * its type, the length of its payload and the payload. The payload starts with the 9 values of the
+ * layer transform. Bitmaps are not embedded, records hold the hash of the bitmap in a
+ * {@link BitmapStore}. Readers skip record types they don't know, so a newer writer can add
+ * layer types without breaking older readers
+ */
+public final class SessionFormat {
+
+    /**
+     * Resolve the typeface of a text layer from the name it was chosen by in the editor
+     */
+    public interface FontResolver {
+        /**
+         * @return null for the default typeface with that style
+         */
+        @Nullable
+        Typeface resolve(@Nullable String fontName, int style);
+    }
+
+    public static final int MAGIC = 0x50455353;// "PESS"
+    public static final int VERSION = 1;
+
+    private static final int TYPE_IMAGE = 1;
+    private static final int TYPE_TEXT = 2;
+    private static final int TYPE_EMOJI = 3;
+    private static final int TYPE_BRUSH = 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private SessionFormat() {
+    }
+
+    /**
+     * Write the scene, its bitmaps go to the store unless already there
+     */
+    public static void write(@NonNull Scene scene, @NonNull OutputStream out, @NonNull BitmapStore store) throws IOException {
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeInt(scene.getWidth());
+        data.writeInt(scene.getHeight());
+        data.writeInt(scene.size());
+
+        final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+        final DataOutputStream payload = new DataOutputStream(record);
+        final float[] values = new float[9];
+
+        for (Layer layer : scene.getLayers()) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Session write cancelled");
+            }
+
+            record.reset();
+            final int type = writeLayer(layer, payload, values, store);
+            payload.flush();
+            data.writeByte(type);
+            data.writeInt(record.size());
+            record.writeTo(data);
+        }
+        data.flush();
+    }
+
+    /**
+     * Write the transform and fields of a layer, without its type
+     *
+     * @return type of the record
+     */
+    static int writeLayer(Layer layer, DataOutputStream payload, float[] values, BitmapStore store) throws IOException {
+        layer.getTransform().getValues(values);
+        for (float value : values) {
+            payload.writeFloat(value);
+        }
+
+        if (layer instanceof ImageLayer) {
+            payload.writeUTF(store.put(((ImageLayer) layer).getBitmap()));
+            return TYPE_IMAGE;
+        } else if (layer instanceof EmojiLayer) {
+            final EmojiLayer emoji = (EmojiLayer) layer;
+            payload.writeUTF(emoji.getText());
+            payload.writeFloat(emoji.getTextSize());
+            return TYPE_EMOJI;
+        } else if (layer instanceof TextLayer) {
+            final TextLayer text = (TextLayer) layer;
+            payload.writeUTF(text.getText());
+            payload.writeInt(text.getTextColor());
+            payload.writeInt(text.getBackgroundColor());
+            payload.writeFloat(text.getTextSize());
+            payload.writeBoolean(text.getFontName() != null);
+            if (text.getFontName() != null) {
+                payload.writeUTF(text.getFontName());
+            }
+            payload.writeByte(text.getTypeface() != null ? text.getTypeface().getStyle() : Typeface.NORMAL);
+            return TYPE_TEXT;
+        } else if (layer instanceof BrushLayer) {
+            payload.writeUTF(store.put(((BrushLayer) layer).getRaster()));
+            return TYPE_BRUSH;
+        }
+        throw new IOException("Unsupported layer " + layer.getClass().getName());
+    }
+
+    /**
+     * Read a scene written by any version up to {@link #VERSION}. A bitmap used by several layers
+     * is decoded once and shared by them
+     *
+     * @param fontResolver optional, text layers get the default typeface of their style otherwise
+     */
+    public static Scene read(@NonNull InputStream in, @NonNull BitmapStore store,
+                             @Nullable FontResolver fontResolver) throws IOException {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a session file");
+        }
+        final int version = data.readUnsignedShort();
+        if (version > VERSION) {
+            throw new IOException("Session version " + version + " is newer than " + VERSION);
+        }
+
+        final Scene scene = new Scene(data.readInt(), data.readInt());
+        final int count = data.readInt();
+        final Map<String, Bitmap> bitmaps = new HashMap<>();
+        final float[] values = new float[9];
+        byte[] buffer = new byte[256];
+
+        for (int i = 0; i < count; i++) {
+            final int type = data.readUnsignedByte();
+            final int length = data.readInt();
+            if (length < 0) {
+                throw new EOFException("Corrupted layer record " + i);
+            }
+            if (buffer.length < length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            data.readFully(buffer, 0, length);
+
+            final Layer layer = readLayer(type, new DataInputStream(new ByteArrayInputStream(buffer, 0, length)),
+                    values, store, bitmaps, fontResolver);
+            if (layer != null) {
+                scene.add(layer);
+            }
+        }
+        return scene;
+    }
+
+    /**
+     * @return null for an unknown type
+     */
+    static Layer readLayer(int type, DataInputStream payload, float[] values, BitmapStore store,
+                                   Map<String, Bitmap> bitmaps, FontResolver fontResolver) throws IOException {
+        for (int j = 0; j < 9; j++) {
+            values[j] = payload.readFloat();
+        }
+
+        final Layer layer;
+        switch (type) {
+            case TYPE_IMAGE:
+                layer = new ImageLayer(bitmap(payload.readUTF(), store, bitmaps));
+                break;
+            case TYPE_EMOJI:
+                layer = new EmojiLayer(payload.readUTF(), payload.readFloat());
+                break;
+            case TYPE_TEXT: {
+                final String text = payload.readUTF();
+                final int textColor = payload.readInt();
+                final int backgroundColor = payload.readInt();
+                final float textSize = payload.readFloat();
+                final String fontName = payload.readBoolean() ? payload.readUTF() : null;
+                final int style = payload.readByte();
+
+                Typeface typeface = fontResolver != null ? fontResolver.resolve(fontName, style) : null;
+                if (typeface == null && style != Typeface.NORMAL) {
+                    typeface = Typeface.defaultFromStyle(style);
+                }
+                final TextLayer textLayer = new TextLayer(text, textColor, backgroundColor, typeface, textSize);
+                textLayer.setFontName(fontName);
+                layer = textLayer;
+                break;
+            }
+            case TYPE_BRUSH:
+                layer = new BrushLayer(bitmap(payload.readUTF(), store, bitmaps));
+                break;
+            default:
+                return null;
+        }
+
+        final Matrix transform = new Matrix();
+        transform.setValues(values);
+        layer.setTransform(transform);
+        return layer;
+    }
+
+    private static Bitmap bitmap(String hash, BitmapStore store, Map<String, Bitmap> bitmaps) throws IOException {
+        Bitmap bitmap = bitmaps.get(hash);
+        if (bitmap == null) {
+            bitmap = store.get(hash);
+            bitmaps.put(hash, bitmap);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,487 @@
+package ja.burhanrashid52.task;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import ja.burhanrashid52.photoeditor.SaveSettings;
+import ja.burhanrashid52.scene.Scene;
+import ja.burhanrashid52.scene.SceneRenderer;
+import ja.burhanrashid52.utils.BitmapEncoder;
+import ja.burhanrashid52.utils.BitmapPool;
+
+/**
+ * Apply the same {@link Scene} to many source images and save the results, without any view.
+ * <p/>
+ * Images are decoded, composited and encoded on a pool of worker threads. The decoded images in
+ * flight are bounded by a memory ceiling, a worker waits for memory to be given back before
+ * decoding its next image. An image larger than the whole ceiling still runs, alone.
+ */
+public class BatchExporter {
+
+    public interface Listener {
+        /**
+         * Called on the main thread when one image has been saved
+         *
+         * @param index position of the source in the batch
+         */
+        void onItemSuccess(int index, @NonNull BitmapEncoder.Result result);
+
+        void onItemFailure(int index, @NonNull File source, @NonNull Exception exception);
+
+        /**
+         * Called on the main thread when one image has been cancelled with {@link Batch#cancel(int)}
+         */
+        void onItemCancelled(int index, @NonNull File source);
+
+        /**
+         * Called on the main thread once every image has been handled, not called if the batch is cancelled
+         */
+        void onBatchDone(@NonNull Stats stats);
+    }
+
+    public static class Stats {
+        private final int mTotal;
+        private final int mSucceeded;
+        private final int mFailed;
+        private final int mCancelled;
+        private final long mElapsedMillis;
+
+        Stats(int total, int succeeded, int failed, int cancelled, long elapsedMillis) {
+            mTotal = total;
+            mSucceeded = succeeded;
+            mFailed = failed;
+            mCancelled = cancelled;
+            mElapsedMillis = elapsedMillis;
+        }
+
+        public int getTotal() {
+            return mTotal;
+        }
+
+        public int getSucceeded() {
+            return mSucceeded;
+        }
+
+        public int getFailed() {
+            return mFailed;
+        }
+
+        /**
+         * @return images cancelled before they were saved, not counted as failed
+         */
+        public int getCancelled() {
+            return mCancelled;
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+
+        /**
+         * @return images handled per second since the batch started, failed ones included and
+         * cancelled ones left out
+         */
+        public float getImagesPerSecond() {
+            return mElapsedMillis > 0 ? (mSucceeded + mFailed) * 1000f / mElapsedMillis : 0;
+        }
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final MemoryBudget mMemoryBudget;
+    private final SaveSettings mSaveSettings;
+    private final BitmapPool mBitmapPool;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private BatchExporter(Builder builder) {
+        mExecutor = new ThreadPoolExecutor(builder.parallelism, builder.parallelism,
+                RenderScheduler.KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                RenderScheduler.newThreadFactory("batch"));
+        mExecutor.allowCoreThreadTimeOut(true);
+        mMemoryBudget = new MemoryBudget(builder.maxMemoryBytes);
+        mSaveSettings = builder.saveSettings != null ? builder.saveSettings : new SaveSettings.Builder().build();
+        mBitmapPool = builder.bitmapPool != null ? builder.bitmapPool : BitmapPool.getDefault();
+    }
+
+    /**
+     * Save every source with the scene drawn over it. Each result is named after its source,
+     * with the extension of the output format. Sources which would get the same name, such as
+     * a.jpg and a.png saved as JPEG, get a numbered suffix in the order of the list
+     *
+     * @param sources   images to decode, the scene is scaled to the size of each one
+     * @param outputDir existing directory receiving the results
+     * @param scene     layers to draw, must not be modified until the batch is done
+     * @param listener  optional callbacks on the main thread
+     * @return handle to follow or cancel the batch
+     */
+    public Batch export(@NonNull List<File> sources, @NonNull File outputDir, @NonNull final Scene scene,
+                        @Nullable Listener listener) {
+        final Batch batch = new Batch(sources, listener);
+        final Set<String> names = new HashSet<>();
+
+        for (int i = 0; i < sources.size(); i++) {
+            final int index = i;
+            final File source = sources.get(i);
+            final BitmapEncoder.Format format = mSaveSettings.getFormat(source.getName(), BitmapEncoder.Format.JPEG);
+            final File target = new File(outputDir, uniqueName(baseName(source), format.getExtension(), names));
+
+            batch.mFutures.add(mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        batch.onItemSuccess(index, exportItem(source, target, format, scene));
+                    } catch (Exception e) {
+                        if (e instanceof InterruptedException || Thread.currentThread().isInterrupted()) {
+                            // interrupted by a cancel, which already counted the image
+                            batch.onItemCancelled(index);
+                        } else {
+                            batch.onItemFailure(index, source, e);
+                        }
+                    }
+                }
+            }));
+        }
+
+        if (sources.isEmpty()) {
+            batch.finish();
+        }
+        return batch;
+    }
+
+    private BitmapEncoder.Result exportItem(File source, File target, BitmapEncoder.Format format, Scene scene) throws Exception {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("Batch cancelled");
+        }
+
+        final BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Unable to decode " + source);
+        }
+
+        final long reserved = mMemoryBudget.acquire((long) bounds.outWidth * bounds.outHeight * 4);
+        Bitmap bitmap = null;
+        try {
+            bitmap = decodeMutable(source, bounds.outWidth, bounds.outHeight);
+            SceneRenderer.draw(new Canvas(bitmap), scene, bitmap.getWidth(), bitmap.getHeight());
+            return BitmapEncoder.encode(bitmap, target, format, mSaveSettings.getQuality(), mSaveSettings.getTargetBytes());
+        } finally {
+            mBitmapPool.release(bitmap);
+            mMemoryBudget.release(reserved);
+        }
+    }
+
+    /**
+     * Decode straight into a pooled bitmap of the same size, the scene is then drawn on it in place
+     */
+    private Bitmap decodeMutable(File source, int width, int height) throws IOException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = mBitmapPool.acquire(width, height, Bitmap.Config.ARGB_8888);
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(source.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // the decoder refused to reuse the buffer
+            mBitmapPool.release(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(source.getPath(), options);
+        }
+
+        if (bitmap == null) {
+            mBitmapPool.release(options.inBitmap);
+            throw new IOException("Unable to decode " + source);
+        }
+        return bitmap;
+    }
+
+    private static String baseName(File file) {
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * @param taken names already given in lower case, the name returned is added to them
+     * @return base name and extension, with a suffix if the name is taken ignoring case as
+     * external storage does
+     */
+    static String uniqueName(@NonNull String baseName, @NonNull String extension, @NonNull Set<String> taken) {
+        String name = baseName + "." + extension;
+        for (int suffix = 1; !taken.add(name.toLowerCase(Locale.US)); suffix++) {
+            name = baseName + "-" + suffix + "." + extension;
+        }
+        return name;
+    }
+
+    /**
+     * Stop the worker threads, batches still running should be cancelled first since they never complete
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Progress and result of one {@link #export} call
+     */
+    public final class Batch {
+
+        private static final int PENDING = 0;
+        private static final int SUCCEEDED = 1;
+        private static final int FAILED = 2;
+        private static final int CANCELLED = 3;
+
+        private final List<Future<?>> mFutures = new ArrayList<>();
+        private final List<File> mSources;
+        private final Listener mListener;
+        private final int mTotal;
+        private final long mStartNanos = System.nanoTime();
+        private final AtomicIntegerArray mStates;// settled once, by the worker or by a cancel
+        private final AtomicInteger mSucceeded = new AtomicInteger();
+        private final AtomicInteger mFailed = new AtomicInteger();
+        private final AtomicInteger mItemsCancelled = new AtomicInteger();
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile boolean mCancelled;
+
+        Batch(List<File> sources, Listener listener) {
+            mSources = new ArrayList<>(sources);
+            mTotal = sources.size();
+            mStates = new AtomicIntegerArray(mTotal);
+            mListener = listener;
+        }
+
+        private void onItemSuccess(final int index, final BitmapEncoder.Result result) {
+            if (!settle(index, SUCCEEDED)) {
+                return;
+            }
+            mSucceeded.incrementAndGet();
+            if (mListener != null && !mCancelled) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.onItemSuccess(index, result);
+                    }
+                });
+            }
+            checkDone();
+        }
+
+        private void onItemFailure(final int index, final File source, final Exception exception) {
+            if (!settle(index, FAILED)) {
+                return;
+            }
+            mFailed.incrementAndGet();
+            if (mListener != null && !mCancelled) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.onItemFailure(index, source, exception);
+                    }
+                });
+            }
+            checkDone();
+        }
+
+        /**
+         * The worker saw the interrupt of a cancel, counted unless the cancel has already been
+         */
+        private void onItemCancelled(int index) {
+            if (settle(index, CANCELLED)) {
+                mItemsCancelled.incrementAndGet();
+                checkDone();
+            }
+        }
+
+        /**
+         * @return true if the image was still pending, a cancel racing the worker wins only once
+         */
+        private boolean settle(int index, int state) {
+            return mStates.compareAndSet(index, PENDING, state);
+        }
+
+        private void checkDone() {
+            if (mSucceeded.get() + mFailed.get() + mItemsCancelled.get() == mTotal) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            final Stats stats = getStats();
+            mDone.countDown();
+            if (mListener != null && !mCancelled) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.onBatchDone(stats);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Interrupt the running images and drop the queued ones, files already saved are kept
+         */
+        public void cancel() {
+            mCancelled = true;
+            for (int i = 0; i < mFutures.size(); i++) {
+                if (settle(i, CANCELLED)) {
+                    mItemsCancelled.incrementAndGet();
+                }
+                mFutures.get(i).cancel(true);
+            }
+            mDone.countDown();
+        }
+
+        /**
+         * Interrupt or drop one image, the rest of the batch goes on. The image is reported as
+         * cancelled, never as failed, and a file already saved for it is kept
+         *
+         * @param index position of the source in the batch
+         * @return false if the image had already been handled
+         */
+        public boolean cancel(final int index) {
+            if (!settle(index, CANCELLED)) {
+                return false;
+            }
+            mItemsCancelled.incrementAndGet();
+            mFutures.get(index).cancel(true);
+            if (mListener != null && !mCancelled) {
+                final File source = mSources.get(index);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.onItemCancelled(index, source);
+                    }
+                });
+            }
+            checkDone();
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        /**
+         * Block until every image has been handled or the batch is cancelled
+         */
+        public void await() throws InterruptedException {
+            mDone.await();
+        }
+
+        public boolean await(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+            return mDone.await(timeout, unit);
+        }
+
+        /**
+         * @return counters so far, the throughput is measured since the batch started
+         */
+        public Stats getStats() {
+            return new Stats(mTotal, mSucceeded.get(), mFailed.get(), mItemsCancelled.get(),
+                    (System.nanoTime() - mStartNanos) / 1000000);
+        }
+    }
+
+    /**
+     * Bytes of decoded images in flight, shared by all batches of an exporter
+     */
+    private static final class MemoryBudget {
+
+        private final long mMaxBytes;
+        private long mUsedBytes;
+
+        MemoryBudget(long maxBytes) {
+            mMaxBytes = maxBytes;
+        }
+
+        /**
+         * @return amount actually reserved, to give back to {@link #release}
+         */
+        synchronized long acquire(long bytes) throws InterruptedException {
+            final long reserved = Math.min(bytes, mMaxBytes);
+            while (mUsedBytes + reserved > mMaxBytes) {
+                wait();
+            }
+            mUsedBytes += reserved;
+            return reserved;
+        }
+
+        synchronized void release(long bytes) {
+            mUsedBytes -= bytes;
+            notifyAll();
+        }
+    }
+
+    public static class Builder {
+
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private long maxMemoryBytes = Runtime.getRuntime().maxMemory() / 4;
+        private SaveSettings saveSettings;
+        private BitmapPool bitmapPool;
+
+        /**
+         * Maximum number of images processed at the same time, the number of cores by default
+         */
+        public Builder setParallelism(int parallelism) {
+            if (parallelism <= 0) {
+                throw new IllegalArgumentException("Parallelism must be positive");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Maximum bytes of decoded images held at the same time, a quarter of the heap by default
+         */
+        public Builder setMaxMemoryBytes(long maxMemoryBytes) {
+            if (maxMemoryBytes <= 0) {
+                throw new IllegalArgumentException("Memory ceiling must be positive");
+            }
+            this.maxMemoryBytes = maxMemoryBytes;
+            return this;
+        }
+
+        /**
+         * Output format and quality of every image, the format follows the source extension if not set
+         */
+        public Builder setSaveSettings(@NonNull SaveSettings saveSettings) {
+            this.saveSettings = saveSettings;
+            return this;
+        }
+
+        public Builder setBitmapPool(@NonNull BitmapPool bitmapPool) {
+            this.bitmapPool = bitmapPool;
+            return this;
+        }
+
+        public BatchExporter build() {
+            return new BatchExporter(this);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ja.burhanrashid52.task;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit of work queued on one of the {@link RenderScheduler} pools.
+ * <p/>
+ * Ordered by priority first and submission order second, and records how long it waited in the queue.
+ * Cancelling with {@code mayInterruptIfRunning} interrupts the worker so long renders can abort.
+ */
+public class RenderFuture<V> extends FutureTask<V> implements Comparable<RenderFuture<?>> {
+
+    private final RenderScheduler.Priority mPriority;
+    private final long mSequence;
+    private final long mEnqueueNanos;
+
+    private volatile long mStartNanos;
+    private volatile long mEndNanos;
+
+    RenderFuture(@NonNull Callable<V> callable, @NonNull RenderScheduler.Priority priority, long sequence) {
+        super(callable);
+        mPriority = priority;
+        mSequence = sequence;
+        mEnqueueNanos = System.nanoTime();
+    }
+
+    @Override
+    public void run() {
+        mStartNanos = System.nanoTime();
+        try {
+            super.run();
+        } finally {
+            mEndNanos = System.nanoTime();
+        }
+    }
+
+    public RenderScheduler.Priority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @return time spent waiting for a worker, or the time waited so far if not started yet
+     */
+    public long getQueueDelayMillis() {
+        final long start = mStartNanos != 0 ? mStartNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(start - mEnqueueNanos);
+    }
+
+    /**
+     * @return time spent running on the worker, 0 if not started yet
+     */
+    public long getRunMillis() {
+        if (mStartNanos == 0) {
+            return 0;
+        }
+        final long end = mEndNanos != 0 ? mEndNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - mStartNanos);
+    }
+
+    @Override
+    public int compareTo(@NonNull RenderFuture<?> other) {
+        final int byPriority = mPriority.compareTo(other.mPriority);
+        if (byPriority != 0) {
+            return byPriority;
+        }
+        return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+    }
+}
@@ -0,0 +1,448 @@
+package ja.burhanrashid52.task;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handle of one save going through the stages of a {@link RenderScheduler}.
+ * <p/>
+ * Every stage is queued with the priority of the job, when a stage finishes its {@link StageListener}
+ * either queues the next stage or completes the job. A stage can also fan out into parallel works.
+ * Cancelling the job interrupts the running stages.
+ * The {@link Listener} is called on the main thread and never for a cancelled job.
+ */
+public class RenderJob<V> implements Future<V> {
+
+    public interface Listener<V> {
+        void onSuccess(@NonNull V result);
+
+        void onFailure(@NonNull Exception exception);
+    }
+
+    /**
+     * What a job is busy with, reported along its progress
+     */
+    public enum Phase {
+        COMPOSITE,
+        ENCODE,
+        WRITE
+    }
+
+    public interface ProgressListener {
+        /**
+         * @param fraction progress of the whole job, from 0 to 1
+         */
+        void onProgress(@NonNull Phase phase, float fraction);
+    }
+
+    /**
+     * Called on the worker thread with the result of a stage. Exactly one of its methods is called
+     * for every work submitted, once the work is not running anymore
+     */
+    public abstract static class StageListener<T> {
+        public abstract void onStageDone(T result) throws Exception;
+
+        /**
+         * Called instead of {@link #onStageDone} when the job is finished, by a cancel or a failure,
+         * before the result could be used. Give back here the buffers held by the work or its result
+         *
+         * @param result what the work returned, null if it failed or never ran. For parallel works
+         *               the results in order, null for each of those
+         */
+        public void onDiscard(@Nullable T result) {
+        }
+    }
+
+    private static final int WORK_PENDING = 0;
+    private static final int WORK_RUNNING = 1;
+    private static final int WORK_DISCARDED = 2;
+
+    private final RenderScheduler mScheduler;
+    private final RenderScheduler.Priority mPriority;
+    private final Listener<V> mListener;
+    private final long mCreatedNanos = System.nanoTime();
+
+    private final Object mLock = new Object();
+    private final List<RenderFuture<?>> mRunningStages = new ArrayList<>();
+    private boolean mDone;
+    private boolean mCancelled;
+    private V mResult;
+    private Exception mError;
+    private long mQueueDelayMillis;
+    private long mFinishedNanos;
+
+    private volatile ProgressListener mProgressListener;
+    private Phase mPhase = Phase.COMPOSITE;
+    private float mFraction;
+    private boolean mProgressPosted;
+    private final Runnable mDispatchProgress = new Runnable() {
+        @Override
+        public void run() {
+            final Phase phase;
+            final float fraction;
+            synchronized (mLock) {
+                mProgressPosted = false;
+                if (mCancelled) {
+                    return;
+                }
+                phase = mPhase;
+                fraction = mFraction;
+            }
+            final ProgressListener listener = mProgressListener;
+            if (listener != null) {
+                listener.onProgress(phase, fraction);
+            }
+        }
+    };
+
+    RenderJob(RenderScheduler scheduler, RenderScheduler.Priority priority, @Nullable Listener<V> listener) {
+        mScheduler = scheduler;
+        mPriority = priority;
+        mListener = listener;
+    }
+
+    /**
+     * @return false if the job is already finished, the work never runs and the listener is given
+     * {@link StageListener#onDiscard} right away
+     */
+    public <T> boolean submitStage(@NonNull RenderScheduler.Stage stage, @NonNull final Callable<T> work,
+                                   @NonNull final StageListener<T> next) {
+        // claimed either by the worker starting the work or by a cancel before that
+        final AtomicInteger state = new AtomicInteger(WORK_PENDING);
+        final Callable<T> claimed = new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                if (!state.compareAndSet(WORK_PENDING, WORK_RUNNING)) {
+                    throw new CancellationException();
+                }
+                return work.call();
+            }
+        };
+
+        final RenderFuture<T> future = new RenderFuture<T>(claimed, mPriority, mScheduler.nextSequence()) {
+            @Override
+            protected void set(T result) {
+                super.set(result);
+                if (isCancelled()) {
+                    // the work returned after it was cancelled, nobody else sees its result
+                    next.onDiscard(result);
+                }
+            }
+
+            @Override
+            protected void setException(Throwable t) {
+                super.setException(t);
+                if (isCancelled() && state.get() == WORK_RUNNING) {
+                    next.onDiscard(null);
+                }
+            }
+
+            @Override
+            protected void done() {
+                synchronized (mLock) {
+                    mRunningStages.remove(this);
+                }
+                if (isCancelled()) {
+                    // a running work is discarded by set or setException once it really returns
+                    if (state.compareAndSet(WORK_PENDING, WORK_DISCARDED)) {
+                        next.onDiscard(null);
+                    }
+                    return;
+                }
+                synchronized (mLock) {
+                    mQueueDelayMillis += getQueueDelayMillis();
+                }
+
+                final T result;
+                try {
+                    result = get();
+                } catch (ExecutionException | InterruptedException e) {
+                    final Throwable cause = e.getCause();
+                    RenderJob.this.setException(cause instanceof Exception ? (Exception) cause : e);
+                    next.onDiscard(null);
+                    return;
+                }
+                deliver(next, result);
+            }
+        };
+
+        synchronized (mLock) {
+            if (mDone) {
+                state.set(WORK_DISCARDED);
+                next.onDiscard(null);
+                return false;
+            }
+            mRunningStages.add(future);
+        }
+        mScheduler.execute(stage, future);
+        return true;
+    }
+
+    /**
+     * Run several works of the same stage in parallel, the listener receives all their results
+     * in order once the last one is done. The first failure fails the job and interrupts the others,
+     * the listener is then given the results of the works which ended anyway, to discard
+     *
+     * @return false if the job was finished before all works could be queued
+     */
+    public <T> boolean submitStages(@NonNull RenderScheduler.Stage stage, @NonNull List<? extends Callable<T>> works,
+                                    @NonNull final StageListener<List<T>> next) {
+        final int count = works.size();
+        if (count == 0) {
+            deliver(next, new ArrayList<T>());
+            return !isDone();
+        }
+
+        final Object[] results = new Object[count];
+        final int[] remaining = {count};// guarded by results
+        final boolean[] discarded = {false};
+        boolean queued = true;
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            queued &= submitStage(stage, works.get(i), new StageListener<T>() {
+                @Override
+                public void onStageDone(T result) {
+                    onWorkEnded(result, false);
+                }
+
+                @Override
+                public void onDiscard(T result) {
+                    onWorkEnded(result, true);
+                }
+
+                @SuppressWarnings("unchecked")
+                private void onWorkEnded(T result, boolean discard) {
+                    final List<T> all;
+                    synchronized (results) {
+                        results[index] = result;
+                        discarded[0] |= discard;
+                        if (--remaining[0] > 0) {
+                            return;
+                        }
+                        all = new ArrayList<>(count);
+                        for (Object r : results) {
+                            all.add((T) r);
+                        }
+                        discard = discarded[0];
+                    }
+                    if (discard) {
+                        next.onDiscard(all);
+                    } else {
+                        deliver(next, all);
+                    }
+                }
+            });
+        }
+        return queued;
+    }
+
+    /**
+     * Give a result to the next stage, or have it discarded if the job is already finished
+     */
+    private <T> void deliver(StageListener<T> next, T result) {
+        if (isDone()) {
+            next.onDiscard(result);
+            return;
+        }
+        try {
+            next.onStageDone(result);
+        } catch (Exception e) {
+            setException(e);
+        }
+    }
+
+    /**
+     * @return a stage listener completing this job with the result of the stage
+     */
+    public StageListener<V> complete() {
+        return new StageListener<V>() {
+            @Override
+            public void onStageDone(V result) {
+                set(result);
+            }
+        };
+    }
+
+    /**
+     * @param listener called on the main thread, never after the job is cancelled. Set it right after
+     *                 the job is created to not miss any update
+     */
+    public void setProgressListener(@Nullable ProgressListener listener) {
+        mProgressListener = listener;
+    }
+
+    /**
+     * Report progress from any thread. Updates are coalesced, the listener only sees the latest one
+     * not yet delivered so reporting often costs no allocation and at most one pending message
+     */
+    public void publishProgress(@NonNull Phase phase, float fraction) {
+        synchronized (mLock) {
+            if (mDone) {
+                return;
+            }
+            mPhase = phase;
+            mFraction = Math.max(mFraction, Math.min(1f, fraction));
+            if (mProgressPosted || mProgressListener == null) {
+                return;
+            }
+            mProgressPosted = true;
+        }
+        mScheduler.postToMain(mDispatchProgress);
+    }
+
+    public void set(final V result) {
+        publishProgress(Phase.WRITE, 1f);
+        synchronized (mLock) {
+            if (mDone) {
+                return;
+            }
+            mResult = result;
+            finishLocked();
+        }
+        if (mListener != null) {
+            mScheduler.postToMain(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled()) {
+                        mListener.onSuccess(result);
+                    }
+                }
+            });
+        }
+    }
+
+    public void setException(@NonNull final Exception exception) {
+        final List<RenderFuture<?>> stages;
+        synchronized (mLock) {
+            if (mDone) {
+                return;
+            }
+            mError = exception;
+            stages = finishLocked();
+        }
+        for (RenderFuture<?> stage : stages) {
+            stage.cancel(true);
+        }
+        if (mListener != null) {
+            mScheduler.postToMain(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled()) {
+                        mListener.onFailure(exception);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return stages still running, for parallel stages a failure leaves behind
+     */
+    private List<RenderFuture<?>> finishLocked() {
+        mDone = true;
+        mFinishedNanos = System.nanoTime();
+        mLock.notifyAll();
+
+        final List<RenderFuture<?>> stages = new ArrayList<>(mRunningStages);
+        mRunningStages.clear();
+        return stages;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        final List<RenderFuture<?>> stages;
+        synchronized (mLock) {
+            if (mDone) {
+                return false;
+            }
+            mCancelled = true;
+            stages = finishLocked();
+        }
+        for (RenderFuture<?> stage : stages) {
+            stage.cancel(mayInterruptIfRunning);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        synchronized (mLock) {
+            return mCancelled;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        synchronized (mLock) {
+            return mDone;
+        }
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        synchronized (mLock) {
+            while (!mDone) {
+                mLock.wait();
+            }
+            return resultLocked();
+        }
+    }
+
+    @Override
+    public V get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (mLock) {
+            while (!mDone) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(mLock, remaining);
+            }
+            return resultLocked();
+        }
+    }
+
+    private V resultLocked() throws ExecutionException {
+        if (mCancelled) {
+            throw new CancellationException();
+        }
+        if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mResult;
+    }
+
+    public RenderScheduler.Priority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @return total time the stages of this job spent waiting for a worker
+     */
+    public long getQueueDelayMillis() {
+        synchronized (mLock) {
+            return mQueueDelayMillis;
+        }
+    }
+
+    /**
+     * @return time from creation to completion, or the time elapsed so far if still running
+     */
+    public long getElapsedMillis() {
+        synchronized (mLock) {
+            final long end = mDone ? mFinishedNanos : System.nanoTime();
+            return TimeUnit.NANOSECONDS.toMillis(end - mCreatedNanos);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ja.burhanrashid52.task;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dedicated executors for saving images, independent from the shared {@link android.os.AsyncTask} executor.
+ * <p/>
+ * Compositing and encoding run on two separate bounded pools so a slow encode never blocks
+ * the next render. Both pools order their queue by {@link Priority} so interactive previews
+ * run ahead of background exports.
+ */
+public class RenderScheduler {
+
+    public enum Priority {
+        INTERACTIVE,
+        BACKGROUND
+    }
+
+    public enum Stage {
+        COMPOSITE,
+        ENCODE
+    }
+
+    static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static RenderScheduler sDefault;
+
+    private final ThreadPoolExecutor mCompositeExecutor;
+    private final ThreadPoolExecutor mEncodeExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * @param compositeThreads maximum number of renders running at the same time
+     * @param encodeThreads    maximum number of encodes running at the same time
+     */
+    public RenderScheduler(int compositeThreads, int encodeThreads) {
+        mCompositeExecutor = createExecutor("composite", compositeThreads);
+        mEncodeExecutor = createExecutor("encode", encodeThreads);
+    }
+
+    /**
+     * Process wide scheduler used by every {@link ja.burhanrashid52.photoeditor.PhotoEditor} unless one is provided
+     */
+    public static synchronized RenderScheduler getDefault() {
+        if (sDefault == null) {
+            final int cpus = Runtime.getRuntime().availableProcessors();
+            sDefault = new RenderScheduler(Math.max(1, Math.min(2, cpus - 1)), Math.max(1, Math.min(2, cpus / 2)));
+        }
+        return sDefault;
+    }
+
+    public <V> RenderFuture<V> submit(@NonNull Stage stage, @NonNull Priority priority, @NonNull Callable<V> callable) {
+        final RenderFuture<V> future = new RenderFuture<>(callable, priority, nextSequence());
+        execute(stage, future);
+        return future;
+    }
+
+    public <V> RenderJob<V> newJob(@NonNull Priority priority, RenderJob.Listener<V> listener) {
+        return new RenderJob<>(this, priority, listener);
+    }
+
+    long nextSequence() {
+        return mSequence.getAndIncrement();
+    }
+
+    void execute(Stage stage, RenderFuture<?> future) {
+        // execute() and not submit() so the queue receives the comparable future itself
+        (stage == Stage.COMPOSITE ? mCompositeExecutor : mEncodeExecutor).execute(future);
+    }
+
+    public void postToMain(@NonNull Runnable runnable) {
+        mMainHandler.post(runnable);
+    }
+
+    /**
+     * @return number of tasks waiting for a worker in the given stage
+     */
+    public int getQueuedCount(@NonNull Stage stage) {
+        return (stage == Stage.COMPOSITE ? mCompositeExecutor : mEncodeExecutor).getQueue().size();
+    }
+
+    public void shutdown() {
+        mCompositeExecutor.shutdownNow();
+        mEncodeExecutor.shutdownNow();
+    }
+
+    private static ThreadPoolExecutor createExecutor(final String name, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                newThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Background priority threads named after the pool, for logs and traces
+     */
+    static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "PhotoEditor-" + name + "-" + mCount.incrementAndGet());
+            }
+        };
+    }
+}
@@ -1,76 +1,198 @@
 package ja.burhanrashid52.task;
 
-import android.annotation.TargetApi;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
-import android.os.AsyncTask;
-import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.widget.ImageView;
 
+import java.io.File;
+import java.io.IOException;
+
+import ja.burhanrashid52.utils.AtomicFileOutputStream;
+import ja.burhanrashid52.utils.BitmapPool;
 import ja.burhanrashid52.utils.Matrix3;
+import ja.burhanrashid52.utils.PngStreamWriter;
 
 /**
  * Created by panyi on 2016/8/14.
  * <p/>
  * 贴图合成任务 抽象类
+ * <p/>
+ * Runs on a {@link RenderScheduler} worker, the image matrix is captured on creation so the task
+ * must be created on the main thread. Compositing stops with an {@link InterruptedException}
+ * as soon as the worker is interrupted.
  */
-public abstract class StickerTask extends AsyncTask<Bitmap, Void, Bitmap> {
+public abstract class StickerTask {
+
+    /**
+     * Default memory budget of one band in tiled mode
+     */
+    public static final int DEFAULT_BAND_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Share of the job progress taken by compositing in full size mode, the rest is encoding
+     */
+    public static final float COMPOSITE_SHARE = 0.5f;
+
+    private final Matrix mInverseMatrix;
+    private final BitmapPool mBitmapPool;
 
-    private final ImageView mImageView;
+    private RenderJob<?> mJob;
+    private float mProgressStart;
+    private float mProgressSpan;
 
     public StickerTask(@NonNull ImageView imageView) {
-        mImageView = imageView;
+        this(imageView, BitmapPool.getDefault());
     }
 
-    @Override
-    protected void onPreExecute() {
-        super.onPreExecute();
+    /**
+     * Task whose layers are already in the coordinates of the source image, m is the identity
+     */
+    public StickerTask(@NonNull BitmapPool bitmapPool) {
+        mBitmapPool = bitmapPool;
+        mInverseMatrix = new Matrix();
     }
 
-    @Override
-    protected Bitmap doInBackground(Bitmap... params) {
-        // System.out.println("保存贴图!");
-        Matrix touchMatrix = mImageView.getImageMatrix();
+    public StickerTask(@NonNull ImageView imageView, @NonNull BitmapPool bitmapPool) {
+        mBitmapPool = bitmapPool;
 
-        Bitmap resultBit = Bitmap.createBitmap(params[0]).copy(
-                Bitmap.Config.ARGB_8888, true);
-        Canvas canvas = new Canvas(resultBit);
+        Matrix touchMatrix = imageView.getImageMatrix();
 
         float[] data = new float[9];
         touchMatrix.getValues(data);// 底部图片变化记录矩阵原始数据
         Matrix3 cal = new Matrix3(data);// 辅助矩阵计算类
         Matrix3 inverseMatrix = cal.inverseMatrix();// 计算逆矩阵
-        Matrix m = new Matrix();
-        m.setValues(inverseMatrix.getValues());
+        mInverseMatrix = new Matrix();
+        mInverseMatrix.setValues(inverseMatrix.getValues());
+    }
 
-        handleImage(canvas, m);
+    /**
+     * Composite all layers on a full size copy of the source, the copy is borrowed from the
+     * bitmap pool and should be released to it once it is not used anymore
+     */
+    public Bitmap composite(@NonNull Bitmap source) throws InterruptedException {
+        // System.out.println("保存贴图!");
+        throwIfCancelled();
+
+        Bitmap resultBit = mBitmapPool.acquire(source.getWidth(), source.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        boolean done = false;
+        try {
+            Canvas canvas = new Canvas(resultBit);
+            canvas.drawBitmap(source, 0, 0, null);
+
+            mProgressStart = 0;
+            mProgressSpan = COMPOSITE_SHARE;
+            handleImage(canvas, mInverseMatrix);
+            done = true;
+        } finally {
+            if (!done) {
+                mBitmapPool.release(resultBit);
+            }
+        }
 
         return resultBit;
     }
 
-    @Override
-    protected void onCancelled() {
-        super.onCancelled();
+    /**
+     * Composite the source and all layers one horizontal band at a time, every finished band
+     * is streamed into the encoder so peak memory is one band plus one row regardless of the image size
+     *
+     * @param bandBytes memory budget of one band, {@link #DEFAULT_BAND_BYTES} if 0
+     */
+    public File compositeTiled(@NonNull Bitmap source, @NonNull File target, int bandBytes) throws IOException, InterruptedException {
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+        final int budget = bandBytes > 0 ? bandBytes : DEFAULT_BAND_BYTES;
+        final int bandHeight = Math.max(1, Math.min(height, budget / (width * 4)));
+
+        Bitmap band = null;
+        AtomicFileOutputStream out = null;
+        PngStreamWriter writer = null;
+        try {
+            band = mBitmapPool.acquire(width, bandHeight, Bitmap.Config.ARGB_8888);
+            final Canvas canvas = new Canvas(band);
+            final int[] row = new int[width];
+
+            out = new AtomicFileOutputStream(target);
+            writer = new PngStreamWriter(out, width, height);
+
+            for (int top = 0; top < height; top += bandHeight) {
+                throwIfCancelled();
+
+                final int rows = Math.min(bandHeight, height - top);
+                mProgressStart = (float) top / height;
+                mProgressSpan = (float) rows / height;
+
+                band.eraseColor(Color.TRANSPARENT);
+                canvas.save();
+                canvas.clipRect(0, 0, width, rows);
+                canvas.translate(0, -top);
+                canvas.drawBitmap(source, 0, 0, null);
+                handleImage(canvas, mInverseMatrix);
+                canvas.restore();
+
+                for (int y = 0; y < rows; y++) {
+                    band.getPixels(row, 0, width, 0, y, width, 1);
+                    writer.writeRows(row, 0, width, 1);
+                }
+                publishProgress(RenderJob.Phase.ENCODE, (float) (top + rows) / height);
+            }
+
+            writer.finish();
+            publishProgress(RenderJob.Phase.WRITE, 1f);
+            out.commit();
+            return target;
+        } finally {
+            if (writer != null) {
+                writer.close();
+            } else if (out != null) {
+                out.close();
+            }
+            mBitmapPool.release(band);
+        }
     }
 
-    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
-    @Override
-    protected void onCancelled(Bitmap result) {
-        super.onCancelled(result);
+    /**
+     * Report progress to this job, optional
+     */
+    public void setJob(@Nullable RenderJob<?> job) {
+        mJob = job;
     }
 
-    @Override
-    protected void onPostExecute(Bitmap result) {
-        super.onPostExecute(result);
+    /**
+     * Report how many layers {@link #handleImage} has drawn, mapped to the part of the job
+     * progress covered by the current image or band
+     */
+    protected final void publishLayerProgress(int drawn, int total) {
+        if (total > 0) {
+            publishProgress(RenderJob.Phase.COMPOSITE, mProgressStart + mProgressSpan * drawn / total);
+        }
+    }
 
-        onPostResult(result);
+    private void publishProgress(RenderJob.Phase phase, float fraction) {
+        if (mJob != null) {
+            mJob.publishProgress(phase, fraction);
+        }
     }
 
-    public abstract void handleImage(Canvas canvas, Matrix m);
+    /**
+     * Throw if the worker running this task has been interrupted by a cancellation,
+     * called between layers and bands
+     */
+    protected static void throwIfCancelled() throws InterruptedException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("Render cancelled");
+        }
+    }
 
-    public abstract void onPostResult(Bitmap result);
+    /**
+     * Draw all layers on the canvas, in tiled mode this is called once per band with the canvas
+     * already clipped and translated so it must not modify the layers state
+     */
+    public abstract void handleImage(Canvas canvas, Matrix m) throws InterruptedException;
 
 }//end class
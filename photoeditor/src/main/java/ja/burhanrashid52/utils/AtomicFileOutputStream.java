@@ -0,0 +1,195 @@
+package ja.burhanrashid52.utils;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Write a file through a sibling temp file which only replaces the target on {@link #commit()}.
+ * <p/>
+ * Until then readers keep seeing the previous file, and if the writer dies or {@link #close()}
+ * is called without a commit the temp file is discarded. Bytes go through a buffered
+ * {@link FileChannel}, the data is synced to disk before the rename. Writing from an interrupted
+ * thread fails with an {@link InterruptedIOException}.
+ * <p/>
+ * A writer killed before it could discard its temp file leaves it behind, such temp files of the
+ * same target are deleted by the next stream opened on it once they are {@link #STALE_MILLIS} old.
+ */
+public class AtomicFileOutputStream extends OutputStream {
+
+    private static final String TAG = AtomicFileOutputStream.class.getSimpleName();
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Age of a temp file since its last write after which its writer is considered dead
+     */
+    static final long STALE_MILLIS = 60 * 1000;
+
+    private final File mTarget;
+    private final File mTemp;
+    private final FileOutputStream mFileStream;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+
+    private long mCount;
+    private boolean mClosed;
+
+    public AtomicFileOutputStream(@NonNull File target) throws IOException {
+        this(target, new byte[DEFAULT_BUFFER_SIZE]);
+    }
+
+    /**
+     * @param buffer write buffer, may be reused once this stream is closed
+     */
+    public AtomicFileOutputStream(@NonNull File target, @NonNull byte[] buffer) throws IOException {
+        mTarget = target.getAbsoluteFile();
+        final String prefix = "." + mTarget.getName() + ".";
+        deleteStale(mTarget.getParentFile(), prefix);
+        mTemp = File.createTempFile(prefix, ".tmp", mTarget.getParentFile());
+        mFileStream = new FileOutputStream(mTemp);
+        mChannel = mFileStream.getChannel();
+        mBuffer = ByteBuffer.wrap(buffer);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (!mBuffer.hasRemaining()) {
+            flushBuffer();
+        }
+        mBuffer.put((byte) b);
+        mCount++;
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len > mBuffer.remaining()) {
+            flushBuffer();
+        }
+        if (len >= mBuffer.capacity()) {
+            writeFully(ByteBuffer.wrap(b, off, len));
+        } else {
+            mBuffer.put(b, off, len);
+        }
+        mCount += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        flushBuffer();
+    }
+
+    /**
+     * Sync the written bytes to disk and atomically move them over the target
+     */
+    public void commit() throws IOException {
+        ensureOpen();
+        mClosed = true;
+        try {
+            flushBuffer();
+            mChannel.force(true);
+            mFileStream.close();
+        } catch (IOException e) {
+            discard();
+            throw e;
+        }
+
+        if (!mTemp.renameTo(mTarget)) {
+            discard();
+            throw new IOException("Unable to move " + mTemp + " to " + mTarget);
+        }
+    }
+
+    /**
+     * Drop everything written so far, the target is left untouched. Does nothing after a commit
+     */
+    public void abort() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        discard();
+    }
+
+    /**
+     * Same as {@link #abort()}, a stream must be committed explicitly to replace the target
+     */
+    @Override
+    public void close() {
+        abort();
+    }
+
+    public long getBytesWritten() {
+        return mCount;
+    }
+
+    public File getTarget() {
+        return mTarget;
+    }
+
+    private void discard() {
+        try {
+            mFileStream.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to close " + mTemp, e);
+        }
+        if (!mTemp.delete() && mTemp.exists()) {
+            Log.e(TAG, "Unable to delete " + mTemp);
+        }
+    }
+
+    /**
+     * Delete the temp files left by dead writers of the same target, the ones still written to are kept
+     */
+    private static void deleteStale(File directory, final String prefix) {
+        final File[] temps = directory != null ? directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.endsWith(".tmp");
+            }
+        }) : null;
+        if (temps == null) {
+            return;
+        }
+
+        final long staleBefore = System.currentTimeMillis() - STALE_MILLIS;
+        for (File temp : temps) {
+            if (temp.lastModified() < staleBefore && !temp.delete()) {
+                Log.e(TAG, "Unable to delete stale " + temp);
+            }
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        mBuffer.flip();
+        writeFully(mBuffer);
+        mBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        // checked here and not left to the channel, which would close itself on interrupt
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Write cancelled");
+        }
+        while (source.hasRemaining()) {
+            mChannel.write(source);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package ja.burhanrashid52.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Encode bitmaps to JPEG, PNG or WEBP through a large per thread reusable buffer,
+ * optionally lowering the quality until the output fits a target size.
+ * <p/>
+ * Files are replaced atomically, a failed or interrupted encode leaves the previous file intact.
+ */
+public class BitmapEncoder {
+
+    public static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final int MIN_QUALITY = 10;
+
+    private static final ThreadLocal<byte[]> sBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    public enum Format {
+        JPEG(CompressFormat.JPEG, false, "jpg"),
+        PNG(CompressFormat.PNG, true, "png"),
+        WEBP(CompressFormat.WEBP, false, "webp");
+
+        private final CompressFormat mCompressFormat;
+        private final boolean mLossless;
+        private final String mExtension;
+
+        Format(CompressFormat compressFormat, boolean lossless, String extension) {
+            mCompressFormat = compressFormat;
+            mLossless = lossless;
+            mExtension = extension;
+        }
+
+        public CompressFormat getCompressFormat() {
+            return mCompressFormat;
+        }
+
+        public boolean isLossless() {
+            return mLossless;
+        }
+
+        /**
+         * @return usual file extension, without the dot
+         */
+        public String getExtension() {
+            return mExtension;
+        }
+
+        /**
+         * @return format matching the extension of the path, or the fallback if unknown
+         */
+        public static Format fromPath(@Nullable String path, @NonNull Format fallback) {
+            if (path == null) {
+                return fallback;
+            }
+            final String lower = path.toLowerCase(Locale.US);
+            if (lower.endsWith(".png")) {
+                return PNG;
+            } else if (lower.endsWith(".webp")) {
+                return WEBP;
+            } else if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+                return JPEG;
+            }
+            return fallback;
+        }
+    }
+
+    /**
+     * Called on the encoding thread
+     */
+    public interface Listener {
+        /**
+         * The image has been compressed, the file is about to be synced and moved in place
+         */
+        void onWrite();
+    }
+
+    public static class Result {
+        private final File mFile;
+        private final Format mFormat;
+        private final int mQuality;
+        private final long mBytesWritten;
+        private final long mEncodeMillis;
+
+        public Result(@NonNull File file, @NonNull Format format, int quality, long bytesWritten, long encodeMillis) {
+            mFile = file;
+            mFormat = format;
+            mQuality = quality;
+            mBytesWritten = bytesWritten;
+            mEncodeMillis = encodeMillis;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        public Format getFormat() {
+            return mFormat;
+        }
+
+        /**
+         * @return quality actually used, lower than requested if a target size was set
+         */
+        public int getQuality() {
+            return mQuality;
+        }
+
+        public long getBytesWritten() {
+            return mBytesWritten;
+        }
+
+        /**
+         * @return time spent encoding and writing, including quality search
+         */
+        public long getEncodeMillis() {
+            return mEncodeMillis;
+        }
+    }
+
+    /**
+     * @param format      output format
+     * @param quality     0 to 100, ignored for PNG
+     * @param targetBytes if positive, the highest quality whose output is not larger is used, ignored for PNG
+     */
+    public static Result encode(@NonNull Bitmap bitmap, @NonNull File file, @NonNull Format format,
+                                int quality, long targetBytes) throws IOException {
+        return encode(bitmap, file, format, quality, targetBytes, null);
+    }
+
+    /**
+     * Stops with an {@link InterruptedIOException} between quality trials and every buffer written
+     * once the thread is interrupted, the previous file is kept
+     *
+     * @param listener optional, told when the encoded bytes start going to disk
+     */
+    public static Result encode(@NonNull Bitmap bitmap, @NonNull File file, @NonNull Format format,
+                                int quality, long targetBytes, @Nullable Listener listener) throws IOException {
+        final long start = System.nanoTime();
+
+        int usedQuality = Math.max(0, Math.min(100, quality));
+        if (targetBytes > 0 && !format.isLossless()) {
+            usedQuality = findQuality(bitmap, format, usedQuality, targetBytes);
+        }
+
+        final AtomicFileOutputStream out = new AtomicFileOutputStream(file, sBuffer.get());
+        try {
+            if (!bitmap.compress(format.getCompressFormat(), usedQuality, out)) {
+                throwIfInterrupted();
+                throw new IOException("Unable to encode bitmap as " + format);
+            }
+            if (listener != null) {
+                listener.onWrite();
+            }
+            out.commit();
+        } finally {
+            out.close();
+        }
+
+        return new Result(file, format, usedQuality, out.getBytesWritten(),
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Binary search of the highest quality fitting the target, trial encodes only count bytes
+     */
+    private static int findQuality(Bitmap bitmap, Format format, int maxQuality, long targetBytes) throws IOException {
+        if (encodedSize(bitmap, format, maxQuality) <= targetBytes) {
+            return maxQuality;
+        }
+
+        int low = MIN_QUALITY;
+        int high = maxQuality - 1;
+        int best = MIN_QUALITY;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (encodedSize(bitmap, format, mid) <= targetBytes) {
+                best = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return best;
+    }
+
+    private static long encodedSize(Bitmap bitmap, Format format, int quality) throws IOException {
+        throwIfInterrupted();
+        final CountingOutputStream counter = new CountingOutputStream();
+        bitmap.compress(format.getCompressFormat(), quality, counter);
+        return counter.getCount();
+    }
+
+    private static void throwIfInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Encode cancelled");
+        }
+    }
+
+    /**
+     * Sink only counting the bytes of trial encodes
+     */
+    static final class CountingOutputStream extends OutputStream {
+
+        private long mCount;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) {
+            mCount += len;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package ja.burhanrashid52.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Pool of mutable bitmaps bucketed by exact size and config, bounded by a memory budget.
+ * <p/>
+ * Compositing and export buffers are borrowed with {@link #acquire} and given back with {@link #release}
+ * once nothing reads them anymore, so repeated saves at the same resolution do not allocate.
+ * When the budget is exceeded the least recently released bitmaps are recycled first.
+ */
+public class BitmapPool {
+
+    private static BitmapPool sDefault;
+
+    private final long mMaxBytes;
+    private long mCurrentBytes;
+
+    private final HashMap<Long, ArrayDeque<Bitmap>> mBuckets = new HashMap<>();
+    private final ArrayDeque<Bitmap> mReleaseOrder = new ArrayDeque<>();
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Process wide pool limited to an eighth of the heap
+     */
+    public static synchronized BitmapPool getDefault() {
+        if (sDefault == null) {
+            sDefault = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+        }
+        return sDefault;
+    }
+
+    /**
+     * @return a cleared mutable bitmap of the exact size, pooled if possible
+     */
+    public Bitmap acquire(int width, int height, @NonNull Bitmap.Config config) {
+        final Bitmap pooled = take(width, height, config);
+        if (pooled != null) {
+            pooled.eraseColor(Color.TRANSPARENT);
+            return pooled;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    private synchronized @Nullable Bitmap take(int width, int height, Bitmap.Config config) {
+        final ArrayDeque<Bitmap> bucket = mBuckets.get(key(width, height, config));
+        final Bitmap bitmap = bucket != null ? bucket.pollLast() : null;
+        if (bitmap == null) {
+            mMissCount++;
+            return null;
+        }
+
+        mReleaseOrder.remove(bitmap);
+        mCurrentBytes -= bitmap.getAllocationByteCount();
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * Give a bitmap back, the caller must not use it afterwards
+     */
+    public void release(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+
+        final int size = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || size > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        synchronized (this) {
+            final long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayDeque<>();
+                mBuckets.put(key, bucket);
+            } else if (bucket.contains(bitmap)) {
+                return;
+            }
+
+            bucket.addLast(bitmap);
+            mReleaseOrder.addLast(bitmap);
+            mCurrentBytes += size;
+
+            trimToSize(mMaxBytes);
+        }
+    }
+
+    private void trimToSize(long maxBytes) {
+        while (mCurrentBytes > maxBytes && !mReleaseOrder.isEmpty()) {
+            final Bitmap oldest = mReleaseOrder.pollFirst();
+            final long key = key(oldest.getWidth(), oldest.getHeight(), oldest.getConfig());
+            final ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+            bucket.remove(oldest);
+            if (bucket.isEmpty()) {
+                mBuckets.remove(key);
+            }
+
+            mCurrentBytes -= oldest.getAllocationByteCount();
+            mEvictionCount++;
+            oldest.recycle();
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized long getPooledBytes() {
+        return mCurrentBytes;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized void resetStats() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mEvictionCount = 0;
+    }
+
+    private static long key(int width, int height, Bitmap.Config config) {
+        final int configIndex = config != null ? config.ordinal() + 1 : 0;
+        return ((long) width << 32) | ((long) height << 4) | configIndex;
+    }
+}
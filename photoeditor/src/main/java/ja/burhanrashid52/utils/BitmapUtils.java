@@ -17,12 +17,9 @@
 package ja.burhanrashid52.utils;
 
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
 import android.support.annotation.Nullable;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 /**
@@ -32,25 +29,34 @@ import java.io.IOException;
  */
 public class BitmapUtils {
 
+    public static final int DEFAULT_QUALITY = 90;
+
     /**
      * 保存Bitmap图片到指定文件
+     * <p/>
+     * The format follows the file extension, JPEG if unknown
      *
      * @param bm
      */
     public static @Nullable File saveBitmap(Bitmap bm, String filePath) {
+        final BitmapEncoder.Result result = saveBitmap(bm, filePath,
+                BitmapEncoder.Format.fromPath(filePath, BitmapEncoder.Format.JPEG), DEFAULT_QUALITY, 0);
+        return result != null ? result.getFile() : null;
+    }
+
+    /**
+     * 保存Bitmap图片到指定文件
+     *
+     * @param format      output format
+     * @param quality     0 to 100, ignored for PNG
+     * @param targetBytes maximum size of lossy output, 0 for no limit
+     * @return written file with its size and encode time, null on failure
+     */
+    public static @Nullable BitmapEncoder.Result saveBitmap(Bitmap bm, String filePath, BitmapEncoder.Format format,
+                                                            int quality, long targetBytes) {
         File f = new File(filePath);
-        if (f.exists()) {
-            f.delete();
-        }
         try {
-            FileOutputStream out = new FileOutputStream(f);
-            bm.compress(CompressFormat.JPEG, 100, out);
-            out.flush();
-            out.close();
-            return f;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            return null;
+            return BitmapEncoder.encode(bm, f, format, quality, targetBytes);
         } catch (IOException e) {
             e.printStackTrace();
             return null;
@@ -0,0 +1,199 @@
+package ja.burhanrashid52.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streaming PNG encoder, rows are written top to bottom as they are produced
+ * so the whole image never has to exist in memory at once.
+ * <p/>
+ * Output is 8 bit RGBA (color type 6) with filter type 0 on every row.
+ */
+public class PngStreamWriter implements Closeable {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+
+    private final OutputStream mOut;
+    private final int mWidth;
+    private final int mHeight;
+
+    private final Deflater mDeflater;
+    private final DeflaterOutputStream mImageData;
+    private final byte[] mRowBytes;
+    private final CRC32 mCrc = new CRC32();
+
+    private int mRowsWritten;
+    private boolean mFinished;
+
+    public PngStreamWriter(OutputStream out, int width, int height) throws IOException {
+        this(out, width, height, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public PngStreamWriter(OutputStream out, int width, int height, int compressionLevel) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+        }
+
+        mOut = out;
+        mWidth = width;
+        mHeight = height;
+        mRowBytes = new byte[1 + width * 4];
+
+        mDeflater = new Deflater(compressionLevel);
+        mImageData = new DeflaterOutputStream(new ChunkOutputStream(), mDeflater, IDAT_CHUNK_SIZE);
+
+        mOut.write(SIGNATURE);
+        writeHeader();
+    }
+
+    /**
+     * Append rows of non premultiplied ARGB pixels as returned by {@link android.graphics.Bitmap#getPixels}
+     *
+     * @param argb   pixel source
+     * @param offset index of the first pixel of the first row
+     * @param stride number of entries between two rows in {@code argb}
+     * @param rows   number of rows to append
+     */
+    public void writeRows(int[] argb, int offset, int stride, int rows) throws IOException {
+        if (mRowsWritten + rows > mHeight) {
+            throw new IllegalStateException("Too many rows, image height is " + mHeight);
+        }
+
+        final byte[] line = mRowBytes;
+        for (int r = 0; r < rows; r++) {
+            int src = offset + r * stride;
+            int dst = 1;
+            line[0] = 0;// filter type none
+            for (int x = 0; x < mWidth; x++) {
+                final int color = argb[src++];
+                line[dst++] = (byte) (color >> 16);
+                line[dst++] = (byte) (color >> 8);
+                line[dst++] = (byte) color;
+                line[dst++] = (byte) (color >>> 24);
+            }
+            mImageData.write(line, 0, line.length);
+        }
+
+        mRowsWritten += rows;
+    }
+
+    public int getRowsWritten() {
+        return mRowsWritten;
+    }
+
+    /**
+     * Flush the pending image data and write the trailing chunk, all rows must have been written
+     */
+    public void finish() throws IOException {
+        if (mFinished) {
+            return;
+        }
+        if (mRowsWritten != mHeight) {
+            throw new IllegalStateException("Only " + mRowsWritten + " of " + mHeight + " rows written");
+        }
+
+        mImageData.finish();
+        mImageData.flush();
+        writeChunk("IEND", null, 0, 0);
+        mOut.flush();
+        mFinished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDeflater.end();
+        mOut.close();
+    }
+
+    private void writeHeader() throws IOException {
+        final byte[] header = new byte[13];
+        writeInt(header, 0, mWidth);
+        writeInt(header, 4, mHeight);
+        header[8] = 8;// bit depth
+        header[9] = 6;// color type RGBA
+        header[10] = 0;// compression
+        header[11] = 0;// filter
+        header[12] = 0;// interlace
+        writeChunk("IHDR", header, 0, header.length);
+    }
+
+    private void writeChunk(String type, byte[] data, int offset, int length) throws IOException {
+        final byte[] prefix = new byte[8];
+        writeInt(prefix, 0, length);
+        for (int i = 0; i < 4; i++) {
+            prefix[4 + i] = (byte) type.charAt(i);
+        }
+        mOut.write(prefix);
+
+        mCrc.reset();
+        mCrc.update(prefix, 4, 4);
+        if (length > 0) {
+            mOut.write(data, offset, length);
+            mCrc.update(data, offset, length);
+        }
+
+        final byte[] crc = new byte[4];
+        writeInt(crc, 0, (int) mCrc.getValue());
+        mOut.write(crc);
+    }
+
+    private static void writeInt(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) (value >>> 24);
+        dst[offset + 1] = (byte) (value >>> 16);
+        dst[offset + 2] = (byte) (value >>> 8);
+        dst[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Collects deflated bytes and emits them as IDAT chunks of bounded size
+     */
+    private final class ChunkOutputStream extends OutputStream {
+
+        private final byte[] mBuffer = new byte[IDAT_CHUNK_SIZE];
+        private int mCount;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mCount == mBuffer.length) {
+                flushChunk();
+            }
+            mBuffer[mCount++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (mCount == mBuffer.length) {
+                    flushChunk();
+                }
+                final int n = Math.min(len, mBuffer.length - mCount);
+                System.arraycopy(b, off, mBuffer, mCount, n);
+                mCount += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushChunk();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (mCount > 0) {
+                writeChunk("IDAT", mBuffer, 0, mCount);
+                mCount = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package ja.burhanrashid52.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Surface split in square tiles, a tile is only allocated once something is drawn on it.
+ * <p/>
+ * A small scribble on a full screen costs one or two tiles instead of a bitmap of the whole
+ * screen. Drawing takes the bounds of what is drawn, only the tiles within them are touched.
+ * Tiles come from and go back to the {@link BitmapPool}.
+ * <p/>
+ * An {@link Bitmap.Config#ALPHA_8} surface works as a mask of another one, see {@link #drawMasked}.
+ * <p/>
+ * Not thread safe, except {@link #draw(Canvas, Paint)} which may be called from several threads
+ * once nothing draws on the surface anymore.
+ */
+public final class TileSurface {
+
+    public static final int TILE_SIZE = 256;
+
+    private static final Paint sCopyPaint = new Paint();
+    private static final Paint sMaskPaint = new Paint();
+
+    static {
+        sCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        sMaskPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
+    }
+
+    private final Bitmap.Config mConfig;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mColumns;
+    private final int mRows;
+    private final Bitmap[] mTiles;// row by row, null while transparent
+    private final Canvas[] mCanvases;// translated to draw in surface coordinates
+    private int mTileCount;
+
+    private final Rect mRange = new Rect();// tiles within the bounds being drawn
+    private final RectF mMapped = new RectF();
+
+    public TileSurface(int width, int height) {
+        this(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @param config {@link Bitmap.Config#ARGB_8888} or {@link Bitmap.Config#ALPHA_8} for a mask
+     */
+    public TileSurface(int width, int height, @NonNull Bitmap.Config config) {
+        mConfig = config;
+        mWidth = width;
+        mHeight = height;
+        mColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        mRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        mTiles = new Bitmap[mColumns * mRows];
+        mCanvases = new Canvas[mTiles.length];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public @NonNull Bitmap.Config getConfig() {
+        return mConfig;
+    }
+
+    public boolean isEmpty() {
+        return mTileCount == 0;
+    }
+
+    /**
+     * @return tiles allocated
+     */
+    public int getTileCount() {
+        return mTileCount;
+    }
+
+    /**
+     * @return bytes of the allocated tiles
+     */
+    public long getMemoryBytes() {
+        final int bytesPerPixel = mConfig == Bitmap.Config.ALPHA_8 ? 1 : 4;
+        return (long) bytesPerPixel * TILE_SIZE * TILE_SIZE * mTileCount;
+    }
+
+    /**
+     * Draw a path on the tiles within its bounds
+     *
+     * @param bounds what the path covers, stroke width included
+     * @param erase  the paint only removes pixels, transparent tiles are left alone
+     */
+    public void drawPath(@NonNull Path path, @NonNull Paint paint, @NonNull Rect bounds, boolean erase) {
+        if (!range(bounds.left, bounds.top, bounds.right, bounds.bottom)) {
+            return;
+        }
+        for (int row = mRange.top; row < mRange.bottom; row++) {
+            for (int column = mRange.left; column < mRange.right; column++) {
+                final Canvas canvas = canvas(row * mColumns + column, !erase);
+                if (canvas != null) {
+                    canvas.drawPath(path, paint);
+                }
+            }
+        }
+    }
+
+    /**
+     * Draw a bitmap on the tiles it covers once transformed
+     */
+    public void drawBitmap(@NonNull Bitmap bitmap, @NonNull Matrix matrix, @Nullable Paint paint) {
+        mMapped.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        matrix.mapRect(mMapped);
+        if (!range((int) Math.floor(mMapped.left), (int) Math.floor(mMapped.top),
+                (int) Math.ceil(mMapped.right), (int) Math.ceil(mMapped.bottom))) {
+            return;
+        }
+        for (int row = mRange.top; row < mRange.bottom; row++) {
+            for (int column = mRange.left; column < mRange.right; column++) {
+                canvas(row * mColumns + column, true).drawBitmap(bitmap, matrix, paint);
+            }
+        }
+    }
+
+    /**
+     * Draw a bitmap scaled to a rectangle, on the tiles the rectangle covers
+     */
+    public void drawBitmap(@NonNull Bitmap bitmap, @NonNull RectF dst, @Nullable Paint paint) {
+        if (!range((int) Math.floor(dst.left), (int) Math.floor(dst.top),
+                (int) Math.ceil(dst.right), (int) Math.ceil(dst.bottom))) {
+            return;
+        }
+        for (int row = mRange.top; row < mRange.bottom; row++) {
+            for (int column = mRange.left; column < mRange.right; column++) {
+                canvas(row * mColumns + column, true).drawBitmap(bitmap, null, dst, paint);
+            }
+        }
+    }
+
+    /**
+     * Draw every allocated tile at its place
+     */
+    public void draw(@NonNull Canvas canvas, @Nullable Paint paint) {
+        for (int i = 0; i < mTiles.length; i++) {
+            final Bitmap tile = mTiles[i];
+            if (tile != null) {
+                canvas.drawBitmap(tile, (i % mColumns) * TILE_SIZE, (i / mColumns) * TILE_SIZE, paint);
+            }
+        }
+    }
+
+    /**
+     * Draw the allocated tiles within a clip, as when only part of a view is redrawn
+     */
+    public void draw(@NonNull Canvas canvas, @NonNull Rect clip, @Nullable Paint paint) {
+        if (!range(clip.left, clip.top, clip.right, clip.bottom)) {
+            return;
+        }
+        for (int row = mRange.top; row < mRange.bottom; row++) {
+            for (int column = mRange.left; column < mRange.right; column++) {
+                final Bitmap tile = mTiles[row * mColumns + column];
+                if (tile != null) {
+                    canvas.drawBitmap(tile, column * TILE_SIZE, row * TILE_SIZE, paint);
+                }
+            }
+        }
+    }
+
+    /**
+     * Draw the allocated tiles within a clip with a mask taken out of them, on a layer of their own
+     * so the mask only removes pixels of this surface
+     *
+     * @param mask surface of the same size, the more opaque the more is removed
+     */
+    public void drawMasked(@NonNull Canvas canvas, @NonNull Rect clip, @NonNull TileSurface mask) {
+        if (mask.isEmpty()) {
+            draw(canvas, clip, null);
+            return;
+        }
+        if (!range(clip.left, clip.top, clip.right, clip.bottom)) {
+            return;
+        }
+
+        mMapped.set(Math.max(0, clip.left), Math.max(0, clip.top), Math.min(mWidth, clip.right),
+                Math.min(mHeight, clip.bottom));
+        final int count = canvas.saveLayer(mMapped, null);
+        draw(canvas, clip, null);
+        mask.draw(canvas, clip, sMaskPaint);
+        canvas.restoreToCount(count);
+    }
+
+    /**
+     * Remove a mask from the pixels for good
+     *
+     * @param mask surface of the same size, the more opaque the more is removed
+     */
+    public void applyMask(@NonNull TileSurface mask) {
+        checkSameSize(mask);
+        for (int i = 0; i < mTiles.length; i++) {
+            if (mTiles[i] != null && mask.mTiles[i] != null) {
+                mCanvases[i].drawBitmap(mask.mTiles[i], (i % mColumns) * TILE_SIZE,
+                        (i / mColumns) * TILE_SIZE, sMaskPaint);
+            }
+        }
+    }
+
+    /**
+     * Make this surface a copy of another one of the same size, tiles transparent there are released
+     */
+    public void copyFrom(@NonNull TileSurface source) {
+        checkSameSize(source);
+        for (int i = 0; i < mTiles.length; i++) {
+            if (source.mTiles[i] == null) {
+                release(i);
+            } else {
+                canvas(i, true).drawBitmap(source.mTiles[i], (i % mColumns) * TILE_SIZE,
+                        (i / mColumns) * TILE_SIZE, sCopyPaint);
+            }
+        }
+    }
+
+    /**
+     * Copy a region of another surface of the same size over the same region of this one
+     */
+    public void copyRegion(@NonNull TileSurface source, @NonNull Rect region) {
+        checkSameSize(source);
+        if (!range(region.left, region.top, region.right, region.bottom)) {
+            return;
+        }
+        for (int row = mRange.top; row < mRange.bottom; row++) {
+            for (int column = mRange.left; column < mRange.right; column++) {
+                final int index = row * mColumns + column;
+                final Bitmap tile = source.mTiles[index];
+                final Canvas canvas = canvas(index, tile != null);
+                if (canvas == null) {
+                    continue;
+                }
+                canvas.save();
+                canvas.clipRect(region);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, column * TILE_SIZE, row * TILE_SIZE, sCopyPaint);
+                } else {
+                    canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+                }
+                canvas.restore();
+            }
+        }
+    }
+
+    /**
+     * @return the surface as one new bitmap, for what needs a single raster
+     */
+    public Bitmap toBitmap() {
+        final Bitmap bitmap = Bitmap.createBitmap(mWidth, mHeight, mConfig);
+        draw(new Canvas(bitmap), null);
+        return bitmap;
+    }
+
+    /**
+     * @param mask surface of the same size taken out of the bitmap, this surface is left as it is
+     * @return the surface as one new bitmap, as {@link #drawMasked} draws it
+     */
+    public Bitmap toBitmap(@NonNull TileSurface mask) {
+        checkSameSize(mask);
+        final Bitmap bitmap = Bitmap.createBitmap(mWidth, mHeight, mConfig);
+        drawMasked(new Canvas(bitmap), new Rect(0, 0, mWidth, mHeight), mask);
+        return bitmap;
+    }
+
+    /**
+     * Make the surface transparent, every tile goes back to the pool
+     */
+    public void clear() {
+        for (int i = 0; i < mTiles.length; i++) {
+            release(i);
+        }
+    }
+
+    /**
+     * Set {@link #mRange} to the tiles within the bounds
+     *
+     * @return false if there is none
+     */
+    private boolean range(int left, int top, int right, int bottom) {
+        mRange.set(Math.max(0, left) / TILE_SIZE, Math.max(0, top) / TILE_SIZE,
+                Math.min(mColumns, (Math.min(right, mWidth) + TILE_SIZE - 1) / TILE_SIZE),
+                Math.min(mRows, (Math.min(bottom, mHeight) + TILE_SIZE - 1) / TILE_SIZE));
+        return left < right && top < bottom && mRange.left < mRange.right && mRange.top < mRange.bottom;
+    }
+
+    private @Nullable Canvas canvas(int index, boolean allocate) {
+        if (mCanvases[index] == null && allocate) {
+            mTiles[index] = BitmapPool.getDefault().acquire(TILE_SIZE, TILE_SIZE, mConfig);
+            final Canvas canvas = new Canvas(mTiles[index]);
+            canvas.translate(-(index % mColumns) * TILE_SIZE, -(index / mColumns) * TILE_SIZE);
+            mCanvases[index] = canvas;
+            mTileCount++;
+        }
+        return mCanvases[index];
+    }
+
+    private void release(int index) {
+        if (mTiles[index] != null) {
+            BitmapPool.getDefault().release(mTiles[index]);
+            mTiles[index] = null;
+            mCanvases[index] = null;
+            mTileCount--;
+        }
+    }
+
+    private void checkSameSize(TileSurface source) {
+        if (source.mWidth != mWidth || source.mHeight != mHeight) {
+            throw new IllegalArgumentException("Surfaces of different sizes " + source.mWidth + "x"
+                    + source.mHeight + " and " + mWidth + "x" + mHeight);
+        }
+    }
+}
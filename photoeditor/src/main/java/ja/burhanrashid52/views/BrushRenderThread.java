@@ -0,0 +1,411 @@
+package ja.burhanrashid52.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import ja.burhanrashid52.utils.TileSurface;
+
+/**
+ * Rasterizes the live strokes of a {@link CustomPaintView} off the main thread.
+ * <p/>
+ * The main thread only queues path operations. This thread draws them into the back buffer,
+ * the view's paint surface, then copies every finished region into a front buffer of its own,
+ * the one drawn on screen, and asks the view to redraw that region. Both are tiled, the front
+ * buffer only holds the tiles painted in the back one. Eraser segments go to the eraser mask
+ * of the view, presented through a front mask the same way.
+ * <p/>
+ * The back buffer belongs to this thread while operations are queued, the main thread calls
+ * {@link #flush()} before touching it.
+ */
+class BrushRenderThread extends Thread {
+
+    private static final String TAG = BrushRenderThread.class.getSimpleName();
+
+    interface Callback {
+        /**
+         * Called on the render thread once a region of the front buffer has been updated
+         */
+        void onRegionPresented(int left, int top, int right, int bottom);
+    }
+
+    // operations, each one followed by its float arguments. Colors go to a queue of their own,
+    // in the order of the operations using them
+    private static final int OP_MOVE = 0;// x, y
+    private static final int OP_QUAD = 1;// control x, y, x, y
+    private static final int OP_LINE = 2;// x, y
+    private static final int OP_DRAW = 3;// width, eraser, left, top, right, bottom, and a color
+    private static final int OP_DAB = 4;// hardness, x, y, diameter, alpha, and a color
+    private static final int OP_PRESENT = 5;// left, top, right, bottom
+
+    private final Callback mCallback;
+    private final Object mLock = new Object();
+    private final Object mFrontLock = new Object();
+
+    // guarded by mLock
+    private float[] mQueue = new float[256];
+    private int mQueued;
+    private float[] mSpare = new float[256];
+    private int[] mColors = new int[16];
+    private int mColorsQueued;
+    private int[] mSpareColors = new int[16];
+    private boolean mBusy;
+    private long mEventTime;// uptime of the input event of the last draw queued, in milliseconds
+    private boolean mQuit;
+    private TileSurface mBack;
+    private TileSurface mBackMask;
+
+    // guarded by mFrontLock
+    private TileSurface mFront;
+    private TileSurface mFrontMask;
+
+    // render thread only
+    private final Path mPath = new Path();
+    private final Paint mPaint = BrushStroke.newPaint();
+    private final Paint mDabPaint = new Paint();
+    private final RectF mDabRect = new RectF();
+    private final Rect mRegion = new Rect();
+
+    private volatile long mLatencyNanos;
+
+    BrushRenderThread(@NonNull Callback callback) {
+        super("PhotoEditor-brush");
+        mCallback = callback;
+    }
+
+    /**
+     * Draw from now on into this buffer, its content is presented right away. Called on the main thread
+     *
+     * @param back     null to release the front buffer
+     * @param backMask eraser mask of the same size as the back buffer
+     */
+    void setBackBuffer(@Nullable TileSurface back, @Nullable TileSurface backMask) {
+        flush();
+        synchronized (mLock) {
+            mBack = back;
+            mBackMask = backMask;
+        }
+        synchronized (mFrontLock) {
+            if (mFront != null && (back == null || mFront.getWidth() != back.getWidth()
+                    || mFront.getHeight() != back.getHeight())) {
+                releaseFront();
+            }
+            if (back != null && mFront == null) {
+                mFront = new TileSurface(back.getWidth(), back.getHeight());
+                mFrontMask = new TileSurface(back.getWidth(), back.getHeight(), Bitmap.Config.ALPHA_8);
+            }
+        }
+        presentAll();
+    }
+
+    /**
+     * Copy the whole back buffer to the screen after the main thread changed it
+     */
+    void presentAll() {
+        flush();
+        synchronized (mFrontLock) {
+            if (mFront == null || mBack == null) {
+                return;
+            }
+            mFront.copyFrom(mBack);
+            mFrontMask.copyFrom(mBackMask);
+        }
+    }
+
+    /**
+     * Draw the part of the front buffer within the clip of the canvas, called by onDraw
+     */
+    void drawFront(@NonNull Canvas canvas, @NonNull Rect clip) {
+        synchronized (mFrontLock) {
+            if (mFront != null) {
+                mFront.drawMasked(canvas, clip, mFrontMask);
+            }
+        }
+    }
+
+    void moveTo(float x, float y) {
+        synchronized (mLock) {
+            ensureQueue(3);
+            mQueue[mQueued++] = OP_MOVE;
+            mQueue[mQueued++] = x;
+            mQueue[mQueued++] = y;
+        }
+    }
+
+    void quadTo(float controlX, float controlY, float x, float y) {
+        synchronized (mLock) {
+            ensureQueue(5);
+            mQueue[mQueued++] = OP_QUAD;
+            mQueue[mQueued++] = controlX;
+            mQueue[mQueued++] = controlY;
+            mQueue[mQueued++] = x;
+            mQueue[mQueued++] = y;
+        }
+    }
+
+    void lineTo(float x, float y) {
+        synchronized (mLock) {
+            ensureQueue(3);
+            mQueue[mQueued++] = OP_LINE;
+            mQueue[mQueued++] = x;
+            mQueue[mQueued++] = y;
+        }
+    }
+
+    /**
+     * Paint the path queued since the last move and present the region it covers
+     *
+     * @param eventTime {@link android.view.MotionEvent#getEventTime()} of the samples of the path
+     */
+    void draw(int color, float width, boolean eraser, int left, int top, int right, int bottom, long eventTime) {
+        synchronized (mLock) {
+            ensureQueue(7);
+            mQueue[mQueued++] = OP_DRAW;
+            queueColor(color);
+            mQueue[mQueued++] = width;
+            mQueue[mQueued++] = eraser ? 1 : 0;
+            mQueue[mQueued++] = left;
+            mQueue[mQueued++] = top;
+            mQueue[mQueued++] = right;
+            mQueue[mQueued++] = bottom;
+            mEventTime = eventTime;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stamp a dab of the stamp brush, shown by the next {@link #presentRegion}
+     */
+    void dab(int color, float hardness, float x, float y, float diameter, float alpha) {
+        synchronized (mLock) {
+            ensureQueue(6);
+            mQueue[mQueued++] = OP_DAB;
+            queueColor(color);
+            mQueue[mQueued++] = hardness;
+            mQueue[mQueued++] = x;
+            mQueue[mQueued++] = y;
+            mQueue[mQueued++] = diameter;
+            mQueue[mQueued++] = alpha;
+        }
+    }
+
+    /**
+     * Present the region covered by the dabs queued since the last one
+     *
+     * @param eventTime {@link android.view.MotionEvent#getEventTime()} of the samples of the dabs
+     */
+    void presentRegion(int left, int top, int right, int bottom, long eventTime) {
+        synchronized (mLock) {
+            ensureQueue(5);
+            mQueue[mQueued++] = OP_PRESENT;
+            mQueue[mQueued++] = left;
+            mQueue[mQueued++] = top;
+            mQueue[mQueued++] = right;
+            mQueue[mQueued++] = bottom;
+            mEventTime = eventTime;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return time between the input event of the last segment of a batch and its region being
+     * presented, the input to ink latency of the brush, with a millisecond resolution
+     */
+    long getLatencyNanos() {
+        return mLatencyNanos;
+    }
+
+    /**
+     * Block until every queued operation has been drawn and presented
+     */
+    void flush() {
+        synchronized (mLock) {
+            while ((mQueued > 0 || mBusy) && !mQuit && isAlive()) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Draw what is queued and stop the thread, the front buffer goes back to the pool
+     */
+    void quit() {
+        flush();
+        synchronized (mLock) {
+            mQuit = true;
+            mBack = null;
+            mBackMask = null;
+            mLock.notifyAll();
+        }
+        synchronized (mFrontLock) {
+            if (mFront != null) {
+                releaseFront();
+            }
+        }
+    }
+
+    private void releaseFront() {
+        mFront.clear();
+        mFront = null;
+        mFrontMask.clear();
+        mFrontMask = null;
+    }
+
+    private void ensureQueue(int floats) {
+        if (mQueued + floats > mQueue.length) {
+            mQueue = Arrays.copyOf(mQueue, Math.max(mQueue.length * 2, mQueued + floats));
+        }
+    }
+
+    private void queueColor(int color) {
+        if (mColorsQueued == mColors.length) {
+            mColors = Arrays.copyOf(mColors, mColors.length * 2);
+        }
+        mColors[mColorsQueued++] = color;
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+
+        while (true) {
+            final float[] ops;
+            final int count;
+            final int[] colors;
+            final TileSurface back;
+            final TileSurface backMask;
+            final long eventTime;
+            synchronized (mLock) {
+                mBusy = false;
+                mLock.notifyAll();
+                while (mQueued == 0 && !mQuit) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mQuit) {
+                    return;
+                }
+
+                // take the whole batch, the main thread queues into the spare array meanwhile
+                ops = mQueue;
+                count = mQueued;
+                mQueue = mSpare;
+                mSpare = ops;
+                mQueued = 0;
+                colors = mColors;
+                mColors = mSpareColors;
+                mSpareColors = colors;
+                mColorsQueued = 0;
+                mBusy = true;
+                back = mBack;
+                backMask = mBackMask;
+                eventTime = mEventTime;
+            }
+
+            try {
+                execute(ops, count, colors, back, backMask);
+                // event times are uptime milliseconds, from the clock of the input dispatcher
+                mLatencyNanos = TimeUnit.MILLISECONDS.toNanos(SystemClock.uptimeMillis() - eventTime);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Unable to draw brush segment", e);
+            }
+        }
+    }
+
+    private void execute(float[] ops, int count, int[] colors, TileSurface back, TileSurface backMask) {
+        int i = 0;
+        int color = 0;
+        while (i < count) {
+            switch ((int) ops[i]) {
+                case OP_MOVE:
+                    mPath.rewind();
+                    mPath.moveTo(ops[i + 1], ops[i + 2]);
+                    i += 3;
+                    break;
+                case OP_QUAD:
+                    mPath.quadTo(ops[i + 1], ops[i + 2], ops[i + 3], ops[i + 4]);
+                    i += 5;
+                    break;
+                case OP_LINE:
+                    mPath.lineTo(ops[i + 1], ops[i + 2]);
+                    i += 3;
+                    break;
+                case OP_DRAW:
+                    if (back != null) {
+                        mPaint.setColor(colors[color]);
+                        mPaint.setStrokeWidth(ops[i + 1]);
+                        mRegion.set((int) ops[i + 3], (int) ops[i + 4], (int) ops[i + 5], (int) ops[i + 6]);
+                        paintPath(ops[i + 2] != 0 ? backMask : back, mPath, mPaint, mRegion);
+                        present(back, backMask);
+                    }
+                    color++;
+                    i += 7;
+                    break;
+                case OP_DAB:
+                    if (back != null) {
+                        DabCache.setPaint(mDabPaint, colors[color], ops[i + 5]);
+                        paintDab(back, mDabPaint, ops[i + 1], ops[i + 2], ops[i + 3], ops[i + 4]);
+                    }
+                    color++;
+                    i += 6;
+                    break;
+                case OP_PRESENT:
+                    if (back != null) {
+                        mRegion.set((int) ops[i + 1], (int) ops[i + 2], (int) ops[i + 3], (int) ops[i + 4]);
+                        present(back, backMask);
+                    }
+                    i += 5;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown brush operation " + ops[i]);
+            }
+        }
+    }
+
+    /**
+     * Paint a segment of a live stroke, called on the render thread
+     */
+    void paintPath(TileSurface target, Path path, Paint paint, Rect region) {
+        target.drawPath(path, paint, region, false);
+    }
+
+    /**
+     * Stamp a dab of the stamp brush, called on the render thread
+     */
+    void paintDab(TileSurface back, Paint paint, float hardness, float x, float y, float diameter) {
+        DabCache.getDefault().draw(back, paint, mDabRect, x, y, diameter, hardness);
+    }
+
+    /**
+     * Copy {@link #mRegion} of the back buffers to the front ones and tell the view
+     */
+    private void present(TileSurface back, TileSurface backMask) {
+        synchronized (mFrontLock) {
+            if (mFront == null || !mRegion.intersect(0, 0, mFront.getWidth(), mFront.getHeight())) {
+                return;
+            }
+            mFront.copyRegion(back, mRegion);
+            mFrontMask.copyRegion(backMask, mRegion);
+        }
+        mCallback.onRegionPresented(mRegion.left, mRegion.top, mRegion.right, mRegion.bottom);
+    }
+}
@@ -0,0 +1,292 @@
+package ja.burhanrashid52.views;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import ja.burhanrashid52.history.SpillFile;
+import ja.burhanrashid52.scene.StrokeSet;
+import ja.burhanrashid52.utils.TileSurface;
+
+/**
+ * One brush or eraser stroke as the points it went through, enough to draw it again.
+ * <p/>
+ * The stroke is smoothed by quadratic curves from the middle of a segment to the middle of the
+ * next one, controlled by the point between them, see {@link StrokeSet#appendPath}.
+ * <p/>
+ * A stamped stroke is the dabs of the stamp brush instead, each one an x, y, diameter and alpha,
+ * stamped again as they were drawn live.
+ * <p/>
+ * Points are kept in one growing float array of x, y pairs or dab quadruples. Once spilled they
+ * are read back from the {@link SpillFile} whenever the stroke is drawn
+ */
+public class BrushStroke {
+
+    private static final String TAG = BrushStroke.class.getSimpleName();
+
+    private static final PorterDuffXfermode ERASER_MODE = new PorterDuffXfermode(PorterDuff.Mode.DST_IN);
+
+    private final int mColor;
+    private final float mWidth;
+    private final boolean mEraser;
+    private final float mHardness;// of the dabs, negative for a stroke drawn as curves
+
+    private float[] mPoints = new float[32];
+    private int mSize;// floats used in mPoints
+
+    private SpillFile mSpillFile;
+    private long mSpillPosition;
+
+    /**
+     * @param color  color of the brush, alpha included
+     * @param width  stroke width in pixels of the paint view
+     * @param eraser erase what is below instead of painting
+     */
+    public BrushStroke(int color, float width, boolean eraser) {
+        this(color, width, eraser, -1);
+    }
+
+    private BrushStroke(int color, float width, boolean eraser, float hardness) {
+        mColor = color;
+        mWidth = width;
+        mEraser = eraser;
+        mHardness = hardness;
+    }
+
+    /**
+     * @param color    color of the brush, alpha included
+     * @param width    diameter of the dabs at full pressure and rest
+     * @param hardness of the dabs, from 0 to 1
+     * @return stroke of the stamp brush, made of the dabs given to {@link #addDab}
+     */
+    public static BrushStroke stamped(int color, float width, float hardness) {
+        return new BrushStroke(color, width, false, Math.max(0, Math.min(1, hardness)));
+    }
+
+    /**
+     * @return paint for {@link #draw}, shared by any number of strokes
+     */
+    public static Paint newPaint() {
+        return StrokeSet.newPaint();
+    }
+
+    public void add(float x, float y) {
+        if (mSize + 2 > mPoints.length) {
+            mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+        }
+        mPoints[mSize++] = x;
+        mPoints[mSize++] = y;
+    }
+
+    /**
+     * @param alpha opacity of the dab from 0 to 1, on top of the color
+     */
+    public void addDab(float x, float y, float diameter, float alpha) {
+        if (mSize + 4 > mPoints.length) {
+            mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+        }
+        mPoints[mSize++] = x;
+        mPoints[mSize++] = y;
+        mPoints[mSize++] = diameter;
+        mPoints[mSize++] = alpha;
+    }
+
+    /**
+     * Give back the unused end of the point array once the stroke is finished
+     */
+    public void trimToSize() {
+        if (mPoints != null && mPoints.length > mSize) {
+            mPoints = Arrays.copyOf(mPoints, mSize);
+        }
+    }
+
+    /**
+     * @return points, or dabs of a stamped stroke
+     */
+    public int getPointCount() {
+        return mSize / (isStamped() ? 4 : 2);
+    }
+
+    /**
+     * @return true if drawing the stroke paints nothing
+     */
+    public boolean isEmpty() {
+        return getPointCount() < (isStamped() ? 1 : 2);
+    }
+
+    /**
+     * @return copy of the x, y pairs or dab quadruples, null if they could not be read back from
+     * the spill file
+     */
+    public @Nullable float[] copyPoints() {
+        final float[] points = points();
+        return points != null ? Arrays.copyOf(points, mSize) : null;
+    }
+
+    public int getColor() {
+        return mColor;
+    }
+
+    public float getWidth() {
+        return mWidth;
+    }
+
+    public boolean isEraser() {
+        return mEraser;
+    }
+
+    public boolean isStamped() {
+        return mHardness >= 0;
+    }
+
+    /**
+     * @return hardness of the dabs of a stamped stroke
+     */
+    public float getHardness() {
+        return mHardness;
+    }
+
+    /**
+     * @return bytes held in memory by the points, 0 once spilled
+     */
+    public long getMemoryBytes() {
+        return mPoints != null ? 4L * mPoints.length : 0;
+    }
+
+    /**
+     * Move the points to the spill file
+     *
+     * @return bytes of memory released
+     */
+    public long spill(@NonNull SpillFile spillFile) throws IOException {
+        if (mPoints == null) {
+            return 0;
+        }
+        final long bytes = getMemoryBytes();
+        mSpillPosition = spillFile.write(mPoints, 0, mSize);
+        mSpillFile = spillFile;
+        mPoints = null;
+        return bytes;
+    }
+
+    /**
+     * The spill file moved the points by the given offset
+     */
+    public void moveSpill(long offset) {
+        if (mPoints == null) {
+            mSpillPosition += offset;
+        }
+    }
+
+    /**
+     * Draw the stroke with the same curves as drawn live, as one path, or the same dabs
+     *
+     * @param paint reused paint, configured for this stroke
+     */
+    public void draw(@NonNull Canvas canvas, @NonNull Paint paint) {
+        if (isStamped()) {
+            final float[] points = points();
+            final RectF dst = new RectF();
+            for (int i = 0; points != null && i + 3 < mSize; i += 4) {
+                final float radius = Math.min(points[i + 2], DabCache.MAX_DIAMETER) / 2;
+                dst.set(points[i] - radius, points[i + 1] - radius, points[i] + radius, points[i + 1] + radius);
+                DabCache.setPaint(paint, mColor, points[i + 3]);
+                canvas.drawBitmap(DabCache.getDefault().get(points[i + 2], mHardness), null, dst, paint);
+            }
+            return;
+        }
+
+        final Path path = path(paint);
+        if (path != null) {
+            canvas.drawPath(path, paint);
+        }
+    }
+
+    /**
+     * Draw the stroke on the tiles it covers
+     *
+     * @param paint reused paint, configured for this stroke
+     */
+    public void draw(@NonNull TileSurface surface, @NonNull Paint paint) {
+        if (isStamped()) {
+            final float[] points = points();
+            final RectF dst = new RectF();
+            for (int i = 0; points != null && i + 3 < mSize; i += 4) {
+                DabCache.setPaint(paint, mColor, points[i + 3]);
+                DabCache.getDefault().draw(surface, paint, dst, points[i], points[i + 1], points[i + 2], mHardness);
+            }
+            return;
+        }
+
+        final Path path = path(paint);
+        if (path == null) {
+            return;
+        }
+
+        final RectF bounds = new RectF();
+        path.computeBounds(bounds, false);
+        bounds.inset(-mWidth / 2 - 1, -mWidth / 2 - 1);// round caps and antialiasing
+        final Rect covered = new Rect();
+        bounds.roundOut(covered);
+        surface.drawPath(path, paint, covered, mEraser);
+    }
+
+    /**
+     * @return the curves of the stroke with the paint configured for them, null if there is nothing to draw
+     */
+    private @Nullable Path path(Paint paint) {
+        final float[] points = points();
+        final Path path = new Path();
+        if (points == null || !StrokeSet.appendPath(path, points, 0, mSize)) {
+            return null;
+        }
+
+        paint.setColor(mColor);
+        paint.setStrokeWidth(mWidth);
+        paint.setXfermode(mEraser ? ERASER_MODE : null);
+        return path;
+    }
+
+    /**
+     * Add the stroke to a set of vectors
+     *
+     * @return false if the points could not be read back from the spill file
+     */
+    public boolean addTo(@NonNull StrokeSet.Builder builder) {
+        final float[] points = points();
+        if (points == null) {
+            return false;
+        }
+        if (isStamped()) {
+            builder.addDabs(mColor, mWidth, mHardness, points, mSize);
+        } else {
+            builder.add(mColor, mWidth, mEraser, points, mSize);
+        }
+        return true;
+    }
+
+    private float[] points() {
+        if (mPoints != null) {
+            return mPoints;
+        }
+
+        final float[] scratch = mSpillFile.scratch(mSize);
+        try {
+            mSpillFile.read(mSpillPosition, scratch, 0, mSize);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read spilled stroke", e);
+            return null;
+        }
+        return scratch;
+    }
+}
@@ -0,0 +1,119 @@
+package ja.burhanrashid52.views;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checkpoints of a {@link StrokeJournal}, each one the raster after a number of strokes, thinned
+ * out the older they get.
+ * <p/>
+ * One is added every {@link #INTERVAL} strokes. Two checkpoints are merged when the gap between
+ * their neighbours stays within a {@link #THINNING} part of its distance to the latest one, and
+ * never beyond {@link #MAX_GAP} strokes. Undo then replays fewer than MAX_GAP strokes anywhere in
+ * the history, far fewer near its end, while the count of checkpoints only grows with the logarithm
+ * of the last MAX_GAP × THINNING strokes and by one every MAX_GAP strokes before them.
+ * <p/>
+ * Free of any graphics, the values are whatever the journal keeps.
+ */
+final class Checkpoints<T> {
+
+    static final int INTERVAL = 16;
+    static final int MAX_GAP = 64;
+    static final int THINNING = 4;
+
+    private final List<T> mValues = new ArrayList<>();
+    private int[] mStrokes = new int[8];// strokes drawn in each checkpoint, increasing
+
+    /**
+     * @return true if a checkpoint should be taken once this many strokes are drawn
+     */
+    static boolean isDue(int strokes) {
+        return strokes > 0 && strokes % INTERVAL == 0;
+    }
+
+    int size() {
+        return mValues.size();
+    }
+
+    /**
+     * @return strokes drawn in the checkpoint at a position, from the oldest one
+     */
+    int getStrokes(int position) {
+        return mStrokes[position];
+    }
+
+    T get(int position) {
+        return mValues.get(position);
+    }
+
+    /**
+     * @return position of the latest checkpoint with at most this many strokes, -1 if none
+     */
+    int find(int strokes) {
+        for (int i = mValues.size() - 1; i >= 0; i--) {
+            if (mStrokes[i] <= strokes) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add the checkpoint of the latest stroke, then thin out the older ones
+     *
+     * @param strokes more than in any checkpoint kept
+     * @param dropped receives the values of the checkpoints removed
+     */
+    void add(int strokes, @NonNull T value, @NonNull List<T> dropped) {
+        if (mValues.size() == mStrokes.length) {
+            final int[] grown = new int[mStrokes.length * 2];
+            System.arraycopy(mStrokes, 0, grown, 0, mStrokes.length);
+            mStrokes = grown;
+        }
+        mStrokes[mValues.size()] = strokes;
+        mValues.add(value);
+
+        // from the newest to the oldest, the stroke count 0 being the base of the journal
+        int newer = strokes;
+        for (int i = mValues.size() - 2; i >= 0; i--) {
+            final int older = i > 0 ? mStrokes[i - 1] : 0;
+            if (newer - older <= allowedGap(strokes - newer)) {
+                remove(i, dropped);
+            } else {
+                newer = mStrokes[i];
+            }
+        }
+    }
+
+    /**
+     * Remove the checkpoints with more than this many strokes, as when the strokes which could be
+     * redone are forgotten
+     */
+    void truncate(int strokes, @NonNull List<T> dropped) {
+        for (int i = mValues.size() - 1; i >= 0 && mStrokes[i] > strokes; i--) {
+            remove(i, dropped);
+        }
+    }
+
+    void clear(@Nullable List<T> dropped) {
+        if (dropped != null) {
+            dropped.addAll(mValues);
+        }
+        mValues.clear();
+    }
+
+    /**
+     * @param distance strokes between the newer end of the gap and the latest checkpoint
+     */
+    static int allowedGap(int distance) {
+        return Math.min(MAX_GAP, Math.max(INTERVAL, distance / THINNING));
+    }
+
+    private void remove(int position, List<T> dropped) {
+        dropped.add(mValues.remove(position));
+        System.arraycopy(mStrokes, position + 1, mStrokes, position, mValues.size() - position);
+    }
+}
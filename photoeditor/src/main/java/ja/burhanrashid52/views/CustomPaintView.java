@@ -4,31 +4,84 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.os.Build;
+import android.support.annotation.FloatRange;
 import android.support.annotation.IntRange;
+import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
 
+import ja.burhanrashid52.scene.Layer;
+import ja.burhanrashid52.scene.StrokeSet;
+import ja.burhanrashid52.utils.TileSurface;
+
 /**
  * Created by panyi on 17/2/11.
  */
 
 public class CustomPaintView extends View {
     private Paint mPaint;
-    private Bitmap mDrawBit;
+    private TileSurface mSurface;// tiles allocated as strokes reach them
+    private TileSurface mMask;// eraser strokes not applied to mSurface yet, ALPHA_8
     private Paint mEraserPaint;
 
-    private Canvas mPaintCanvas = null;
+    private boolean mHasStrokes;
+    private boolean mShared;// mSurface is held by a save snapshot, copied before the next stroke
+
+    private StrokeListener mStrokeListener;
+    private final StrokeJournal mJournal = new StrokeJournal();
+    private BrushStroke mStroke;// stroke being drawn
+    private boolean mJournalComplete = true;// every stroke since the last reset is in mJournal
+    private StrokeSet mStrokeSet;// vectors of the journal at mStrokeSetRevision
+    private long mStrokeSetRevision;
+
+    private final long mLayerId = Layer.nextId();
+    private long mRevision = Layer.nextRevision();
+
+    private final Rect mDirtyRect = new Rect();
+    private boolean mRenderThreadEnabled;
+    private BrushRenderThread mRenderThread;// draws live strokes while attached, if enabled
+    private long mEventTime;// of the touch event being handled, for the ink latency
+    private final Rect mClipRect = new Rect();
 
+    private final Path mSegment = new Path();// curves of one batch of touch samples
     private float last_x;
     private float last_y;
+    private float mEndX;// where the drawn curves end, in the middle of the last segment
+    private float mEndY;
+    private boolean mMoved;
     private boolean eraser;
 
+    private StampBrush mStampBrush;// dynamics of the stamp brush, null to draw curves
+    private float mHardness = 0.5f;
+    private boolean mStamping;// the stroke being drawn is stamped
+    private final Paint mDabPaint = new Paint();
+    private final RectF mDabRect = new RectF();
+    private final RectF mDabBounds = new RectF();// dabs of one batch of touch samples
+    private final StampBrush.Sink mDabSink = new StampBrush.Sink() {
+        @Override
+        public void onDab(float x, float y, float diameter, float alpha) {
+            if (mStroke != null) {
+                mStroke.addDab(x, y, diameter, alpha);
+            }
+            if (mRenderThread != null) {
+                mRenderThread.dab(mPaint.getColor(), mHardness, x, y, diameter, alpha);
+            } else {
+                DabCache.setPaint(mDabPaint, mPaint.getColor(), alpha);
+                DabCache.getDefault().draw(mSurface, mDabPaint, mDabRect, x, y, diameter, mHardness);
+            }
+            final float radius = Math.min(diameter, DabCache.MAX_DIAMETER) / 2;
+            mDabBounds.union(x - radius, y - radius, x + radius, y + radius);
+        }
+    };
+
     private boolean mBrushDrawMode;
 
     private int mOpacity;
@@ -59,7 +112,7 @@ public class CustomPaintView extends View {
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
 
-        if (mDrawBit == null) {
+        if (mSurface == null) {
             generatorBit();
         }
     }
@@ -67,21 +120,24 @@ public class CustomPaintView extends View {
     private void generatorBit() {
         if (getMeasuredWidth() == 0 || getMeasuredHeight() == 0) return;
 
-        mDrawBit = Bitmap.createBitmap(getMeasuredWidth(), getMeasuredHeight(), Bitmap.Config.ARGB_8888);
-        mPaintCanvas = new Canvas(mDrawBit);
+        mSurface = new TileSurface(getMeasuredWidth(), getMeasuredHeight());
+        mMask = new TileSurface(getMeasuredWidth(), getMeasuredHeight(), Bitmap.Config.ALPHA_8);
+        if (mRenderThread != null) {
+            mRenderThread.setBackBuffer(mSurface, mMask);
+        }
     }
 
     private void init() {
         mPaint = new Paint();
         mPaint.setAntiAlias(true);
+        mPaint.setStyle(Paint.Style.STROKE);
 
         mPaint.setColor(Color.RED);
         mPaint.setStrokeJoin(Paint.Join.ROUND);
         mPaint.setStrokeCap(Paint.Cap.ROUND);
 
+        // coverage of the eraser mask, opaque where erased
         mEraserPaint = new Paint();
-        mEraserPaint.setAlpha(0);
-        mEraserPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_IN));
         mEraserPaint.setAntiAlias(true);
         mEraserPaint.setDither(true);
         mEraserPaint.setStyle(Paint.Style.STROKE);
@@ -98,6 +154,83 @@ public class CustomPaintView extends View {
         }
     }
 
+    /**
+     * Told about every finished stroke, strokes are only journaled for undo while a listener is set
+     */
+    public void setStrokeListener(@Nullable StrokeListener strokeListener) {
+        mStrokeListener = strokeListener;
+        if (strokeListener == null) {
+            mJournal.reset(null);
+            mJournalComplete = !mHasStrokes;
+        }
+    }
+
+    /**
+     * Rasterize live strokes on a dedicated thread into the paint surface, presented through a
+     * second tiled surface. The main thread then only forwards the touch samples
+     */
+    public void setRenderThreadEnabled(boolean enabled) {
+        mRenderThreadEnabled = enabled;
+        if (enabled && isAttachedToWindow()) {
+            startRenderThread();
+        } else if (!enabled) {
+            stopRenderThread();
+        }
+        invalidate();
+    }
+
+    public boolean isRenderThreadEnabled() {
+        return mRenderThreadEnabled;
+    }
+
+    /**
+     * @return time from the touch event of the last stroke segment to it being ready on screen,
+     * in milliseconds steps, 0 without render thread
+     */
+    public long getInkLatencyNanos() {
+        return mRenderThread != null ? mRenderThread.getLatencyNanos() : 0;
+    }
+
+    private void startRenderThread() {
+        if (mRenderThread != null) {
+            return;
+        }
+        mRenderThread = new BrushRenderThread(new BrushRenderThread.Callback() {
+            @Override
+            public void onRegionPresented(int left, int top, int right, int bottom) {
+                postInvalidate(left, top, right, bottom);
+            }
+        });
+        mRenderThread.start();
+        mRenderThread.setBackBuffer(mSurface, mMask);
+    }
+
+    private void stopRenderThread() {
+        if (mRenderThread != null) {
+            mRenderThread.quit();
+            mRenderThread = null;
+        }
+    }
+
+    /**
+     * Wait for the render thread to finish with the paint surface before the main thread uses it
+     */
+    private void flushRenderThread() {
+        if (mRenderThread != null) {
+            mRenderThread.flush();
+        }
+    }
+
+    /**
+     * Show the paint surface after the main thread changed it
+     */
+    private void presentAll() {
+        if (mRenderThread != null) {
+            mRenderThread.presentAll();
+        }
+        invalidate();
+    }
+
     public boolean getBrushDrawingMode() {
         return mBrushDrawMode;
     }
@@ -112,15 +245,48 @@ public class CustomPaintView extends View {
         this.mPaint.setAlpha(mOpacity);
     }
 
+    /**
+     * Stamp soft dabs sized by pen pressure and speed and faded by pressure, instead of drawing
+     * curves of a constant width. The eraser keeps drawing curves
+     */
+    public void setStampBrushEnabled(boolean enabled) {
+        if (enabled != (mStampBrush != null)) {
+            mStampBrush = enabled ? new StampBrush() : null;
+        }
+    }
+
+    public boolean isStampBrushEnabled() {
+        return mStampBrush != null;
+    }
+
+    /**
+     * Hardness of the dabs of the stamp brush, from 0, fading out from the center, to 1, a hard edge
+     */
+    public void setBrushHardness(@FloatRange(from = 0, to = 1) float hardness) {
+        mHardness = Math.max(0, Math.min(1, hardness));
+    }
+
     public void setWidth(float width) {
         this.mPaint.setStrokeWidth(width);
     }
 
+    /**
+     * Width of the eraser strokes, 40 pixels by default
+     */
+    public void setEraserSize(float size) {
+        this.mEraserPaint.setStrokeWidth(size);
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        if (mDrawBit != null) {
-            canvas.drawBitmap(mDrawBit, 0, 0, null);
+        if (mRenderThread != null) {
+            if (canvas.getClipBounds(mClipRect)) {
+                mRenderThread.drawFront(canvas, mClipRect);
+            }
+        } else if (mSurface != null && canvas.getClipBounds(mClipRect)) {
+            // only the painted tiles in the invalidated part while a stroke is drawn
+            mSurface.drawMasked(canvas, mClipRect, mMask);
         }
     }
 
@@ -129,33 +295,248 @@ public class CustomPaintView extends View {
         boolean ret = super.onTouchEvent(event);
         float x = event.getX();
         float y = event.getY();
+        mEventTime = event.getEventTime();
 
         switch (event.getAction()) {
             case MotionEvent.ACTION_DOWN:
                 ret = true;
+                if (!eraser) {
+                    // the new stroke must not be erased by the strokes before it
+                    bakeMask();
+                }
+                ensureWritable();
+                mStamping = mStampBrush != null && !eraser;
+                if (mStamping) {
+                    mStampBrush.begin(mPaint.getStrokeWidth(), x, y, event.getPressure(), event.getEventTime());
+                }
+                if (mStrokeListener != null && mStamping) {
+                    mStroke = BrushStroke.stamped(mPaint.getColor(), mPaint.getStrokeWidth(), mHardness);
+                } else if (mStrokeListener != null) {
+                    final Paint paint = eraser ? mEraserPaint : mPaint;
+                    mStroke = new BrushStroke(eraser ? Color.TRANSPARENT : paint.getColor(), paint.getStrokeWidth(), eraser);
+                    mStroke.add(x, y);
+                }
                 last_x = x;
                 last_y = y;
+                mEndX = x;
+                mEndY = y;
+                mMoved = false;
                 break;
             case MotionEvent.ACTION_MOVE:
                 ret = true;
-                mPaintCanvas.drawLine(last_x, last_y, x, y, eraser ? mEraserPaint : mPaint);
-                last_x = x;
-                last_y = y;
-                this.postInvalidate();
+                if (mSurface != null && mStamping) {
+                    stampSamples(event);
+                } else if (mSurface != null) {
+                    drawSamples(event);
+                } else {
+                    last_x = x;
+                    last_y = y;
+                }
                 break;
             case MotionEvent.ACTION_CANCEL:
             case MotionEvent.ACTION_UP:
                 ret = false;
+                if (mMoved && mSurface != null && !mStamping) {
+                    // from the middle of the last segment to the last point
+                    segmentMoveTo(mEndX, mEndY);
+                    segmentLineTo(last_x, last_y);
+                    drawSegment(Math.min(mEndX, last_x), Math.min(mEndY, last_y),
+                            Math.max(mEndX, last_x), Math.max(mEndY, last_y));
+                }
+                finishStroke();
                 break;
         }
         return ret;
     }
 
+    /**
+     * Extend the stroke through every sample of a move event, the historical ones batched since
+     * the previous event included, and paint the new curves at once
+     */
+    private void drawSamples(MotionEvent event) {
+        segmentMoveTo(mEndX, mEndY);
+        float left = mEndX;
+        float top = mEndY;
+        float right = mEndX;
+        float bottom = mEndY;
+
+        final int historySize = event.getHistorySize();
+        for (int i = 0; i <= historySize; i++) {
+            final float x = i < historySize ? event.getHistoricalX(i) : event.getX();
+            final float y = i < historySize ? event.getHistoricalY(i) : event.getY();
+
+            // same curves as StrokeSet.appendPath, they stay within their ends and control point
+            mEndX = (last_x + x) / 2;
+            mEndY = (last_y + y) / 2;
+            segmentQuadTo(last_x, last_y, mEndX, mEndY);
+            left = Math.min(left, Math.min(last_x, mEndX));
+            top = Math.min(top, Math.min(last_y, mEndY));
+            right = Math.max(right, Math.max(last_x, mEndX));
+            bottom = Math.max(bottom, Math.max(last_y, mEndY));
+
+            last_x = x;
+            last_y = y;
+            if (mStroke != null) {
+                mStroke.add(x, y);
+            }
+        }
+
+        mMoved = true;
+        drawSegment(left, top, right, bottom);
+    }
+
+    /**
+     * Stamp the dabs of the stamp brush through every sample of a move event, then redraw the
+     * area they cover
+     */
+    private void stampSamples(MotionEvent event) {
+        mDabBounds.setEmpty();
+        final int historySize = event.getHistorySize();
+        for (int i = 0; i < historySize; i++) {
+            mStampBrush.moveTo(event.getHistoricalX(i), event.getHistoricalY(i),
+                    event.getHistoricalPressure(i), event.getHistoricalEventTime(i), mDabSink);
+        }
+        mStampBrush.moveTo(event.getX(), event.getY(), event.getPressure(), event.getEventTime(), mDabSink);
+        if (mDabBounds.isEmpty()) {
+            return;
+        }
+
+        strokePainted();
+        mDabBounds.roundOut(mDirtyRect);
+        mDirtyRect.inset(-1, -1);// filtering
+        if (mRenderThread != null) {
+            mRenderThread.presentRegion(mDirtyRect.left, mDirtyRect.top, mDirtyRect.right, mDirtyRect.bottom,
+                    event.getEventTime());
+        } else {
+            invalidate(mDirtyRect);
+        }
+    }
+
+    private void segmentMoveTo(float x, float y) {
+        if (mRenderThread != null) {
+            mRenderThread.moveTo(x, y);
+        } else {
+            mSegment.rewind();
+            mSegment.moveTo(x, y);
+        }
+    }
+
+    private void segmentQuadTo(float controlX, float controlY, float x, float y) {
+        if (mRenderThread != null) {
+            mRenderThread.quadTo(controlX, controlY, x, y);
+        } else {
+            mSegment.quadTo(controlX, controlY, x, y);
+        }
+    }
+
+    private void segmentLineTo(float x, float y) {
+        if (mRenderThread != null) {
+            mRenderThread.lineTo(x, y);
+        } else {
+            mSegment.lineTo(x, y);
+        }
+    }
+
+    /**
+     * Paint the segment and redraw only the area it covers, round caps included. With a render
+     * thread the segment is queued, the thread asks for the redraw once painted
+     */
+    private void drawSegment(float left, float top, float right, float bottom) {
+        final Paint paint = eraser ? mEraserPaint : mPaint;
+        strokePainted();
+
+        final float pad = paint.getStrokeWidth() / 2 + 1;// antialiasing
+        mDirtyRect.set((int) Math.floor(left - pad), (int) Math.floor(top - pad),
+                (int) Math.ceil(right + pad), (int) Math.ceil(bottom + pad));
+        if (mRenderThread != null) {
+            mRenderThread.draw(paint.getColor(), paint.getStrokeWidth(), eraser,
+                    mDirtyRect.left, mDirtyRect.top, mDirtyRect.right, mDirtyRect.bottom, mEventTime);
+        } else {
+            (eraser ? mMask : mSurface).drawPath(mSegment, paint, mDirtyRect, false);
+            invalidate(mDirtyRect);
+        }
+    }
+
+    private void strokePainted() {
+        mHasStrokes = true;
+        mJournalComplete &= mStroke != null;
+        mRevision = Layer.nextRevision();
+    }
+
+    /**
+     * Journal the stroke and hand it to the listener, strokes that drew nothing are dropped
+     */
+    private void finishStroke() {
+        final BrushStroke stroke = mStroke;
+        mStroke = null;
+        if (stroke == null || stroke.isEmpty() || mSurface == null || mStrokeListener == null) {
+            return;
+        }
+
+        flushRenderThread();
+        mJournal.add(stroke, mSurface, mMask);
+        mStrokeListener.onStrokeFinished(this, stroke);
+    }
+
+    /**
+     * Remove the last stroke, the paint surface is redrawn in place from the nearest checkpoint
+     *
+     * @return false if there is no stroke to undo
+     */
+    public boolean undoStroke() {
+        ensureWritable();
+        if (mSurface == null || !mJournal.undo(mSurface)) {
+            return false;
+        }
+        // eraser strokes were replayed on the surface
+        mMask.clear();
+        strokesChanged();
+        return true;
+    }
+
+    /**
+     * Draw the last undone stroke again
+     *
+     * @return false if there is no stroke to redo
+     */
+    public boolean redoStroke() {
+        // nothing to bake, undo applied the mask and any stroke since would have dropped the redo
+        ensureWritable();
+        if (mSurface == null || !mJournal.redo(mSurface)) {
+            return false;
+        }
+        strokesChanged();
+        return true;
+    }
+
+    private void strokesChanged() {
+        mHasStrokes = true;
+        mRevision = Layer.nextRevision();
+        presentAll();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mRenderThreadEnabled) {
+            startRenderThread();
+        }
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        if (mDrawBit != null && !mDrawBit.isRecycled()) {
-            mDrawBit.recycle();
+        stopRenderThread();
+        mJournal.reset(null);
+        mJournalComplete = !mHasStrokes;
+        if (mSurface != null) {
+            if (!mShared) {
+                mSurface.clear();
+            }
+            mSurface = null;
+            mShared = false;
+            mMask.clear();
+            mMask = null;
         }
     }
 
@@ -164,15 +545,173 @@ public class CustomPaintView extends View {
         mPaint.setColor(eraser ? Color.TRANSPARENT : mColor);
     }
 
-    public Bitmap getPaintBit() {
-        return mDrawBit;
+    /**
+     * @return the strokes flattened into a new bitmap of the size of the view, eraser strokes
+     * applied, null before layout
+     */
+    public @Nullable Bitmap getPaintBit() {
+        flushRenderThread();
+        return mSurface != null ? mSurface.toBitmap(mMask) : null;
+    }
+
+    /**
+     * @return bytes held by the painted tiles and the eraser mask
+     */
+    public long getPaintMemoryBytes() {
+        return mSurface != null ? mSurface.getMemoryBytes() + mMask.getMemoryBytes() : 0;
+    }
+
+    /**
+     * Current strokes for a save snapshot, in constant time unless eraser strokes are still held in
+     * the mask, then on a composited copy. The returned surface is never drawn on again, the view
+     * copies its tiles before the next stroke
+     *
+     * @return null if nothing has been painted
+     */
+    public @Nullable TileSurface snapshotPaintSurface() {
+        flushRenderThread();
+        if (mSurface == null || !mHasStrokes) {
+            return null;
+        }
+        if (!mMask.isEmpty()) {
+            // the snapshot gets the eraser strokes applied, the view keeps them as a mask
+            final TileSurface composite = new TileSurface(mSurface.getWidth(), mSurface.getHeight());
+            composite.copyFrom(mSurface);
+            composite.applyMask(mMask);
+            return composite;
+        }
+        mShared = true;
+        return mSurface;
+    }
+
+    /**
+     * Current strokes as vectors for a save snapshot, so they can be drawn again at the export
+     * resolution. Only known while strokes are journaled and none was drawn over a raster
+     *
+     * @return null if the strokes are only known as the paint surface
+     */
+    public @Nullable StrokeSet snapshotStrokes() {
+        if (!mJournalComplete || mStroke != null) {
+            return null;
+        }
+        if (mStrokeSet == null || mStrokeSetRevision != mRevision) {
+            mStrokeSet = mJournal.toStrokeSet();
+            mStrokeSetRevision = mRevision;
+        }
+        return mStrokeSet;
+    }
+
+    /**
+     * @return identifier of the brush layer, kept across snapshots
+     */
+    public long getLayerId() {
+        return mLayerId;
+    }
+
+    /**
+     * @return revision of the strokes, changed by every stroke and reset
+     */
+    public long getRevision() {
+        return mRevision;
+    }
+
+    /**
+     * Paint a raster over the current strokes, as when restoring a brush layer
+     *
+     * @param transform from the raster to this view
+     */
+    public void drawRaster(Bitmap raster, Matrix transform) {
+        bakeMask();
+        ensureWritable();
+        if (mSurface == null) {
+            generatorBit();
+        }
+        if (mSurface == null) {
+            return;
+        }
+        mSurface.drawBitmap(raster, transform, null);
+        mJournal.reset(mSurface);
+        mHasStrokes = true;
+        mRevision = Layer.nextRevision();
+        presentAll();
+    }
+
+    /**
+     * Take the eraser strokes out of the paint surface for good, before anything that must not be
+     * erased by them is drawn: a brush stroke or a raster. Read-backs composite a copy instead
+     */
+    private void bakeMask() {
+        flushRenderThread();
+        if (mSurface == null || mMask.isEmpty()) {
+            return;
+        }
+        ensureWritable();
+        mSurface.applyMask(mMask);
+        mMask.clear();
+        if (mRenderThread != null) {
+            mRenderThread.presentAll();
+        }
+    }
+
+    /**
+     * Copy on write of a surface held by a snapshot, the snapshot owns the old one from now on
+     */
+    private void ensureWritable() {
+        flushRenderThread();
+        if (!mShared || mSurface == null) {
+            return;
+        }
+        mShared = false;
+
+        final TileSurface copy = new TileSurface(mSurface.getWidth(), mSurface.getHeight());
+        copy.copyFrom(mSurface);
+        mSurface = copy;
+        if (mRenderThread != null) {
+            mRenderThread.setBackBuffer(mSurface, mMask);
+        }
     }
 
     public void reset() {
-        if (mDrawBit != null && !mDrawBit.isRecycled()) {
-            mDrawBit.recycle();
+        flushRenderThread();
+        mJournal.reset(null);
+        mJournalComplete = true;
+        mStrokeSet = null;
+        mHasStrokes = false;
+        mRevision = Layer.nextRevision();
+
+        if (mShared) {
+            // leave the snapshot tiles alone
+            mShared = false;
+            mSurface = null;
+        }
+
+        if (mMask != null) {
+            mMask.clear();
+        }
+        if (mSurface != null && mSurface.getWidth() == getMeasuredWidth()
+                && mSurface.getHeight() == getMeasuredHeight()) {
+            mSurface.clear();
+            presentAll();
+            return;
+        }
+
+        if (mSurface != null) {
+            mSurface.clear();
+            mSurface = null;
+            mMask = null;
+        }
+        if (mRenderThread != null) {
+            mRenderThread.setBackBuffer(null, null);
         }
 
         generatorBit();
+        invalidate();
+    }
+    public interface StrokeListener {
+        /**
+         * Called on the main thread once a stroke is finished and journaled, it can then be
+         * removed with {@link #undoStroke()}
+         */
+        void onStrokeFinished(CustomPaintView view, BrushStroke stroke);
     }
 }//end class
@@ -0,0 +1,116 @@
+package ja.burhanrashid52.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RadialGradient;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+
+import ja.burhanrashid52.scene.StrokeSet;
+import ja.burhanrashid52.utils.TileSurface;
+
+/**
+ * Round dabs of the stamp brush rasterized once, by size bucket and hardness.
+ * <p/>
+ * A dab is an {@link Bitmap.Config#ALPHA_8} disc fading out from its hard core to its edge. It is
+ * drawn scaled down to the exact size with the color of the paint, so a stamp costs one filtered
+ * bitmap blit instead of tessellating a path. Size buckets grow by {@link #BUCKET_RATIO}, a dab is
+ * never scaled down by more than that.
+ * <p/>
+ * Thread safe, the render thread stamps with the same dabs.
+ */
+final class DabCache {
+
+    static final int MAX_DIAMETER = StrokeSet.MAX_DAB_DIAMETER;
+
+    private static final int MIN_DIAMETER = 2;
+    private static final float BUCKET_RATIO = 1.25f;
+    private static final int HARDNESS_LEVELS = 8;
+
+    private static DabCache sDefault;
+
+    private final HashMap<Integer, Bitmap> mDabs = new HashMap<>();
+
+    static synchronized DabCache getDefault() {
+        if (sDefault == null) {
+            sDefault = new DabCache();
+        }
+        return sDefault;
+    }
+
+    /**
+     * @param diameter in pixels, up to {@link #MAX_DIAMETER}
+     * @param hardness from 0, fading from the center, to 1, a hard edge
+     * @return dab at least as large as the diameter
+     */
+    synchronized Bitmap get(float diameter, float hardness) {
+        final int bucket = bucket(diameter);
+        final int level = Math.round(Math.max(0, Math.min(1, hardness)) * (HARDNESS_LEVELS - 1));
+        final int key = bucket * HARDNESS_LEVELS + level;
+        Bitmap dab = mDabs.get(key);
+        if (dab == null) {
+            dab = rasterize(bucketSize(bucket), (float) level / (HARDNESS_LEVELS - 1));
+            mDabs.put(key, dab);
+        }
+        return dab;
+    }
+
+    /**
+     * Configure a paint for one dab
+     *
+     * @param color color of the brush, alpha included
+     * @param alpha opacity of the dab from 0 to 1, on top of the color
+     */
+    static void setPaint(@NonNull Paint paint, int color, float alpha) {
+        paint.setColor(color);
+        paint.setAlpha(Math.round(Color.alpha(color) * alpha));
+        paint.setXfermode(null);
+        paint.setFilterBitmap(true);
+    }
+
+    /**
+     * Stamp a dab on the tiles it covers
+     *
+     * @param paint configured by {@link #setPaint}
+     * @param dst   scratch rectangle, set to what the dab covers
+     */
+    void draw(@NonNull TileSurface surface, @NonNull Paint paint, @NonNull RectF dst,
+              float x, float y, float diameter, float hardness) {
+        final float radius = Math.min(diameter, MAX_DIAMETER) / 2;
+        dst.set(x - radius, y - radius, x + radius, y + radius);
+        surface.drawBitmap(get(diameter, hardness), dst, paint);
+    }
+
+    /**
+     * Release every dab, they are rasterized again when needed
+     */
+    synchronized void clear() {
+        mDabs.clear();
+    }
+
+    private static int bucket(float diameter) {
+        final float clamped = Math.max(MIN_DIAMETER, Math.min(MAX_DIAMETER, diameter));
+        return (int) Math.ceil(Math.log(clamped / MIN_DIAMETER) / Math.log(BUCKET_RATIO) - 1e-4);
+    }
+
+    private static int bucketSize(int bucket) {
+        return Math.min(MAX_DIAMETER, (int) Math.ceil(MIN_DIAMETER * Math.pow(BUCKET_RATIO, bucket)));
+    }
+
+    private static Bitmap rasterize(int size, float hardness) {
+        final Bitmap dab = Bitmap.createBitmap(size, size, Bitmap.Config.ALPHA_8);
+        final float radius = size / 2f;
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        // opaque up to the hard core, then fading out to the edge
+        paint.setShader(new RadialGradient(radius, radius, radius,
+                new int[]{Color.BLACK, Color.BLACK, Color.TRANSPARENT},
+                new float[]{0, Math.min(hardness, 0.99f), 1}, Shader.TileMode.CLAMP));
+        new Canvas(dab).drawCircle(radius, radius, radius, paint);
+        return dab;
+    }
+}
@@ -0,0 +1,123 @@
+package ja.burhanrashid52.views;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uniform grid over the editor mapping every cell to the items whose bounds overlap it.
+ * <p/>
+ * Cells are allocated only when an item covers them, a query looks at the items of one cell
+ * whatever the total number of items. Updating an item costs the number of cells it covers
+ */
+public class HitGrid<T> {
+
+    public static final int DEFAULT_CELL_SIZE = 128;
+
+    private final int mCellSize;
+    private final Map<Long, List<T>> mCells = new HashMap<>();
+    private final Map<T, Rect> mRanges = new HashMap<>();// cells covered by each item, inclusive
+
+    public HitGrid() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param cellSize side of a cell in pixels
+     */
+    public HitGrid(int cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        mCellSize = cellSize;
+    }
+
+    /**
+     * Add the item or move it to new bounds, an empty box removes it
+     */
+    public void update(@NonNull T item, @NonNull RectF bounds) {
+        final Rect previous = mRanges.get(item);
+        if (bounds.isEmpty()) {
+            remove(item);
+            return;
+        }
+
+        final int left = cell(bounds.left);
+        final int top = cell(bounds.top);
+        final int right = cell(bounds.right);
+        final int bottom = cell(bounds.bottom);
+        if (previous != null) {
+            if (previous.left == left && previous.top == top && previous.right == right && previous.bottom == bottom) {
+                return;
+            }
+            remove(item);
+        }
+
+        for (int y = top; y <= bottom; y++) {
+            for (int x = left; x <= right; x++) {
+                final long key = key(x, y);
+                List<T> items = mCells.get(key);
+                if (items == null) {
+                    items = new ArrayList<>(4);
+                    mCells.put(key, items);
+                }
+                items.add(item);
+            }
+        }
+        mRanges.put(item, new Rect(left, top, right, bottom));
+    }
+
+    public void remove(@NonNull T item) {
+        final Rect range = mRanges.remove(item);
+        if (range == null) {
+            return;
+        }
+        for (int y = range.top; y <= range.bottom; y++) {
+            for (int x = range.left; x <= range.right; x++) {
+                final long key = key(x, y);
+                final List<T> items = mCells.get(key);
+                if (items != null) {
+                    items.remove(item);
+                    if (items.isEmpty()) {
+                        mCells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return items whose bounds may contain the point, not to be modified
+     */
+    public @NonNull List<T> query(float x, float y) {
+        final List<T> items = mCells.get(key(cell(x), cell(y)));
+        return items != null ? items : Collections.<T>emptyList();
+    }
+
+    public boolean contains(@NonNull T item) {
+        return mRanges.containsKey(item);
+    }
+
+    public int size() {
+        return mRanges.size();
+    }
+
+    public void clear() {
+        mCells.clear();
+        mRanges.clear();
+    }
+
+    private int cell(float coordinate) {
+        return (int) Math.floor(coordinate / mCellSize);
+    }
+
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+}
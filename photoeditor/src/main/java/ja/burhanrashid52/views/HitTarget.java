@@ -0,0 +1,34 @@
+package ja.burhanrashid52.views;
+
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Overlay view covering the editor whose touchable area is only a small part of it, so a
+ * {@link HitGrid} can route touches to it without asking every overlay in turn
+ */
+public interface HitTarget {
+
+    interface Listener {
+        /**
+         * Called on the main thread when the area changed, typically once drawn after a move,
+         * rotation or scale
+         *
+         * @param bounds box around everything touchable, empty if nothing is, only valid during the call
+         */
+        void onHitBoundsChanged(@NonNull HitTarget target, @NonNull RectF bounds);
+    }
+
+    void setHitListener(@Nullable Listener listener);
+
+    /**
+     * @param bounds receives the box around everything touchable, in the coordinates of the view
+     */
+    void getHitBounds(@NonNull RectF bounds);
+
+    /**
+     * @return true if a touch down at this point is handled by the view
+     */
+    boolean hitTest(float x, float y);
+}
@@ -0,0 +1,302 @@
+package ja.burhanrashid52.views;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Ordered layers indexed by int ids, from the bottom one to the top one.
+ * <p/>
+ * Layers live in dense parallel arrays linked in drawing order, so adding, removing and moving a
+ * layer to the front or the back are constant time and walking them allocates nothing:
+ * <pre>
+ * for (int id = store.first(); id != LayerStore.NONE; id = store.next(id)) {
+ *     store.get(id).draw(canvas);
+ * }
+ * </pre>
+ * An id stays valid until its layer is removed. Slots are reused but carry a generation in
+ * their id, a stale id finds nothing instead of a newer layer.
+ */
+public class LayerStore<T> {
+
+    public static final int NONE = -1;
+
+    private static final int SLOT_BITS = 20;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int MAX_GENERATION = (1 << (31 - SLOT_BITS)) - 1;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Object[] mValues;
+    private int[] mGenerations;
+    private int[] mNext;// next slot in drawing order, or next free slot
+    private int[] mPrevious;
+    private int mHead = NONE;
+    private int mTail = NONE;
+    private int mFree = NONE;
+    private int mUsed;// slots ever handed out
+    private int mSize;
+
+    public LayerStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LayerStore(int capacity) {
+        final int initial = Math.max(1, capacity);
+        mValues = new Object[initial];
+        mGenerations = new int[initial];
+        mNext = new int[initial];
+        mPrevious = new int[initial];
+    }
+
+    /**
+     * Put a layer above all the others
+     *
+     * @return id of the layer
+     */
+    public int add(@NonNull T value) {
+        final int slot = allocate(value);
+        linkLast(slot);
+        return toId(slot);
+    }
+
+    /**
+     * Put a layer just below another one, as when a removed layer goes back where it was
+     *
+     * @param above id of the layer to go below, the new layer goes above all the others if it
+     *              is {@link #NONE} or not in the store anymore
+     * @return id of the layer
+     */
+    public int addBelow(@NonNull T value, int above) {
+        final int aboveSlot = toSlot(above);
+        final int slot = allocate(value);
+        if (aboveSlot == NONE) {
+            linkLast(slot);
+            return toId(slot);
+        }
+
+        final int previous = mPrevious[aboveSlot];
+        mPrevious[slot] = previous;
+        mNext[slot] = aboveSlot;
+        mPrevious[aboveSlot] = slot;
+        if (previous != NONE) {
+            mNext[previous] = slot;
+        } else {
+            mHead = slot;
+        }
+        return toId(slot);
+    }
+
+    /**
+     * @return the layer, null if the id is not in the store anymore
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable T get(int id) {
+        final int slot = toSlot(id);
+        return slot != NONE ? (T) mValues[slot] : null;
+    }
+
+    public boolean contains(int id) {
+        return toSlot(id) != NONE;
+    }
+
+    /**
+     * @return id of the layer, {@link #NONE} if not in the store. Linear, compares references
+     */
+    public int indexOf(@NonNull T value) {
+        for (int slot = mHead; slot != NONE; slot = mNext[slot]) {
+            if (mValues[slot] == value) {
+                return toId(slot);
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @return the removed layer, null if the id is not in the store anymore
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable T remove(int id) {
+        final int slot = toSlot(id);
+        if (slot == NONE) {
+            return null;
+        }
+
+        final T value = (T) mValues[slot];
+        unlink(slot);
+        mValues[slot] = null;
+        mNext[slot] = mFree;
+        mFree = slot;
+        mSize--;
+        return value;
+    }
+
+    /**
+     * Move a layer above all the others
+     *
+     * @return false if the id is not in the store anymore
+     */
+    public boolean bringToFront(int id) {
+        final int slot = toSlot(id);
+        if (slot == NONE) {
+            return false;
+        }
+        if (slot != mTail) {
+            unlink(slot);
+            linkLast(slot);
+        }
+        return true;
+    }
+
+    /**
+     * Move a layer below all the others
+     *
+     * @return false if the id is not in the store anymore
+     */
+    public boolean sendToBack(int id) {
+        final int slot = toSlot(id);
+        if (slot == NONE) {
+            return false;
+        }
+        if (slot != mHead) {
+            unlink(slot);
+            mPrevious[slot] = NONE;
+            mNext[slot] = mHead;
+            mPrevious[mHead] = slot;
+            mHead = slot;
+        }
+        return true;
+    }
+
+    /**
+     * @return id of the bottom layer, {@link #NONE} if empty
+     */
+    public int first() {
+        return mHead != NONE ? toId(mHead) : NONE;
+    }
+
+    /**
+     * @return id of the top layer, {@link #NONE} if empty
+     */
+    public int last() {
+        return mTail != NONE ? toId(mTail) : NONE;
+    }
+
+    /**
+     * @param id layer in the store, not one removed since
+     * @return id of the layer just above, {@link #NONE} if it is the top one
+     */
+    public int next(int id) {
+        final int next = mNext[id & SLOT_MASK];
+        return next != NONE ? toId(next) : NONE;
+    }
+
+    /**
+     * @param id layer in the store, not one removed since
+     * @return id of the layer just below, {@link #NONE} if it is the bottom one
+     */
+    public int previous(int id) {
+        final int previous = mPrevious[id & SLOT_MASK];
+        return previous != NONE ? toId(previous) : NONE;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Remove every layer, ids handed out so far stay invalid
+     */
+    public void clear() {
+        for (int slot = mHead; slot != NONE; ) {
+            final int next = mNext[slot];
+            mValues[slot] = null;
+            mNext[slot] = mFree;
+            mFree = slot;
+            slot = next;
+        }
+        mHead = NONE;
+        mTail = NONE;
+        mSize = 0;
+    }
+
+    /**
+     * @return slot holding the value, not linked yet
+     */
+    private int allocate(T value) {
+        final int slot;
+        if (mFree != NONE) {
+            slot = mFree;
+            mFree = mNext[slot];
+        } else {
+            if (mUsed == mValues.length) {
+                grow();
+            }
+            slot = mUsed++;
+        }
+
+        mValues[slot] = value;
+        mGenerations[slot] = mGenerations[slot] == MAX_GENERATION ? 1 : mGenerations[slot] + 1;
+        mSize++;
+        return slot;
+    }
+
+    private int toId(int slot) {
+        return (mGenerations[slot] << SLOT_BITS) | slot;
+    }
+
+    /**
+     * @return slot of a live layer, {@link #NONE} for a stale or unknown id
+     */
+    private int toSlot(int id) {
+        if (id < 0) {
+            return NONE;
+        }
+        final int slot = id & SLOT_MASK;
+        if (slot >= mUsed || mValues[slot] == null || mGenerations[slot] != id >>> SLOT_BITS) {
+            return NONE;
+        }
+        return slot;
+    }
+
+    private void linkLast(int slot) {
+        mNext[slot] = NONE;
+        mPrevious[slot] = mTail;
+        if (mTail != NONE) {
+            mNext[mTail] = slot;
+        } else {
+            mHead = slot;
+        }
+        mTail = slot;
+    }
+
+    private void unlink(int slot) {
+        final int previous = mPrevious[slot];
+        final int next = mNext[slot];
+        if (previous != NONE) {
+            mNext[previous] = next;
+        } else {
+            mHead = next;
+        }
+        if (next != NONE) {
+            mPrevious[next] = previous;
+        } else {
+            mTail = previous;
+        }
+    }
+
+    private void grow() {
+        if (mValues.length > SLOT_MASK) {
+            throw new IllegalStateException("Too many layers");
+        }
+        final int capacity = Math.min(mValues.length * 2, SLOT_MASK + 1);
+        mValues = Arrays.copyOf(mValues, capacity);
+        mGenerations = Arrays.copyOf(mGenerations, capacity);
+        mNext = Arrays.copyOf(mNext, capacity);
+        mPrevious = Arrays.copyOf(mPrevious, capacity);
+    }
+}
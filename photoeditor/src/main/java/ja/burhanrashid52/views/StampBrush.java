@@ -0,0 +1,113 @@
+package ja.burhanrashid52.views;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Dynamics of the stamp brush: dabs spaced evenly along the touch samples, larger and more opaque
+ * the harder the pen is pressed, thinner the faster it moves.
+ * <p/>
+ * Size and opacity are interpolated between two samples, so a fast stroke with few samples still
+ * changes smoothly. Fingers without pressure sensing report a constant pressure, only the speed
+ * varies the dabs then.
+ */
+final class StampBrush {
+
+    interface Sink {
+        /**
+         * @param diameter in pixels
+         * @param alpha    opacity of the dab from 0 to 1, on top of the color of the brush
+         */
+        void onDab(float x, float y, float diameter, float alpha);
+    }
+
+    static final float SPACING = 0.15f;// of the diameter between two dabs
+
+    private static final float MIN_SIZE = 0.25f;// of the brush width, no pressure
+    private static final float MIN_ALPHA = 0.3f;// no pressure
+    private static final float FAST_SPEED = 3f;// pixels per millisecond, thinnest dabs
+    private static final float SPEED_THINNING = 0.5f;// size lost at FAST_SPEED
+    private static final float SPEED_SMOOTHING = 0.2f;// weight of a new speed sample
+    private static final float MIN_STEP = 0.5f;// pixels
+
+    private float mWidth;
+    private float mX;
+    private float mY;
+    private float mDiameter;
+    private float mAlpha;
+    private long mTime;
+    private float mSpeed;
+    private float mDistance;// since the last dab
+
+    /**
+     * Start a stroke, the first dab is placed by the first move
+     *
+     * @param width diameter of the dabs at full pressure and rest
+     */
+    void begin(float width, float x, float y, float pressure, long time) {
+        mWidth = width;
+        mX = x;
+        mY = y;
+        mTime = time;
+        mSpeed = 0;
+        mDiameter = diameter(pressure);
+        mAlpha = alpha(pressure);
+        mDistance = -1;// a dab right at the start
+    }
+
+    /**
+     * Extend the stroke to a new sample and place the dabs on the way
+     */
+    void moveTo(float x, float y, float pressure, long time, @NonNull Sink sink) {
+        final float dx = x - mX;
+        final float dy = y - mY;
+        final float length = (float) Math.sqrt(dx * dx + dy * dy);
+        final long elapsed = Math.max(1, time - mTime);
+        mSpeed += SPEED_SMOOTHING * (length / elapsed - mSpeed);
+
+        final float diameter = diameter(pressure);
+        final float alpha = alpha(pressure);
+        if (mDistance < 0) {
+            sink.onDab(mX, mY, mDiameter, mAlpha);
+            mDistance = 0;
+        }
+
+        // walk the segment one spacing at a time, the spacing follows the interpolated size
+        float travelled = 0;
+        while (length > 0) {
+            final float t = travelled / length;
+            final float step = Math.max(MIN_STEP, SPACING * (mDiameter + (diameter - mDiameter) * t));
+            if (travelled + step - mDistance > length) {
+                break;
+            }
+            // the distance carried over can exceed the step once the dabs shrank, the dab then goes
+            // at the start of the segment rather than behind it
+            travelled = Math.max(0, travelled + step - mDistance);
+            mDistance = 0;
+
+            final float at = travelled / length;
+            sink.onDab(mX + dx * at, mY + dy * at, mDiameter + (diameter - mDiameter) * at,
+                    mAlpha + (alpha - mAlpha) * at);
+        }
+        mDistance += length - travelled;
+
+        mX = x;
+        mY = y;
+        mTime = time;
+        mDiameter = diameter;
+        mAlpha = alpha;
+    }
+
+    private float diameter(float pressure) {
+        final float pressed = MIN_SIZE + (1 - MIN_SIZE) * clamp(pressure);
+        final float slowed = 1 - SPEED_THINNING * clamp(mSpeed / FAST_SPEED);
+        return Math.max(1, mWidth * pressed * slowed);
+    }
+
+    private static float alpha(float pressure) {
+        return MIN_ALPHA + (1 - MIN_ALPHA) * clamp(pressure);
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0, Math.min(1, value));
+    }
+}
@@ -14,6 +14,8 @@ import android.graphics.RectF;
 import android.view.View;
 
 import ja.burhanrashid52.photoeditor.R;
+import ja.burhanrashid52.scene.ImageLayer;
+import ja.burhanrashid52.scene.Layer;
 import ja.burhanrashid52.utils.RectUtil;
 
 /**
@@ -22,6 +24,7 @@ import ja.burhanrashid52.utils.RectUtil;
 public class StickerItem {
     private static final float MIN_SCALE = 0.15f;
     private static final int HELP_BOX_PAD = 5;
+    private static final int DRAW_BOUNDS_PAD = 3;// help box stroke and antialiasing
 
     private static final int BUTTON_WIDTH = Constants.STICKER_BTN_HALF_SIZE;
 
@@ -41,6 +44,7 @@ public class StickerItem {
     private Paint helpBoxPaint = new Paint();
 
     private float initWidth;// 加入屏幕时原始宽度
+    private final Matrix boundsMatrix = new Matrix();
 
     private static Bitmap deleteBit;
     private static Bitmap rotateBit;
@@ -50,6 +54,9 @@ public class StickerItem {
 
     public RectF detectDeleteRect;
 
+    private final long layerId = Layer.nextId();
+    private long revision;
+
     public StickerItem(Context context) {
 
         helpBoxPaint.setColor(Color.BLACK);
@@ -77,6 +84,7 @@ public class StickerItem {
     }
 
     public void init(Bitmap addBit, View parentView) {
+        this.revision = Layer.nextRevision();
         this.bitmap = addBit;
         this.srcRect = new Rect(0, 0, addBit.getWidth(), addBit.getHeight());
         int bitWidth = Math.min(addBit.getWidth(), parentView.getWidth() >> 1);
@@ -109,6 +117,44 @@ public class StickerItem {
         detectDeleteRect = new RectF(deleteRect);
     }
 
+    /**
+     * Place the sticker with a transform made of a translation, a uniform scale and a rotation,
+     * as the ones given by {@link #toLayer}. Must be called after {@link #init}
+     */
+    public void setTransform(Matrix transform) {
+        this.revision = Layer.nextRevision();
+
+        float[] values = new float[9];
+        transform.getValues(values);
+        float scale = (float) Math.hypot(values[Matrix.MSCALE_X], values[Matrix.MSKEW_Y]);
+        float angle = (float) Math.toDegrees(Math.atan2(values[Matrix.MSKEW_Y], values[Matrix.MSCALE_X]));
+
+        float[] center = {bitmap.getWidth() / 2f, bitmap.getHeight() / 2f};
+        transform.mapPoints(center);
+        float halfWidth = bitmap.getWidth() * scale / 2;
+        float halfHeight = bitmap.getHeight() * scale / 2;
+
+        this.matrix.set(transform);
+        this.dstRect.set(center[0] - halfWidth, center[1] - halfHeight,
+                center[0] + halfWidth, center[1] + halfHeight);
+        roatetAngle = angle;
+
+        // 重新计算工具箱坐标
+        helpBox.set(dstRect);
+        updateHelpBoxRect();
+        rotateRect.offsetTo(helpBox.right - BUTTON_WIDTH, helpBox.bottom
+                - BUTTON_WIDTH);
+        deleteRect.offsetTo(helpBox.left - BUTTON_WIDTH, helpBox.top
+                - BUTTON_WIDTH);
+
+        detectRotateRect.set(rotateRect);
+        detectDeleteRect.set(deleteRect);
+        RectUtil.rotateRect(this.detectRotateRect, this.dstRect.centerX(),
+                this.dstRect.centerY(), roatetAngle);
+        RectUtil.rotateRect(this.detectDeleteRect, this.dstRect.centerX(),
+                this.dstRect.centerY(), roatetAngle);
+    }
+
     private void updateHelpBoxRect() {
         this.helpBox.left -= HELP_BOX_PAD;
         this.helpBox.right += HELP_BOX_PAD;
@@ -123,6 +169,7 @@ public class StickerItem {
      * @param dy
      */
     public void updatePos(final float dx, final float dy) {
+        this.revision = Layer.nextRevision();
         this.matrix.postTranslate(dx, dy);// 记录到矩阵中
 
         dstRect.offset(dx, dy);
@@ -172,6 +219,7 @@ public class StickerItem {
             return;
         }
 
+        this.revision = Layer.nextRevision();
         this.matrix.postScale(scale, scale, this.dstRect.centerX(),
                 this.dstRect.centerY());// 存入scale矩阵
 
@@ -230,8 +278,46 @@ public class StickerItem {
         }
     }
 
+    /**
+     * @param bounds receives the area drawn by {@link #draw}, help box and buttons included
+     */
+    public void getDrawBounds(RectF bounds) {
+        bounds.set(helpBox);
+        bounds.inset(-BUTTON_WIDTH - DRAW_BOUNDS_PAD, -BUTTON_WIDTH - DRAW_BOUNDS_PAD);
+        boundsMatrix.setRotate(roatetAngle, helpBox.centerX(), helpBox.centerY());
+        boundsMatrix.mapRect(bounds);
+    }
+
     public void hideHelpBox() {
         isDrawHelpTool = false;
     }
 
+    /**
+     * @return identifier of the image layer, kept across snapshots
+     */
+    public long getLayerId() {
+        return layerId;
+    }
+
+    /**
+     * @return revision of the image layer, changed by every move of the sticker
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * Copy of the current placement, the bitmap is shared
+     *
+     * @param viewToImage transform from the coordinates of the sticker view to the image ones
+     */
+    public ImageLayer toLayer(Matrix viewToImage) {
+        final ImageLayer layer = new ImageLayer(bitmap);
+        layer.setVersion(layerId, revision);
+        final Matrix transform = layer.getTransform();
+        transform.set(matrix);
+        transform.postConcat(viewToImage);
+        return layer;
+    }
+
 }// end class
@@ -5,36 +5,45 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
 
-import java.util.LinkedHashMap;
-
 /**
  * 贴图操作控件
  *
  * @author panyi
  */
-public class StickerView extends View {
+public class StickerView extends View implements HitTarget {
     private static int STATUS_IDLE = 0;
     private static int STATUS_MOVE = 1;// 移动状态
     private static int STATUS_DELETE = 2;// 删除状态
     private static int STATUS_ROTATE = 3;// 图片旋转状态
 
-    private int imageCount;// 已加入照片的数量
     private Context mContext;
     private int currentStatus;// 当前状态
     private StickerItem currentItem;// 当前操作的贴图数据
     private float oldx, oldy;
+    private final Matrix gestureStart = new Matrix();// 手势开始时的变换
+    private final RectF dirtyBefore = new RectF();
+    private final RectF dirtyAfter = new RectF();
+    private final Rect dirtyRect = new Rect();
 
     private Paint rectPaint = new Paint();
     private Paint boxPaint = new Paint();
 
     private Listener mListener;
+    private HitTarget.Listener mHitListener;
+    private final RectF mHitBounds = new RectF();// last bounds told to the hit listener
+    private final RectF mNewHitBounds = new RectF();
 
-    private LinkedHashMap<Integer, StickerItem> bank = new LinkedHashMap<Integer, StickerItem>();// 存贮每层贴图数据
+    private final LayerStore<StickerItem> bank = new LayerStore<>();// 存贮每层贴图数据
 
     public StickerView(Context context) {
         super(context);
@@ -64,22 +73,106 @@ public class StickerView extends View {
         mListener = listener;
     }
 
+    @Override
+    public void setHitListener(@Nullable HitTarget.Listener listener) {
+        mHitListener = listener;
+        mHitBounds.setEmpty();
+    }
+
+    @Override
+    public void getHitBounds(@NonNull RectF bounds) {
+        bounds.setEmpty();
+        for (int id = bank.first(); id != LayerStore.NONE; id = bank.next(id)) {
+            final StickerItem item = bank.get(id);
+            bounds.union(item.dstRect);
+            bounds.union(item.detectDeleteRect);
+            bounds.union(item.detectRotateRect);
+        }
+    }
+
+    @Override
+    public boolean hitTest(float x, float y) {
+        for (int id = bank.first(); id != LayerStore.NONE; id = bank.next(id)) {
+            final StickerItem item = bank.get(id);
+            if (item.detectDeleteRect.contains(x, y) || item.detectRotateRect.contains(x, y)
+                    || item.dstRect.contains(x, y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tell the hit listener once the stickers moved, called after every draw
+     */
+    private void reportHitBounds() {
+        if (mHitListener == null) {
+            return;
+        }
+        getHitBounds(mNewHitBounds);
+        if (!mNewHitBounds.equals(mHitBounds)) {
+            mHitBounds.set(mNewHitBounds);
+            mHitListener.onHitBoundsChanged(this, mHitBounds);
+        }
+    }
+
     public void hideHelpBox() {
-        for (Integer id : bank.keySet()) {
-            StickerItem item = bank.get(id);
-            item.hideHelpBox();
-            this.invalidate();
+        for (int id = bank.first(); id != LayerStore.NONE; id = bank.next(id)) {
+            bank.get(id).hideHelpBox();
         }
+        this.invalidate();
     }
 
-    public void addBitImage(final Bitmap addBit) {
+    public int addBitImage(final Bitmap addBit) {
+        return addBitImage(addBit, null);
+    }
+
+    /**
+     * @param transform placement of the sticker in this view, centered if null
+     * @return id of the sticker in {@link #getBank()}
+     */
+    public int addBitImage(final Bitmap addBit, @Nullable Matrix transform) {
         StickerItem item = new StickerItem(this.getContext());
         item.init(addBit, this);
+        if (transform != null) {
+            item.setTransform(transform);
+        }
         if (currentItem != null) {
             currentItem.isDrawHelpTool = false;
         }
-        bank.put(++imageCount, item);
+        final int id = bank.add(item);
         this.invalidate();// 重绘视图
+        return id;
+    }
+
+    /**
+     * Put back a sticker removed from this view, as when undoing its deletion
+     *
+     * @param above id of the sticker it was just below when removed, {@link LayerStore#NONE} if it
+     *              was the top one
+     */
+    public int addItem(StickerItem item, int above) {
+        final int id = bank.addBelow(item, above);
+        this.invalidate();
+        return id;
+    }
+
+    /**
+     * Draw a sticker above the others
+     */
+    public void bringToFront(int id) {
+        if (bank.bringToFront(id)) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Draw a sticker below the others
+     */
+    public void sendToBack(int id) {
+        if (bank.sendToBack(id)) {
+            invalidate();
+        }
     }
 
     /**
@@ -89,10 +182,19 @@ public class StickerView extends View {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
         // System.out.println("on draw!!~");
-        for (Integer id : bank.keySet()) {
-            StickerItem item = bank.get(id);
+        final boolean clipped = canvas.getClipBounds(dirtyRect);
+        for (int id = bank.first(); id != LayerStore.NONE; id = bank.next(id)) {
+            final StickerItem item = bank.get(id);
+            if (clipped) {
+                // skip the stickers away from the invalidated area
+                item.getDrawBounds(dirtyAfter);
+                if (!dirtyAfter.intersects(dirtyRect.left, dirtyRect.top, dirtyRect.right, dirtyRect.bottom)) {
+                    continue;
+                }
+            }
             item.draw(canvas);
         }// end for each
+        reportHitBounds();
     }
 
     @Override
@@ -111,8 +213,8 @@ public class StickerView extends View {
         switch (action & MotionEvent.ACTION_MASK) {
             case MotionEvent.ACTION_DOWN:
 
-                int deleteId = -1;
-                for (Integer id : bank.keySet()) {
+                int deleteId = LayerStore.NONE;
+                for (int id = bank.first(); id != LayerStore.NONE; id = bank.next(id)) {
                     StickerItem item = bank.get(id);
                     if (item.detectDeleteRect.contains(x, y)) {// 删除模式
                         // ret = true;
@@ -153,16 +255,21 @@ public class StickerView extends View {
                     invalidate();
                 }
 
-                if (deleteId > 0 && currentStatus == STATUS_DELETE) {// 删除选定贴图
-                    bank.remove(deleteId);
+                if (deleteId != LayerStore.NONE && currentStatus == STATUS_DELETE) {// 删除选定贴图
+                    final int above = bank.next(deleteId);
+                    StickerItem deleted = bank.remove(deleteId);
                     currentStatus = STATUS_IDLE;// 返回空闲状态
                     invalidate();
 
                     if (mListener != null) {
-                        mListener.onStickerDeleted(this);
+                        mListener.onStickerDeleted(this, deleted, above);
                     }
                 }// end if
 
+                if (currentItem != null && (currentStatus == STATUS_MOVE || currentStatus == STATUS_ROTATE)) {
+                    gestureStart.set(currentItem.matrix);
+                }
+
                 break;
             case MotionEvent.ACTION_MOVE:
                 ret = true;
@@ -170,8 +277,9 @@ public class StickerView extends View {
                     float dx = x - oldx;
                     float dy = y - oldy;
                     if (currentItem != null) {
+                        currentItem.getDrawBounds(dirtyBefore);
                         currentItem.updatePos(dx, dy);
-                        invalidate();
+                        invalidateItem(currentItem);
                     }// end if
                     oldx = x;
                     oldy = y;
@@ -180,8 +288,9 @@ public class StickerView extends View {
                     float dx = x - oldx;
                     float dy = y - oldy;
                     if (currentItem != null) {
+                        currentItem.getDrawBounds(dirtyBefore);
                         currentItem.updateRotateAndScale(oldx, oldy, dx, dy);// 旋转
-                        invalidate();
+                        invalidateItem(currentItem);
                     }// end if
                     oldx = x;
                     oldy = y;
@@ -190,16 +299,33 @@ public class StickerView extends View {
             case MotionEvent.ACTION_CANCEL:
             case MotionEvent.ACTION_UP:
                 ret = false;
+                if (currentItem != null && (currentStatus == STATUS_MOVE || currentStatus == STATUS_ROTATE)
+                        && !gestureStart.equals(currentItem.matrix) && mListener != null) {
+                    mListener.onStickerTransformed(this, currentItem, new Matrix(gestureStart));
+                }
                 currentStatus = STATUS_IDLE;
                 break;
         }// end switch
         return ret;
     }
 
-    public LinkedHashMap<Integer, StickerItem> getBank() {
+    /**
+     * @return stickers from the bottom one to the top one
+     */
+    public LayerStore<StickerItem> getBank() {
         return bank;
     }
 
+    /**
+     * Redraw only where the sticker was, kept in {@link #dirtyBefore}, and where it is now
+     */
+    private void invalidateItem(StickerItem item) {
+        item.getDrawBounds(dirtyAfter);
+        dirtyAfter.union(dirtyBefore);
+        dirtyAfter.roundOut(dirtyRect);
+        invalidate(dirtyRect);
+    }
+
     public void clear() {
         bank.clear();
         this.invalidate();
@@ -207,7 +333,19 @@ public class StickerView extends View {
 
     public interface Listener {
         void onStickerSelected(StickerView stickerView);
-        void onStickerDeleted(StickerView stickerView);
+
+        /**
+         * @param item  sticker removed from the view
+         * @param above id of the sticker it was just below, {@link LayerStore#NONE} if it was the top one
+         */
+        void onStickerDeleted(StickerView stickerView, StickerItem item, int above);
+
+        /**
+         * A move, rotation or scale gesture ended
+         *
+         * @param before matrix of the sticker when the gesture started
+         */
+        void onStickerTransformed(StickerView stickerView, StickerItem item, Matrix before);
     }
 
 }// end class
@@ -0,0 +1,151 @@
+package ja.burhanrashid52.views;
+
+import android.graphics.Paint;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ja.burhanrashid52.scene.StrokeSet;
+import ja.burhanrashid52.utils.TileSurface;
+
+/**
+ * Strokes painted on a {@link CustomPaintView} with raster {@link Checkpoints} along the history.
+ * <p/>
+ * Undo copies the nearest checkpoint below the stroke back into the paint surface and replays
+ * the strokes after it, fewer than {@link Checkpoints#MAX_GAP} however long the history, redo draws
+ * one stroke. Checkpoints are tiled as the surface is, they only hold the tiles painted at the time
+ */
+final class StrokeJournal {
+
+    private final List<BrushStroke> mStrokes = new ArrayList<>();
+    private int mApplied;// strokes currently drawn, the others can be redone
+
+    private TileSurface mBase;// surface before the first stroke, null if transparent
+    private final Checkpoints<TileSurface> mCheckpoints = new Checkpoints<>();
+    private final List<TileSurface> mDropped = new ArrayList<>();
+
+    private final Paint mReplayPaint = BrushStroke.newPaint();
+
+    /**
+     * Forget every stroke, the surface is what undo goes back to from now on
+     *
+     * @param surface current paint surface, null if transparent
+     */
+    void reset(@Nullable TileSurface surface) {
+        mStrokes.clear();
+        mApplied = 0;
+        mCheckpoints.clear(mDropped);
+        releaseDropped();
+
+        if (mBase != null) {
+            mBase.clear();
+        }
+        mBase = surface != null && !surface.isEmpty() ? copy(surface) : null;
+    }
+
+    /**
+     * Record a stroke already drawn on the surface, strokes that could be redone are forgotten
+     *
+     * @param mask eraser strokes not applied to the surface yet, null if none
+     */
+    void add(@NonNull BrushStroke stroke, @NonNull TileSurface surface, @Nullable TileSurface mask) {
+        mStrokes.subList(mApplied, mStrokes.size()).clear();
+        mCheckpoints.truncate(mApplied, mDropped);
+        releaseDropped();
+
+        stroke.trimToSize();
+        mStrokes.add(stroke);
+        mApplied++;
+
+        if (Checkpoints.isDue(mApplied)) {
+            final TileSurface checkpoint = copy(surface);
+            if (mask != null) {
+                checkpoint.applyMask(mask);
+            }
+            mCheckpoints.add(mApplied, checkpoint, mDropped);
+            releaseDropped();
+        }
+    }
+
+    /**
+     * Give the tiles of the checkpoints removed back to the pool
+     */
+    private void releaseDropped() {
+        for (TileSurface dropped : mDropped) {
+            dropped.clear();
+        }
+        mDropped.clear();
+    }
+
+    /**
+     * Remove the last drawn stroke from the surface
+     *
+     * @return false if there was none
+     */
+    boolean undo(@NonNull TileSurface surface) {
+        if (mApplied == 0) {
+            return false;
+        }
+        final int target = mApplied - 1;
+
+        final int position = mCheckpoints.find(target);
+        final TileSurface start = position >= 0 ? mCheckpoints.get(position) : mBase;
+        final int from = position >= 0 ? mCheckpoints.getStrokes(position) : 0;
+
+        if (start != null) {
+            surface.copyFrom(start);
+        } else {
+            surface.clear();
+        }
+        for (int i = from; i < target; i++) {
+            mStrokes.get(i).draw(surface, mReplayPaint);
+        }
+        mApplied = target;
+        return true;
+    }
+
+    /**
+     * Draw the last undone stroke again
+     *
+     * @return false if there was none
+     */
+    boolean redo(@NonNull TileSurface surface) {
+        if (mApplied == mStrokes.size()) {
+            return false;
+        }
+        mStrokes.get(mApplied++).draw(surface, mReplayPaint);
+        return true;
+    }
+
+    /**
+     * @return strokes currently drawn
+     */
+    int getAppliedCount() {
+        return mApplied;
+    }
+
+    /**
+     * @return the strokes currently drawn as vectors, null if they were drawn over a raster or
+     * could not be read back
+     */
+    @Nullable StrokeSet toStrokeSet() {
+        if (mBase != null) {
+            return null;
+        }
+        final StrokeSet.Builder builder = new StrokeSet.Builder(mApplied);
+        for (int i = 0; i < mApplied; i++) {
+            if (!mStrokes.get(i).addTo(builder)) {
+                return null;
+            }
+        }
+        return builder.build();
+    }
+
+    private static TileSurface copy(TileSurface surface) {
+        final TileSurface copy = new TileSurface(surface.getWidth(), surface.getHeight());
+        copy.copyFrom(surface);
+        return copy;
+    }
+}
@@ -5,10 +5,12 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Typeface;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextPaint;
 import android.text.TextUtils;
@@ -18,10 +20,13 @@ import android.view.MotionEvent;
 import android.view.View;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import ja.burhanrashid52.photoeditor.R;
-import ja.burhanrashid52.utils.ListUtil;
+import ja.burhanrashid52.scene.EmojiLayer;
+import ja.burhanrashid52.scene.Layer;
+import ja.burhanrashid52.scene.TextLayer;
 import ja.burhanrashid52.utils.RectUtil;
 
 /**
@@ -29,10 +34,10 @@ import ja.burhanrashid52.utils.RectUtil;
  * <p/>
  * Created by panyi on 2016/6/9.
  */
-public class TextStickerView extends View {
-    public static final float TEXT_SIZE_DEFAULT = 70;
-    public static final int PADDING = 25;
-    public static final int BACKGROUND_PADDING = 10;
+public class TextStickerView extends View implements HitTarget {
+    public static final float TEXT_SIZE_DEFAULT = TextLayer.TEXT_SIZE_DEFAULT;
+    public static final int PADDING = TextLayer.PADDING;
+    public static final int BACKGROUND_PADDING = TextLayer.BACKGROUND_PADDING;
 
     private TextPaint mPaint = new TextPaint();
     private Paint mBackgroundPaint = new Paint();
@@ -62,6 +67,7 @@ public class TextStickerView extends View {
 
     private float last_x = 0;
     private float last_y = 0;
+    private final float[] mGestureStart = new float[4];// placement when the gesture started
 
     public float mRotateAngle = 0;
     public float mScale = 1;
@@ -74,9 +80,18 @@ public class TextStickerView extends View {
     private String mText;
     private String mFontName;
     private Listener mListener;
+    private HitTarget.Listener mHitListener;
+    private final RectF mHitBounds = new RectF();// last bounds told to the hit listener
+    private final RectF mNewHitBounds = new RectF();
 
     private GestureDetector mGestureDetector;
 
+    private boolean mEmoji;
+    private Matrix mPendingTransform;// placement waiting for the first layout
+
+    private final long mLayerId = Layer.nextId();
+    private long mRevision = Layer.nextRevision();
+
     public TextStickerView(Context context) {
         super(context);
         initView(context);
@@ -96,6 +111,46 @@ public class TextStickerView extends View {
         mListener = listener;
     }
 
+    @Override
+    public void setHitListener(@Nullable HitTarget.Listener listener) {
+        mHitListener = listener;
+        mHitBounds.setEmpty();
+    }
+
+    /**
+     * Known once the text has been drawn, the help box is measured while drawing
+     */
+    @Override
+    public void getHitBounds(@NonNull RectF bounds) {
+        bounds.setEmpty();
+        if (TextUtils.isEmpty(mText)) {
+            return;
+        }
+        bounds.union(mHelpBoxRect);
+        bounds.union(mDeleteDstRect);
+        bounds.union(mRotateDstRect);
+    }
+
+    @Override
+    public boolean hitTest(float x, float y) {
+        return !TextUtils.isEmpty(mText) && (mDeleteDstRect.contains(x, y)
+                || mRotateDstRect.contains(x, y) || mHelpBoxRect.contains(x, y));
+    }
+
+    /**
+     * Tell the hit listener once the text moved, called after every draw
+     */
+    private void reportHitBounds() {
+        if (mHitListener == null) {
+            return;
+        }
+        getHitBounds(mNewHitBounds);
+        if (!mNewHitBounds.equals(mHitBounds)) {
+            mHitBounds.set(mNewHitBounds);
+            mHitListener.onHitBoundsChanged(this, mHitBounds);
+        }
+    }
+
     private void initView(Context context) {
         debugPaint.setColor(Color.parseColor("#66ff0000"));
 
@@ -140,22 +195,22 @@ public class TextStickerView extends View {
 
     public void setText(String text) {
         this.mText = text;
-        invalidate();
+        markChanged();
     }
 
     public void setTextColor(int newColor) {
         mPaint.setColor(newColor);
-        invalidate();
+        markChanged();
     }
 
     public void setBackgroundColor(int newColor) {
         mBackgroundPaint.setColor(newColor);
-        invalidate();
+        markChanged();
     }
 
     public void setBackgroundAlpha(int newAlpha) {
         mBackgroundPaint.setAlpha(newAlpha);
-        invalidate();
+        markChanged();
     }
 
     public void setTypeface(String fontName, Typeface typeface) {
@@ -163,13 +218,13 @@ public class TextStickerView extends View {
 
         mPaint.setTypeface(typeface);
 
-        invalidate();
+        markChanged();
     }
 
     public void setTextSize(int textSize) {
         mPaint.setTextSize(textSize);
 
-        invalidate();
+        markChanged();
     }
 
     public @Nullable String getFontName() {
@@ -180,6 +235,10 @@ public class TextStickerView extends View {
         return mText;
     }
 
+    public @Nullable Typeface getTypeface() {
+        return mPaint.getTypeface();
+    }
+
     public int getTextColor() {
         return mPaint.getColor();
     }
@@ -198,6 +257,11 @@ public class TextStickerView extends View {
         if (isInitLayout) {
             isInitLayout = false;
             resetView();
+
+            if (mPendingTransform != null) {
+                setTransform(mPendingTransform);
+                mPendingTransform = null;
+            }
         }
     }
 
@@ -205,11 +269,11 @@ public class TextStickerView extends View {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        if (TextUtils.isEmpty(mText))
-            return;
-
-        parseText();
-        drawContent(canvas);
+        if (!TextUtils.isEmpty(mText)) {
+            parseText();
+            drawContent(canvas);
+        }
+        reportHitBounds();
     }
 
     protected void parseText() {
@@ -256,52 +320,8 @@ public class TextStickerView extends View {
     }
 
     public void drawText(Canvas canvas, int _x, int _y, float scale, float rotate) {
-        if (ListUtil.isEmpty(mTextContents))
-            return;
-
-        int x = _x;
-        int y = _y;
-        int text_height = 0;
-
-        mTextRect.set(0, 0, 0, 0);//clear
-        Rect tempRect = new Rect();
-        Paint.FontMetricsInt fontMetrics = mPaint.getFontMetricsInt();
-        int charMinHeight = Math.abs(fontMetrics.top) + Math.abs(fontMetrics.bottom);//字体高度
-        text_height = charMinHeight;
-
-        for (int i = 0; i < mTextContents.size(); i++) {
-            String text = mTextContents.get(i);
-            mPaint.getTextBounds(text, 0, text.length(), tempRect);
-
-            if (tempRect.height() <= 0) {//处理此行文字为空的情况
-                tempRect.set(0, 0, 0, text_height);
-            }
-
-            RectUtil.rectAddV(mTextRect, tempRect, 0, charMinHeight);
-        }//end for i
-
-        mTextRect.offset(x, y);
-
-        mHelpBoxRect.set(mTextRect.left - PADDING, mTextRect.top - PADDING
-                , mTextRect.right + PADDING, mTextRect.bottom + PADDING);
-        RectUtil.scaleRect(mHelpBoxRect, scale);
-
-        canvas.save();
-        canvas.scale(scale, scale, mHelpBoxRect.centerX(), mHelpBoxRect.centerY());
-        canvas.rotate(rotate, mHelpBoxRect.centerX(), mHelpBoxRect.centerY());
-
-        if (mBackgroundPaint.getColor() != 0) {
-            RectF backgroundRect = new RectF(mTextRect.left - BACKGROUND_PADDING, mTextRect.top, mTextRect.right + BACKGROUND_PADDING, mTextRect.bottom + BACKGROUND_PADDING);
-
-            canvas.drawRoundRect(backgroundRect, 10, 10, mBackgroundPaint);
-        }
-
-        int draw_text_y = y + (text_height >> 1) + PADDING;
-        for (int i = 0; i < mTextContents.size(); i++) {
-            canvas.drawText(mTextContents.get(i), x, draw_text_y, mPaint);
-            draw_text_y += text_height;
-        }
-        canvas.restore();
+        TextLayer.drawText(canvas, mTextContents, mPaint, mBackgroundPaint, _x, _y, scale, rotate,
+                mTextRect, mHelpBoxRect);
     }
 
     @Override
@@ -339,6 +359,10 @@ public class TextStickerView extends View {
                     mListener.onTextSelected(this);
                 }
 
+                if (mCurrentMode == MOVE_MODE || mCurrentMode == ROTATE_MODE) {
+                    getPlacement(mGestureStart);
+                }
+
                 if (mCurrentMode == DELETE_MODE) {// 删除选定贴图
                     mCurrentMode = IDLE_MODE;// 返回空闲状态
                     clearTextContent();
@@ -355,7 +379,7 @@ public class TextStickerView extends View {
                     layout_x += dx;
                     layout_y += dy;
 
-                    invalidate();
+                    markChanged();
 
                     last_x = x;
                     last_y = y;
@@ -366,7 +390,7 @@ public class TextStickerView extends View {
 
                     updateRotateAndScale(dx, dy);
 
-                    invalidate();
+                    markChanged();
                     last_x = x;
                     last_y = y;
                 }
@@ -374,6 +398,13 @@ public class TextStickerView extends View {
             case MotionEvent.ACTION_CANCEL:
             case MotionEvent.ACTION_UP:
                 ret = false;
+                if ((mCurrentMode == MOVE_MODE || mCurrentMode == ROTATE_MODE) && mListener != null) {
+                    final float[] placement = new float[4];
+                    getPlacement(placement);
+                    if (!Arrays.equals(placement, mGestureStart)) {
+                        mListener.onTextTransformed(this, mGestureStart.clone());
+                    }
+                }
                 mCurrentMode = IDLE_MODE;
                 break;
         }// end switch
@@ -382,11 +413,12 @@ public class TextStickerView extends View {
     }
 
     public void clearTextContent() {
-        setText(null);
-
+        // the listener still sees the deleted text
         if (mListener != null) {
             mListener.onTextDeleted(this);
         }
+
+        setText(null);
     }
 
     public void hideHelpBox() {
@@ -442,7 +474,74 @@ public class TextStickerView extends View {
         mRotateAngle += angle;
     }
 
+    /**
+     * Place the text with a transform made of a translation, a uniform scale and a rotation,
+     * as the ones given by {@link #toLayer}. Applied after the first layout if not yet measured
+     */
+    public void setTransform(Matrix transform) {
+        if (isInitLayout) {
+            mPendingTransform = new Matrix(transform);
+            return;
+        }
+
+        float[] values = new float[9];
+        transform.getValues(values);
+
+        // the text is scaled and rotated around its center, which the transform maps to center + layout
+        final Rect bounds = new Rect();
+        parseText();
+        TextLayer.measureText(mTextContents, mPaint, 0, 0, bounds);
+        float[] center = {(bounds.left + bounds.right) / 2f, (bounds.top + bounds.bottom) / 2f};
+        final float localX = center[0];
+        final float localY = center[1];
+        transform.mapPoints(center);
+
+        layout_x = Math.round(center[0] - localX);
+        layout_y = Math.round(center[1] - localY);
+        mScale = (float) Math.hypot(values[Matrix.MSCALE_X], values[Matrix.MSKEW_Y]);
+        mRotateAngle = (float) Math.toDegrees(Math.atan2(values[Matrix.MSKEW_Y], values[Matrix.MSCALE_X]));
+        markChanged();
+    }
+
+    /**
+     * @param placement receives the x and y layout position, the scale and the rotation in degrees
+     */
+    public void getPlacement(float[] placement) {
+        placement[0] = layout_x;
+        placement[1] = layout_y;
+        placement[2] = mScale;
+        placement[3] = mRotateAngle;
+    }
+
+    /**
+     * Restore a placement given by {@link #getPlacement}
+     */
+    public void setPlacement(float[] placement) {
+        layout_x = (int) placement[0];
+        layout_y = (int) placement[1];
+        mScale = placement[2];
+        mRotateAngle = placement[3];
+        markChanged();
+    }
+
+    public void setEmoji(boolean emoji) {
+        mEmoji = emoji;
+    }
+
+    public boolean isEmoji() {
+        return mEmoji;
+    }
+
+    /**
+     * Something drawn changed, snapshots taken from now on get a new revision
+     */
+    private void markChanged() {
+        mRevision = Layer.nextRevision();
+        invalidate();
+    }
+
     public void resetView() {
+        mRevision = Layer.nextRevision();
         layout_x = getMeasuredWidth() / 2;
         layout_y = getMeasuredHeight() / 2;
         mRotateAngle = 0;
@@ -454,6 +553,50 @@ public class TextStickerView extends View {
         return mScale;
     }
 
+    /**
+     * @return identifier of the text layer, kept across snapshots
+     */
+    public long getLayerId() {
+        return mLayerId;
+    }
+
+    /**
+     * @return revision of the text layer, changed by every edit of the text or its placement
+     */
+    public long getRevision() {
+        return mRevision;
+    }
+
+    /**
+     * Copy of the current text, colors and placement, safe to draw from another thread
+     *
+     * @param viewToImage transform from the coordinates of this view to the image ones
+     * @return null if there is no text
+     */
+    public @Nullable TextLayer toLayer(Matrix viewToImage) {
+        if (TextUtils.isEmpty(mText))
+            return null;
+
+        final TextLayer layer = mEmoji ? new EmojiLayer(mText, mPaint.getTextSize())
+                : new TextLayer(mText, mPaint.getColor(), mBackgroundPaint.getColor(),
+                mPaint.getTypeface(), mPaint.getTextSize());
+        layer.setVersion(mLayerId, mRevision);
+        layer.setFontName(mFontName);
+
+        // same placement as drawText(), scale and rotation around the center of the text
+        final Rect bounds = new Rect();
+        layer.getBounds(bounds);
+        final float cx = layout_x + (bounds.left + bounds.right) / 2f;
+        final float cy = layout_y + (bounds.top + bounds.bottom) / 2f;
+
+        final Matrix transform = layer.getTransform();
+        transform.setTranslate(layout_x, layout_y);
+        transform.postRotate(mRotateAngle, cx, cy);
+        transform.postScale(mScale, mScale, cx, cy);
+        transform.postConcat(viewToImage);
+        return layer;
+    }
+
     public float getRotateAngle() {
         return mRotateAngle;
     }
@@ -473,6 +616,13 @@ public class TextStickerView extends View {
         void onTextSelected(TextStickerView view);
         void onTextDeleted(TextStickerView view);
         void onDoubleTap(TextStickerView view);
+
+        /**
+         * A move, rotation or scale gesture ended
+         *
+         * @param before placement when the gesture started, as given by {@link #getPlacement}
+         */
+        void onTextTransformed(TextStickerView view, float[] before);
     }
 
 }//end class
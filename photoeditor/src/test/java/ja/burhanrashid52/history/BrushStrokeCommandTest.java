@@ -0,0 +1,106 @@
+package ja.burhanrashid52.history;
+
+import android.content.Context;
+import android.graphics.Color;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import ja.burhanrashid52.scene.StrokeSet;
+import ja.burhanrashid52.views.BrushStroke;
+import ja.burhanrashid52.views.CustomPaintView;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Strokes moved to the spill file by the history still undo through the paint view and draw the same
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BrushStrokeCommandTest {
+
+    private File mSpillDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mSpillDir = Files.createTempDirectory("strokes").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = mSpillDir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        mSpillDir.delete();
+    }
+
+    @Test
+    public void spilledStrokesAreReadBackAndUndoneByTheView() {
+        final CountingPaintView view = new CountingPaintView(RuntimeEnvironment.application);
+        final CommandHistory history = new CommandHistory(1, mSpillDir);// everything but the last spills
+        final BrushStroke[] strokes = new BrushStroke[3];
+        final float[][] points = new float[strokes.length][];
+        for (int i = 0; i < strokes.length; i++) {
+            strokes[i] = new BrushStroke(Color.RED, 10 + i, false);
+            for (int point = 0; point < 20; point++) {
+                strokes[i].add(point * 5, i * 50 + point);
+            }
+            points[i] = strokes[i].copyPoints();
+            history.record(new BrushStrokeCommand(view, strokes[i]));
+        }
+
+        assertEquals(0, strokes[0].getMemoryBytes());
+        assertEquals(0, strokes[1].getMemoryBytes());
+        assertTrue(strokes[2].getMemoryBytes() > 0);
+        assertTrue(history.getSpillBytes() > 0);
+
+        final StrokeSet.Builder builder = new StrokeSet.Builder(strokes.length);
+        for (int i = 0; i < strokes.length; i++) {
+            assertArrayEquals(points[i], strokes[i].copyPoints(), 0);
+            assertTrue(strokes[i].addTo(builder));
+        }
+        assertEquals(strokes.length, builder.build().size());
+
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertTrue(history.redo());
+        assertEquals(3, view.mUndone);
+        assertEquals(1, view.mRedone);
+    }
+
+    /**
+     * Counts what the history asks of the stroke journal
+     */
+    private static class CountingPaintView extends CustomPaintView {
+
+        int mUndone;
+        int mRedone;
+
+        CountingPaintView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public boolean undoStroke() {
+            mUndone++;
+            return true;
+        }
+
+        @Override
+        public boolean redoStroke() {
+            mRedone++;
+            return true;
+        }
+    }
+}
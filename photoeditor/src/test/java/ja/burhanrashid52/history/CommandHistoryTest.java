@@ -0,0 +1,231 @@
+package ja.burhanrashid52.history;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CommandHistoryTest {
+
+    private static final int FLOATS = 10;
+    private static final long BYTES = 4 * FLOATS;// held by each command until spilled
+
+    private File mSpillDir;
+    private final List<String> mApplied = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mSpillDir = Files.createTempDirectory("history").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = mSpillDir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        mSpillDir.delete();
+    }
+
+    @Test
+    public void undoAndRedoCrossTheSpillBoundary() throws IOException {
+        final CommandHistory history = new CommandHistory(2 * BYTES, mSpillDir);
+        final List<PointsCommand> commands = record(history, 5);
+
+        assertEquals(2 * BYTES, history.getMemoryBytes());
+        assertEquals(3 * BYTES, history.getSpillBytes());
+        assertTrue(commands.get(0).isSpilled());
+        assertTrue(commands.get(2).isSpilled());
+        assertFalse(commands.get(3).isSpilled());
+
+        while (history.undo()) {
+            // back to the first command
+        }
+        while (history.redo()) {
+            // and forward again
+        }
+        assertEquals("u4 u3 u2 u1 u0 r0 r1 r2 r3 r4", applied());
+        for (int i = 0; i < commands.size(); i++) {
+            assertArrayEquals(expected(i), commands.get(i).points(), 0);
+        }
+    }
+
+    @Test
+    public void recordingAfterUndoDropsTheRedoTailAndItsBlocks() throws IOException {
+        final CommandHistory history = new CommandHistory(BYTES, mSpillDir);
+        final List<PointsCommand> commands = record(history, 5);
+        assertEquals(4 * BYTES, history.getSpillBytes());
+
+        history.undo();
+        history.undo();
+        history.undo();
+        final PointsCommand replacing = new PointsCommand(9);
+        history.record(replacing);
+
+        assertEquals(3, history.size());
+        assertFalse(history.canRedo());
+        for (int i = 2; i < 5; i++) {
+            assertTrue(commands.get(i).mDiscarded);
+        }
+        // only the blocks of the two commands kept are left, then the new one spills after them
+        assertEquals(2 * BYTES, history.getSpillBytes());
+        history.record(new PointsCommand(10));
+        assertEquals(3 * BYTES, history.getSpillBytes());
+        assertTrue(replacing.isSpilled());
+
+        assertArrayEquals(expected(9), replacing.points(), 0);
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertTrue(history.undo());
+        assertFalse(history.undo());
+        assertArrayEquals(expected(0), commands.get(0).points(), 0);
+        assertArrayEquals(expected(1), commands.get(1).points(), 0);
+    }
+
+    @Test
+    public void undoingEverythingThenRecordingEmptiesTheSpillFile() throws IOException {
+        final CommandHistory history = new CommandHistory(BYTES, mSpillDir);
+        record(history, 4);
+        while (history.undo()) {
+            // nothing left applied
+        }
+        history.record(new PointsCommand(7));
+
+        assertEquals(1, history.size());
+        assertEquals(0, history.getSpillBytes());
+    }
+
+    @Test
+    public void spillFileKeepsToItsBudget() throws IOException {
+        final long maxSpillBytes = 5 * BYTES;
+        final CommandHistory history = new CommandHistory(BYTES, maxSpillBytes, mSpillDir);
+        final List<PointsCommand> commands = record(history, 40);
+
+        // the oldest commands are forgotten, the blocks left are moved to the start of the file
+        assertTrue(history.size() < 40);
+        assertTrue(history.getSpillBytes() + " bytes", history.getSpillBytes() <= 2 * maxSpillBytes);
+        assertTrue(commands.get(0).mDiscarded);
+
+        int undone = 0;
+        while (history.undo()) {
+            undone++;
+        }
+        assertEquals(history.size(), undone);
+        for (int i = 40 - undone; i < 40; i++) {
+            assertFalse(commands.get(i).mDiscarded);
+            assertArrayEquals(expected(i), commands.get(i).points(), 0);
+        }
+    }
+
+    @Test
+    public void clearDeletesTheSpillFile() {
+        final CommandHistory history = new CommandHistory(BYTES, mSpillDir);
+        record(history, 3);
+        assertEquals(1, mSpillDir.list().length);
+
+        history.clear();
+        assertEquals(0, history.size());
+        assertEquals(0, history.getSpillBytes());
+        assertEquals(0, mSpillDir.list().length);
+    }
+
+    private List<PointsCommand> record(CommandHistory history, int count) {
+        final List<PointsCommand> commands = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final PointsCommand command = new PointsCommand(i);
+            history.record(command);
+            commands.add(command);
+        }
+        return commands;
+    }
+
+    private String applied() {
+        final StringBuilder builder = new StringBuilder();
+        for (String change : mApplied) {
+            builder.append(builder.length() > 0 ? " " : "").append(change);
+        }
+        return builder.toString();
+    }
+
+    private static float[] expected(int index) {
+        final float[] points = new float[FLOATS];
+        for (int i = 0; i < FLOATS; i++) {
+            points[i] = index * 100 + i;
+        }
+        return points;
+    }
+
+    /**
+     * Holds a few floats like a stroke, read back from the spill file once spilled
+     */
+    private class PointsCommand extends Command {
+
+        private final int mIndex;
+        private float[] mPoints;
+        private SpillFile mSpillFile;
+        private long mPosition;
+        boolean mDiscarded;
+
+        PointsCommand(int index) {
+            mIndex = index;
+            mPoints = expected(index);
+        }
+
+        boolean isSpilled() {
+            return mPoints == null;
+        }
+
+        float[] points() throws IOException {
+            if (mPoints != null) {
+                return mPoints;
+            }
+            final float[] points = new float[FLOATS];
+            mSpillFile.read(mPosition, points, 0, FLOATS);
+            return points;
+        }
+
+        @Override
+        public void undo() {
+            mApplied.add("u" + mIndex);
+        }
+
+        @Override
+        public void redo() {
+            mApplied.add("r" + mIndex);
+        }
+
+        @Override
+        public long getMemoryBytes() {
+            return mPoints != null ? BYTES : 0;
+        }
+
+        @Override
+        protected long spill(SpillFile spillFile) throws IOException {
+            mPosition = spillFile.write(mPoints, 0, FLOATS);
+            mSpillFile = spillFile;
+            mPoints = null;
+            return BYTES;
+        }
+
+        @Override
+        protected void onSpillMoved(long offset) {
+            mPosition += offset;
+        }
+
+        @Override
+        protected void discard() {
+            mDiscarded = true;
+        }
+    }
+}
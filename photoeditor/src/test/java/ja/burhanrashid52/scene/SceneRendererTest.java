@@ -0,0 +1,175 @@
+package ja.burhanrashid52.scene;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Headless rendering of a scene on a canvas recording what the layers are drawn with
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SceneRendererTest {
+
+    @Test
+    public void layersAreDrawnInZOrderAtTheOutputScale() throws InterruptedException {
+        final Scene scene = new Scene(100, 50);
+        final MarkerLayer back = new MarkerLayer("back", 10, 20);
+        final MarkerLayer middle = new MarkerLayer("middle", 30, 5);
+        final MarkerLayer front = new MarkerLayer("front", 0, 0);
+        scene.add(back).add(front).add(middle);
+        scene.bringToFront(front);
+
+        final RecordingCanvas canvas = new RecordingCanvas();
+        SceneRenderer.draw(canvas, scene, 200, 150);
+
+        assertEquals(Arrays.asList("back", "middle", "front"), canvas.mDrawn);
+        // layer origin mapped by its transform, then scaled by 2 and 3 to the output
+        assertPoint(20, 60, back.mOrigin);
+        assertPoint(60, 15, middle.mOrigin);
+        assertPoint(0, 0, front.mOrigin);
+        assertEquals(0, canvas.getSaveCount());
+    }
+
+    @Test
+    public void rotatedLayerIsDrawnWithItsTransform() throws InterruptedException {
+        final Scene scene = new Scene(100, 100);
+        final MarkerLayer layer = new MarkerLayer("rotated", 50, 50);
+        layer.getTransform().preRotate(90);
+        scene.add(layer);
+
+        final RecordingCanvas canvas = new RecordingCanvas();
+        SceneRenderer.draw(canvas, scene, 100, 100);
+
+        final float[] point = {10, 0};
+        canvas.mMatrices.get(0).mapPoints(point);
+        assertPoint(50, 60, point);
+    }
+
+    @Test
+    public void callbackCountsTheLayersOfTheRange() throws InterruptedException {
+        final Scene scene = new Scene(10, 10);
+        for (int i = 0; i < 5; i++) {
+            scene.add(new MarkerLayer("layer" + i, 0, 0));
+        }
+
+        final RecordingCanvas canvas = new RecordingCanvas();
+        final List<String> calls = new ArrayList<>();
+        SceneRenderer.draw(canvas, scene, 10, 10, 1, 4, new SceneRenderer.Callback() {
+            @Override
+            public void onLayerDrawn(int drawn, int total) {
+                calls.add(drawn + "/" + total);
+            }
+        });
+
+        assertEquals(Arrays.asList("layer1", "layer2", "layer3"), canvas.mDrawn);
+        assertEquals(Arrays.asList("1/3", "2/3", "3/3"), calls);
+    }
+
+    @Test
+    public void interruptedRenderStopsBetweenLayers() {
+        final Scene scene = new Scene(10, 10);
+        scene.add(new MarkerLayer("first", 0, 0) {
+            @Override
+            public void draw(@NonNull Canvas canvas) {
+                super.draw(canvas);
+                Thread.currentThread().interrupt();
+            }
+        });
+        scene.add(new MarkerLayer("second", 0, 0));
+
+        final RecordingCanvas canvas = new RecordingCanvas();
+        try {
+            SceneRenderer.draw(canvas, scene, 10, 10);
+            fail();
+        } catch (InterruptedException e) {
+            assertEquals(Arrays.asList("first"), canvas.mDrawn);
+            assertEquals(0, canvas.getSaveCount());
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    private static void assertPoint(float x, float y, float[] point) {
+        assertEquals(x, point[0], 1e-3f);
+        assertEquals(y, point[1], 1e-3f);
+    }
+
+    /**
+     * Layer drawing nothing but its name, remembering where its origin went
+     */
+    private static class MarkerLayer extends Layer {
+
+        private final String mName;
+        final float[] mOrigin = new float[2];
+
+        MarkerLayer(String name, float x, float y) {
+            mName = name;
+            getTransform().setTranslate(x, y);
+        }
+
+        @Override
+        public void draw(@NonNull Canvas canvas) {
+            final RecordingCanvas recording = (RecordingCanvas) canvas;
+            mOrigin[0] = 0;
+            mOrigin[1] = 0;
+            recording.current().mapPoints(mOrigin);
+            recording.mDrawn.add(mName);
+            recording.mMatrices.add(new Matrix(recording.current()));
+        }
+    }
+
+    /**
+     * Keeps the transform stack itself, so what is drawn can be checked without pixels
+     */
+    private static class RecordingCanvas extends Canvas {
+
+        final List<String> mDrawn = new ArrayList<>();
+        final List<Matrix> mMatrices = new ArrayList<>();
+        private final Deque<Matrix> mStack = new ArrayDeque<>();
+        private Matrix mCurrent = new Matrix();
+
+        Matrix current() {
+            return mCurrent;
+        }
+
+        @Override
+        public int save() {
+            mStack.push(new Matrix(mCurrent));
+            return mStack.size();
+        }
+
+        @Override
+        public void restore() {
+            mCurrent = mStack.pop();
+        }
+
+        @Override
+        public int getSaveCount() {
+            return mStack.size();
+        }
+
+        @Override
+        public void scale(float sx, float sy) {
+            mCurrent.preScale(sx, sy);
+        }
+
+        @Override
+        public void concat(Matrix matrix) {
+            mCurrent.preConcat(matrix);
+        }
+    }
+}
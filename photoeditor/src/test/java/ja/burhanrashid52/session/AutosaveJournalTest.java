@@ -0,0 +1,228 @@
+package ja.burhanrashid52.session;
+
+import android.graphics.Color;
+import android.graphics.Matrix;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ja.burhanrashid52.scene.Layer;
+import ja.burhanrashid52.scene.Scene;
+import ja.burhanrashid52.scene.TextLayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sessions journaled then recovered, from intact and damaged files
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AutosaveJournalTest {
+
+    private static final int HEADER_SIZE = 4 + 2 + 8;// magic, version and generation
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("autosave").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(mDirectory);
+    }
+
+    @Test
+    public void editsAreRecoveredOverTheSnapshot() throws Exception {
+        final TextLayer a = text("a");
+        final TextLayer b = text("b");
+        final TextLayer c = text("c");
+
+        final AutosaveJournal journal = new AutosaveJournal(mDirectory);
+        compact(journal, a, b);
+        assertTrue(journal.isJournaled(a.getId(), a.getRevision()));
+        changed(journal, Collections.<Layer>singletonList(c), a, b, c);
+        changed(journal, Collections.<Layer>emptyList(), a, c);
+        close(journal);
+
+        assertTexts(recover(), "a", "c");
+    }
+
+    @Test
+    public void orderChangeIsRecovered() throws Exception {
+        final TextLayer a = text("a");
+        final TextLayer b = text("b");
+        final TextLayer c = text("c");
+
+        final AutosaveJournal journal = new AutosaveJournal(mDirectory);
+        compact(journal, a, b, c);
+        changed(journal, Collections.<Layer>emptyList(), c, a, b);
+        // a changed layer does not move without an order entry
+        final TextLayer a2 = text("a2");
+        a2.setVersion(a.getId(), Layer.nextRevision());
+        changed(journal, Collections.<Layer>singletonList(a2), c, b, a2);
+        close(journal);
+
+        assertTexts(recover(), "c", "b", "a2");
+    }
+
+    @Test
+    public void tornLastEntryIsDropped() throws Exception {
+        final AutosaveJournal journal = new AutosaveJournal(mDirectory);
+        final TextLayer a = text("a");
+        final TextLayer b = text("b");
+        final TextLayer c = text("c");
+        compact(journal, a);
+        changed(journal, Collections.<Layer>singletonList(b), a, b);
+        changed(journal, Collections.<Layer>singletonList(c), a, b, c);
+        close(journal);
+
+        // the process died in the middle of the last entry
+        final RandomAccessFile file = new RandomAccessFile(journalFile(), "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+
+        assertTexts(recover(), "a", "b");
+    }
+
+    @Test
+    public void corruptEntryStopsTheReplay() throws Exception {
+        final AutosaveJournal journal = new AutosaveJournal(mDirectory);
+        final TextLayer a = text("a");
+        final TextLayer b = text("b");
+        final TextLayer c = text("c");
+        final TextLayer d = text("d");
+        compact(journal, a);
+        changed(journal, Collections.<Layer>singletonList(b), a, b);
+        changed(journal, Collections.<Layer>singletonList(c), a, b, c);
+        changed(journal, Collections.<Layer>singletonList(d), a, b, c, d);
+        close(journal);
+
+        // flip a byte in the payload of the second entry, the third one is intact but comes after it
+        final RandomAccessFile file = new RandomAccessFile(journalFile(), "rw");
+        try {
+            file.seek(HEADER_SIZE + 1);
+            final int firstLength = file.readInt();
+            final long second = HEADER_SIZE + 1 + 4 + firstLength + 4;
+            file.seek(second + 1 + 4);
+            final int value = file.read();
+            file.seek(second + 1 + 4);
+            file.write(value ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        assertTexts(recover(), "a", "b");
+    }
+
+    @Test
+    public void journalOfAnOlderGenerationIsIgnored() throws Exception {
+        final TextLayer a = text("a");
+        final TextLayer b = text("b");
+        AutosaveJournal journal = new AutosaveJournal(mDirectory);
+        compact(journal, a);
+        changed(journal, Collections.<Layer>singletonList(b), a, b);
+        close(journal);
+        final byte[] olderJournal = Files.readAllBytes(journalFile().toPath());
+
+        final TextLayer c = text("c");
+        journal = new AutosaveJournal(mDirectory);
+        compact(journal, c);
+        close(journal);
+        // as if the process died between writing the new snapshot and emptying the journal
+        Files.write(journalFile().toPath(), olderJournal);
+
+        assertTexts(recover(), "c");
+    }
+
+    @Test
+    public void compactionIsAskedAfterEnoughEntries() throws Exception {
+        final AutosaveJournal journal = new AutosaveJournal(mDirectory);
+        assertTrue("nothing to append to before the first snapshot", journal.shouldCompact());
+        final TextLayer a = text("a");
+        compact(journal, a);
+        assertFalse(journal.shouldCompact());
+
+        TextLayer last = a;
+        for (int i = 1; i <= AutosaveJournal.COMPACT_ENTRIES; i++) {
+            assertFalse("after " + (i - 1) + " entries", journal.shouldCompact());
+            last = text("a" + i);
+            last.setVersion(a.getId(), Layer.nextRevision());
+            changed(journal, Collections.<Layer>singletonList(last), last);
+        }
+        assertTrue(journal.shouldCompact());
+
+        compact(journal, last);
+        assertFalse(journal.shouldCompact());
+        close(journal);
+
+        assertTexts(recover(), "a" + AutosaveJournal.COMPACT_ENTRIES);
+        assertEquals(HEADER_SIZE, journalFile().length());
+    }
+
+    private static TextLayer text(String text) {
+        return new TextLayer(text, Color.BLACK);
+    }
+
+    private static void compact(AutosaveJournal journal, Layer... layers) {
+        final Scene scene = new Scene(100, 100);
+        for (Layer layer : layers) {
+            scene.add(layer);
+        }
+        journal.compact(scene, 0, 0, new Matrix());
+    }
+
+    private static void changed(AutosaveJournal journal, List<Layer> changed, Layer... order) {
+        final long[] ids = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            ids[i] = order[i].getId();
+        }
+        journal.layersChanged(changed, ids);
+    }
+
+    private static void close(AutosaveJournal journal) throws InterruptedException {
+        journal.close();
+        assertTrue(journal.awaitClosed(10, TimeUnit.SECONDS));
+    }
+
+    private Scene recover() throws IOException {
+        return new AutosaveJournal(mDirectory).recover(null);
+    }
+
+    private File journalFile() {
+        return new File(mDirectory, "autosave.journal");
+    }
+
+    private static void assertTexts(Scene scene, String... texts) {
+        final String[] read = new String[scene.size()];
+        for (int i = 0; i < read.length; i++) {
+            read[i] = ((TextLayer) scene.get(i)).getText();
+        }
+        assertEquals(Arrays.asList(texts), Arrays.asList(read));
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        for (int i = 0; children != null && i < children.length; i++) {
+            delete(children[i]);
+        }
+        file.delete();
+    }
+}
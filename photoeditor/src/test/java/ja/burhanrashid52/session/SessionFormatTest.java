@@ -0,0 +1,218 @@
+package ja.burhanrashid52.session;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Typeface;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import ja.burhanrashid52.scene.BrushLayer;
+import ja.burhanrashid52.scene.EmojiLayer;
+import ja.burhanrashid52.scene.ImageLayer;
+import ja.burhanrashid52.scene.Layer;
+import ja.burhanrashid52.scene.Scene;
+import ja.burhanrashid52.scene.TextLayer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Scenes written then read back, field by field
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SessionFormatTest {
+
+    private File mDirectory;
+    private BitmapStore mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("session").toFile();
+        mStore = new BitmapStore(mDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = mDirectory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void textAndEmojiLayersRoundTrip() throws IOException {
+        final Scene scene = new Scene(1080, 720);
+        final TextLayer text = new TextLayer("Hello\nworld", Color.RED, Color.BLUE, null, 42);
+        text.setFontName("serif");
+        text.getTransform().setTranslate(120, 80);
+        text.getTransform().preRotate(30);
+        final EmojiLayer emoji = new EmojiLayer("\uD83D\uDE00", 96);
+        emoji.getTransform().setScale(2, 0.5f);
+        final TextLayer plain = new TextLayer("", Color.BLACK);
+        scene.add(text).add(emoji).add(plain);
+
+        final Scene read = roundTrip(scene, null);
+
+        assertEquals(1080, read.getWidth());
+        assertEquals(720, read.getHeight());
+        assertEquals(3, read.size());
+
+        final TextLayer readText = (TextLayer) read.get(0);
+        assertEquals("Hello\nworld", readText.getText());
+        assertEquals(Color.RED, readText.getTextColor());
+        assertEquals(Color.BLUE, readText.getBackgroundColor());
+        assertEquals(42, readText.getTextSize(), 0);
+        assertEquals("serif", readText.getFontName());
+        assertTransform(text, readText);
+
+        assertTrue(read.get(1) instanceof EmojiLayer);
+        final EmojiLayer readEmoji = (EmojiLayer) read.get(1);
+        assertEquals("\uD83D\uDE00", readEmoji.getText());
+        assertEquals(96, readEmoji.getTextSize(), 0);
+        assertTransform(emoji, readEmoji);
+
+        final TextLayer readPlain = (TextLayer) read.get(2);
+        assertEquals("", readPlain.getText());
+        assertNull(readPlain.getFontName());
+        assertTransform(plain, readPlain);
+    }
+
+    @Test
+    public void fontResolverIsGivenTheNameAndStyle() throws IOException {
+        final Scene scene = new Scene(100, 100);
+        final TextLayer text = new TextLayer("bold", Color.BLACK, Color.TRANSPARENT,
+                Typeface.defaultFromStyle(Typeface.BOLD), 20);
+        text.setFontName("condensed");
+        scene.add(text);
+
+        final List<String> resolved = new ArrayList<>();
+        roundTrip(scene, new SessionFormat.FontResolver() {
+            @Override
+            public Typeface resolve(String fontName, int style) {
+                resolved.add(fontName + "/" + style);
+                return null;
+            }
+        });
+
+        assertEquals(1, resolved.size());
+        assertEquals("condensed/" + Typeface.BOLD, resolved.get(0));
+    }
+
+    @Test
+    public void unknownRecordsAreSkipped() throws IOException {
+        final TextLayer known = new TextLayer("kept", Color.GREEN);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(SessionFormat.MAGIC);
+        data.writeShort(SessionFormat.VERSION);
+        data.writeInt(50);
+        data.writeInt(50);
+        data.writeInt(2);
+
+        // a layer type added by a newer writer
+        data.writeByte(99);
+        data.writeInt(40);
+        data.write(new byte[40]);
+
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        final DataOutputStream payload = new DataOutputStream(record);
+        final int type = SessionFormat.writeLayer(known, payload, new float[9], mStore);
+        payload.flush();
+        data.writeByte(type);
+        data.writeInt(record.size());
+        record.writeTo(data);
+        data.flush();
+
+        final Scene read = SessionFormat.read(new ByteArrayInputStream(bytes.toByteArray()), mStore, null);
+
+        assertEquals(1, read.size());
+        assertEquals("kept", ((TextLayer) read.get(0)).getText());
+    }
+
+    @Test
+    public void newerVersionIsRejected() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(SessionFormat.MAGIC);
+        data.writeShort(SessionFormat.VERSION + 1);
+        data.writeInt(10);
+        data.writeInt(10);
+        data.writeInt(0);
+
+        try {
+            SessionFormat.read(new ByteArrayInputStream(bytes.toByteArray()), mStore, null);
+            fail("read a newer session");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("newer"));
+        }
+    }
+
+    @Test
+    public void otherFilesAreRejected() {
+        try {
+            SessionFormat.read(new ByteArrayInputStream("not a session".getBytes()), mStore, null);
+            fail("read something else");
+        } catch (IOException expected) {
+            assertEquals("Not a session file", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void largeSessionSharesItsBitmaps() throws IOException {
+        final Bitmap[] stickers = new Bitmap[4];
+        for (int i = 0; i < stickers.length; i++) {
+            stickers[i] = Bitmap.createBitmap(64 + i, 64, Bitmap.Config.ARGB_8888);
+        }
+        final Scene scene = new Scene(4000, 3000);
+        scene.add(new BrushLayer(Bitmap.createBitmap(400, 300, Bitmap.Config.ARGB_8888)));
+        for (int i = 1; i < 200; i++) {
+            final Layer layer = i % 3 == 0 ? new ImageLayer(stickers[i % stickers.length])
+                    : i % 3 == 1 ? new TextLayer("Layer " + i, Color.WHITE) : new EmojiLayer("\u2764");
+            layer.getTransform().setTranslate(i * 10, i * 5);
+            scene.add(layer);
+        }
+
+        final Scene read = roundTrip(scene, null);
+        assertEquals(200, read.size());
+        assertTrue(read.get(0) instanceof BrushLayer);
+        for (int i = 1; i < 200; i++) {
+            assertEquals(scene.get(i).getClass(), read.get(i).getClass());
+            assertTransform(scene.get(i), read.get(i));
+        }
+        // one decode per sticker, shared by the layers using it
+        assertSame(((ImageLayer) read.get(3)).getBitmap(), ((ImageLayer) read.get(15)).getBitmap());
+        assertTrue(((ImageLayer) read.get(3)).getBitmap() != ((ImageLayer) read.get(6)).getBitmap());
+    }
+
+    private Scene roundTrip(Scene scene, SessionFormat.FontResolver fontResolver) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SessionFormat.write(scene, bytes, mStore);
+        return SessionFormat.read(new ByteArrayInputStream(bytes.toByteArray()), mStore, fontResolver);
+    }
+
+    private static void assertTransform(Layer expected, Layer actual) {
+        final float[] expectedValues = new float[9];
+        final float[] actualValues = new float[9];
+        expected.getTransform().getValues(expectedValues);
+        actual.getTransform().getValues(actualValues);
+        assertArrayEquals(expectedValues, actualValues, 0);
+    }
+}
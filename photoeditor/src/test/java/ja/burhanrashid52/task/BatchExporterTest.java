@@ -0,0 +1,173 @@
+package ja.burhanrashid52.task;
+
+import android.graphics.Bitmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ja.burhanrashid52.scene.Scene;
+import ja.burhanrashid52.utils.BitmapPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatchExporterTest {
+
+    private File mSourceDir;
+    private File mOutputDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mSourceDir = Files.createTempDirectory("sources").toFile();
+        mOutputDir = Files.createTempDirectory("output").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(mSourceDir);
+        delete(mOutputDir);
+    }
+
+    @Test
+    public void namesCollidingOnTheOutputExtensionGetASuffix() {
+        final Set<String> taken = new HashSet<>();
+        assertEquals("a.jpg", BatchExporter.uniqueName("a", "jpg", taken));
+        assertEquals("a-1.jpg", BatchExporter.uniqueName("a", "jpg", taken));
+        assertEquals("b.jpg", BatchExporter.uniqueName("b", "jpg", taken));
+        assertEquals("a-2.jpg", BatchExporter.uniqueName("a", "jpg", taken));
+        assertEquals("a.png", BatchExporter.uniqueName("a", "png", taken));
+    }
+
+    @Test
+    public void namesDifferingOnlyByCaseCollide() {
+        final Set<String> taken = new HashSet<>();
+        assertEquals("Photo.jpg", BatchExporter.uniqueName("Photo", "jpg", taken));
+        assertEquals("photo-1.jpg", BatchExporter.uniqueName("photo", "jpg", taken));
+    }
+
+    @Test
+    public void suffixDoesNotReuseAnExistingName() {
+        final Set<String> taken = new HashSet<>();
+        assertEquals("a-1.jpg", BatchExporter.uniqueName("a-1", "jpg", taken));
+        assertEquals("a.jpg", BatchExporter.uniqueName("a", "jpg", taken));
+        assertEquals("a-2.jpg", BatchExporter.uniqueName("a", "jpg", taken));
+    }
+
+    @Test
+    public void throughputCountsFailedImages() {
+        final BatchExporter.Stats stats = new BatchExporter.Stats(10, 6, 4, 0, 2000);
+        assertEquals(5f, stats.getImagesPerSecond(), 1e-4f);
+        assertEquals(0f, new BatchExporter.Stats(1, 0, 0, 0, 0).getImagesPerSecond(), 0f);
+    }
+
+    @Test
+    public void throughputLeavesCancelledImagesOut() {
+        final BatchExporter.Stats stats = new BatchExporter.Stats(10, 6, 0, 4, 2000);
+        assertEquals(3f, stats.getImagesPerSecond(), 1e-4f);
+        assertEquals(0, stats.getFailed());
+        assertEquals(4, stats.getCancelled());
+    }
+
+    @Test
+    public void batchReportsCancelledAndFailedImagesApart() throws Exception {
+        final List<File> sources = new ArrayList<>();
+        for (String name : new String[]{"a", "b", "c", "d"}) {
+            sources.add(source(name + ".jpg"));
+        }
+        // b cannot be moved over a directory holding a file
+        final File taken = new File(mOutputDir, "b.jpg");
+        assertTrue(taken.mkdir());
+        assertTrue(new File(taken, "keep").createNewFile());
+
+        final GatedPool pool = new GatedPool();
+        final BatchExporter exporter = new BatchExporter.Builder()
+                .setParallelism(1)
+                .setBitmapPool(pool)
+                .build();
+        try {
+            final BatchExporter.Batch batch = exporter.export(sources, mOutputDir, new Scene(100, 100), null);
+            // the only worker is held on a, c is still queued
+            assertTrue(pool.mStarted.await(10, TimeUnit.SECONDS));
+            assertTrue(batch.cancel(2));
+            assertFalse(batch.cancel(2));
+            pool.mRelease.countDown();
+
+            assertTrue(batch.await(10, TimeUnit.SECONDS));
+            assertFalse(batch.isCancelled());
+            assertFalse(batch.cancel(0));
+
+            final BatchExporter.Stats stats = batch.getStats();
+            assertEquals(4, stats.getTotal());
+            assertEquals(2, stats.getSucceeded());
+            assertEquals(1, stats.getFailed());
+            assertEquals(1, stats.getCancelled());
+            assertTrue(new File(mOutputDir, "a.jpg").isFile());
+            assertFalse(new File(mOutputDir, "c.jpg").exists());
+            assertTrue(new File(mOutputDir, "d.jpg").isFile());
+        } finally {
+            pool.mRelease.countDown();
+            exporter.shutdown();
+        }
+    }
+
+    private File source(String name) throws IOException {
+        final File file = new File(mSourceDir, name);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[]{1, 2, 3});
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        for (int i = 0; children != null && i < children.length; i++) {
+            delete(children[i]);
+        }
+        file.delete();
+    }
+
+    /**
+     * Holds the first image decoded until released, so the test knows what is queued
+     */
+    private static class GatedPool extends BitmapPool {
+
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mRelease = new CountDownLatch(1);
+
+        GatedPool() {
+            super(0);
+        }
+
+        @Override
+        public Bitmap acquire(int width, int height, Bitmap.Config config) {
+            if (mStarted.getCount() > 0) {
+                mStarted.countDown();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.acquire(width, height, config);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package ja.burhanrashid52.task;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RenderJobTest {
+
+    private RenderScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = new RenderScheduler(1, 1);
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.shutdown();
+    }
+
+    @Test
+    public void resultsOfParallelWorksAreDeliveredInOrder() throws Exception {
+        final RenderJob<String> job = mScheduler.newJob(RenderScheduler.Priority.BACKGROUND, null);
+        final RecordingListener<List<String>> listener = new RecordingListener<>();
+
+        assertTrue(job.submitStages(RenderScheduler.Stage.COMPOSITE,
+                Arrays.asList(value("a"), value("b"), value("c")), listener));
+
+        listener.await();
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b", "c")), listener.mDone);
+        assertTrue(listener.mDiscarded.isEmpty());
+    }
+
+    @Test
+    public void workQueuedWhenCancelledIsDiscardedWithoutRunning() throws Exception {
+        final RenderJob<String> job = mScheduler.newJob(RenderScheduler.Priority.BACKGROUND, null);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingListener<String> running = new RecordingListener<>();
+        final RecordingListener<String> queued = new RecordingListener<>();
+
+        // the only composite thread is kept busy, ignoring interrupts
+        job.submitStage(RenderScheduler.Stage.COMPOSITE, new Callable<String>() {
+            @Override
+            public String call() {
+                started.countDown();
+                while (true) {
+                    try {
+                        release.await();
+                        return "late";
+                    } catch (InterruptedException e) {
+                        // keep running as a work stuck in native code would
+                    }
+                }
+            }
+        }, running);
+        final boolean[] ran = {false};
+        job.submitStage(RenderScheduler.Stage.COMPOSITE, new Callable<String>() {
+            @Override
+            public String call() {
+                ran[0] = true;
+                return "never";
+            }
+        }, queued);
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(job.cancel(true));
+
+        queued.await();
+        assertEquals(Collections.singletonList(null), queued.mDiscarded);
+        // still running, discarded only once it returns
+        assertTrue(running.mDiscarded.isEmpty());
+
+        release.countDown();
+        running.await();
+        assertEquals(Collections.singletonList("late"), running.mDiscarded);
+        assertTrue(running.mDone.isEmpty());
+        assertTrue(queued.mDone.isEmpty());
+        assertFalse(ran[0]);
+    }
+
+    @Test
+    public void workSubmittedToAFinishedJobIsDiscarded() throws Exception {
+        final RenderJob<String> job = mScheduler.newJob(RenderScheduler.Priority.BACKGROUND, null);
+        job.cancel(true);
+
+        final RecordingListener<String> listener = new RecordingListener<>();
+        assertFalse(job.submitStage(RenderScheduler.Stage.ENCODE, value("a"), listener));
+        assertEquals(Collections.singletonList(null), listener.mDiscarded);
+        assertTrue(listener.mDone.isEmpty());
+    }
+
+    @Test
+    public void failedWorkDiscardsTheResultsOfTheOthers() throws Exception {
+        final RenderJob<String> job = mScheduler.newJob(RenderScheduler.Priority.BACKGROUND, null);
+        final RecordingListener<List<String>> listener = new RecordingListener<>();
+
+        job.submitStages(RenderScheduler.Stage.COMPOSITE, Arrays.asList(value("a"), new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new IllegalStateException("Broken");
+            }
+        }, value("c")), listener);
+
+        listener.await();
+        assertTrue(listener.mDone.isEmpty());
+        assertEquals(1, listener.mDiscarded.size());
+        final List<String> discarded = listener.mDiscarded.get(0);
+        assertEquals(3, discarded.size());
+        assertEquals(null, discarded.get(1));
+        try {
+            job.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static Callable<String> value(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return value;
+            }
+        };
+    }
+
+    private static class RecordingListener<T> extends RenderJob.StageListener<T> {
+
+        final List<T> mDone = Collections.synchronizedList(new ArrayList<T>());
+        final List<T> mDiscarded = Collections.synchronizedList(new ArrayList<T>());
+        private final CountDownLatch mCalled = new CountDownLatch(1);
+
+        @Override
+        public void onStageDone(T result) {
+            mDone.add(result);
+            mCalled.countDown();
+        }
+
+        @Override
+        public void onDiscard(T result) {
+            mDiscarded.add(result);
+            mCalled.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(mCalled.await(5, TimeUnit.SECONDS));
+            // a second call would be a bug, give it a chance to show
+            Thread.sleep(20);
+            assertEquals(1, mDone.size() + mDiscarded.size());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ja.burhanrashid52.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AtomicFileOutputStreamTest {
+
+    private static final byte[] OLD = "previous image".getBytes();
+
+    private File mDirectory;
+    private File mTarget;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("atomic").toFile();
+        mTarget = new File(mDirectory, "image.png");
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = mDirectory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void commitReplacesTheTarget() throws IOException {
+        write(mTarget, OLD);
+
+        final AtomicFileOutputStream out = new AtomicFileOutputStream(mTarget);
+        final byte[] data = bytes(200 * 1024);// more than the buffer
+        out.write(data);
+        out.commit();
+
+        assertArrayEquals(data, read(mTarget));
+        assertEquals(data.length, out.getBytesWritten());
+        assertOnlyTarget();
+    }
+
+    @Test
+    public void writeAbandonedWithoutCommitLeavesThePreviousFile() throws IOException {
+        write(mTarget, OLD);
+
+        final AtomicFileOutputStream out = new AtomicFileOutputStream(mTarget);
+        out.write(bytes(100 * 1024));
+        out.close();
+
+        assertArrayEquals(OLD, read(mTarget));
+        assertOnlyTarget();
+    }
+
+    @Test
+    public void writeAbandonedWithoutCommitCreatesNoTarget() throws IOException {
+        final AtomicFileOutputStream out = new AtomicFileOutputStream(mTarget);
+        out.write(bytes(1024));
+        out.flush();
+        out.abort();
+
+        assertFalse(mTarget.exists());
+        assertEquals(0, mDirectory.list().length);
+    }
+
+    @Test
+    public void tempFileOfAKilledWriterIsSweptByTheNextOne() throws IOException {
+        write(mTarget, OLD);
+
+        // killed mid-stream: neither committed nor closed
+        final AtomicFileOutputStream killed = new AtomicFileOutputStream(mTarget);
+        killed.write(bytes(100 * 1024));
+        assertArrayEquals(OLD, read(mTarget));
+        final File[] temps = temps();
+        assertEquals(1, temps.length);
+        assertTrue(temps[0].setLastModified(System.currentTimeMillis() - 2 * AtomicFileOutputStream.STALE_MILLIS));
+
+        final AtomicFileOutputStream next = new AtomicFileOutputStream(mTarget);
+        assertFalse(temps[0].exists());
+        final byte[] data = bytes(10);
+        next.write(data);
+        next.commit();
+
+        assertArrayEquals(data, read(mTarget));
+        assertOnlyTarget();
+        killed.abort();
+    }
+
+    @Test
+    public void tempFileStillWrittenIsKept() throws IOException {
+        final AtomicFileOutputStream first = new AtomicFileOutputStream(mTarget);
+        first.write(bytes(100 * 1024));
+
+        final AtomicFileOutputStream second = new AtomicFileOutputStream(mTarget);
+        assertEquals(2, temps().length);
+
+        second.abort();
+        first.commit();
+        assertEquals(100 * 1024, mTarget.length());
+        assertOnlyTarget();
+    }
+
+    @Test(expected = IOException.class)
+    public void writeAfterAbortFails() throws IOException {
+        final AtomicFileOutputStream out = new AtomicFileOutputStream(mTarget);
+        out.abort();
+        out.write(1);
+    }
+
+    private void assertOnlyTarget() {
+        assertEquals(Arrays.asList(mTarget.getName()), Arrays.asList(mDirectory.list()));
+    }
+
+    private File[] temps() {
+        final File[] temps = mDirectory.listFiles();
+        final File[] matching = new File[temps.length];
+        int count = 0;
+        for (File temp : temps) {
+            if (temp.getName().startsWith("." + mTarget.getName() + ".") && temp.getName().endsWith(".tmp")) {
+                matching[count++] = temp;
+            }
+        }
+        return Arrays.copyOf(matching, count);
+    }
+
+    private static byte[] bytes(int count) {
+        final byte[] bytes = new byte[count];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        return bytes;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        final byte[] data = new byte[(int) file.length()];
+        final InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                read += in.read(data, read, data.length - read);
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
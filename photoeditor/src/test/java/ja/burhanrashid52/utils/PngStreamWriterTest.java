@@ -0,0 +1,110 @@
+package ja.burhanrashid52.utils;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class PngStreamWriterTest {
+
+    private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+
+    @Test
+    public void imageDecodesToTheRowsWritten() throws IOException {
+        final int width = 37;
+        final int height = 23;
+        final int[] argb = noise(width, height, 1);
+
+        final byte[] png = encode(argb, width, height, 5);
+
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertNotNull(image);
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        assertArrayEquals(argb, image.getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    @Test
+    public void imageDataIsSplitInBoundedChunksWithValidCrcs() throws IOException {
+        // noise barely compresses, several chunks of image data are needed
+        final int width = 300;
+        final int height = 200;
+        final int[] argb = noise(width, height, 2);
+
+        final byte[] png = encode(argb, width, height, 7);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(png));
+        in.skipBytes(8);// signature
+        final CRC32 crc = new CRC32();
+        int imageChunks = 0;
+        String type;
+        do {
+            final int length = in.readInt();
+            final byte[] typeAndData = new byte[4 + length];
+            in.readFully(typeAndData);
+            type = new String(typeAndData, 0, 4, "US-ASCII");
+            crc.reset();
+            crc.update(typeAndData);
+            assertEquals("CRC of " + type, (int) crc.getValue(), in.readInt());
+
+            if (type.equals("IDAT")) {
+                assertTrue(length > 0 && length <= IDAT_CHUNK_SIZE);
+                imageChunks++;
+            }
+        } while (!type.equals("IEND"));
+
+        assertEquals(0, in.available());
+        assertTrue("Only " + imageChunks + " image chunks", imageChunks > 1);
+
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertArrayEquals(argb, image.getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void finishFailsWithRowsMissing() throws IOException {
+        final PngStreamWriter writer = new PngStreamWriter(new ByteArrayOutputStream(), 4, 4);
+        writer.writeRows(new int[16], 0, 4, 3);
+        writer.finish();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writeFailsPastTheLastRow() throws IOException {
+        final PngStreamWriter writer = new PngStreamWriter(new ByteArrayOutputStream(), 4, 4);
+        writer.writeRows(new int[20], 0, 4, 5);
+    }
+
+    /**
+     * Write the pixels a few rows at a time, as bands are
+     */
+    private static byte[] encode(int[] argb, int width, int height, int bandHeight) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PngStreamWriter writer = new PngStreamWriter(out, width, height);
+        for (int top = 0; top < height; top += bandHeight) {
+            writer.writeRows(argb, top * width, width, Math.min(bandHeight, height - top));
+        }
+        writer.finish();
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static int[] noise(int width, int height, long seed) {
+        final Random random = new Random(seed);
+        final int[] argb = new int[width * height];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = random.nextInt();
+        }
+        return argb;
+    }
+}
@@ -0,0 +1,113 @@
+package ja.burhanrashid52.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Memory of a tiled surface against the full screen bitmap it replaces
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TileSurfaceTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final long TILE_BYTES = 4L * TileSurface.TILE_SIZE * TileSurface.TILE_SIZE;
+    private static final long DENSE_BYTES = 4L * WIDTH * HEIGHT;
+
+    private final Path mPath = new Path();
+    private final Paint mPaint = new Paint();
+
+    @After
+    public void tearDown() {
+        BitmapPool.getDefault().clear();
+    }
+
+    @Test
+    public void emptySurfaceHoldsNoMemory() {
+        final TileSurface surface = new TileSurface(WIDTH, HEIGHT);
+
+        assertTrue(surface.isEmpty());
+        assertEquals(0, surface.getMemoryBytes());
+    }
+
+    @Test
+    public void smallScribbleCostsOneTile() {
+        final TileSurface surface = new TileSurface(WIDTH, HEIGHT);
+        scribble(surface, new Rect(100, 100, 200, 180));
+
+        assertEquals(1, surface.getTileCount());
+        assertEquals(TILE_BYTES, surface.getMemoryBytes());
+        // a 1080x1920 screen is 8MB dense, the scribble 256KB
+        assertTrue(surface.getMemoryBytes() * 30 < DENSE_BYTES);
+    }
+
+    @Test
+    public void scribbleAcrossTileEdgesCostsTheTilesItCovers() {
+        final TileSurface surface = new TileSurface(WIDTH, HEIGHT);
+        final int edge = TileSurface.TILE_SIZE;
+        scribble(surface, new Rect(edge - 10, edge - 10, edge + 10, edge + 10));
+
+        assertEquals(4, surface.getTileCount());
+        assertEquals(4 * TILE_BYTES, surface.getMemoryBytes());
+    }
+
+    @Test
+    public void fullyPaintedSurfaceCostsAboutTheDenseBitmap() {
+        final TileSurface surface = new TileSurface(WIDTH, HEIGHT);
+        scribble(surface, new Rect(0, 0, WIDTH, HEIGHT));
+
+        final int columns = (WIDTH + TileSurface.TILE_SIZE - 1) / TileSurface.TILE_SIZE;
+        final int rows = (HEIGHT + TileSurface.TILE_SIZE - 1) / TileSurface.TILE_SIZE;
+        assertEquals(columns * rows, surface.getTileCount());
+        // the dense bitmap plus the unused part of the right and bottom tiles
+        assertEquals(columns * rows * TILE_BYTES, surface.getMemoryBytes());
+        assertTrue(surface.getMemoryBytes() < DENSE_BYTES * 1.3);
+    }
+
+    @Test
+    public void erasingTransparentTilesAllocatesNothing() {
+        final TileSurface surface = new TileSurface(WIDTH, HEIGHT);
+        mPath.rewind();
+        mPath.moveTo(0, 0);
+        mPath.lineTo(WIDTH, HEIGHT);
+        surface.drawPath(mPath, mPaint, new Rect(0, 0, WIDTH, HEIGHT), true);
+
+        assertEquals(0, surface.getMemoryBytes());
+    }
+
+    @Test
+    public void maskTilesTakeOneBytePerPixel() {
+        final TileSurface mask = new TileSurface(WIDTH, HEIGHT, Bitmap.Config.ALPHA_8);
+        scribble(mask, new Rect(100, 100, 200, 180));
+
+        assertEquals(TILE_BYTES / 4, mask.getMemoryBytes());
+    }
+
+    @Test
+    public void clearReleasesEveryTile() {
+        final TileSurface surface = new TileSurface(WIDTH, HEIGHT);
+        scribble(surface, new Rect(0, 0, 600, 600));
+        assertEquals(9 * TILE_BYTES, surface.getMemoryBytes());
+
+        surface.clear();
+        assertTrue(surface.isEmpty());
+        assertEquals(0, surface.getMemoryBytes());
+    }
+
+    private void scribble(TileSurface surface, Rect bounds) {
+        mPath.rewind();
+        mPath.moveTo(bounds.left, bounds.top);
+        mPath.lineTo(bounds.right, bounds.bottom);
+        surface.drawPath(mPath, mPaint, bounds, false);
+    }
+}
@@ -0,0 +1,182 @@
+package ja.burhanrashid52.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ja.burhanrashid52.utils.TileSurface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Operations queued from the main thread, painted in order with their own color by the render thread
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BrushRenderThreadTest {
+
+    private static final int SIZE = 512;
+
+    private TileSurface mBack;
+    private TileSurface mMask;
+    private RecordingThread mThread;
+
+    @Before
+    public void setUp() {
+        mBack = new TileSurface(SIZE, SIZE);
+        mMask = new TileSurface(SIZE, SIZE, Bitmap.Config.ALPHA_8);
+        mThread = new RecordingThread();
+        mThread.start();
+        mThread.setBackBuffer(mBack, mMask);
+    }
+
+    @After
+    public void tearDown() {
+        mThread.mGate.countDown();
+        mThread.quit();
+    }
+
+    @Test
+    public void colorsFollowTheirOperations() {
+        final List<String> expected = new ArrayList<>();
+        // more colors and floats than the queues start with
+        for (int i = 0; i < 100; i++) {
+            queue(i, expected);
+        }
+        mThread.flush();
+
+        assertEquals(expected, mThread.painted());
+    }
+
+    @Test
+    public void operationsQueuedWhileDrawingGoToTheNextBatch() throws InterruptedException {
+        mThread.mGate = new CountDownLatch(1);
+        final List<String> expected = new ArrayList<>();
+        queue(1, expected);
+        assertTrue(mThread.mEntered.await(10, TimeUnit.SECONDS));
+
+        // the first batch is taken, these go to the spare queues
+        for (int i = 2; i < 60; i++) {
+            queue(i, expected);
+        }
+        mThread.mGate.countDown();
+        mThread.flush();
+        assertEquals(expected, mThread.painted());
+
+        // and the queues swapped back
+        for (int i = 60; i < 120; i++) {
+            queue(i, expected);
+        }
+        mThread.flush();
+        assertEquals(expected, mThread.painted());
+    }
+
+    @Test
+    public void regionsArePresentedWithinTheBuffer() {
+        mThread.moveTo(0, 0);
+        mThread.lineTo(10, 10);
+        mThread.draw(0xff0000, 4, false, -20, -20, 30, 30, SystemClock.uptimeMillis());
+        mThread.presentRegion(SIZE - 10, 100, SIZE + 50, 120, SystemClock.uptimeMillis());
+        mThread.flush();
+
+        assertEquals(2, mThread.mPresented.size());
+        assertEquals(new Rect(0, 0, 30, 30), mThread.mPresented.get(0));
+        assertEquals(new Rect(SIZE - 10, 100, SIZE, 120), mThread.mPresented.get(1));
+    }
+
+    @Test
+    public void latencyStartsAtTheInputEvent() {
+        final long eventTime = SystemClock.uptimeMillis() - 50;// the event waited in the input queue
+        mThread.moveTo(0, 0);
+        mThread.lineTo(10, 10);
+        mThread.draw(0xff0000, 4, false, 0, 0, 20, 20, eventTime);
+        mThread.flush();
+
+        assertTrue(mThread.getLatencyNanos() + " ns", mThread.getLatencyNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    /**
+     * Queue a segment, an eraser segment or a dab with a color and size of its own
+     */
+    private void queue(int i, List<String> expected) {
+        final int color = 0x010203 * i & 0xffffff;
+        final float size = i + 1;
+        switch (i % 3) {
+            case 0:
+                mThread.dab(color, 0.5f, i, i, size, 1);
+                mThread.presentRegion(0, 0, SIZE, SIZE, SystemClock.uptimeMillis());
+                expected.add("dab " + color + " " + size);
+                break;
+            default:
+                final boolean eraser = i % 3 == 2;
+                mThread.moveTo(i, 0);
+                mThread.quadTo(i, 5, i, 10);
+                mThread.lineTo(i, 20);
+                mThread.draw(color, size, eraser, 0, 0, SIZE, SIZE, SystemClock.uptimeMillis());
+                expected.add((eraser ? "erase " : "path ") + color + " " + size);
+                break;
+        }
+    }
+
+    /**
+     * Remembers what is painted instead of painting it, the first paint can be held on a gate
+     */
+    private class RecordingThread extends BrushRenderThread {
+
+        private final List<String> mPainted = Collections.synchronizedList(new ArrayList<String>());
+        final List<Rect> mPresented = Collections.synchronizedList(new ArrayList<Rect>());
+        final CountDownLatch mEntered = new CountDownLatch(1);
+        volatile CountDownLatch mGate = new CountDownLatch(0);
+
+        RecordingThread() {
+            super(new Callback() {
+                @Override
+                public void onRegionPresented(int left, int top, int right, int bottom) {
+                    mThread.mPresented.add(new Rect(left, top, right, bottom));
+                }
+            });
+        }
+
+        @Override
+        void paintPath(TileSurface target, Path path, Paint paint, Rect region) {
+            hold();
+            mPainted.add((target == mMask ? "erase " : "path ") + (paint.getColor() & 0xffffff) + " "
+                    + paint.getStrokeWidth());
+        }
+
+        @Override
+        void paintDab(TileSurface back, Paint paint, float hardness, float x, float y, float diameter) {
+            hold();
+            mPainted.add("dab " + (paint.getColor() & 0xffffff) + " " + diameter);
+        }
+
+        List<String> painted() {
+            synchronized (mPainted) {
+                return new ArrayList<>(mPainted);
+            }
+        }
+
+        private void hold() {
+            mEntered.countDown();
+            try {
+                mGate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
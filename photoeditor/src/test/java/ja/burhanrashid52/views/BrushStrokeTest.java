@@ -0,0 +1,93 @@
+package ja.burhanrashid52.views;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ja.burhanrashid52.scene.StrokeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Strokes handed to the vectors drawn at export resolution
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BrushStrokeTest {
+
+    @Test
+    public void stampedStrokeIsExportedAsItsDabs() {
+        final BrushStroke stroke = BrushStroke.stamped(Color.RED, 40, 0.5f);
+        stroke.addDab(10, 20, 30, 1);
+        stroke.addDab(15, 20, 1000, 0.5f);// larger than any dab stamped live
+
+        final StrokeSet.Builder builder = new StrokeSet.Builder(1);
+        assertTrue(stroke.addTo(builder));
+        final StrokeSet strokes = builder.build();
+        assertEquals(1, strokes.size());
+
+        final RecordingCanvas canvas = new RecordingCanvas();
+        strokes.draw(canvas);
+
+        assertEquals(0, canvas.mPaths);
+        assertEquals(2, canvas.mCircles.size());
+        assertCircle(canvas.mCircles.get(0), 10, 20, 15, 255);
+        assertCircle(canvas.mCircles.get(1), 15, 20, StrokeSet.MAX_DAB_DIAMETER / 2, 128);
+        assertNotNull(canvas.mShader);
+    }
+
+    @Test
+    public void curvesAndDabsAreDrawnInOrder() {
+        final BrushStroke curve = new BrushStroke(Color.BLACK, 10, false);
+        curve.add(0, 0);
+        curve.add(50, 50);
+        final BrushStroke stamped = BrushStroke.stamped(Color.BLACK, 10, 1);
+        stamped.addDab(5, 5, 10, 1);
+
+        final StrokeSet.Builder builder = new StrokeSet.Builder(2);
+        assertTrue(curve.addTo(builder));
+        assertTrue(stamped.addTo(builder));
+        final RecordingCanvas canvas = new RecordingCanvas();
+        builder.build().draw(canvas);
+
+        assertEquals(1, canvas.mPaths);
+        assertEquals(1, canvas.mCircles.size());
+    }
+
+    private static void assertCircle(float[] circle, float x, float y, float radius, int alpha) {
+        assertEquals(x, circle[0], 0);
+        assertEquals(y, circle[1], 0);
+        assertEquals(radius, circle[2], 0);
+        assertEquals(alpha, circle[3], 0);
+    }
+
+    /**
+     * Remembers the paths and the circles drawn, with the alpha of their paint
+     */
+    private static class RecordingCanvas extends Canvas {
+
+        final List<float[]> mCircles = new ArrayList<>();
+        int mPaths;
+        Object mShader;
+
+        @Override
+        public void drawCircle(float cx, float cy, float radius, Paint paint) {
+            mCircles.add(new float[]{cx, cy, radius, paint.getAlpha()});
+            mShader = paint.getShader();
+        }
+
+        @Override
+        public void drawPath(Path path, Paint paint) {
+            mPaths++;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ja.burhanrashid52.views;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointsTest {
+
+    @Test
+    public void undoingThreeHundredStrokesReplaysFewerThanTheMaximumGap() {
+        final Checkpoints<Integer> checkpoints = new Checkpoints<>();
+        final List<Integer> dropped = new ArrayList<>();
+        draw(checkpoints, 0, 300, dropped);
+
+        int maxReplayed = 0;
+        int undone = 0;
+        for (int applied = 300; applied > 0; applied--) {
+            final int replayed = replayedByUndo(checkpoints, applied);
+            maxReplayed = Math.max(maxReplayed, replayed);
+            undone++;
+        }
+
+        assertEquals(300, undone);
+        assertTrue("Undo replayed " + maxReplayed + " strokes", maxReplayed < Checkpoints.MAX_GAP);
+        // the latest strokes undo from a close checkpoint
+        for (int applied = 300; applied > 300 - 2 * Checkpoints.INTERVAL; applied--) {
+            assertTrue(replayedByUndo(checkpoints, applied) < Checkpoints.INTERVAL);
+        }
+    }
+
+    @Test
+    public void checkpointsAreThinnedOutGeometrically() {
+        final Checkpoints<Integer> checkpoints = new Checkpoints<>();
+        final List<Integer> dropped = new ArrayList<>();
+        draw(checkpoints, 0, 300, dropped);
+
+        // without thinning there would be one every INTERVAL strokes
+        assertTrue(checkpoints.size() < 300 / Checkpoints.INTERVAL);
+        assertEquals(300 / Checkpoints.INTERVAL, checkpoints.size() + dropped.size());
+        int older = 0;
+        for (int i = 0; i < checkpoints.size(); i++) {
+            final int strokes = checkpoints.getStrokes(i);
+            assertEquals(strokes, (int) checkpoints.get(i));
+            assertTrue(strokes > older);
+            assertTrue(strokes - older <= Checkpoints.MAX_GAP);
+            // gaps never grow as they get closer to the latest stroke
+            if (i + 1 < checkpoints.size()) {
+                assertTrue(checkpoints.getStrokes(i + 1) - strokes <= Math.max(strokes - older, Checkpoints.INTERVAL));
+            }
+            older = strokes;
+        }
+    }
+
+    @Test
+    public void longHistoryGrowsByOneCheckpointEveryMaximumGap() {
+        final Checkpoints<Integer> checkpoints = new Checkpoints<>();
+        final List<Integer> dropped = new ArrayList<>();
+        draw(checkpoints, 0, 5000, dropped);
+        final int size = checkpoints.size();
+        draw(checkpoints, 5000, 5000 + 10 * Checkpoints.MAX_GAP, dropped);
+
+        assertTrue(checkpoints.size() - size <= 11);
+        for (int applied = checkpoints.getStrokes(checkpoints.size() - 1); applied > 0; applied--) {
+            assertTrue(replayedByUndo(checkpoints, applied) < Checkpoints.MAX_GAP);
+        }
+    }
+
+    @Test
+    public void newStrokesAfterUndoForgetTheCheckpointsAhead() {
+        final Checkpoints<Integer> checkpoints = new Checkpoints<>();
+        final List<Integer> dropped = new ArrayList<>();
+        draw(checkpoints, 0, 100, dropped);
+        dropped.clear();
+
+        // undo down to 40 strokes, then draw again
+        checkpoints.truncate(40, dropped);
+        for (int i = 0; i < checkpoints.size(); i++) {
+            assertTrue(checkpoints.getStrokes(i) <= 40);
+        }
+        for (Integer value : dropped) {
+            assertTrue(value > 40);
+        }
+        draw(checkpoints, 40, 200, dropped);
+        for (int applied = 200; applied > 0; applied--) {
+            assertTrue(replayedByUndo(checkpoints, applied) < Checkpoints.MAX_GAP);
+        }
+    }
+
+    /**
+     * Record strokes as the journal does, a checkpoint holding its own stroke count
+     */
+    private static void draw(Checkpoints<Integer> checkpoints, int from, int to, List<Integer> dropped) {
+        for (int strokes = from + 1; strokes <= to; strokes++) {
+            if (Checkpoints.isDue(strokes)) {
+                checkpoints.add(strokes, strokes, dropped);
+            }
+        }
+    }
+
+    /**
+     * @return strokes replayed from the nearest checkpoint to undo the last of the applied ones
+     */
+    private static int replayedByUndo(Checkpoints<Integer> checkpoints, int applied) {
+        final int target = applied - 1;
+        final int position = checkpoints.find(target);
+        return target - (position >= 0 ? checkpoints.getStrokes(position) : 0);
+    }
+}
@@ -0,0 +1,133 @@
+package ja.burhanrashid52.views;
+
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Grid queries checked against a scan of every item
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HitGridTest {
+
+    private static final int CELL_SIZE = 64;
+    private static final float SIZE = 2000;
+
+    @Test
+    public void queryFindsEveryItemContainingThePoint() {
+        final Random random = new Random(16);
+        final HitGrid<Integer> grid = new HitGrid<>(CELL_SIZE);
+        final Map<Integer, RectF> bounds = new HashMap<>();
+
+        for (int round = 0; round < 20; round++) {
+            // add, move and remove items, a few of them with empty bounds
+            for (int i = 0; i < 50; i++) {
+                final int item = random.nextInt(200);
+                if (random.nextInt(5) == 0) {
+                    grid.remove(item);
+                    bounds.remove(item);
+                    continue;
+                }
+                final RectF box = randomBox(random);
+                grid.update(item, box);
+                if (box.isEmpty()) {
+                    bounds.remove(item);
+                } else {
+                    bounds.put(item, box);
+                }
+            }
+            assertEquals(bounds.size(), grid.size());
+
+            for (int i = 0; i < 200; i++) {
+                final float x = random.nextFloat() * (SIZE + 200) - 100;
+                final float y = random.nextFloat() * (SIZE + 200) - 100;
+                assertMatchesScan(grid, bounds, x, y);
+            }
+        }
+    }
+
+    @Test
+    public void pointsOnCellEdgesAndNegativeCoordinates() {
+        final HitGrid<String> grid = new HitGrid<>(CELL_SIZE);
+        final Map<String, RectF> bounds = new HashMap<>();
+        bounds.put("edge", new RectF(CELL_SIZE, CELL_SIZE, 2 * CELL_SIZE, 2 * CELL_SIZE));
+        bounds.put("negative", new RectF(-150, -20, -1, 30));
+        bounds.put("across", new RectF(-10, -10, 10, 10));
+        for (Map.Entry<String, RectF> entry : bounds.entrySet()) {
+            grid.update(entry.getKey(), entry.getValue());
+        }
+
+        final float[] coordinates = {-150, -64, -1, 0, 10, CELL_SIZE - 0.01f, CELL_SIZE, 2 * CELL_SIZE};
+        for (float x : coordinates) {
+            for (float y : coordinates) {
+                assertMatchesScan(grid, bounds, x, y);
+            }
+        }
+    }
+
+    @Test
+    public void movedItemLeavesItsOldCells() {
+        final HitGrid<String> grid = new HitGrid<>(CELL_SIZE);
+        grid.update("sticker", new RectF(0, 0, 50, 50));
+        grid.update("sticker", new RectF(500, 500, 550, 550));
+
+        assertTrue(grid.query(25, 25).isEmpty());
+        assertTrue(grid.query(520, 520).contains("sticker"));
+
+        grid.update("sticker", new RectF());
+        assertFalse(grid.contains("sticker"));
+        assertTrue(grid.query(520, 520).isEmpty());
+    }
+
+    /**
+     * Every item containing the point is returned, the others only if they share its cell
+     */
+    private static <T> void assertMatchesScan(HitGrid<T> grid, Map<T, RectF> bounds, float x, float y) {
+        final List<T> queried = grid.query(x, y);
+        final Set<T> unique = new HashSet<>(queried);
+        assertEquals("duplicates at " + x + "," + y, queried.size(), unique.size());
+
+        final List<T> scanned = new ArrayList<>();
+        for (Map.Entry<T, RectF> entry : bounds.entrySet()) {
+            final RectF box = entry.getValue();
+            if (x >= box.left && x <= box.right && y >= box.top && y <= box.bottom) {
+                scanned.add(entry.getKey());
+            }
+        }
+        assertTrue("missed " + scanned + " at " + x + "," + y, unique.containsAll(scanned));
+
+        final float cellLeft = (float) Math.floor(x / CELL_SIZE) * CELL_SIZE;
+        final float cellTop = (float) Math.floor(y / CELL_SIZE) * CELL_SIZE;
+        for (T item : queried) {
+            final RectF box = bounds.get(item);
+            assertTrue("stale " + item + " at " + x + "," + y, box != null
+                    && box.left < cellLeft + CELL_SIZE && box.right >= cellLeft
+                    && box.top < cellTop + CELL_SIZE && box.bottom >= cellTop);
+        }
+    }
+
+    private static RectF randomBox(Random random) {
+        final float left = random.nextFloat() * SIZE - 100;
+        final float top = random.nextFloat() * SIZE - 100;
+        if (random.nextInt(20) == 0) {
+            return new RectF(left, top, left, top);
+        }
+        final float width = 1 + random.nextFloat() * (random.nextBoolean() ? 40 : 400);
+        final float height = 1 + random.nextFloat() * (random.nextBoolean() ? 40 : 400);
+        return new RectF(left, top, left + width, top + height);
+    }
+}
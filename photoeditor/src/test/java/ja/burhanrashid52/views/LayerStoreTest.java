@@ -0,0 +1,231 @@
+package ja.burhanrashid52.views;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LayerStoreTest {
+
+    @Test
+    public void layersAreWalkedInTheOrderAdded() {
+        final LayerStore<String> store = new LayerStore<>(2);// grows twice
+        final int a = store.add("a");
+        store.add("b");
+        store.add("c");
+        final int d = store.add("d");
+        store.add("e");
+
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), forward(store));
+        assertEquals(Arrays.asList("e", "d", "c", "b", "a"), backward(store));
+        assertEquals(5, store.size());
+        assertEquals(a, store.first());
+        assertEquals(d, store.indexOf("d"));
+        assertEquals(LayerStore.NONE, store.indexOf("z"));
+    }
+
+    @Test
+    public void removeUnlinksBottomMiddleAndTop() {
+        final LayerStore<String> store = new LayerStore<>();
+        final int a = store.add("a");
+        final int b = store.add("b");
+        final int c = store.add("c");
+        final int d = store.add("d");
+
+        assertEquals("b", store.remove(b));
+        assertEquals(Arrays.asList("a", "c", "d"), forward(store));
+        assertEquals("a", store.remove(a));
+        assertEquals("d", store.remove(d));
+        assertEquals(Arrays.asList("c"), forward(store));
+        assertEquals(Arrays.asList("c"), backward(store));
+        assertEquals(c, store.first());
+        assertEquals(c, store.last());
+
+        assertEquals("c", store.remove(c));
+        assertTrue(store.isEmpty());
+        assertEquals(LayerStore.NONE, store.first());
+        assertEquals(LayerStore.NONE, store.last());
+        assertNull(store.remove(c));
+    }
+
+    @Test
+    public void staleIdDoesNotFindTheLayerReusingItsSlot() {
+        final LayerStore<String> store = new LayerStore<>();
+        final int old = store.add("old");
+        store.remove(old);
+        final int reused = store.add("new");
+
+        assertTrue(old != reused);
+        assertFalse(store.contains(old));
+        assertNull(store.get(old));
+        assertNull(store.remove(old));
+        assertFalse(store.bringToFront(old));
+        assertEquals("new", store.get(reused));
+        assertFalse(store.contains(LayerStore.NONE));
+    }
+
+    @Test
+    public void bringToFrontAndSendToBack() {
+        final LayerStore<String> store = new LayerStore<>();
+        final int a = store.add("a");
+        store.add("b");
+        final int c = store.add("c");
+
+        assertTrue(store.bringToFront(a));
+        assertEquals(Arrays.asList("b", "c", "a"), forward(store));
+        assertTrue(store.sendToBack(c));
+        assertEquals(Arrays.asList("c", "b", "a"), forward(store));
+        assertEquals(Arrays.asList("a", "b", "c"), backward(store));
+        assertTrue(store.bringToFront(a));// already on top
+        assertTrue(store.sendToBack(c));// already at the bottom
+        assertEquals(Arrays.asList("c", "b", "a"), forward(store));
+    }
+
+    @Test
+    public void removedLayerGoesBackBelowItsNeighbour() {
+        final LayerStore<String> store = new LayerStore<>();
+        final int a = store.add("a");
+        final int b = store.add("b");
+        store.add("c");
+
+        final int above = store.next(b);
+        store.remove(b);
+        final int restored = store.addBelow("b", above);
+        assertEquals(Arrays.asList("a", "b", "c"), forward(store));
+        assertEquals(Arrays.asList("c", "b", "a"), backward(store));
+        assertEquals("b", store.get(restored));
+
+        // the bottom one goes back at the bottom, the top one on top
+        store.remove(a);
+        store.addBelow("a", store.first());
+        assertEquals(Arrays.asList("a", "b", "c"), forward(store));
+        final int top = store.last();
+        assertEquals(LayerStore.NONE, store.next(top));
+        store.remove(top);
+        store.addBelow("c", LayerStore.NONE);
+        assertEquals(Arrays.asList("a", "b", "c"), forward(store));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    public void layerGoesOnTopWhenItsNeighbourIsGone() {
+        final LayerStore<String> store = new LayerStore<>();
+        store.add("a");
+        final int b = store.add("b");
+        store.remove(b);
+
+        store.addBelow("c", b);
+        assertEquals(Arrays.asList("a", "c"), forward(store));
+    }
+
+    @Test
+    public void clearInvalidatesEveryId() {
+        final LayerStore<String> store = new LayerStore<>();
+        final int a = store.add("a");
+        final int b = store.add("b");
+        store.clear();
+
+        assertTrue(store.isEmpty());
+        assertFalse(store.contains(a));
+        assertFalse(store.contains(b));
+        store.add("c");
+        assertEquals(Arrays.asList("c"), forward(store));
+        assertNull(store.get(a));
+        assertNull(store.get(b));
+    }
+
+    @Test
+    public void randomOperationsMatchAList() {
+        final Random random = new Random(17);
+        final LayerStore<Integer> store = new LayerStore<>();
+        final List<Integer> expected = new ArrayList<>();
+        final List<Integer> ids = new ArrayList<>();// same order as expected
+
+        for (int i = 0; i < 5000; i++) {
+            final int operation = expected.isEmpty() ? 0 : random.nextInt(4);
+            if (operation == 0) {
+                ids.add(store.add(i));
+                expected.add(i);
+                continue;
+            }
+            final int index = random.nextInt(expected.size());
+            final int id = ids.remove(index);
+            final Integer value = expected.remove(index);
+            if (operation == 1) {
+                assertEquals(value, store.remove(id));
+            } else if (operation == 2) {
+                assertTrue(store.bringToFront(id));
+                ids.add(id);
+                expected.add(value);
+            } else {
+                assertTrue(store.sendToBack(id));
+                ids.add(0, id);
+                expected.add(0, value);
+            }
+        }
+
+        assertEquals(expected.size(), store.size());
+        assertEquals(expected, forward(store));
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(expected.get(i), store.get(ids.get(i)));
+        }
+    }
+
+    /**
+     * Add, move and remove 100 000 layers and walk them, constant time operations take a few
+     * milliseconds where a list shifting its elements would take seconds
+     */
+    @Test
+    public void manyLayersStayLinked() {
+        final int count = 100000;
+        final LayerStore<Integer> store = new LayerStore<>();
+        final int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = store.add(i);
+        }
+        for (int i = 0; i < count; i += 2) {
+            store.sendToBack(ids[i]);
+        }
+        long sum = 0;
+        int previous = -1;
+        for (int id = store.first(); id != LayerStore.NONE; id = store.next(id)) {
+            sum += store.get(id);
+            // the even values sent to the back in turn, then the odd ones in adding order
+            final int value = store.get(id);
+            assertTrue(value + " after " + previous, previous < 0
+                    || (previous % 2 == 0 ? value % 2 == 1 || value < previous : value > previous));
+            previous = value;
+        }
+        for (int i = 0; i < count; i += 2) {
+            store.remove(ids[i]);
+        }
+
+        assertEquals((long) count * (count - 1) / 2, sum);
+        assertEquals(count / 2, store.size());
+        assertEquals(Integer.valueOf(1), store.get(store.first()));
+        assertEquals(Integer.valueOf(count - 1), store.get(store.last()));
+    }
+
+    private static <T> List<T> forward(LayerStore<T> store) {
+        final List<T> values = new ArrayList<>();
+        for (int id = store.first(); id != LayerStore.NONE; id = store.next(id)) {
+            values.add(store.get(id));
+        }
+        return values;
+    }
+
+    private static <T> List<T> backward(LayerStore<T> store) {
+        final List<T> values = new ArrayList<>();
+        for (int id = store.last(); id != LayerStore.NONE; id = store.previous(id)) {
+            values.add(store.get(id));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,160 @@
+package ja.burhanrashid52.views;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StampBrushTest {
+
+    private static final float WIDTH = 40;
+    private static final long SLOW = 1000;// milliseconds between samples, the speed barely thins the dabs
+
+    @Test
+    public void firstMovePlacesADabAtTheStart() {
+        final StampBrush brush = new StampBrush();
+        final CountingSink sink = new CountingSink();
+        brush.begin(WIDTH, 10, 20, 1, 0);
+        brush.moveTo(10.1f, 20, 1, SLOW, sink);
+
+        assertEquals(1, sink.count());
+        assertEquals(10, sink.mX.get(0), 0);
+        assertEquals(20, sink.mY.get(0), 0);
+        assertEquals(WIDTH, sink.mDiameters.get(0), 0);
+        assertEquals(1, sink.mAlphas.get(0), 0);
+    }
+
+    @Test
+    public void dabsAreSpacedByAFractionOfTheirDiameter() {
+        final StampBrush brush = new StampBrush();
+        final CountingSink sink = new CountingSink();
+        brush.begin(WIDTH, 0, 0, 1, 0);
+        for (int i = 1; i <= 100; i++) {
+            brush.moveTo(i * 10, 0, 1, i * SLOW, sink);
+        }
+
+        for (int i = 1; i < sink.count(); i++) {
+            final float spacing = sink.mX.get(i) - sink.mX.get(i - 1);
+            assertEquals(StampBrush.SPACING * sink.mDiameters.get(i - 1), spacing, 0.05f);
+            assertEquals(0, sink.mY.get(i), 0);
+        }
+        // 1000 pixels at about 6 pixels apart, whatever the 10 pixels between samples
+        final float expected = 1000 / (StampBrush.SPACING * WIDTH);
+        assertTrue(sink.count() + " dabs", Math.abs(sink.count() - expected) < 3);
+    }
+
+    @Test
+    public void spacingCarriesOverShortSegments() {
+        final StampBrush brush = new StampBrush();
+        final CountingSink sink = new CountingSink();
+        brush.begin(WIDTH, 0, 0, 1, 0);
+        // samples every pixel, closer than the spacing
+        for (int i = 1; i <= 600; i++) {
+            brush.moveTo(i, 0, 1, i * SLOW, sink);
+        }
+
+        final float step = StampBrush.SPACING * WIDTH;
+        assertTrue(sink.count() + " dabs", Math.abs(sink.count() - 600 / step) < 3);
+        for (int i = 1; i < sink.count(); i++) {
+            assertEquals(step, sink.mX.get(i) - sink.mX.get(i - 1), 0.05f);
+        }
+    }
+
+    @Test
+    public void sizeAndOpacityAreInterpolatedBetweenSamples() {
+        final StampBrush brush = new StampBrush();
+        final CountingSink sink = new CountingSink();
+        brush.begin(WIDTH, 0, 0, 0, 0);
+        brush.moveTo(500, 0, 1, SLOW * 500, sink);// one long segment from no pressure to full
+
+        assertTrue(sink.count() > 10);
+        final float first = sink.mDiameters.get(0);
+        final float last = sink.mDiameters.get(sink.count() - 1);
+        assertTrue(first < WIDTH / 2);
+        assertTrue(last > WIDTH * 0.9f);
+        for (int i = 1; i < sink.count(); i++) {
+            assertTrue("diameter " + i, sink.mDiameters.get(i) >= sink.mDiameters.get(i - 1));
+            assertTrue("alpha " + i, sink.mAlphas.get(i) >= sink.mAlphas.get(i - 1));
+            // linear in the distance travelled along the segment
+            final float at = sink.mX.get(i) / 500;
+            assertEquals(first + (WIDTH - first) * at, sink.mDiameters.get(i), 0.5f);
+        }
+        assertTrue(sink.mAlphas.get(0) > 0 && sink.mAlphas.get(0) < 0.5f);
+        assertTrue(sink.mAlphas.get(sink.count() - 1) <= 1);
+    }
+
+    @Test
+    public void fastStrokesAreThinner() {
+        final CountingSink slow = stroke(SLOW);
+        final CountingSink fast = stroke(1);// 10 pixels per millisecond
+
+        final float slowDiameter = slow.mDiameters.get(slow.count() - 1);
+        final float fastDiameter = fast.mDiameters.get(fast.count() - 1);
+        assertTrue(fastDiameter + " vs " + slowDiameter, fastDiameter < slowDiameter * 0.6f);
+        // thinner dabs are spaced closer, more of them for the same length
+        assertTrue(fast.count() > slow.count());
+    }
+
+    @Test
+    public void dabsStayOnTheirSegmentWhenTheDiameterShrinks() {
+        for (float length = 20; length <= 200; length += 3.3f) {
+            final StampBrush brush = new StampBrush();
+            final CountingSink sink = new CountingSink();
+            brush.begin(WIDTH, 0, 0, 1, 0);
+            // released over one segment, the distance left since the last dab can be more than
+            // the spacing of the small dabs at its end
+            brush.moveTo(length, 0, 0, SLOW, sink);
+            final int before = sink.count();
+            final float minDiameter = sink.mDiameters.get(before - 1);
+            // then a tiny segment pressed again
+            brush.moveTo(length + 0.2f, 0, 1, 2 * SLOW, sink);
+
+            for (int i = 1; i < sink.count(); i++) {
+                assertTrue(length + ": dab " + i + " at " + sink.mX.get(i) + " after " + sink.mX.get(i - 1),
+                        sink.mX.get(i) >= sink.mX.get(i - 1));
+            }
+            for (int i = before; i < sink.count(); i++) {
+                assertTrue(length + ": dab " + i + " at " + sink.mX.get(i), sink.mX.get(i) >= length);
+                assertTrue(length + ": diameter " + sink.mDiameters.get(i), sink.mDiameters.get(i) >= minDiameter * 0.9f
+                        && sink.mDiameters.get(i) <= WIDTH);
+                assertTrue(length + ": alpha " + sink.mAlphas.get(i), sink.mAlphas.get(i) > 0 && sink.mAlphas.get(i) <= 1);
+            }
+        }
+    }
+
+    private static CountingSink stroke(long millisPerSample) {
+        final StampBrush brush = new StampBrush();
+        final CountingSink sink = new CountingSink();
+        brush.begin(WIDTH, 0, 0, 1, 0);
+        for (int i = 1; i <= 50; i++) {
+            brush.moveTo(i * 10, 0, 1, i * millisPerSample, sink);
+        }
+        return sink;
+    }
+
+    /**
+     * Keeps every dab placed
+     */
+    private static class CountingSink implements StampBrush.Sink {
+
+        final List<Float> mX = new ArrayList<>();
+        final List<Float> mY = new ArrayList<>();
+        final List<Float> mDiameters = new ArrayList<>();
+        final List<Float> mAlphas = new ArrayList<>();
+
+        @Override
+        public void onDab(float x, float y, float diameter, float alpha) {
+            mX.add(x);
+            mY.add(y);
+            mDiameters.add(diameter);
+            mAlphas.add(alpha);
+        }
+
+        int count() {
+            return mX.size();
+        }
+    }
+}
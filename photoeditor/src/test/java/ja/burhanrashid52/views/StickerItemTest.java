@@ -0,0 +1,159 @@
+package ja.burhanrashid52.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The draw bounds a sticker invalidates must hold everything it draws, or moving it leaves trails
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StickerItemTest {
+
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+
+    private StickerItem mItem;
+
+    @Before
+    public void setUp() {
+        final View parent = new View(RuntimeEnvironment.application);
+        parent.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+        mItem = new StickerItem(RuntimeEnvironment.application);
+        mItem.init(Bitmap.createBitmap(300, 200, Bitmap.Config.ARGB_8888), parent);
+    }
+
+    @Test
+    public void boundsHoldTheStickerAndItsHelpBox() {
+        assertDrawnInsideBounds(mItem);
+    }
+
+    @Test
+    public void boundsFollowAMove() {
+        final RectF before = new RectF();
+        mItem.getDrawBounds(before);
+        mItem.updatePos(250, -120);
+
+        final RectF after = new RectF();
+        mItem.getDrawBounds(after);
+        assertEquals(before.left + 250, after.left, 1e-3f);
+        assertEquals(before.top - 120, after.top, 1e-3f);
+        assertDrawnInsideBounds(mItem);
+    }
+
+    @Test
+    public void boundsFollowRotationAndScale() {
+        // drag the rotate button around the center, growing the sticker on the way
+        final float x = mItem.detectRotateRect.centerX();
+        final float y = mItem.detectRotateRect.centerY();
+        mItem.updateRotateAndScale(x, y, -200, 150);
+        assertDrawnInsideBounds(mItem);
+
+        mItem.updateRotateAndScale(x - 200, y + 150, -300, -100);
+        assertDrawnInsideBounds(mItem);
+    }
+
+    @Test
+    public void boundsWithoutHelpBoxStillHoldTheSticker() {
+        mItem.hideHelpBox();
+        mItem.updatePos(-40, 60);
+        assertDrawnInsideBounds(mItem);
+    }
+
+    @Test
+    public void boundsStayLocalToTheSticker() {
+        final RectF bounds = new RectF();
+        mItem.getDrawBounds(bounds);
+        // a move invalidates about the sticker, not the whole view
+        assertTrue(bounds.width() * bounds.height() < VIEW_WIDTH * VIEW_HEIGHT / 4f);
+    }
+
+    private static void assertDrawnInsideBounds(StickerItem item) {
+        final BoundsCanvas canvas = new BoundsCanvas();
+        item.draw(canvas);
+        final RectF bounds = new RectF();
+        item.getDrawBounds(bounds);
+
+        assertTrue("nothing drawn", !canvas.mDrawn.isEmpty());
+        assertTrue(canvas.mDrawn + " outside " + bounds, bounds.left <= canvas.mDrawn.left
+                && bounds.top <= canvas.mDrawn.top && bounds.right >= canvas.mDrawn.right
+                && bounds.bottom >= canvas.mDrawn.bottom);
+    }
+
+    /**
+     * Keeps the transform stack itself and the box around everything drawn, in view coordinates
+     */
+    private static class BoundsCanvas extends Canvas {
+
+        final RectF mDrawn = new RectF();
+        private final Deque<Matrix> mStack = new ArrayDeque<>();
+        private Matrix mCurrent = new Matrix();
+        private final RectF mMapped = new RectF();
+
+        @Override
+        public int save() {
+            mStack.push(new Matrix(mCurrent));
+            return mStack.size();
+        }
+
+        @Override
+        public void restore() {
+            mCurrent = mStack.pop();
+        }
+
+        @Override
+        public int getSaveCount() {
+            return mStack.size();
+        }
+
+        @Override
+        public void translate(float dx, float dy) {
+            mCurrent.preTranslate(dx, dy);
+        }
+
+        @Override
+        public void rotate(float degrees) {
+            mCurrent.preRotate(degrees);
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, Matrix matrix, Paint paint) {
+            final Matrix total = new Matrix(mCurrent);
+            total.preConcat(matrix);
+            add(total, new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight()), 0);
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, Rect src, RectF dst, Paint paint) {
+            add(mCurrent, dst, 0);
+        }
+
+        @Override
+        public void drawRoundRect(RectF rect, float rx, float ry, Paint paint) {
+            add(mCurrent, rect, paint.getStrokeWidth() / 2);
+        }
+
+        private void add(Matrix matrix, RectF rect, float stroke) {
+            mMapped.set(rect);
+            mMapped.inset(-stroke, -stroke);
+            matrix.mapRect(mMapped);
+            mDrawn.union(mMapped);
+        }
+    }
+}